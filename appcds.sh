@@ -0,0 +1,25 @@
+#!/bin/sh
+# Creates an AppCDS archive for the JAR from a training run of res/script.txt. Command-line runs
+# started with the archive map the classes they need, already parsed and verified, instead of
+# loading them one by one from the JAR and the JDK.
+#
+#   ./appcds.sh [jar] [archive]
+#   java -XX:SharedArchiveFile=4N5.jsa -jar 4N5.jar -file script.txt
+#
+# The archive only fits the JDK that created it and the JAR at the same path, so run this again
+# after rebuilding either. A JVM that cannot use the archive ignores it and starts as usual.
+set -e
+
+jar=${1:-out/artifacts/4N5_jar/4N5.jar}
+archive=${2:-${jar%.jar}.jsa}
+jar=$(cd "$(dirname "$jar")" && pwd)/$(basename "$jar")
+archive=$(cd "$(dirname "$archive")" && pwd)/$(basename "$archive")
+
+# the script saves its images next to the ones it loads, so train on a copy of res
+training=$(mktemp -d)
+trap 'rm -rf "$training"' EXIT
+cp -r "$(dirname "$0")"/res/. "$training"
+
+cd "$training"
+java -XX:ArchiveClassesAtExit="$archive" -jar "$jar" -file script.txt > /dev/null
+echo "Created $archive, use it with: java -XX:SharedArchiveFile=$archive -jar $jar -file ..."
@@ -0,0 +1,72 @@
+#!/bin/sh
+# Builds the program as three modules and links a runtime image for command-line runs.
+#
+#   ./jlink.sh [--imageio] [--gui]
+#   build/image/bin/imageprocessor -file script.txt
+#
+# imageprocessor.core holds the model and the commands, imageprocessor.cli the text controllers
+# and imageprocessor.gui the Swing GUI; their jars end up in build/mods. By default the image
+# only holds java.base, java.management and the core and command-line modules, and handles PPM,
+# raw, QOI and BMP files and saves PNG files. --imageio adds java.desktop for the ImageIO formats
+# (PNG input, JPEG, GIF...), --gui adds the GUI as well. ImageUtil is in the unnamed package and
+# is left out of the modules.
+set -e
+cd "$(dirname "$0")"
+
+modules=imageprocessor.cli
+imageio= gui=
+for arg in "$@"; do
+  case $arg in
+    --imageio) imageio=1 modules=$modules,java.desktop ;;
+    --gui) gui=1 modules=$modules,imageprocessor.gui ;;
+    *) echo "usage: $0 [--imageio] [--gui]" >&2; exit 2 ;;
+  esac
+done
+
+rm -rf build/classes build/mods build/image
+mkdir -p build/mods
+
+# compiles one module from its packages in src and packs it into build/mods
+module() {
+  name=$1 main=$2
+  shift 2
+  javac -encoding UTF-8 -p build/mods -d "build/classes/$name" "modules/$name/module-info.java" "$@"
+  jar --create --file "build/mods/$name.jar" ${main:+--main-class "$main"} -C "build/classes/$name" .
+}
+
+module imageprocessor.core "" src/model/*.java src/controller/commands/*.java
+module imageprocessor.cli controller.ImageProgram src/controller/*.java src/view/*.java
+module imageprocessor.gui "" src/controller/gui/*.java src/view/gui/*.java
+
+# java.desktop is an optional dependency of the core, so without the GUI (which requires it) the
+# launcher has to add it; jlink only takes options that start with a single dash first
+set -- --module-path build/mods --add-modules "$modules" --output build/image \
+    --launcher imageprocessor=imageprocessor.cli/controller.ImageProgram \
+    --strip-debug --no-header-files --no-man-pages --compress=2
+if [ -n "$imageio" ] && [ -z "$gui" ]; then
+  set -- "$@" --add-options="-Djava.awt.headless=true --add-modules=java.desktop"
+fi
+jlink "$@"
+
+# checks that the image loads PPM files on every path (whole, parallel, by region and by size)
+# without the modules it leaves out
+check=$(mktemp -d)
+trap 'rm -rf "$check"' EXIT
+awk 'BEGIN { print "P3\n1024 1024\n255"; for (i = 0; i < 1048576; i++) print i % 256, 7, 200 }' \
+    > "$check/large.ppm"
+printf 'P3\n3 2\n255\n1 2 3 4 5 6 7 8 9\n10 11 12 13 14 15 16 17 18\n' > "$check/small.ppm"
+cat > "$check/check.txt" <<SCRIPT
+load $check/large.ppm large
+load -size 2 2 $check/small.ppm sized
+load -region 1 0 2 2 $check/small.ppm part
+load -region 8 8 16 16 -size 4 4 $check/large.ppm both
+save $check/part.ppm part
+q
+SCRIPT
+build/image/bin/imageprocessor -file "$check/check.txt" > "$check/out.txt" 2>&1 || true
+if grep -q "Exception\|Error" "$check/out.txt" || [ ! -s "$check/part.ppm" ]; then
+  cat "$check/out.txt" >&2
+  echo "The linked image fails to load PPM files" >&2
+  exit 1
+fi
+echo "Linked $(du -sh build/image | cut -f1) image with $modules in build/image"
@@ -0,0 +1,14 @@
+/**
+ * The command-line program: script, server, watch and batch controllers and the text view.
+ * Opens the GUI when it is started without arguments and the GUI module is installed.
+ */
+module imageprocessor.cli {
+  requires transitive imageprocessor.core;
+  requires java.management;
+  requires static java.desktop;
+
+  exports controller;
+  exports view;
+
+  uses controller.ImageProcessorController;
+}
@@ -0,0 +1,12 @@
+/**
+ * The headless core of the image processor: the model with its codecs, and the commands that
+ * scripts and the GUI run on it. Only the ImageIO formats (PNG input, JPEG, GIF...) and the
+ * BufferedImage methods of the model need java.desktop, so a runtime image can leave it out.
+ */
+module imageprocessor.core {
+  requires static java.desktop;
+  requires java.management;
+
+  exports model;
+  exports controller.commands;
+}
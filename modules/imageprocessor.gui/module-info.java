@@ -0,0 +1,13 @@
+/**
+ * The Swing GUI of the image processor.
+ */
+module imageprocessor.gui {
+  requires imageprocessor.cli;
+  requires imageprocessor.core;
+  requires java.desktop;
+
+  exports controller.gui;
+  exports view.gui;
+
+  provides controller.ImageProcessorController with controller.gui.GUIProgram;
+}
@@ -0,0 +1,22 @@
+#!/bin/sh
+# Runs the opt-in performance tests on their own. Compiles the sources and the tests into
+# build/perf, then runs PerformanceTest with -Dperf=true, which prints the speed and the
+# allocation of every model operation and fails on any that falls outside its bounds.
+#
+#   ./perftest.sh [junit-jar] [hamcrest-jar]
+#
+# The jars default to the JUnit 4.13.2 and Hamcrest 1.3 that Maven keeps in ~/.m2. Run it on an
+# otherwise idle machine, the throughput bounds are relative to a loop timed in the same run.
+set -e
+cd "$(dirname "$0")"
+
+m2=$HOME/.m2/repository
+junit=${1:-$m2/junit/junit/4.13.2/junit-4.13.2.jar}
+hamcrest=${2:-$m2/org/hamcrest/hamcrest-core/1.3/hamcrest-core-1.3.jar}
+cp=$junit:$hamcrest
+
+rm -rf build/perf
+mkdir -p build/perf imagesTest
+javac -encoding UTF-8 -cp "$cp" -d build/perf $(find src test -name '*.java')
+java -Dperf=true -Djava.awt.headless=true -cp "build/perf:$cp" org.junit.runner.JUnitCore \
+    PerformanceTest
@@ -0,0 +1,115 @@
+package controller;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import controller.commands.ImageProcessingCommand;
+import model.OperationStats;
+import model.OperationTimings;
+
+/**
+ * Counts the commands the text-based controllers run and how long they take, and shows it through
+ * JMX. A save written in the background counts the time it took to hand the image over.
+ */
+public final class CommandMetrics implements CommandMetricsMXBean {
+
+  /**
+   * The name the bean is registered under.
+   */
+  public static final String NAME = "imageprocessor:type=Commands";
+
+  private static final CommandMetrics INSTANCE = new CommandMetrics();
+  private static boolean registered;
+
+  private final OperationTimings timings;
+  private final LongAdder commands;
+  private final LongAdder failed;
+
+  private CommandMetrics() {
+    this.timings = new OperationTimings();
+    this.commands = new LongAdder();
+    this.failed = new LongAdder();
+  }
+
+  /**
+   * Retrieves the metrics of the program.
+   *
+   * @return the metrics.
+   */
+  public static CommandMetrics get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Retrieves the latencies of every kind of command.
+   *
+   * @return the timings.
+   */
+  public OperationTimings getTimings() {
+    return timings;
+  }
+
+  @Override
+  public long getCommands() {
+    return commands.sum();
+  }
+
+  @Override
+  public long getFailedCommands() {
+    return failed.sum();
+  }
+
+  @Override
+  public Map<String, OperationStats> getCommandLatencies() {
+    return timings.snapshot();
+  }
+
+  @Override
+  public void reset() {
+    timings.reset();
+    commands.reset();
+    failed.reset();
+  }
+
+  /**
+   * Runs a command and records how long it took, and if it failed.
+   *
+   * @param command the command.
+   * @param run     runs the command.
+   * @throws IllegalArgumentException if the command fails.
+   */
+  void time(ImageProcessingCommand command, Runnable run) throws IllegalArgumentException {
+    long start = System.nanoTime();
+    boolean done = false;
+    try {
+      run.run();
+      done = true;
+    } finally {
+      commands.increment();
+      if (!done) {
+        failed.increment();
+      }
+      timings.record(command.getClass().getSimpleName(), System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Shows the metrics through JMX under {@link #NAME}, unless they already are, the way
+   * {@link model.ModelMetrics#register()} does.
+   */
+  public static synchronized void register() {
+    if (registered) {
+      return;
+    }
+    registered = true;
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(NAME));
+    } catch (JMException | SecurityException e) {
+      // the metrics are still collected, only not shown through JMX
+    }
+  }
+}
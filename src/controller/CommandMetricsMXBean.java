@@ -0,0 +1,39 @@
+package controller;
+
+import java.util.Map;
+
+import model.OperationStats;
+
+/**
+ * The JMX view of the commands run by the text-based controllers, registered as
+ * "imageprocessor:type=Commands" and readable from JConsole or jcmd.
+ */
+public interface CommandMetricsMXBean {
+
+  /**
+   * Retrieves the number of commands run.
+   *
+   * @return the number of commands, including failed ones.
+   */
+  long getCommands();
+
+  /**
+   * Retrieves the number of commands that failed.
+   *
+   * @return the number of failed commands.
+   */
+  long getFailedCommands();
+
+  /**
+   * Retrieves the count, throughput and latency percentiles of every kind of command, named after
+   * its class.
+   *
+   * @return the statistics by command.
+   */
+  Map<String, OperationStats> getCommandLatencies();
+
+  /**
+   * Forgets the counts and latencies recorded so far, to measure from now on.
+   */
+  void reset();
+}
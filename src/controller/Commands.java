@@ -0,0 +1,173 @@
+package controller;
+
+import java.util.Scanner;
+import java.util.function.Function;
+
+import controller.commands.BrightenDarken;
+import controller.commands.ColorTransformation;
+import controller.commands.Downscale;
+import controller.commands.Drop;
+import controller.commands.Filter;
+import controller.commands.Flip;
+import controller.commands.Grayscale;
+import controller.commands.ImageProcessingCommand;
+import controller.commands.Load;
+import controller.commands.Pyramid;
+import controller.commands.Rotate;
+import controller.commands.Save;
+import model.ImageProcessorModel;
+import model.ImageProcessorModel.FlipMode;
+import model.ImageProcessorModel.GrayscaleMode;
+import model.ImageProcessorModel.ResampleMode;
+import model.ImageProcessorModel.RotateMode;
+import model.Region;
+
+/**
+ * The script commands understood by the text-based controllers. Finds, by the name of a command,
+ * a function that reads its arguments from a scanner and builds the command.
+ */
+final class Commands {
+
+  private Commands() {
+  }
+
+  /**
+   * Finds the builder of a script command. The builders are only created when a command is first
+   * used, so a short script does not pay for linking the ones it never runs.
+   *
+   * @param command the name of the command.
+   * @return a function that reads the arguments of the command from a scanner and builds the
+   *         command, or null if there is no command of that name.
+   */
+  static Function<Scanner, ImageProcessingCommand> find(String command) {
+    if (command == null) {
+      return null;
+    }
+    switch (command) {
+      case "brighten":
+        return s -> new BrightenDarken(s.nextInt(), s.next(), s.next());
+      case "darken":
+        return s -> new BrightenDarken(s.nextInt() * -1,
+                s.next(), s.next());
+      case "flip-horizontal":
+        return s -> new Flip(FlipMode.Horizontal, s.next(), s.next());
+      case "flip-vertical":
+        return s -> new Flip(FlipMode.Vertical, s.next(), s.next());
+      case "rotate-90":
+        return s -> new Rotate(RotateMode.Rotate90, s.next(), s.next());
+      case "rotate-180":
+        return s -> new Rotate(RotateMode.Rotate180, s.next(), s.next());
+      case "rotate-270":
+        return s -> new Rotate(RotateMode.Rotate270, s.next(), s.next());
+      case "transpose":
+        return s -> new Rotate(RotateMode.Transpose, s.next(), s.next());
+      case "greyscale-red":
+        return s -> new Grayscale(GrayscaleMode.Red,
+                s.next(), s.next());
+      case "greyscale-green":
+        return s -> new Grayscale(GrayscaleMode.Green,
+                s.next(), s.next());
+      case "greyscale-blue":
+        return s -> new Grayscale(GrayscaleMode.Blue,
+                s.next(), s.next());
+      case "save":
+        return s -> {
+          if (s.hasNext("-level")) {
+            s.next();
+            int level = s.nextInt();
+            return new Save(s.next(), s.next(), level);
+          }
+          return new Save(s.next(), s.next());
+        };
+      case "load":
+        return s -> {
+          Region region = null;
+          int height = 0;
+          int width = 0;
+          while (s.hasNext("-region") || s.hasNext("-size")) {
+            if (s.next().equals("-region")) {
+              region = new Region(s.nextInt(), s.nextInt(), s.nextInt(), s.nextInt());
+            } else {
+              height = s.nextInt();
+              width = s.nextInt();
+            }
+          }
+          return new Load(s.next(), s.next(), region, height, width);
+        };
+      case "luma":
+        return s -> new Grayscale(GrayscaleMode.Luma, s.next(), s.next());
+      case "value":
+        return s -> new Grayscale(GrayscaleMode.Value, s.next(), s.next());
+      case "intensity":
+        return s -> new Grayscale(GrayscaleMode.Intensity, s.next(), s.next());
+      case "blur":
+        return s -> new Filter(ImageProcessorModel.FilterMode.Blur,
+                s.next(), s.next());
+      case "sharpen":
+        return s -> new Filter(ImageProcessorModel.FilterMode.Sharpen,
+                s.next(), s.next());
+      case "grayscale-transformation":
+        return s ->
+                new ColorTransformation(ImageProcessorModel.ColorTransformationsMode.Grayscale,
+                s.next(), s.next());
+      case "sepia":
+        return s ->
+                new ColorTransformation(ImageProcessorModel.ColorTransformationsMode.Sepia,
+                s.next(), s.next());
+      case "downscale":
+        return s -> {
+          int heightNew = s.nextInt();
+          int widthNew = s.nextInt();
+          ResampleMode mode = nextResampleMode(s);
+          return mode == null ? new Downscale(heightNew, widthNew, s.next(), s.next())
+                  : new Downscale(heightNew, widthNew, mode, s.next(), s.next());
+        };
+      case "resize":
+        return s -> {
+          int heightNew = s.nextInt();
+          int widthNew = s.nextInt();
+          ResampleMode mode = nextResampleMode(s);
+          return new Downscale(heightNew, widthNew, mode == null ? ResampleMode.Bicubic : mode,
+                  s.next(), s.next());
+        };
+      case "drop":
+        return s -> new Drop(s.next());
+      case "pyramid":
+        return s -> {
+          String[] sizeTokens = s.next().split(",");
+          int[] sizes = new int[sizeTokens.length];
+          for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = Integer.parseInt(sizeTokens[i]);
+          }
+          ResampleMode mode = nextResampleMode(s);
+          String name = s.next();
+          String baseName = s.next();
+          String path = null;
+          if (s.hasNext("-save")) {
+            s.next();
+            path = s.next();
+          }
+          return new Pyramid(sizes, mode == null ? ResampleMode.Box : mode, name, baseName, path);
+        };
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Reads the optional resample mode of a downscale or resize command (nearest, bilinear, box,
+   * bicubic or lanczos3), if it is the next token.
+   *
+   * @param s the scanner reading the command.
+   * @return the resample mode, or null if the next token is not one.
+   */
+  private static ResampleMode nextResampleMode(Scanner s) {
+    for (ResampleMode mode : ResampleMode.values()) {
+      if (s.hasNext("(?i)" + mode.name())) {
+        s.next();
+        return mode;
+      }
+    }
+    return null;
+  }
+}
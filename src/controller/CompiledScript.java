@@ -0,0 +1,590 @@
+package controller;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.function.Function;
+
+import controller.commands.ImageProcessingCommand;
+import model.ImageProcessorModel;
+
+/**
+ * A script parsed once into a plan that can be run any number of times with different arguments.
+ * Besides the usual commands, a compiled script may use:
+ *
+ * <ul>
+ *   <li>{@code param name} or {@code param name=default} to declare a parameter, given a value
+ *   every time the script runs;</li>
+ *   <li>{@code set name value} to give a variable a value;</li>
+ *   <li>{@code for name in a b c do ... end} to repeat commands for every item of a list, where
+ *   an item with a * or ? is replaced by the files it matches, in order;</li>
+ *   <li>{@code for name from 1 to 10 step 2 do ... end} to repeat commands for every number of a
+ *   range, both ends included;</li>
+ *   <li>{@code macro name a b do ... end} to define a macro, run with {@code name x y};</li>
+ * </ul>
+ *
+ * <p>and ${name} anywhere in a word is replaced by the value of a parameter, variable, loop
+ * variable or macro argument. Commands without placeholders are checked and built when the
+ * script is compiled. The others take the words up to the next statement, and are checked and
+ * built from those words once their placeholders are filled in, every time the script expands.
+ */
+public final class CompiledScript {
+
+  // no command takes more words than this
+  private static final int MAX_COMMAND_WORDS = 32;
+
+  private final List<Statement> statements;
+  private final Map<String, String> parameters;
+
+  private CompiledScript(List<Statement> statements, Map<String, String> parameters) {
+    this.statements = statements;
+    this.parameters = parameters;
+  }
+
+  /**
+   * Compiles a script, up to its end or the first "q".
+   *
+   * @param text       the script.
+   * @param parameters parameters the script may use without declaring them.
+   * @return the compiled script.
+   * @throws IllegalArgumentException if the script is null or invalid.
+   */
+  public static CompiledScript compile(String text, String... parameters)
+          throws IllegalArgumentException {
+    if (text == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    Map<String, String> declared = new LinkedHashMap<>();
+    for (String parameter : parameters) {
+      declared.put(parameter, null);
+    }
+    Compiler compiler = new Compiler(text.trim().isEmpty() ? new String[0]
+            : text.trim().split("\\s+"), declared);
+    return new CompiledScript(compiler.block(false, new HashSet<>(declared.keySet())),
+            declared);
+  }
+
+  /**
+   * Retrieves the parameters of the script.
+   *
+   * @return the names of the parameters, mapped to their defaults or to null if they have none.
+   */
+  public Map<String, String> getParameters() {
+    return Collections.unmodifiableMap(parameters);
+  }
+
+  /**
+   * Runs the loops and macros of the script and fills in its placeholders.
+   *
+   * @param arguments the values of the parameters.
+   * @return the commands of the script, in order.
+   * @throws IllegalArgumentException if an argument is missing or unknown, or a command is
+   *                                  invalid once its placeholders are filled in.
+   */
+  public List<ImageProcessingCommand> expand(Map<String, String> arguments)
+          throws IllegalArgumentException {
+    if (arguments == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    Frame globals = new Frame(null);
+    for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+      String value = arguments.getOrDefault(parameter.getKey(), parameter.getValue());
+      if (value == null) {
+        throw new IllegalArgumentException("Missing argument " + parameter.getKey());
+      }
+      globals.values.put(parameter.getKey(), value);
+    }
+    for (String name : arguments.keySet()) {
+      if (!parameters.containsKey(name)) {
+        throw new IllegalArgumentException("Unknown parameter " + name);
+      }
+    }
+    List<ImageProcessingCommand> commands = new ArrayList<>();
+    for (Statement statement : statements) {
+      statement.expand(globals, commands);
+    }
+    return commands;
+  }
+
+  /**
+   * Runs the script on a model, streamed or with loads and saves in the background the same way
+   * the script controller runs a script.
+   *
+   * @param model     the model.
+   * @param arguments the values of the parameters.
+   * @throws IllegalArgumentException if the model is null, an argument is missing or unknown, a
+   *                                  command is invalid or a file cannot be read or written.
+   */
+  public void run(ImageProcessorModel model, Map<String, String> arguments)
+          throws IllegalArgumentException {
+    if (model == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    ScriptController.run(model, expand(arguments));
+  }
+
+  /**
+   * Parses the words of a script into statements.
+   */
+  private static final class Compiler {
+    private final String[] words;
+    private final Map<String, String> parameters;
+    private final Map<String, Macro> macros;
+    private int next;
+
+    private Compiler(String[] words, Map<String, String> parameters) {
+      this.words = words;
+      this.parameters = parameters;
+      this.macros = new HashMap<>();
+    }
+
+    /**
+     * Parses statements up to the end of the block or of the script.
+     *
+     * @param nested true inside a loop or macro, which must end with "end".
+     * @param scope  the names of the variables the statements may use, added to by "set".
+     * @return the statements.
+     */
+    private List<Statement> block(boolean nested, Set<String> scope) {
+      List<Statement> statements = new ArrayList<>();
+      while (next < words.length) {
+        String word = words[next++];
+        if (word.equals("end") && nested) {
+          return statements;
+        } else if (word.equalsIgnoreCase("q") && !nested) {
+          return statements;
+        } else if (word.equals("param") && !nested) {
+          String[] parameter = word().split("=", 2);
+          parameters.put(parameter[0], parameter.length > 1 ? parameter[1] : null);
+          scope.add(parameter[0]);
+        } else if (word.equals("set")) {
+          String name = word();
+          statements.add(new Assignment(name, template(scope)));
+          scope.add(name);
+        } else if (word.equals("for")) {
+          statements.add(loop(scope));
+        } else if (word.equals("macro") && !nested) {
+          macro(scope);
+        } else if (macros.containsKey(word)) {
+          Macro macro = macros.get(word);
+          List<Template> arguments = new ArrayList<>();
+          for (int i = 0; i < macro.parameters.size(); i++) {
+            arguments.add(template(scope));
+          }
+          statements.add(new Call(macro, arguments));
+        } else if (Commands.find(word) != null) {
+          statements.add(command(word, scope));
+        } else {
+          throw new IllegalArgumentException("Unknown command " + word + " at word " + next);
+        }
+      }
+      if (nested) {
+        throw new IllegalArgumentException("Missing end of a loop or macro");
+      }
+      return statements;
+    }
+
+    private Statement loop(Set<String> scope) {
+      String name = word();
+      String kind = word();
+      Set<String> inner = new HashSet<>(scope);
+      inner.add(name);
+      if (kind.equals("in")) {
+        List<Template> items = new ArrayList<>();
+        while (!peek().equals("do")) {
+          items.add(template(scope));
+        }
+        next++;
+        return new ForEach(name, items, block(true, inner));
+      }
+      if (!kind.equals("from")) {
+        throw new IllegalArgumentException("Expected in or from after for " + name);
+      }
+      Template from = template(scope);
+      expect("to");
+      Template to = template(scope);
+      Template step = null;
+      if (peek().equals("step")) {
+        next++;
+        step = template(scope);
+      }
+      expect("do");
+      return new ForRange(name, from, to, step, block(true, inner));
+    }
+
+    private void macro(Set<String> scope) {
+      String name = word();
+      if (Commands.find(name) != null || macros.containsKey(name)) {
+        throw new IllegalArgumentException("Macro " + name + " is already defined");
+      }
+      List<String> names = new ArrayList<>();
+      while (!peek().equals("do")) {
+        names.add(word());
+      }
+      next++;
+      Set<String> inner = new HashSet<>(scope);
+      inner.addAll(names);
+      macros.put(name, new Macro(names, block(true, inner)));
+    }
+
+    /**
+     * Parses the arguments of a command. A command without placeholders is built right away. One
+     * with placeholders cannot be checked until its words are known, so it keeps its words up to
+     * the next statement and is built from them, filled in, every time the script expands.
+     */
+    private Statement command(String word, Set<String> scope) {
+      Function<Scanner, ImageProcessingCommand> factory = Commands.find(word);
+      int window = Math.min(MAX_COMMAND_WORDS, words.length - next);
+      int end = next;
+      boolean literal = true;
+      while (end < next + window && (end == next || !startsStatement(words[end]))) {
+        literal &= !words[end].contains("${");
+        end++;
+      }
+      if (literal) {
+        Scanner scanner = new Scanner(String.join(" ",
+                Arrays.asList(words).subList(next, next + window)));
+        ImageProcessingCommand command;
+        try {
+          command = factory.apply(scanner);
+        } catch (NoSuchElementException e) {
+          throw new IllegalArgumentException("Invalid arguments for " + word + " at word " + next);
+        }
+        end = next + window;
+        while (scanner.hasNext()) {
+          scanner.next();
+          end--;
+        }
+        for (int i = next; i < end; i++) {
+          literal &= !words[i].contains("${");
+        }
+        if (literal) {
+          next = end;
+          return new Fixed(command);
+        }
+      }
+      List<Template> arguments = new ArrayList<>();
+      while (next < end) {
+        arguments.add(template(scope));
+      }
+      return new Built(word, factory, arguments);
+    }
+
+    /**
+     * Tells whether a word begins a statement, which ends the words of a command before it.
+     */
+    private boolean startsStatement(String word) {
+      return word.equals("end") || word.equalsIgnoreCase("q") || word.equals("param")
+              || word.equals("set") || word.equals("for") || word.equals("macro")
+              || macros.containsKey(word) || Commands.find(word) != null;
+    }
+
+    private Template template(Set<String> scope) {
+      Template template = Template.of(word());
+      for (String name : template.names()) {
+        if (!scope.contains(name)) {
+          throw new IllegalArgumentException("Unknown variable " + name + " at word " + next);
+        }
+      }
+      return template;
+    }
+
+    private String word() {
+      if (next == words.length) {
+        throw new IllegalArgumentException("Script ends in the middle of a statement");
+      }
+      return words[next++];
+    }
+
+    private String peek() {
+      if (next == words.length) {
+        throw new IllegalArgumentException("Script ends in the middle of a statement");
+      }
+      return words[next];
+    }
+
+    private void expect(String word) {
+      if (!word().equals(word)) {
+        throw new IllegalArgumentException("Expected " + word + " at word " + next);
+      }
+    }
+  }
+
+  /**
+   * A word of a script, split at compile time into text and the names of placeholders.
+   */
+  private static final class Template {
+    // text and names alternate, starting with text
+    private final String[] parts;
+
+    private Template(String[] parts) {
+      this.parts = parts;
+    }
+
+    private static Template of(String word) {
+      List<String> parts = new ArrayList<>();
+      int from = 0;
+      int start = word.indexOf("${");
+      while (start >= 0) {
+        int end = word.indexOf('}', start);
+        if (end < 0) {
+          throw new IllegalArgumentException("Unclosed placeholder in " + word);
+        }
+        parts.add(word.substring(from, start));
+        parts.add(word.substring(start + 2, end));
+        from = end + 1;
+        start = word.indexOf("${", from);
+      }
+      parts.add(word.substring(from));
+      return new Template(parts.toArray(new String[0]));
+    }
+
+    private List<String> names() {
+      List<String> names = new ArrayList<>();
+      for (int i = 1; i < parts.length; i += 2) {
+        names.add(parts[i]);
+      }
+      return names;
+    }
+
+    private String fill(Frame frame) {
+      if (parts.length == 1) {
+        return parts[0];
+      }
+      StringBuilder word = new StringBuilder(parts[0]);
+      for (int i = 1; i < parts.length; i += 2) {
+        word.append(frame.get(parts[i])).append(parts[i + 1]);
+      }
+      return word.toString();
+    }
+
+    private int fillInt(Frame frame) {
+      String value = fill(frame);
+      try {
+        return Integer.parseInt(value);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Expected a number, not " + value);
+      }
+    }
+  }
+
+  /**
+   * The values of the variables of a loop body, macro or the whole script.
+   */
+  private static final class Frame {
+    private final Frame parent;
+    private final Map<String, String> values;
+
+    private Frame(Frame parent) {
+      this.parent = parent;
+      this.values = new HashMap<>();
+    }
+
+    private String get(String name) {
+      for (Frame frame = this; frame != null; frame = frame.parent) {
+        String value = frame.values.get(name);
+        if (value != null) {
+          return value;
+        }
+      }
+      throw new IllegalArgumentException("Variable " + name + " has no value");
+    }
+  }
+
+  /**
+   * A compiled statement, expanded into the commands it runs.
+   */
+  private interface Statement {
+    void expand(Frame frame, List<ImageProcessingCommand> commands);
+  }
+
+  private static final class Fixed implements Statement {
+    private final ImageProcessingCommand command;
+
+    private Fixed(ImageProcessingCommand command) {
+      this.command = command;
+    }
+
+    @Override
+    public void expand(Frame frame, List<ImageProcessingCommand> commands) {
+      commands.add(command);
+    }
+  }
+
+  private static final class Built implements Statement {
+    private final String name;
+    private final Function<Scanner, ImageProcessingCommand> factory;
+    private final List<Template> arguments;
+
+    private Built(String name, Function<Scanner, ImageProcessingCommand> factory,
+                  List<Template> arguments) {
+      this.name = name;
+      this.factory = factory;
+      this.arguments = arguments;
+    }
+
+    @Override
+    public void expand(Frame frame, List<ImageProcessingCommand> commands) {
+      StringBuilder words = new StringBuilder();
+      for (Template argument : arguments) {
+        words.append(argument.fill(frame)).append(' ');
+      }
+      Scanner scanner = new Scanner(words.toString());
+      try {
+        commands.add(factory.apply(scanner));
+      } catch (NoSuchElementException e) {
+        throw new IllegalArgumentException("Invalid arguments for " + name + ": " + words);
+      }
+      if (scanner.hasNext()) {
+        throw new IllegalArgumentException("Too many arguments for " + name + ": " + words);
+      }
+    }
+  }
+
+  private static final class Assignment implements Statement {
+    private final String name;
+    private final Template value;
+
+    private Assignment(String name, Template value) {
+      this.name = name;
+      this.value = value;
+    }
+
+    @Override
+    public void expand(Frame frame, List<ImageProcessingCommand> commands) {
+      frame.values.put(name, value.fill(frame));
+    }
+  }
+
+  private static final class ForEach implements Statement {
+    private final String name;
+    private final List<Template> items;
+    private final List<Statement> body;
+
+    private ForEach(String name, List<Template> items, List<Statement> body) {
+      this.name = name;
+      this.items = items;
+      this.body = body;
+    }
+
+    @Override
+    public void expand(Frame frame, List<ImageProcessingCommand> commands) {
+      for (Template item : items) {
+        for (String value : item.fill(frame).trim().split("\\s+")) {
+          if (value.isEmpty()) {
+            continue;
+          }
+          for (String file : value.contains("*") || value.contains("?") ? glob(value)
+                  : List.of(value)) {
+            Frame inner = new Frame(frame);
+            inner.values.put(name, file);
+            for (Statement statement : body) {
+              statement.expand(inner, commands);
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * Lists the files whose names match a pattern, in the folder of the pattern.
+     *
+     * @param pattern the path of the files, with * and ? in the file name.
+     * @return the matching paths, sorted.
+     */
+    private static List<String> glob(String pattern) {
+      Path path = Paths.get(pattern);
+      Path folder = path.getParent() == null ? Paths.get(".") : path.getParent();
+      List<String> files = new ArrayList<>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder,
+              path.getFileName().toString())) {
+        for (Path file : stream) {
+          files.add(path.getParent() == null ? file.getFileName().toString()
+                  : file.toString());
+        }
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Unable to list " + pattern);
+      }
+      Collections.sort(files);
+      return files;
+    }
+  }
+
+  private static final class ForRange implements Statement {
+    private final String name;
+    private final Template from;
+    private final Template to;
+    private final Template step;
+    private final List<Statement> body;
+
+    private ForRange(String name, Template from, Template to, Template step,
+                     List<Statement> body) {
+      this.name = name;
+      this.from = from;
+      this.to = to;
+      this.step = step;
+      this.body = body;
+    }
+
+    @Override
+    public void expand(Frame frame, List<ImageProcessingCommand> commands) {
+      int first = from.fillInt(frame);
+      int last = to.fillInt(frame);
+      int increment = step == null ? 1 : step.fillInt(frame);
+      if (increment <= 0) {
+        throw new IllegalArgumentException("Step must be positive");
+      }
+      for (long i = first; i <= last; i += increment) {
+        Frame inner = new Frame(frame);
+        inner.values.put(name, Long.toString(i));
+        for (Statement statement : body) {
+          statement.expand(inner, commands);
+        }
+      }
+    }
+  }
+
+  private static final class Macro {
+    private final List<String> parameters;
+    private final List<Statement> body;
+
+    private Macro(List<String> parameters, List<Statement> body) {
+      this.parameters = parameters;
+      this.body = body;
+    }
+  }
+
+  private static final class Call implements Statement {
+    private final Macro macro;
+    private final List<Template> arguments;
+
+    private Call(Macro macro, List<Template> arguments) {
+      this.macro = macro;
+      this.arguments = arguments;
+    }
+
+    @Override
+    public void expand(Frame frame, List<ImageProcessingCommand> commands) {
+      Frame inner = new Frame(frame);
+      for (int i = 0; i < arguments.size(); i++) {
+        inner.values.put(macro.parameters.get(i), arguments.get(i).fill(frame));
+      }
+      for (Statement statement : macro.body) {
+        statement.expand(inner, commands);
+      }
+    }
+  }
+}
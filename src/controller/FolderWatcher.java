@@ -0,0 +1,284 @@
+package controller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import controller.commands.Load;
+import model.ImageProcessorModel;
+import model.RasterPool;
+import view.ImageView;
+
+/**
+ * Controller that watches a folder and runs a script on every image that lands in it. A file is
+ * only processed once its size and modification time have stopped changing for a quiet period,
+ * so files still being copied in are left alone. Files are processed on a pool of worker threads,
+ * and every processed file is recorded in a journal in the output folder so that a restarted
+ * watcher does not process it again.
+ *
+ * <p>The script is compiled once, and may use everything a CompiledScript may, with placeholders
+ * for the file being processed: ${in} is the path of the file, ${name} its name without the
+ * extension and ${out} the output folder.
+ */
+public class FolderWatcher implements ImageProcessorController, Closeable {
+
+  /**
+   * Name of the journal of processed files kept in the output folder.
+   */
+  public static final String JOURNAL = ".image-processor-journal";
+
+  private final ImageView view;
+  private final Path folder;
+  private final CompiledScript script;
+  private final Path output;
+  private final long quietMillis;
+  private final ExecutorService workers;
+  private final ScheduledExecutorService timer;
+  private final RasterPool pool;
+  private final Set<String> extensions;
+  // files seen but not yet settled, with the state they were last seen in
+  private final Map<Path, String> pending;
+  // states of files that are processed or being processed
+  private final Set<String> claimed;
+  private volatile WatchService watcher;
+  private volatile boolean closed;
+
+  /**
+   * Creates a watcher.
+   *
+   * @param view        the view reporting every processed or failed file.
+   * @param folder      the folder to watch.
+   * @param script      the script to run on every file, with ${in}, ${name} and ${out}.
+   * @param output      the output folder, which holds the journal.
+   * @param threads     the number of files processed at the same time.
+   * @param quietMillis how long a file must stay unchanged before it is processed.
+   * @throws IllegalArgumentException if an argument is null, a number is not positive or the
+   *                                  script is invalid.
+   */
+  public FolderWatcher(ImageView view, Path folder, String script, Path output, int threads,
+                       long quietMillis) throws IllegalArgumentException {
+    if (view == null || folder == null || script == null || output == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    if (threads <= 0 || quietMillis <= 0) {
+      throw new IllegalArgumentException("Thread count and quiet period must be positive");
+    }
+    this.view = view;
+    this.folder = folder.toAbsolutePath();
+    this.script = CompiledScript.compile(script, "in", "name", "out");
+    this.output = output.toAbsolutePath();
+    this.quietMillis = quietMillis;
+    this.workers = Executors.newFixedThreadPool(threads);
+    this.timer = Executors.newSingleThreadScheduledExecutor();
+    this.pool = new RasterPool();
+    this.extensions = Load.extensions();
+    this.pending = new ConcurrentHashMap<>();
+    this.claimed = ConcurrentHashMap.newKeySet();
+  }
+
+  /**
+   * Processes the files already in the folder that are not in the journal, then every file that
+   * lands in the folder, until the watcher is closed. Waits for the files being processed before
+   * returning.
+   *
+   * @throws IllegalArgumentException if the folders or the journal cannot be read.
+   */
+  @Override
+  public void runApp() throws IllegalArgumentException {
+    try (WatchService service = folder.getFileSystem().newWatchService()) {
+      Files.createDirectories(output);
+      Path journal = output.resolve(JOURNAL);
+      if (Files.exists(journal)) {
+        claimed.addAll(Files.readAllLines(journal, StandardCharsets.UTF_8));
+      }
+      watcher = service;
+      if (closed) {
+        return;
+      }
+      folder.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+              StandardWatchEventKinds.ENTRY_MODIFY);
+      scanFolder();
+      while (true) {
+        WatchKey key = service.take();
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            scanFolder();
+          } else {
+            schedule(folder.resolve((Path) event.context()));
+          }
+        }
+        key.reset();
+      }
+    } catch (ClosedWatchServiceException | InterruptedException e) {
+      // closed, stop watching
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to watch " + folder + ": " + e.getMessage());
+    } finally {
+      close();
+      try {
+        workers.awaitTermination(1, TimeUnit.HOURS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Stops watching. Files already being processed are finished, files still settling are not
+   * processed and will be picked up by the next watcher.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    timer.shutdownNow();
+    workers.shutdown();
+    WatchService service = watcher;
+    if (service != null) {
+      try {
+        service.close();
+      } catch (IOException e) {
+        // already closed
+      }
+    }
+  }
+
+  private void scanFolder() throws IOException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(folder)) {
+      for (Path file : files) {
+        schedule(file);
+      }
+    }
+  }
+
+  /**
+   * Records the state of a file that was created or changed and checks it again after the quiet
+   * period.
+   *
+   * @param file the file.
+   */
+  private void schedule(Path file) {
+    String state = state(file);
+    if (state == null || claimed.contains(state) || !isImage(file)) {
+      return;
+    }
+    pending.put(file, state);
+    if (!closed) {
+      timer.schedule(() -> settle(file), quietMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Hands a file to the workers if it has not changed since it was last seen, otherwise waits
+   * another quiet period.
+   *
+   * @param file the file.
+   */
+  private void settle(Path file) {
+    String seen = pending.get(file);
+    if (seen == null) {
+      return;
+    }
+    String state = state(file);
+    if (state == null) {
+      pending.remove(file);
+    } else if (!state.equals(seen)) {
+      pending.put(file, state);
+      timer.schedule(() -> settle(file), quietMillis, TimeUnit.MILLISECONDS);
+    } else if (pending.remove(file, seen) && claimed.add(state)) {
+      workers.execute(() -> process(file, state));
+    }
+  }
+
+  /**
+   * Runs the script on a file and records it in the journal.
+   *
+   * @param file  the file.
+   * @param state the state of the file when it settled.
+   */
+  private void process(Path file, String state) {
+    String fileName = file.getFileName().toString();
+    ImageProcessorModel model = new ImageProcessorModel(pool);
+    long start = System.nanoTime();
+    try {
+      script.run(model, arguments(file, output));
+      synchronized (this) {
+        Files.writeString(output.resolve(JOURNAL), state + "\n", StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+      }
+      report(String.format(Locale.ROOT, "processed %s in %.1f ms", fileName,
+              (System.nanoTime() - start) / 1e6));
+    } catch (IOException | RuntimeException e) {
+      // not journaled, so the file is tried again when it changes or the watcher restarts
+      claimed.remove(state);
+      report("failed " + fileName + ": "
+              + (e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage()));
+    } finally {
+      model.dropAll();
+    }
+  }
+
+  /**
+   * Gives the placeholders of a script their values for one file.
+   *
+   * @param file   the file to process.
+   * @param output the output folder.
+   * @return the values of ${in}, ${name} and ${out}.
+   */
+  static Map<String, String> arguments(Path file, Path output) {
+    String fileName = file.getFileName().toString();
+    String name = fileName.contains(".")
+            ? fileName.substring(0, fileName.lastIndexOf(".")) : fileName;
+    return Map.of("in", file.toString(), "name", name, "out", output.toString());
+  }
+
+  private synchronized void report(String message) {
+    try {
+      view.renderMessage(message);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to transmit");
+    }
+  }
+
+  private boolean isImage(Path file) {
+    String fileName = file.getFileName().toString();
+    int dot = fileName.lastIndexOf(".");
+    return !fileName.startsWith(".") && dot > 0
+            && extensions.contains(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+  }
+
+  /**
+   * Describes the state of a file by its name, size and modification time, which is also the
+   * line recorded in the journal once it is processed.
+   *
+   * @param file the file.
+   * @return the state, or null if the file does not exist or is not a regular file.
+   */
+  private static String state(Path file) {
+    try {
+      if (!Files.isRegularFile(file)) {
+        return null;
+      }
+      return file.getFileName() + "\t" + Files.size(file) + "\t"
+              + Files.getLastModifiedTime(file).toMillis();
+    } catch (IOException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,265 @@
+package controller;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import controller.commands.ImageProcessingCommand;
+import controller.commands.Load;
+import controller.commands.Pyramid;
+import controller.commands.Save;
+import model.ImageInterface;
+import model.ImageProcessorModel;
+import model.RasterImage;
+
+/**
+ * Runs the commands of a script on a model while moving its file reads and writes to background
+ * threads. Loads further down the script are decoded ahead of time on a private model and handed
+ * over when the script reaches them, and saves write a copy of the image while the next commands
+ * run. A load never reads a file that an earlier save of the script writes before that save is
+ * done, and saves to the same file are written in script order.
+ *
+ * <p>Closing the scheduler waits for every pending save and reports the first one that failed.
+ */
+final class IOScheduler implements AutoCloseable {
+
+  /**
+   * Number of loads decoded ahead of the command being run.
+   */
+  static final int READ_AHEAD = 2;
+
+  /**
+   * Number of saves that may be pending before the script waits for the oldest one.
+   */
+  static final int WRITE_BEHIND = 4;
+
+  private final ImageProcessorModel model;
+  private final ExecutorService io;
+  // loads that may be decoded early, in script order
+  private final Queue<Load> upcoming;
+  private final Map<Load, Future<ImageInterface>> prefetched;
+  private final Map<String, CompletableFuture<Void>> lastWrites;
+  private final Queue<PendingSave> pendingSaves;
+  private IllegalArgumentException failure;
+
+  /**
+   * Creates a scheduler for a script.
+   *
+   * @param model  the model the script runs on.
+   * @param script the commands that will be run, or an empty list if they are not known in
+   *               advance, in which case nothing is read ahead.
+   */
+  IOScheduler(ImageProcessorModel model, List<ImageProcessingCommand> script) {
+    this.model = model;
+    this.io = Executors.newFixedThreadPool(2, task -> {
+      Thread thread = new Thread(task, "image-io");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.upcoming = new ArrayDeque<>();
+    this.prefetched = new IdentityHashMap<>();
+    this.lastWrites = new HashMap<>();
+    this.pendingSaves = new ArrayDeque<>();
+
+    Set<String> written = new HashSet<>();
+    for (ImageProcessingCommand command : script) {
+      if (command instanceof Load && !written.contains(key(((Load) command).getPath()))) {
+        upcoming.add((Load) command);
+      } else if (command instanceof Save) {
+        written.add(key(((Save) command).getPath()));
+      } else if (command instanceof Pyramid && ((Pyramid) command).getPath() != null) {
+        // the files it writes are not known here, so nothing after it is read early
+        break;
+      }
+    }
+  }
+
+  /**
+   * Runs one command of the script, recording how long it took in the command metrics.
+   *
+   * @param command the command.
+   * @throws IllegalArgumentException if the command fails.
+   */
+  void run(ImageProcessingCommand command) throws IllegalArgumentException {
+    CommandMetrics.get().time(command, () -> runTimed(command));
+  }
+
+  private void runTimed(ImageProcessingCommand command) {
+    readAhead();
+    if (command instanceof Load) {
+      load((Load) command);
+    } else if (command instanceof Save) {
+      save((Save) command);
+    } else {
+      if (command instanceof Pyramid && ((Pyramid) command).getPath() != null) {
+        flush();
+      }
+      command.run(model);
+    }
+  }
+
+  /**
+   * Waits for every pending save.
+   *
+   * @throws IllegalArgumentException if a save failed.
+   */
+  void flush() throws IllegalArgumentException {
+    while (!pendingSaves.isEmpty()) {
+      finishOldestSave();
+    }
+    lastWrites.clear();
+    if (failure != null) {
+      IllegalArgumentException e = failure;
+      failure = null;
+      throw e;
+    }
+  }
+
+  /**
+   * Waits for every pending save and stops the background threads. Loads that were read ahead but
+   * never reached are dropped.
+   *
+   * @throws IllegalArgumentException if a save failed.
+   */
+  @Override
+  public void close() throws IllegalArgumentException {
+    try {
+      flush();
+    } finally {
+      for (Future<ImageInterface> image : prefetched.values()) {
+        image.cancel(true);
+      }
+      prefetched.clear();
+      io.shutdown();
+    }
+  }
+
+  /**
+   * Starts decoding the next loads of the script, up to READ_AHEAD of them.
+   */
+  private void readAhead() {
+    while (prefetched.size() < READ_AHEAD && !upcoming.isEmpty()) {
+      Load load = upcoming.poll();
+      prefetched.put(load, io.submit(() -> {
+        ImageProcessorModel scratch = new ImageProcessorModel(model.getPool());
+        load.run(scratch);
+        return scratch.findImage(load.getNewName());
+      }));
+    }
+  }
+
+  /**
+   * Stores the image of a load that was read ahead, or loads it now. A load that failed in the
+   * background is run again here, so it fails the same way it would without read-ahead.
+   *
+   * @param load the load.
+   */
+  private void load(Load load) {
+    Future<ImageInterface> image = prefetched.remove(load);
+    if (image != null) {
+      try {
+        model.storeImage(load.getNewName(), image.get());
+        return;
+      } catch (ExecutionException e) {
+        // run it again below
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalArgumentException("Interrupted while loading " + load.getPath());
+      }
+    }
+    CompletableFuture<Void> write = lastWrites.get(key(load.getPath()));
+    if (write != null) {
+      write.exceptionally(e -> null).join();
+    }
+    load.run(model);
+  }
+
+  /**
+   * Writes a copy of the image in the background, after any earlier save to the same file.
+   *
+   * @param save the save.
+   */
+  private void save(Save save) {
+    RasterImage copy = model.getPool().copy(RasterImage.of(model.findImage(save.getName())));
+    ImageProcessorModel scratch = new ImageProcessorModel(model.getPool());
+    scratch.storeImage(save.getName(), copy);
+    Runnable write = () -> {
+      try {
+        save.run(scratch);
+      } finally {
+        scratch.dropAll();
+      }
+    };
+
+    String file = key(save.getPath());
+    CompletableFuture<Void> previous = lastWrites.get(file);
+    CompletableFuture<Void> done = previous == null
+            ? CompletableFuture.runAsync(write, io)
+            : previous.exceptionally(e -> null).thenRunAsync(write, io);
+    lastWrites.put(file, done);
+    pendingSaves.add(new PendingSave(save.getPath(), done));
+    while (pendingSaves.size() > WRITE_BEHIND) {
+      finishOldestSave();
+    }
+  }
+
+  /**
+   * Waits for the oldest pending save, keeping its error if it is the first one.
+   */
+  private void finishOldestSave() {
+    PendingSave pending = pendingSaves.poll();
+    try {
+      pending.done.join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause() == null ? e : e.getCause();
+      IllegalArgumentException error = new IllegalArgumentException("Unable to save "
+              + pending.path + ": " + (cause.getMessage() == null
+              ? cause.getClass().getSimpleName() : cause.getMessage()), cause);
+      if (failure == null) {
+        failure = error;
+      } else {
+        failure.addSuppressed(error);
+      }
+    }
+  }
+
+  /**
+   * Identifies a file, so different spellings of the same path are recognized.
+   *
+   * @param path the path given in the script.
+   * @return the absolute normalized path, or the path itself if it is not valid.
+   */
+  private static String key(String path) {
+    try {
+      return Paths.get(path).toAbsolutePath().normalize().toString();
+    } catch (InvalidPathException e) {
+      return path;
+    }
+  }
+
+  /**
+   * A save that was handed to the background threads.
+   */
+  private static final class PendingSave {
+    private final String path;
+    private final CompletableFuture<Void> done;
+
+    private PendingSave(String path, CompletableFuture<Void> done) {
+      this.path = path;
+      this.done = done;
+    }
+  }
+}
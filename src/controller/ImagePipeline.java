@@ -0,0 +1,509 @@
+package controller;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+import controller.commands.Load;
+import controller.commands.Save;
+import model.ImageInterface;
+import model.ImageProcessorModel;
+import model.PixelOp;
+import model.PixelOps;
+import model.RasterImage;
+import model.Resampler;
+import model.Scanlines;
+
+/**
+ * A typed pipeline of image operations for programs that embed the image processor, built one
+ * step at a time, for example
+ * {@code ImagePipeline.load("in.png").brighten(10).blur().downscale(64, 48).save("out.png")
+ * .run()}. Nothing happens until the pipeline is run; the whole plan is optimized first:
+ * consecutive pixel operations are fused into one pass, steps after the last save and branches
+ * that save nothing are left out, and a plan of pixel operations between PPM, QOI or raw files is
+ * streamed a few rows at a time instead of loading the image. Other plans run on rasters passed
+ * straight from one step to the next, without storing them in the model under a name, and a pixel
+ * operation overwrites the raster of the step before it when no other step reads it.
+ */
+public final class ImagePipeline {
+
+  private static final String IMAGE = "image";
+
+  private final String source;
+  private final ImageInterface sourceImage;
+  private final List<Step> steps;
+
+  private ImagePipeline(String source, ImageInterface sourceImage) {
+    this.source = source;
+    this.sourceImage = sourceImage;
+    this.steps = new ArrayList<>();
+  }
+
+  /**
+   * Starts a pipeline on the image of a file, in any format the load command reads.
+   *
+   * @param path the file.
+   * @return the pipeline.
+   * @throws IllegalArgumentException if the path is null.
+   */
+  public static ImagePipeline load(String path) throws IllegalArgumentException {
+    if (path == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    return new ImagePipeline(path, null);
+  }
+
+  /**
+   * Starts a pipeline on an image in memory, which the pipeline never changes.
+   *
+   * @param image the image.
+   * @return the pipeline.
+   * @throws IllegalArgumentException if the image is null.
+   */
+  public static ImagePipeline of(ImageInterface image) throws IllegalArgumentException {
+    if (image == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    return new ImagePipeline(null, image);
+  }
+
+  /**
+   * Brightens the image, or darkens it if the increment is negative.
+   *
+   * @param increment the value added to every component.
+   * @return this pipeline.
+   */
+  public ImagePipeline brighten(int increment) {
+    return point("brighten " + increment, PixelOps.brighten(increment));
+  }
+
+  /**
+   * Turns the image gray using one value of every pixel.
+   *
+   * @param mode the value to use.
+   * @return this pipeline.
+   * @throws IllegalArgumentException if the mode is null.
+   */
+  public ImagePipeline grayscale(ImageProcessorModel.GrayscaleMode mode)
+          throws IllegalArgumentException {
+    if (mode == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    return point("grayscale " + mode, PixelOps.grayscale(mode));
+  }
+
+  /**
+   * Applies a color transformation to the image.
+   *
+   * @param mode the transformation.
+   * @return this pipeline.
+   * @throws IllegalArgumentException if the mode is null.
+   */
+  public ImagePipeline colorTransformation(ImageProcessorModel.ColorTransformationsMode mode)
+          throws IllegalArgumentException {
+    if (mode == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    return point("color-transform " + mode, PixelOps.colorTransformation(mode));
+  }
+
+  /**
+   * Blurs the image.
+   *
+   * @return this pipeline.
+   */
+  public ImagePipeline blur() {
+    return filter(ImageProcessorModel.FilterMode.Blur);
+  }
+
+  /**
+   * Sharpens the image.
+   *
+   * @return this pipeline.
+   */
+  public ImagePipeline sharpen() {
+    return filter(ImageProcessorModel.FilterMode.Sharpen);
+  }
+
+  /**
+   * Flips the image.
+   *
+   * @param mode the direction to flip in.
+   * @return this pipeline.
+   * @throws IllegalArgumentException if the mode is null.
+   */
+  public ImagePipeline flip(ImageProcessorModel.FlipMode mode) throws IllegalArgumentException {
+    if (mode == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    steps.add(Step.transform("flip " + mode, (model, image) -> model.flipped(mode, image)));
+    return this;
+  }
+
+  /**
+   * Turns or transposes the image.
+   *
+   * @param mode the turn.
+   * @return this pipeline.
+   * @throws IllegalArgumentException if the mode is null.
+   */
+  public ImagePipeline rotate(ImageProcessorModel.RotateMode mode)
+          throws IllegalArgumentException {
+    if (mode == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    steps.add(Step.transform("rotate " + mode, (model, image) -> model.rotated(mode, image)));
+    return this;
+  }
+
+  /**
+   * Downscales the image the way the downscale command does.
+   *
+   * @param width  the new width.
+   * @param height the new height.
+   * @return this pipeline.
+   * @throws IllegalArgumentException if the size is not positive.
+   */
+  public ImagePipeline downscale(int width, int height) throws IllegalArgumentException {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Size must be positive");
+    }
+    steps.add(Step.transform("downscale " + width + "x" + height,
+        (model, image) -> model.downscaled(height, width, image)));
+    return this;
+  }
+
+  /**
+   * Resizes the image with a resampling filter.
+   *
+   * @param width  the new width.
+   * @param height the new height.
+   * @param mode   the resampling filter.
+   * @return this pipeline.
+   * @throws IllegalArgumentException if the size is not positive or the mode is null.
+   */
+  public ImagePipeline resize(int width, int height, ImageProcessorModel.ResampleMode mode)
+          throws IllegalArgumentException {
+    if (width <= 0 || height <= 0 || mode == null) {
+      throw new IllegalArgumentException("Size must be positive and mode cannot be null");
+    }
+    steps.add(Step.transform("resize " + width + "x" + height + " " + mode,
+        (model, image) -> Resampler.resize(image, width, height, mode, model.getPool())));
+    return this;
+  }
+
+  /**
+   * Saves the image as it is at this step, in the format of the file extension.
+   *
+   * @param path the file.
+   * @return this pipeline, which can go on processing the image.
+   * @throws IllegalArgumentException if the path is null.
+   */
+  public ImagePipeline save(String path) throws IllegalArgumentException {
+    steps.add(Step.save(path, new Save(path, IMAGE)));
+    return this;
+  }
+
+  /**
+   * Saves the image as it is at this step to a PNG file compressed at the given level.
+   *
+   * @param path  the PNG file.
+   * @param level the compression level, from 0 (fastest) to 9 (smallest).
+   * @return this pipeline, which can go on processing the image.
+   * @throws IllegalArgumentException if the file is not a PNG file or the level is out of range.
+   */
+  public ImagePipeline save(String path, int level) throws IllegalArgumentException {
+    steps.add(Step.save(path, new Save(path, IMAGE, level)));
+    return this;
+  }
+
+  /**
+   * Processes the image as it is at this step in a branch of its own, which does not change the
+   * image the rest of this pipeline sees.
+   *
+   * @param branch builds the steps of the branch on the pipeline it is given.
+   * @return this pipeline.
+   * @throws IllegalArgumentException if the branch is null.
+   */
+  public ImagePipeline branch(Consumer<ImagePipeline> branch) throws IllegalArgumentException {
+    if (branch == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    ImagePipeline pipeline = new ImagePipeline(null, null);
+    branch.accept(pipeline);
+    steps.add(Step.branch(pipeline));
+    return this;
+  }
+
+  /**
+   * Runs the pipeline with a model of its own.
+   *
+   * @throws IllegalArgumentException if a file cannot be read or written.
+   * @throws IllegalStateException    if this is a branch of another pipeline.
+   */
+  public void run() throws IllegalArgumentException, IllegalStateException {
+    run(new ImageProcessorModel());
+  }
+
+  /**
+   * Runs the pipeline on the rasters of a model, allocated from its pool. No image is stored in
+   * the model.
+   *
+   * @param model the model.
+   * @throws IllegalArgumentException if the model is null or a file cannot be read or written.
+   * @throws IllegalStateException    if this is a branch of another pipeline.
+   */
+  public void run(ImageProcessorModel model) throws IllegalArgumentException,
+          IllegalStateException {
+    if (model == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    List<Step> plan = optimize(steps, false);
+    if (plan.isEmpty()) {
+      return;
+    }
+    StreamingPlan streaming = streamingPlan(plan);
+    if (streaming != null) {
+      try {
+        streaming.run();
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Unable to stream " + source + ": " + e.getMessage());
+      }
+      return;
+    }
+    RasterImage image = start(model);
+    RasterImage result = execute(plan, image, source != null, model);
+    if (source != null || result != image) {
+      model.getPool().release(result);
+    }
+  }
+
+  /**
+   * Runs every step of the pipeline and returns the image at its end. Unlike run, steps after the
+   * last save are kept.
+   *
+   * @param model the model whose pool the rasters are allocated from.
+   * @return the image at the end of the pipeline.
+   * @throws IllegalArgumentException if the model is null or a file cannot be read or written.
+   * @throws IllegalStateException    if this is a branch of another pipeline.
+   */
+  public RasterImage render(ImageProcessorModel model) throws IllegalArgumentException,
+          IllegalStateException {
+    if (model == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    RasterImage image = start(model);
+    RasterImage result = execute(optimize(steps, true), image, source != null, model);
+    // the caller must be able to keep the result, so it is never the image it passed in
+    return result == sourceImage ? model.getPool().copy(result) : result;
+  }
+
+  /**
+   * Describes the optimized plan, and if it is streamed or run in memory.
+   *
+   * @return the description.
+   */
+  @Override
+  public String toString() {
+    List<Step> plan = optimize(steps, false);
+    String start = source != null ? "load " + source : "image";
+    if (source == null && sourceImage == null) {
+      return "branch: " + describe(plan);
+    }
+    return (streamingPlan(plan) != null ? "streamed: " : "in memory: ") + start
+            + (plan.isEmpty() ? "" : " -> " + describe(plan));
+  }
+
+  private ImagePipeline point(String description, PixelOp op) {
+    steps.add(Step.point(description, op));
+    return this;
+  }
+
+  private ImagePipeline filter(ImageProcessorModel.FilterMode mode) {
+    steps.add(Step.transform(mode.toString().toLowerCase(),
+        (model, image) -> model.filtered(mode, image)));
+    return this;
+  }
+
+  /**
+   * Loads the source of the pipeline.
+   *
+   * @param model the model whose pool the raster is allocated from.
+   * @return the raster.
+   */
+  private RasterImage start(ImageProcessorModel model) {
+    if (sourceImage != null) {
+      return RasterImage.of(sourceImage);
+    }
+    if (source == null) {
+      throw new IllegalStateException("A branch only runs as part of its pipeline");
+    }
+    // a model of its own lends the load command its format dispatch, and is then dropped
+    ImageProcessorModel loader = new ImageProcessorModel(model.getPool());
+    new Load(source, IMAGE).run(loader);
+    return RasterImage.of(loader.findImage(IMAGE));
+  }
+
+  /**
+   * Optimizes a chain of steps: steps after the last save, and branches that save nothing, are
+   * left out, and consecutive pixel operations are fused into one.
+   *
+   * @param steps    the steps.
+   * @param keepTail true to keep the steps after the last save.
+   * @return the optimized steps.
+   */
+  private static List<Step> optimize(List<Step> steps, boolean keepTail) {
+    List<Step> live = new ArrayList<>();
+    int end = 0;
+    for (Step step : steps) {
+      Step kept = step;
+      if (step.branch != null) {
+        List<Step> branch = optimize(step.branch.steps, false);
+        if (branch.isEmpty()) {
+          continue;
+        }
+        kept = Step.optimizedBranch(branch);
+      }
+      live.add(kept);
+      if (kept.save != null || kept.plan != null) {
+        end = live.size();
+      }
+    }
+    if (!keepTail) {
+      live.subList(end, live.size()).clear();
+    }
+
+    List<Step> fused = new ArrayList<>();
+    for (Step step : live) {
+      Step last = fused.isEmpty() ? null : fused.get(fused.size() - 1);
+      if (step.op != null && last != null && last.op != null) {
+        fused.set(fused.size() - 1, Step.point(last.description + " + " + step.description,
+                last.op.andThen(step.op)));
+      } else {
+        fused.add(step);
+      }
+    }
+    return fused;
+  }
+
+  /**
+   * Plans the streaming of an optimized plan, which is possible when the source is a file that
+   * can be streamed and the plan has only pixel operations and saves to files that can be
+   * streamed.
+   *
+   * @param plan the optimized plan.
+   * @return the streaming plan, or null if the plan runs in memory.
+   */
+  private StreamingPlan streamingPlan(List<Step> plan) {
+    if (source == null || !Scanlines.supports(source)) {
+      return null;
+    }
+    List<PixelOp> ops = new ArrayList<>();
+    List<String> saves = new ArrayList<>();
+    List<Integer> saveStages = new ArrayList<>();
+    for (Step step : plan) {
+      if (step.op != null) {
+        ops.add(step.op);
+      } else if (step.save != null && Scanlines.supports(step.save.getPath())) {
+        saves.add(step.save.getPath());
+        saveStages.add(ops.size());
+      } else {
+        return null;
+      }
+    }
+    return StreamingPlan.of(source, ops, saves, saveStages);
+  }
+
+  /**
+   * Runs an optimized chain of steps on a raster.
+   *
+   * @param plan  the optimized steps.
+   * @param image the raster at the start of the chain.
+   * @param owned true if no other step reads the raster, so it may be overwritten or released.
+   * @param model the model whose pool rasters are allocated from.
+   * @return the raster at the end of the chain, owned by the caller if it is not the one given.
+   */
+  private static RasterImage execute(List<Step> plan, RasterImage image, boolean owned,
+                                     ImageProcessorModel model) {
+    for (Step step : plan) {
+      if (step.save != null) {
+        // a model of its own lends the save command its format dispatch, and is then dropped
+        ImageProcessorModel saver = new ImageProcessorModel(model.getPool());
+        saver.storeImage(IMAGE, image);
+        step.save.run(saver);
+      } else if (step.plan != null) {
+        RasterImage end = execute(step.plan, image, false, model);
+        if (end != image) {
+          model.getPool().release(end);
+        }
+      } else {
+        RasterImage result = step.op != null ? model.applyPixelOp(step.op, image, owned)
+                : RasterImage.of(step.transform.apply(model, image));
+        if (owned && result != image) {
+          model.getPool().release(image);
+        }
+        image = result;
+        owned = true;
+      }
+    }
+    return image;
+  }
+
+  private static String describe(List<Step> plan) {
+    StringBuilder description = new StringBuilder();
+    for (Step step : plan) {
+      if (description.length() > 0) {
+        description.append(" -> ");
+      }
+      description.append(step.plan != null ? "branch [" + describe(step.plan) + "]"
+              : step.description);
+    }
+    return description.toString();
+  }
+
+  /**
+   * One step of a pipeline: a pixel operation, another transformation, a save or a branch.
+   */
+  private static final class Step {
+    private final String description;
+    private final PixelOp op;
+    private final BiFunction<ImageProcessorModel, RasterImage, ImageInterface> transform;
+    private final Save save;
+    private final ImagePipeline branch;
+    private final List<Step> plan;
+
+    private Step(String description, PixelOp op,
+                 BiFunction<ImageProcessorModel, RasterImage, ImageInterface> transform,
+                 Save save, ImagePipeline branch, List<Step> plan) {
+      this.description = description;
+      this.op = op;
+      this.transform = transform;
+      this.save = save;
+      this.branch = branch;
+      this.plan = plan;
+    }
+
+    private static Step point(String description, PixelOp op) {
+      return new Step(description, op, null, null, null, null);
+    }
+
+    private static Step transform(String description,
+        BiFunction<ImageProcessorModel, RasterImage, ImageInterface> transform) {
+      return new Step(description, null, transform, null, null, null);
+    }
+
+    private static Step save(String path, Save save) {
+      return new Step("save " + path, null, null, save, null, null);
+    }
+
+    private static Step branch(ImagePipeline branch) {
+      return new Step("branch", null, null, null, branch, null);
+    }
+
+    private static Step optimizedBranch(List<Step> plan) {
+      return new Step("branch", null, null, null, null, plan);
+    }
+  }
+}
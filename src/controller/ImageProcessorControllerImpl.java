@@ -2,26 +2,14 @@ package controller;
 
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Scanner;
 import java.util.function.Function;
 
-import controller.commands.BrightenDarken;
-import controller.commands.Downscale;
-import controller.commands.Filter;
-import controller.commands.Flip;
-import controller.commands.Grayscale;
-import controller.commands.ColorTransformation;
 import controller.commands.ImageProcessingCommand;
-import controller.commands.Load;
 import controller.commands.Save;
 import model.ImageProcessorModel;
 import view.ImageView;
 
-import model.ImageProcessorModel.FlipMode;
-import model.ImageProcessorModel.GrayscaleMode;
-
 /**
  * Controller for the image processor which
  * reads text inputs from Readable and writes string outputs.
@@ -32,7 +20,6 @@ public class ImageProcessorControllerImpl implements ImageProcessorController {
   private final Readable rd;
   private final ImageProcessorModel model;
   private final ImageView view;
-  private Map<String, Function<Scanner, ImageProcessingCommand>> knownCommands;
 
   /**
    * The controller constructor that take in a model and view.
@@ -47,7 +34,6 @@ public class ImageProcessorControllerImpl implements ImageProcessorController {
 
   /**
    * The controller constructor that take in a model and view and a readable.
-   * Init all commands.
    *
    * @param model the model
    * @param view  the view
@@ -62,39 +48,12 @@ public class ImageProcessorControllerImpl implements ImageProcessorController {
     this.model = model;
     this.view = view;
     this.rd = rd;
-    knownCommands = new HashMap<>();
-    knownCommands.put("brighten", s -> new BrightenDarken(s.nextInt(), s.next(), s.next()));
-    knownCommands.put("darken", s -> new BrightenDarken(s.nextInt() * -1,
-            s.next(), s.next()));
-    knownCommands.put("flip-horizontal", s -> new Flip(FlipMode.Horizontal, s.next(), s.next()));
-    knownCommands.put("flip-vertical", s -> new Flip(FlipMode.Vertical, s.next(), s.next()));
-    knownCommands.put("greyscale-red", s -> new Grayscale(GrayscaleMode.Red,
-            s.next(), s.next()));
-    knownCommands.put("greyscale-green", s -> new Grayscale(GrayscaleMode.Green,
-            s.next(), s.next()));
-    knownCommands.put("greyscale-blue", s -> new Grayscale(GrayscaleMode.Blue,
-            s.next(), s.next()));
-    knownCommands.put("save", s -> new Save(s.next(), s.next()));
-    knownCommands.put("load", s -> new Load(s.next(), s.next()));
-    knownCommands.put("luma", s -> new Grayscale(GrayscaleMode.Luma, s.next(), s.next()));
-    knownCommands.put("value", s -> new Grayscale(GrayscaleMode.Value, s.next(), s.next()));
-    knownCommands.put("intensity", s -> new Grayscale(GrayscaleMode.Intensity, s.next(), s.next()));
-    knownCommands.put("blur", s -> new Filter(ImageProcessorModel.FilterMode.Blur,
-            s.next(), s.next()));
-    knownCommands.put("sharpen", s -> new Filter(ImageProcessorModel.FilterMode.Sharpen,
-            s.next(), s.next()));
-    knownCommands.put("grayscale-transformation", s ->
-            new ColorTransformation(ImageProcessorModel.ColorTransformationsMode.Grayscale,
-            s.next(), s.next()));
-    knownCommands.put("sepia", s ->
-            new ColorTransformation(ImageProcessorModel.ColorTransformationsMode.Sepia,
-            s.next(), s.next()));
-    knownCommands.put("downscale", s -> new Downscale(s.nextInt(),
-            s.nextInt(), s.next(), s.next()));
   }
 
   /**
-   * Start running the text-based controller.
+   * Start running the text-based controller. Every command, saves included, is done before the
+   * next one is read, so a save that fails is reported right away; only ScriptController, which
+   * runs whole files, writes saves in the background.
    *
    * @throws IllegalStateException if command is invalid.
    */
@@ -115,6 +74,22 @@ public class ImageProcessorControllerImpl implements ImageProcessorController {
         return;
       }
 
+      Function<Scanner, ImageProcessingCommand> c = Commands.find(inputCommand);
+      if (c == null) {
+        throw new IllegalArgumentException();
+      } else {
+        ImageProcessingCommand com = c.apply(scan);
+        try {
+          CommandMetrics.get().time(com, () -> com.run(model));
+        } catch (IllegalArgumentException e) {
+          if (com instanceof Save) {
+            throw new IllegalArgumentException("Unable to save " + ((Save) com).getPath() + ": "
+                    + (e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage()), e);
+          }
+          throw e;
+        }
+      }
+
       if (inputCommand.equalsIgnoreCase("save")) {
         try {
           this.view.renderMessage("Successfully saved the file to the desired directory :)");
@@ -122,14 +97,6 @@ public class ImageProcessorControllerImpl implements ImageProcessorController {
           throw new IllegalArgumentException("Unable to transmit");
         }
       }
-
-      Function<Scanner, ImageProcessingCommand> c = knownCommands.getOrDefault(inputCommand, null);
-      if (c == null) {
-        throw new IllegalArgumentException();
-      } else {
-        ImageProcessingCommand com = c.apply(scan);
-        com.run(model);
-      }
     }
   }
 }
\ No newline at end of file
@@ -3,9 +3,20 @@ package controller;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.ServiceLoader;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import model.ImageProcessorModel;
-import view.GUIViewImpl;
+import model.ModelMetrics;
 import view.TextView;
 import view.ImageView;
 
@@ -15,36 +26,254 @@ import view.ImageView;
 public class ImageProgram {
   /**
    * Executes commands from users. Has different functions based on given arguments (text file
-   * as the Readable, interactive script-command, and GUI).
+   * as the Readable, a compiled script with parameters, interactive script-command, a server for
+   * scripts sent over a local socket, a watcher running a script on every image dropped into a
+   * folder, a batch running a script on every given image, a farm running a script on one large
+   * image in tiles over worker processes, workers sharing a queue of jobs in a folder, and GUI).
    *
    * @param args provided arguments.
    */
   public static void main(String[] args) {
+    if (args.length > 0) {
+      //command-line runs never open a window, so AWT (used by ImageIO) starts without one
+      System.setProperty("java.awt.headless", "true");
+    }
     ImageProcessorModel img = new ImageProcessorModel(); // interface and class ?
     ImageView view = new TextView();
     Readable rd = new InputStreamReader(System.in);
+    boolean compressing = false;
 
     if (args.length > 0) {
 
       for (int i = 0; i < args.length; i++) {
 
-        //reads a .txt file and runs the commands
+        //keeps images that are not being used compressed, given an idle time and a memory budget
+        if (args[i].equals("-compress-idle") && i + 2 < args.length) {
+          try {
+            img.setIdleCompression(Long.parseLong(args[i + 1]),
+                    Long.parseLong(args[i + 2]) << 20);
+          } catch (IllegalArgumentException e) {
+            System.out.println("Please input an idle time in ms and a memory budget in MB.");
+            return;
+          }
+          compressing = true;
+          i += 2;
+          continue;
+        }
+
+        //reads a .txt file and runs the commands, streaming them when it can
         if (args[i].equals("-file")) {
           try {
             rd = new FileReader(args[i + 1]);
 
-            ImageProcessorController contr = new ImageProcessorControllerImpl(img, view, rd);
+            ImageProcessorController contr = new ScriptController(img, view, rd);
             contr.runApp();
+            if (compressing) {
+              System.out.println(img.getCompressionStats());
+            }
             return;
           } catch (IOException e) {
             System.out.println("Please input a valid file.");
           }
         }
 
+        //compiles a script with parameters, loops and macros and runs it with the given values
+        if (args[i].equals("-run") && i + 1 < args.length) {
+          Map<String, String> arguments = new HashMap<>();
+          for (int j = i + 2; j < args.length; j++) {
+            String[] argument = args[j].split("=", 2);
+            if (argument.length < 2) {
+              System.out.println("Please give parameters as name=value.");
+              return;
+            }
+            arguments.put(argument[0], argument[1]);
+          }
+          try {
+            CompiledScript.compile(Files.readString(Paths.get(args[i + 1]))).run(img, arguments);
+          } catch (IOException e) {
+            System.out.println("Please input a valid file.");
+            return;
+          }
+          if (compressing) {
+            System.out.println(img.getCompressionStats());
+          }
+          return;
+        }
+
         //script-command
         if (args[i].equals("-text")) {
+          showMetrics();
           ImageProcessorController contr = new ImageProcessorControllerImpl(img, view, rd);
           contr.runApp();
+          if (compressing) {
+            System.out.println(img.getCompressionStats());
+          }
+        }
+
+        //keeps running and serves scripts sent to a local port or Unix socket
+        if (args[i].equals("-serve") && i + 1 < args.length) {
+          ScriptServer server;
+          String token = System.getenv("IMAGEPROCESSOR_TOKEN");
+          try {
+            server = new ScriptServer(args[i + 1],
+                    Math.max(2, Runtime.getRuntime().availableProcessors()), token);
+          } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return;
+          }
+          try {
+            System.out.println("Serving scripts on " + server.bind());
+            //a token chosen in the environment is never printed, only one made up by the server
+            if (token == null && server.getToken() != null) {
+              System.out.println("Clients must start with: auth " + server.getToken());
+            }
+          } catch (IOException e) {
+            System.out.println("Unable to serve on " + args[i + 1] + ": " + e.getMessage());
+            return;
+          }
+          showMetrics();
+          server.runApp();
+          return;
+        }
+
+        //keeps running and processes every image dropped into a folder
+        if (args[i].equals("-watch") && i + 3 < args.length) {
+          String script;
+          try {
+            script = Files.readString(Paths.get(args[i + 2]));
+          } catch (IOException e) {
+            System.out.println("Please input a valid file.");
+            return;
+          }
+          FolderWatcher watcher;
+          try {
+            watcher = new FolderWatcher(view, Paths.get(args[i + 1]), script,
+                    Paths.get(args[i + 3]), Runtime.getRuntime().availableProcessors(), 500);
+          } catch (IllegalArgumentException e) {
+            System.out.println("Invalid script: " + e.getMessage());
+            return;
+          }
+          showMetrics();
+          watcher.runApp();
+          return;
+        }
+
+        //runs a script on every given image as a job of its own
+        if (args[i].equals("-batch") && i + 3 < args.length) {
+          CompiledScript script;
+          try {
+            script = CompiledScript.compile(Files.readString(Paths.get(args[i + 1])), "in",
+                    "name", "out");
+          } catch (IOException e) {
+            System.out.println("Please input a valid file.");
+            return;
+          } catch (IllegalArgumentException e) {
+            System.out.println("Invalid script: " + e.getMessage());
+            return;
+          }
+          showMetrics();
+          int cores = Runtime.getRuntime().availableProcessors();
+          List<Future<Void>> jobs = new ArrayList<>();
+          try (JobExecutor executor = new JobExecutor(cores, cores * 4)) {
+            for (int j = i + 3; j < args.length; j++) {
+              jobs.add(executor.submit(script, FolderWatcher.arguments(Paths.get(args[j]),
+                      Paths.get(args[i + 2]))));
+            }
+            for (int j = 0; j < jobs.size(); j++) {
+              try {
+                jobs.get(j).get();
+              } catch (ExecutionException e) {
+                System.out.println("failed " + args[i + 3 + j] + ": " + e.getCause().getMessage());
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+              }
+            }
+            System.out.println(executor);
+          }
+          return;
+        }
+
+        //runs a script on one large image in tiles, over worker processes with their own heaps
+        if (args[i].equals("-farm") && i + 3 < args.length) {
+          Map<String, String> arguments = new HashMap<>();
+          for (int j = i + 4; j < args.length; j++) {
+            String[] argument = args[j].split("=", 2);
+            if (argument.length < 2) {
+              System.out.println("Please give parameters as name=value.");
+              return;
+            }
+            arguments.put(argument[0], argument[1]);
+          }
+          try {
+            new TileFarm(view, Files.readString(Paths.get(args[i + 3])), arguments,
+                    Integer.parseInt(args[i + 1]), Integer.parseInt(args[i + 2]),
+                    TileFarm.TILE_SIZE).runApp();
+          } catch (IOException e) {
+            System.out.println("Please input a valid file.");
+          } catch (IllegalArgumentException | IllegalStateException e) {
+            System.out.println("Unable to farm the script: " + e.getMessage());
+          }
+          return;
+        }
+
+        //adds images to a queue folder that workers on several machines can share
+        if (args[i].equals("-enqueue") && i + 1 < args.length) {
+          List<Path> images = new ArrayList<>();
+          for (int j = i + 2; j < args.length; j++) {
+            images.add(Paths.get(args[j]));
+          }
+          try {
+            System.out.println("Queued " + WorkQueue.enqueue(Paths.get(args[i + 1]), images)
+                    + " jobs");
+          } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+          }
+          return;
+        }
+
+        //takes jobs from a shared queue folder until every job is done or failed
+        if (args[i].equals("-work") && i + 3 < args.length) {
+          WorkQueue queue;
+          try {
+            queue = new WorkQueue(view, Paths.get(args[i + 1]), Files.readString(
+                    Paths.get(args[i + 2])), Paths.get(args[i + 3]),
+                    Runtime.getRuntime().availableProcessors(), WorkQueue.LEASE_MILLIS);
+          } catch (IOException e) {
+            System.out.println("Please input a valid file.");
+            return;
+          } catch (IllegalArgumentException e) {
+            System.out.println("Invalid script: " + e.getMessage());
+            return;
+          }
+          showMetrics();
+          try {
+            queue.runApp();
+          } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+          }
+          System.out.println(WorkQueue.progress(Paths.get(args[i + 1])));
+          return;
+        }
+
+        //prints how far the workers of a queue have come
+        if (args[i].equals("-queue-status") && i + 1 < args.length) {
+          try {
+            System.out.println(WorkQueue.progress(Paths.get(args[i + 1])));
+          } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+          }
+          return;
+        }
+
+        //a worker process of a farm, which talks to it over standard input and output
+        if (args[i].equals("-tile-worker")) {
+          try {
+            TileFarm.work();
+          } catch (IOException e) {
+            System.err.println("Lost the farm: " + e.getMessage());
+          }
+          return;
         }
 
         //prints a message if the arguments are not applicable
@@ -55,10 +284,26 @@ public class ImageProgram {
       }
 
     } else {
-      //call the GUI application if no arguments are called
-      new GUIViewImpl(img).setVisible(true);
+      //call the GUI application if no arguments are called and the GUI is installed
+      Optional<ImageProcessorController> gui =
+              ServiceLoader.load(ImageProcessorController.class).findFirst();
+      if (gui.isEmpty()) {
+        System.out.println("The GUI is not installed. Please give arguments to use the program.");
+        return;
+      }
+      showMetrics();
+      gui.get().runApp();
     }
   }
+
+  /**
+   * Shows the model and command metrics through JMX. Only runs that keep going for a while do
+   * this, "-file" and "-run" finish before anyone could look at them.
+   */
+  private static void showMetrics() {
+    ModelMetrics.register();
+    CommandMetrics.register();
+  }
 }
 
 
@@ -0,0 +1,405 @@
+package controller;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import controller.commands.ImageProcessingCommand;
+import controller.commands.Load;
+import controller.commands.Save;
+import model.ImageProcessorModel;
+import model.RasterPool;
+
+/**
+ * Runs image jobs, each a script that loads, processes and saves images, on a thread of its own.
+ * On a Java version with virtual threads every job gets a virtual thread, so jobs blocked on file
+ * reads and writes cost next to nothing; older versions fall back to a pool of as many platform
+ * threads as jobs may run at the same time, so waiting jobs hold no thread. Loads and saves run on
+ * the thread of the job, while every other command is handed to a compute pool with a thread per
+ * core, so however many jobs are in flight the cores are never oversubscribed. The compute pool is
+ * a fork/join pool, so a command that splits a large image into bands forks them on the same
+ * threads instead of the common pool, and never adds threads to wait for them. Loads and saves
+ * still decode and encode large files on the common pool.
+ *
+ * <p>The executor counts how busy the compute pool is, how many commands wait for it, and how
+ * long the jobs spent waiting for a compute thread, computing and reading and writing files.
+ */
+public class JobExecutor implements Closeable {
+
+  private final ExecutorService jobs;
+  private final ForkJoinPool compute;
+  private final Semaphore admission;
+  private final RasterPool pool;
+  private final boolean virtual;
+  private final AtomicInteger waitingJobs;
+  private final AtomicInteger runningJobs;
+  private final AtomicInteger computing;
+  private final LongAdder completedJobs;
+  private final LongAdder failedJobs;
+  private final LongAdder admissionWaitNanos;
+  private final LongAdder computeWaitNanos;
+  private final LongAdder computeNanos;
+  private final LongAdder ioNanos;
+
+  /**
+   * Creates an executor.
+   *
+   * @param computeThreads the number of commands computed at the same time.
+   * @param maxJobs        the number of jobs running at the same time, which bounds the memory
+   *                       their images take; further jobs wait for one of them to finish.
+   * @throws IllegalArgumentException if a number is not positive.
+   */
+  public JobExecutor(int computeThreads, int maxJobs) throws IllegalArgumentException {
+    if (computeThreads <= 0 || maxJobs <= 0) {
+      throw new IllegalArgumentException("Thread and job counts must be positive");
+    }
+    ThreadFactory virtualThreads = virtualThreadFactory();
+    this.virtual = virtualThreads != null;
+    // a platform thread per waiting job would cost a stack each, so without virtual threads jobs
+    // past the most running ones wait in the queue of a pool of that many threads instead
+    this.jobs = virtual ? Executors.newCachedThreadPool(virtualThreads)
+            : Executors.newFixedThreadPool(maxJobs, task -> {
+              Thread thread = new Thread(task, "image-job");
+              thread.setDaemon(true);
+              return thread;
+            });
+    // no spare threads are started while a thread waits for the bands it forked, it helps with
+    // them or waits
+    this.compute = new ForkJoinPool(computeThreads, forkJoinPool -> {
+      ForkJoinWorkerThread thread =
+              ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+      thread.setName("image-compute");
+      return thread;
+    }, null, false, 0, computeThreads, 1, forkJoinPool -> true, 60, TimeUnit.SECONDS);
+    this.admission = new Semaphore(maxJobs, true);
+    this.pool = new RasterPool();
+    this.waitingJobs = new AtomicInteger();
+    this.runningJobs = new AtomicInteger();
+    this.computing = new AtomicInteger();
+    this.completedJobs = new LongAdder();
+    this.failedJobs = new LongAdder();
+    this.admissionWaitNanos = new LongAdder();
+    this.computeWaitNanos = new LongAdder();
+    this.computeNanos = new LongAdder();
+    this.ioNanos = new LongAdder();
+  }
+
+  /**
+   * Starts a job.
+   *
+   * @param script the script of the job, in the usual command grammar.
+   * @return the job, done once its last save is written.
+   * @throws IllegalArgumentException if the script is null.
+   * @throws IllegalStateException    if the executor is closed.
+   */
+  public Future<Void> submit(String script) throws IllegalArgumentException,
+          IllegalStateException {
+    if (script == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    return start(() -> parse(script));
+  }
+
+  /**
+   * Starts a job running a compiled script.
+   *
+   * @param script    the script of the job.
+   * @param arguments the values of the parameters of the script.
+   * @return the job, done once its last save is written.
+   * @throws IllegalArgumentException if an argument is null.
+   * @throws IllegalStateException    if the executor is closed.
+   */
+  public Future<Void> submit(CompiledScript script, Map<String, String> arguments)
+          throws IllegalArgumentException, IllegalStateException {
+    if (script == null || arguments == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    return start(() -> script.expand(arguments));
+  }
+
+  /**
+   * Starts a job, which waits until fewer than the most jobs are running.
+   *
+   * @param commands builds the commands of the job, on the thread of the job.
+   * @return the job.
+   * @throws IllegalStateException if the executor is closed.
+   */
+  private Future<Void> start(Supplier<List<ImageProcessingCommand>> commands)
+          throws IllegalStateException {
+    waitingJobs.incrementAndGet();
+    long submitted = System.nanoTime();
+    try {
+      return start(commands, submitted);
+    } catch (RejectedExecutionException e) {
+      waitingJobs.decrementAndGet();
+      throw new IllegalStateException("Executor is closed");
+    }
+  }
+
+  private Future<Void> start(Supplier<List<ImageProcessingCommand>> commands, long submitted) {
+    return CompletableFuture.runAsync(() -> {
+      try {
+        admission.acquire();
+      } catch (InterruptedException e) {
+        waitingJobs.decrementAndGet();
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting to start");
+      }
+      waitingJobs.decrementAndGet();
+      runningJobs.incrementAndGet();
+      admissionWaitNanos.add(System.nanoTime() - submitted);
+      try {
+        run(commands.get());
+        completedJobs.increment();
+      } catch (RuntimeException e) {
+        failedJobs.increment();
+        throw e;
+      } finally {
+        runningJobs.decrementAndGet();
+        admission.release();
+      }
+    }, jobs);
+  }
+
+  /**
+   * Determines if jobs run on virtual threads.
+   *
+   * @return false if this Java version has no virtual threads.
+   */
+  public boolean isVirtual() {
+    return virtual;
+  }
+
+  /**
+   * Retrieves the number of jobs submitted but not started, because the most jobs are running.
+   *
+   * @return the number of waiting jobs.
+   */
+  public int getWaitingJobs() {
+    return waitingJobs.get();
+  }
+
+  /**
+   * Retrieves the number of jobs running.
+   *
+   * @return the number of running jobs.
+   */
+  public int getRunningJobs() {
+    return runningJobs.get();
+  }
+
+  /**
+   * Retrieves the number of commands waiting for a compute thread.
+   *
+   * @return the depth of the compute queue.
+   */
+  public int getComputeQueueDepth() {
+    return (int) compute.getQueuedSubmissionCount();
+  }
+
+  /**
+   * Retrieves the share of compute threads busy right now.
+   *
+   * @return a number from 0 (idle) to 1 (every thread computing).
+   */
+  public double getComputeSaturation() {
+    return (double) computing.get() / compute.getParallelism();
+  }
+
+  /**
+   * Retrieves the number of jobs that finished.
+   *
+   * @return the number of jobs that completed.
+   */
+  public long getCompletedJobs() {
+    return completedJobs.sum();
+  }
+
+  /**
+   * Retrieves the number of jobs that failed.
+   *
+   * @return the number of jobs that failed.
+   */
+  public long getFailedJobs() {
+    return failedJobs.sum();
+  }
+
+  /**
+   * Retrieves the time jobs waited to start, summed over all jobs.
+   *
+   * @return the time in nanoseconds.
+   */
+  public long getAdmissionWaitNanos() {
+    return admissionWaitNanos.sum();
+  }
+
+  /**
+   * Retrieves the time commands waited for a compute thread, summed over all jobs.
+   *
+   * @return the time in nanoseconds.
+   */
+  public long getComputeWaitNanos() {
+    return computeWaitNanos.sum();
+  }
+
+  /**
+   * Retrieves the time spent computing commands, summed over all jobs.
+   *
+   * @return the time in nanoseconds.
+   */
+  public long getComputeNanos() {
+    return computeNanos.sum();
+  }
+
+  /**
+   * Retrieves the time spent loading and saving images, summed over all jobs.
+   *
+   * @return the time in nanoseconds.
+   */
+  public long getIoNanos() {
+    return ioNanos.sum();
+  }
+
+  /**
+   * Describes the counts in one line.
+   *
+   * @return the description.
+   */
+  @Override
+  public String toString() {
+    return String.format(Locale.ROOT, "%d jobs done, %d failed, %d running, %d waiting on %s "
+                    + "threads; compute %.0f%% busy, %d queued; waited %.1f ms to start and "
+                    + "%.1f ms for compute, computed %.1f ms, loaded and saved %.1f ms",
+            getCompletedJobs(), getFailedJobs(), getRunningJobs(), getWaitingJobs(),
+            virtual ? "virtual" : "platform", getComputeSaturation() * 100,
+            getComputeQueueDepth(), getAdmissionWaitNanos() / 1e6, getComputeWaitNanos() / 1e6,
+            getComputeNanos() / 1e6, getIoNanos() / 1e6);
+  }
+
+  /**
+   * Stops accepting jobs and waits for the submitted ones to finish.
+   */
+  @Override
+  public void close() {
+    jobs.shutdown();
+    try {
+      jobs.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    compute.shutdown();
+  }
+
+  /**
+   * Parses the script of a job.
+   *
+   * @param script the script.
+   * @return the commands of the script.
+   */
+  private List<ImageProcessingCommand> parse(String script) {
+    Scanner scan = new Scanner(script);
+    List<ImageProcessingCommand> commands = new ArrayList<>();
+    while (scan.hasNext()) {
+      String inputCommand = scan.next();
+      if (inputCommand.equalsIgnoreCase("q")) {
+        break;
+      }
+      Function<Scanner, ImageProcessingCommand> c = Commands.find(inputCommand);
+      if (c == null) {
+        throw new IllegalArgumentException("Unknown command " + inputCommand);
+      }
+      commands.add(c.apply(scan));
+    }
+    return commands;
+  }
+
+  /**
+   * Runs the commands of a job on a model of its own.
+   *
+   * @param commands the commands.
+   */
+  private void run(List<ImageProcessingCommand> commands) {
+    ImageProcessorModel model = new ImageProcessorModel(pool);
+    try {
+      for (ImageProcessingCommand command : commands) {
+        if (command instanceof Load || command instanceof Save) {
+          long start = System.nanoTime();
+          command.run(model);
+          ioNanos.add(System.nanoTime() - start);
+        } else {
+          compute(command, model);
+        }
+      }
+    } finally {
+      model.dropAll();
+    }
+  }
+
+  /**
+   * Runs a command on a compute thread, blocking the job until it is done.
+   *
+   * @param command the command.
+   * @param model   the model of the job.
+   */
+  private void compute(ImageProcessingCommand command, ImageProcessorModel model) {
+    long queued = System.nanoTime();
+    Future<?> done = compute.submit(() -> {
+      long start = System.nanoTime();
+      computeWaitNanos.add(start - queued);
+      computing.incrementAndGet();
+      try {
+        command.run(model);
+      } finally {
+        computing.decrementAndGet();
+        computeNanos.add(System.nanoTime() - start);
+      }
+    });
+    try {
+      done.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } catch (InterruptedException e) {
+      done.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while computing");
+    }
+  }
+
+  /**
+   * Looks up the factory of virtual threads, which only exists from Java 21 on.
+   *
+   * @return the factory, or null if this Java version has no virtual threads.
+   */
+  private static ThreadFactory virtualThreadFactory() {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+      builder = builderType.getMethod("name", String.class, long.class)
+              .invoke(builder, "image-job-", 0L);
+      return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+}
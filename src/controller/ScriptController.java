@@ -0,0 +1,108 @@
+package controller;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.function.Function;
+
+import controller.commands.ImageProcessingCommand;
+import model.ImageProcessorModel;
+import view.ImageView;
+
+/**
+ * Controller for script files. Unlike the interactive controller it reads the whole script before
+ * running it, so a script that only loads, applies pixel operations and saves PPM or raw files can
+ * be streamed through a few rows at a time. Any other script runs command by command on the model,
+ * with the next loads decoded ahead of time and saves written in the background.
+ */
+public class ScriptController implements ImageProcessorController {
+
+  private final Readable rd;
+  private final ImageProcessorModel model;
+  private final ImageView view;
+
+  /**
+   * The controller constructor that takes in a model, a view and the script to run.
+   *
+   * @param model the model
+   * @param view  the view
+   * @param rd    the script
+   * @throws IllegalArgumentException when either argument is null
+   */
+  public ScriptController(ImageProcessorModel model, ImageView view, Readable rd)
+          throws IllegalArgumentException {
+    if (model == null || view == null || rd == null) {
+      throw new IllegalArgumentException("Invalid model, view or input");
+    }
+    this.model = model;
+    this.view = view;
+    this.rd = rd;
+  }
+
+  /**
+   * Reads the script up to its end or the first "q", then streams or runs it.
+   *
+   * @throws IllegalArgumentException if a command is invalid or a file cannot be read or written.
+   */
+  @Override
+  public void runApp() throws IllegalArgumentException {
+    Scanner scan = new Scanner(this.rd);
+    renderMessage("Please enter a command!");
+
+    List<ImageProcessingCommand> commands = new ArrayList<>();
+    int saves = 0;
+    while (scan.hasNext()) {
+      String inputCommand = scan.next();
+      if (inputCommand.equalsIgnoreCase("q")) {
+        break;
+      }
+      if (inputCommand.equalsIgnoreCase("save")) {
+        saves++;
+      }
+      Function<Scanner, ImageProcessingCommand> c = Commands.find(inputCommand);
+      if (c == null) {
+        throw new IllegalArgumentException();
+      }
+      commands.add(c.apply(scan));
+    }
+    run(model, commands);
+    // saves are streamed or written in the background, they are only done once the run is over
+    for (int i = 0; i < saves; i++) {
+      renderMessage("Successfully saved the file to the desired directory :)");
+    }
+  }
+
+  /**
+   * Streams the commands of a script if they can be streamed, or runs them on the model.
+   *
+   * @param model    the model.
+   * @param commands the commands, in order.
+   * @throws IllegalArgumentException if a command fails or a file cannot be read or written.
+   */
+  static void run(ImageProcessorModel model, List<ImageProcessingCommand> commands)
+          throws IllegalArgumentException {
+    StreamingPlan plan = StreamingPlan.of(commands);
+    if (plan != null) {
+      try {
+        plan.run();
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Unable to stream the script: " + e.getMessage());
+      }
+      return;
+    }
+    try (IOScheduler io = new IOScheduler(model, commands)) {
+      for (ImageProcessingCommand command : commands) {
+        io.run(command);
+      }
+    }
+  }
+
+  private void renderMessage(String message) {
+    try {
+      this.view.renderMessage(message);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to transmit");
+    }
+  }
+}
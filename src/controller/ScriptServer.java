@@ -0,0 +1,267 @@
+package controller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+import controller.commands.ImageProcessingCommand;
+import model.ImageProcessorModel;
+import model.RasterPool;
+
+/**
+ * Controller that keeps the program running and accepts scripts over a local socket, either a
+ * Unix domain socket or a TCP port on the loopback address. Every connection is a session with
+ * its own model, taken from a pool of idle models that all share one raster pool, so a warm server
+ * neither starts a JVM nor allocates new images for each script. Sessions run concurrently.
+ *
+ * <p>A client sends a script in the usual command grammar and ends it with "q" or by closing its
+ * side of the connection. The server answers with one line per command, "ok command time ms" or
+ * "error command message", and a final "done" line with the totals. A command whose arguments
+ * cannot be read takes the rest of its line with it, so they are not run as commands. Every
+ * command is timed in the command metrics, as the commands of ScriptController are.
+ *
+ * <p>Anyone on the machine can connect to a loopback port, and a script may read and write any
+ * file the server can, so on a TCP port a client must first send "auth" and the token of the
+ * server; a session that does not is answered "error auth invalid token" and closed before any
+ * command runs. A Unix domain socket is guarded by the permissions of its file instead.
+ */
+public class ScriptServer implements ImageProcessorController, Closeable {
+
+  private static final int TOKEN_BYTES = 16;
+
+  private final SocketAddress address;
+  private final String token;
+  private final ExecutorService sessions;
+  private final RasterPool pool;
+  private final Queue<ImageProcessorModel> idleModels;
+  private ServerSocketChannel server;
+
+  /**
+   * Creates a server on a TCP port of the loopback address, with a random token, or on a Unix
+   * domain socket.
+   *
+   * @param endpoint a port number, 0 for any free port, or the path of the socket file.
+   * @param threads  the number of sessions served at the same time.
+   * @throws IllegalArgumentException if the endpoint is null or the thread count not positive.
+   */
+  public ScriptServer(String endpoint, int threads) throws IllegalArgumentException {
+    this(endpoint, threads, null);
+  }
+
+  /**
+   * Creates a server on a TCP port of the loopback address or on a Unix domain socket.
+   *
+   * @param endpoint a port number, 0 for any free port, or the path of the socket file.
+   * @param threads  the number of sessions served at the same time.
+   * @param token    the token TCP clients must send first, or null for a random one. Unused on a
+   *                 Unix domain socket.
+   * @throws IllegalArgumentException if the endpoint is null, the thread count not positive or
+   *                                  the token not one word.
+   */
+  public ScriptServer(String endpoint, int threads, String token)
+          throws IllegalArgumentException {
+    if (endpoint == null || threads <= 0) {
+      throw new IllegalArgumentException("Invalid endpoint or thread count");
+    }
+    if (token != null && !token.matches("\\S+")) {
+      throw new IllegalArgumentException("The token must be one word");
+    }
+    if (endpoint.matches("\\d+")) {
+      this.address = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+              Integer.parseInt(endpoint));
+      this.token = token == null ? randomToken() : token;
+    } else {
+      this.address = UnixDomainSocketAddress.of(endpoint);
+      this.token = null;
+    }
+    this.sessions = Executors.newFixedThreadPool(threads);
+    this.pool = new RasterPool();
+    this.idleModels = new ConcurrentLinkedQueue<>();
+  }
+
+  /**
+   * Retrieves the token TCP clients must send before their script.
+   *
+   * @return the token, or null on a Unix domain socket, which needs none.
+   */
+  public String getToken() {
+    return token;
+  }
+
+  /**
+   * Opens the socket, replacing a stale socket file left by a previous server. Called by runApp
+   * if it has not been called before.
+   *
+   * @return the address the server listens on, with the actual port if port 0 was asked for.
+   * @throws IOException if the socket cannot be opened.
+   */
+  public synchronized SocketAddress bind() throws IOException {
+    if (server == null) {
+      if (address instanceof UnixDomainSocketAddress) {
+        Path socket = ((UnixDomainSocketAddress) address).getPath();
+        if (Files.exists(socket, LinkOption.NOFOLLOW_LINKS) && Files.readAttributes(socket,
+                BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther()) {
+          Files.delete(socket);
+        }
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+      } else {
+        server = ServerSocketChannel.open(StandardProtocolFamily.INET);
+      }
+      server.bind(address);
+    }
+    return server.getLocalAddress();
+  }
+
+  /**
+   * Accepts connections until the server is closed, serving each one on the session threads.
+   *
+   * @throws IllegalArgumentException if the socket cannot be opened.
+   */
+  @Override
+  public void runApp() throws IllegalArgumentException {
+    ServerSocketChannel channel;
+    try {
+      bind();
+      synchronized (this) {
+        channel = server;
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to listen on " + address + ": " + e.getMessage());
+    }
+    try {
+      while (true) {
+        SocketChannel client = channel.accept();
+        sessions.execute(() -> serve(client));
+      }
+    } catch (ClosedChannelException e) {
+      // closed by close(), stop accepting
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Server stopped: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Stops accepting connections. Sessions already running are finished.
+   *
+   * @throws IOException if the socket cannot be closed.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    sessions.shutdown();
+    if (server != null) {
+      server.close();
+      if (address instanceof UnixDomainSocketAddress) {
+        Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+      }
+    }
+  }
+
+  /**
+   * Runs the script of one connection, reporting on every command.
+   *
+   * @param client the connection.
+   */
+  private void serve(SocketChannel client) {
+    ImageProcessorModel idle = idleModels.poll();
+    ImageProcessorModel model = idle == null ? new ImageProcessorModel(pool) : idle;
+    try (client;
+         Scanner scan = new Scanner(Channels.newInputStream(client), StandardCharsets.UTF_8);
+         PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                 Channels.newOutputStream(client), StandardCharsets.UTF_8), true)) {
+      if (token != null && !authenticated(scan)) {
+        out.println("error auth invalid token");
+        return;
+      }
+      long sessionStart = System.nanoTime();
+      int count = 0;
+      int failed = 0;
+      while (scan.hasNext()) {
+        String inputCommand = scan.next();
+        if (inputCommand.equalsIgnoreCase("q")) {
+          break;
+        }
+        long start = System.nanoTime();
+        count++;
+        try {
+          Function<Scanner, ImageProcessingCommand> c = Commands.find(inputCommand);
+          if (c == null) {
+            throw new IllegalArgumentException("unknown command");
+          }
+          ImageProcessingCommand command;
+          try {
+            command = c.apply(scan);
+          } catch (RuntimeException e) {
+            // the rest of the line holds the arguments that were not read, not commands
+            if (scan.hasNextLine()) {
+              scan.nextLine();
+            }
+            throw e;
+          }
+          CommandMetrics.get().time(command, () -> command.run(model));
+          out.println(String.format(Locale.ROOT, "ok %s %.3f ms", inputCommand,
+                  (System.nanoTime() - start) / 1e6));
+        } catch (RuntimeException e) {
+          failed++;
+          out.println("error " + inputCommand + " "
+                  + (e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage()));
+        }
+      }
+      out.println(String.format(Locale.ROOT, "done %d commands %d failed %.3f ms", count, failed,
+              (System.nanoTime() - sessionStart) / 1e6));
+    } catch (IOException e) {
+      // the client went away, nothing to report to
+    } finally {
+      model.dropAll();
+      idleModels.add(model);
+    }
+  }
+
+  /**
+   * Reads the "auth" line a TCP client starts with and checks its token, taking as long for a
+   * wrong token as for the right one.
+   *
+   * @param scan the scanner reading the connection.
+   * @return whether the client sent the token of the server.
+   */
+  private boolean authenticated(Scanner scan) {
+    if (!scan.hasNext() || !scan.next().equals("auth") || !scan.hasNext()) {
+      return false;
+    }
+    return MessageDigest.isEqual(scan.next().getBytes(StandardCharsets.UTF_8),
+            token.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String randomToken() {
+    byte[] bytes = new byte[TOKEN_BYTES];
+    new SecureRandom().nextBytes(bytes);
+    StringBuilder token = new StringBuilder();
+    for (byte b : bytes) {
+      token.append(String.format(Locale.ROOT, "%02x", b));
+    }
+    return token.toString();
+  }
+}
@@ -0,0 +1,183 @@
+package controller;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import controller.commands.ImageProcessingCommand;
+import controller.commands.Load;
+import controller.commands.PointCommand;
+import controller.commands.Save;
+import model.PixelOp;
+import model.RasterImage;
+import model.ScanlineReader;
+import model.ScanlineWriter;
+import model.Scanlines;
+
+/**
+ * A script run by streaming its images instead of loading them into the model. Only scripts made
+ * of loads, pixel operations and saves of PPM or raw files can be streamed: the rows of every
+ * loaded file are pushed a chunk at a time through the fused pixel operations and into the saved
+ * files, so memory stays proportional to the width of the image rather than its area.
+ */
+final class StreamingPlan {
+
+  private static final int CHUNK_PIXELS = 1 << 16;
+
+  private final List<Segment> segments;
+
+  private StreamingPlan(List<Segment> segments) {
+    this.segments = segments;
+  }
+
+  /**
+   * Plans the streaming of a script.
+   *
+   * @param commands the commands of the script, in order.
+   * @return the plan, or null if a command needs the whole image and the script has to run on the
+   *         model.
+   */
+  static StreamingPlan of(List<ImageProcessingCommand> commands) {
+    List<Segment> segments = new ArrayList<>();
+    Segment segment = null;
+    // the stage (number of operations applied) of every image name of the current segment
+    Map<String, Integer> stages = new HashMap<>();
+    for (ImageProcessingCommand command : commands) {
+      if (command instanceof Load) {
+        Load load = (Load) command;
+        if (!load.isWholeImage() || !Scanlines.supports(load.getPath())) {
+          return null;
+        }
+        segment = new Segment(load.getPath());
+        segments.add(segment);
+        stages.clear();
+        stages.put(load.getNewName(), 0);
+      } else if (command instanceof PointCommand && segment != null) {
+        PointCommand point = (PointCommand) command;
+        Integer stage = stages.get(point.getName());
+        if (stage == null || stage != segment.ops.size()) {
+          // reads an image that is not the end of the chain, so it would need a second stream
+          return null;
+        }
+        segment.ops.add(point.getPixelOp());
+        stages.put(point.getNewName(), segment.ops.size());
+      } else if (command instanceof Save && segment != null) {
+        Save save = (Save) command;
+        Integer stage = stages.get(save.getName());
+        if (stage == null || !Scanlines.supports(save.getPath())) {
+          return null;
+        }
+        segment.saves.add(save.getPath());
+        segment.saveStages.add(stage);
+      } else {
+        return null;
+      }
+    }
+    return new StreamingPlan(segments);
+  }
+
+  /**
+   * Plans the streaming of one file through a chain of pixel operations.
+   *
+   * @param source     the file to stream.
+   * @param ops        the operations, in order.
+   * @param saves      the files to save to.
+   * @param saveStages for every save, the number of operations applied to the image it saves.
+   * @return the plan.
+   */
+  static StreamingPlan of(String source, List<PixelOp> ops, List<String> saves,
+                          List<Integer> saveStages) {
+    Segment segment = new Segment(source);
+    segment.ops.addAll(ops);
+    segment.saves.addAll(saves);
+    segment.saveStages.addAll(saveStages);
+    return new StreamingPlan(List.of(segment));
+  }
+
+  /**
+   * Streams every loaded file of the script into the files it is saved to.
+   *
+   * @throws IOException              if a file cannot be read or written.
+   * @throws IllegalArgumentException if a loaded file is not valid.
+   */
+  void run() throws IOException, IllegalArgumentException {
+    for (Segment segment : segments) {
+      if (!segment.saves.isEmpty()) {
+        segment.run();
+      }
+    }
+  }
+
+  /**
+   * One loaded file, the operations applied to it and the files it is saved to.
+   */
+  private static final class Segment {
+    private final String source;
+    private final List<PixelOp> ops;
+    private final List<String> saves;
+    private final List<Integer> saveStages;
+
+    private Segment(String source) {
+      this.source = source;
+      this.ops = new ArrayList<>();
+      this.saves = new ArrayList<>();
+      this.saveStages = new ArrayList<>();
+    }
+
+    private void run() throws IOException {
+      // operations with no save between them are fused into one pass over each chunk, and
+      // operations after the last save are not applied at all
+      List<PixelOp> passes = new ArrayList<>();
+      List<Integer> passStages = new ArrayList<>();
+      int lastStage = saveStages.stream().max(Integer::compare).orElse(0);
+      PixelOp pass = null;
+      for (int stage = 1; stage <= lastStage; stage++) {
+        pass = pass == null ? ops.get(stage - 1) : pass.andThen(ops.get(stage - 1));
+        if (saveStages.contains(stage)) {
+          passes.add(pass);
+          passStages.add(stage);
+          pass = null;
+        }
+      }
+
+      try (ScanlineReader reader = Scanlines.reader(Paths.get(source))) {
+        int width = reader.getWidth();
+        int height = reader.getHeight();
+        List<ScanlineWriter> writers = new ArrayList<>();
+        try {
+          for (String save : saves) {
+            writers.add(Scanlines.writer(Paths.get(save), width, height));
+          }
+          int chunkRows = Math.max(1, CHUNK_PIXELS / width);
+          byte[] chunk = new byte[Math.min(chunkRows, height) * width * RasterImage.CHANNELS];
+          for (int y = 0; y < height; y += chunkRows) {
+            int rows = Math.min(chunkRows, height - y);
+            reader.readRows(chunk, rows);
+            write(writers, 0, chunk, rows);
+            for (int p = 0; p < passes.size(); p++) {
+              passes.get(p).apply(chunk, 0, chunk, 0, rows * width);
+              write(writers, passStages.get(p), chunk, rows);
+            }
+          }
+        } finally {
+          // in script order, so the last save of a file is the one that is kept
+          for (ScanlineWriter writer : writers) {
+            writer.close();
+          }
+        }
+      }
+    }
+
+    private void write(List<ScanlineWriter> writers, int stage, byte[] chunk, int rows)
+            throws IOException {
+      for (int i = 0; i < writers.size(); i++) {
+        if (saveStages.get(i) == stage) {
+          writers.get(i).writeRows(chunk, rows);
+        }
+      }
+    }
+  }
+}
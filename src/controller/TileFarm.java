@@ -0,0 +1,557 @@
+package controller;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import controller.commands.Flip;
+import controller.commands.ImageProcessingCommand;
+import controller.commands.Load;
+import controller.commands.PointCommand;
+import controller.commands.Save;
+import model.ImageProcessorModel;
+import model.RasterImage;
+import model.ScanlineReader;
+import model.ScanlineWriter;
+import model.Scanlines;
+import view.ImageView;
+
+/**
+ * Controller that runs a script on one image too large for a single JVM, in several worker
+ * processes. The image is read from its file a strip of tiles at a time and cut into tiles, and
+ * every worker, a JVM of its own with its own heap limit, takes tiles over a pipe, runs the
+ * commands of the script on them and sends them back to be put together into a strip of the saved
+ * file. Neither the image nor the result is ever whole in memory, so the image has to be a PPM,
+ * QOI or raw file, which are read and written row by row.
+ *
+ * <p>Only scripts that load one image, change it with pixel operations (brighten, grayscale,
+ * color transformations) and flips, and save it can be farmed. Every pixel of the result then only
+ * depends on the pixel it comes from, so the tiles need no overlap and the saved image is the same
+ * as when the script runs in one process; a flip is applied to every tile by its worker, and the
+ * tile is put back at the mirrored place. Blur and sharpen carry their sums from one pixel over to
+ * the next across the whole image, so no halo around a tile would reproduce them, and scripts
+ * using them or resizing the image are refused.
+ */
+public final class TileFarm implements ImageProcessorController {
+
+  /**
+   * The default width and height of a tile, in pixels.
+   */
+  public static final int TILE_SIZE = 1024;
+
+  private static final int MAX_STRIP_BYTES = Integer.MAX_VALUE - 8;
+  private static final int OK = 1;
+  private static final int FAILED = 2;
+
+  private final ImageView view;
+  private final String script;
+  private final Map<String, String> arguments;
+  private final Plan plan;
+  private final int workers;
+  private final int heapMegabytes;
+  private final int tileSize;
+
+  /**
+   * Creates a farm.
+   *
+   * @param view          the view reporting the run.
+   * @param script        the script, which may declare parameters as a CompiledScript does.
+   * @param arguments     the values of the parameters of the script.
+   * @param workers       the number of worker processes.
+   * @param heapMegabytes the heap limit of every worker process, in megabytes.
+   * @param tileSize      the width and height of a tile, in pixels.
+   * @throws IllegalArgumentException if an argument is null, a number is not positive, or the
+   *                                  script is invalid or cannot be farmed.
+   */
+  public TileFarm(ImageView view, String script, Map<String, String> arguments, int workers,
+                  int heapMegabytes, int tileSize) throws IllegalArgumentException {
+    if (view == null || script == null || arguments == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    if (workers <= 0 || heapMegabytes <= 0 || tileSize <= 0) {
+      throw new IllegalArgumentException("Worker count, heap size and tile size must be positive");
+    }
+    this.view = view;
+    this.script = script;
+    this.arguments = new HashMap<>(arguments);
+    this.plan = Plan.of(CompiledScript.compile(script).expand(this.arguments));
+    this.workers = workers;
+    this.heapMegabytes = heapMegabytes;
+    this.tileSize = tileSize;
+  }
+
+  /**
+   * Reads the image a strip of tiles at a time, has the workers process the tiles of every strip,
+   * and writes the processed strips to the saved file, so that only two strips are ever in memory.
+   *
+   * @throws IllegalArgumentException if the image cannot be loaded or saved, is too wide to be
+   *                                  read in strips, or a tile fails.
+   * @throws IllegalStateException    if a worker process cannot be started or stops.
+   */
+  @Override
+  public void runApp() throws IllegalArgumentException, IllegalStateException {
+    long start = System.nanoTime();
+    Path source = Paths.get(plan.load.getPath());
+    List<Worker> started = new ArrayList<>();
+    ExecutorService threads = null;
+    try (ScanlineReader reader = Scanlines.reader(source)) {
+      int width = reader.getWidth();
+      int height = reader.getHeight();
+      int rows = Math.min(tileSize, height);
+      long stripBytes = (long) rows * width * RasterImage.CHANNELS;
+      if (stripBytes > MAX_STRIP_BYTES) {
+        throw new IllegalArgumentException("A strip of " + rows + " rows of a " + width
+                + " pixel wide image is too large to farm, use smaller tiles");
+      }
+      byte[] strip = new byte[(int) stripBytes];
+      byte[] processed = new byte[(int) stripBytes];
+      int columns = (width + tileSize - 1) / tileSize;
+      int processes = Math.min(workers, columns);
+      BlockingQueue<Worker> idle = new ArrayBlockingQueue<>(processes);
+      for (int i = 0; i < processes; i++) {
+        Worker worker = new Worker(heapMegabytes, script, arguments);
+        started.add(worker);
+        idle.add(worker);
+      }
+      threads = Executors.newFixedThreadPool(processes);
+      int tiles = 0;
+      try (Output output = new Output(Paths.get(plan.save.getPath()), width, height,
+              plan.mirrorRows)) {
+        for (int y = 0; y < height; y += rows) {
+          int stripRows = Math.min(rows, height - y);
+          reader.readRows(strip, stripRows);
+          List<Future<Void>> done = new ArrayList<>();
+          for (int x = 0; x < width; x += tileSize) {
+            int[] tile = {x, Math.min(tileSize, width - x), stripRows};
+            done.add(threads.submit(() -> {
+              Worker worker = idle.take();
+              try {
+                worker.process(tile, width, strip, processed, plan);
+              } finally {
+                idle.put(worker);
+              }
+              return null;
+            }));
+            tiles++;
+          }
+          for (Future<Void> tile : done) {
+            tile.get();
+          }
+          output.write(processed, stripRows, plan.mirrorRows ? height - y - stripRows : y);
+        }
+        output.finish(processed, rows);
+      }
+      view.renderMessage(String.format(Locale.ROOT, "farmed %dx%d image in %d tiles over %d "
+              + "workers in %.1f ms", width, height, tiles, processes,
+              (System.nanoTime() - start) / 1e6));
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IllegalArgumentException) {
+        throw (IllegalArgumentException) e.getCause();
+      }
+      throw new IllegalStateException("Tile worker failed: " + e.getCause().getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while farming tiles");
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to farm " + source + ": " + e.getMessage());
+    } finally {
+      if (threads != null) {
+        threads.shutdownNow();
+      }
+      for (Worker worker : started) {
+        worker.close();
+      }
+    }
+  }
+
+  /**
+   * Runs as a worker process: reads the script from standard input, then processes tiles until
+   * the farm is done. Anything the commands print goes to standard error, standard output only
+   * carries the tiles back.
+   *
+   * @throws IOException if the pipe to the farm breaks.
+   */
+  static void work() throws IOException {
+    OutputStream out = new FileOutputStream(FileDescriptor.out);
+    System.setOut(System.err);
+    work(System.in, out);
+  }
+
+  /**
+   * Processes tiles sent over a pipe.
+   *
+   * @param in  the stream the script and the tiles come from.
+   * @param out the stream the processed tiles go to.
+   * @throws IOException if a stream breaks.
+   */
+  private static void work(InputStream in, OutputStream out) throws IOException {
+    DataInputStream input = new DataInputStream(new BufferedInputStream(in));
+    DataOutputStream output = new DataOutputStream(new BufferedOutputStream(out));
+    byte[] text = new byte[input.readInt()];
+    input.readFully(text);
+    Map<String, String> arguments = new HashMap<>();
+    for (int i = input.readInt(); i > 0; i--) {
+      arguments.put(input.readUTF(), input.readUTF());
+    }
+    Plan plan = null;
+    String failure = null;
+    try {
+      plan = Plan.of(CompiledScript.compile(new String(text, StandardCharsets.UTF_8))
+              .expand(arguments));
+    } catch (IllegalArgumentException e) {
+      failure = String.valueOf(e.getMessage());
+    }
+
+    ImageProcessorModel model = new ImageProcessorModel();
+    for (int width = input.readInt(); width > 0; width = input.readInt()) {
+      int height = input.readInt();
+      byte[] tile = new byte[width * height * RasterImage.CHANNELS];
+      input.readFully(tile);
+      try {
+        if (plan == null) {
+          throw new IllegalArgumentException(failure);
+        }
+        model.storeImage(plan.load.getNewName(), new RasterImage(width, height, tile));
+        for (ImageProcessingCommand command : plan.commands) {
+          command.run(model);
+        }
+        RasterImage processed = RasterImage.of(model.findImage(plan.save.getName()));
+        byte[] bytes = new byte[processed.getWidth() * processed.getHeight()
+                * RasterImage.CHANNELS];
+        processed.getData().get(bytes);
+        model.dropAll();
+        output.writeInt(OK);
+        output.writeInt(processed.getWidth());
+        output.writeInt(processed.getHeight());
+        output.write(bytes);
+      } catch (IllegalArgumentException e) {
+        model.dropAll();
+        output.writeInt(FAILED);
+        output.writeUTF(String.valueOf(e.getMessage()));
+      }
+      output.flush();
+    }
+  }
+
+  /**
+   * The parts of a script that can be farmed: the load, the commands run on every tile and the
+   * save, with the flips that decide where a processed tile goes.
+   */
+  private static final class Plan {
+    private final Load load;
+    private final List<ImageProcessingCommand> commands;
+    private final Save save;
+    private final boolean mirrorColumns;
+    private final boolean mirrorRows;
+
+    private Plan(Load load, List<ImageProcessingCommand> commands, Save save,
+                 boolean mirrorColumns, boolean mirrorRows) {
+      this.load = load;
+      this.commands = commands;
+      this.save = save;
+      this.mirrorColumns = mirrorColumns;
+      this.mirrorRows = mirrorRows;
+    }
+
+    /**
+     * Checks that a script loads one whole image, changes it with a chain of pixel operations and
+     * flips, and saves the end of the chain.
+     *
+     * @param script the commands of the script.
+     * @return the plan.
+     * @throws IllegalArgumentException if the script cannot be farmed.
+     */
+    static Plan of(List<ImageProcessingCommand> script) throws IllegalArgumentException {
+      if (script.size() < 2 || !(script.get(0) instanceof Load)
+              || !(script.get(script.size() - 1) instanceof Save)) {
+        throw new IllegalArgumentException("A farmed script must load one image first and save it "
+                + "last");
+      }
+      Load load = (Load) script.get(0);
+      Save save = (Save) script.get(script.size() - 1);
+      if (!load.isWholeImage()) {
+        throw new IllegalArgumentException("A farmed script must load the whole image");
+      }
+      if (!Scanlines.supports(load.getPath()) || !Scanlines.supports(save.getPath())) {
+        throw new IllegalArgumentException("A farmed script must load and save PPM, QOI or raw "
+                + "files, which are streamed");
+      }
+      List<ImageProcessingCommand> commands = script.subList(1, script.size() - 1);
+      String current = load.getNewName();
+      boolean mirrorColumns = false;
+      boolean mirrorRows = false;
+      for (ImageProcessingCommand command : commands) {
+        String name;
+        String newName;
+        if (command instanceof PointCommand) {
+          name = ((PointCommand) command).getName();
+          newName = ((PointCommand) command).getNewName();
+        } else if (command instanceof Flip) {
+          Flip flip = (Flip) command;
+          name = flip.getName();
+          newName = flip.getNewName();
+          if (flip.getFlip() == ImageProcessorModel.FlipMode.Horizontal) {
+            mirrorColumns = !mirrorColumns;
+          } else {
+            mirrorRows = !mirrorRows;
+          }
+        } else {
+          throw new IllegalArgumentException("Only pixel operations and flips can be farmed, not "
+                  + command.getClass().getSimpleName());
+        }
+        if (!name.equals(current)) {
+          throw new IllegalArgumentException("A farmed script must change one image step by step,"
+                  + " " + name + " is not " + current);
+        }
+        current = newName;
+      }
+      if (!save.getName().equals(current)) {
+        throw new IllegalArgumentException("A farmed script must save " + current);
+      }
+      return new Plan(load, new ArrayList<>(commands), save, mirrorColumns, mirrorRows);
+    }
+  }
+
+  /**
+   * A worker process and the pipe to it.
+   */
+  private static final class Worker implements Closeable {
+    private final Process process;
+    private final DataOutputStream output;
+    private final DataInputStream input;
+
+    /**
+     * Starts a worker process and sends it the script.
+     *
+     * @param heapMegabytes the heap limit of the process.
+     * @param script        the script.
+     * @param arguments     the values of the parameters of the script.
+     * @throws IOException if the process cannot be started.
+     */
+    private Worker(int heapMegabytes, String script, Map<String, String> arguments)
+            throws IOException {
+      this.process = new ProcessBuilder(command(heapMegabytes))
+              .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+      this.output = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+      this.input = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+      byte[] text = script.getBytes(StandardCharsets.UTF_8);
+      output.writeInt(text.length);
+      output.write(text);
+      output.writeInt(arguments.size());
+      for (Map.Entry<String, String> argument : arguments.entrySet()) {
+        output.writeUTF(argument.getKey());
+        output.writeUTF(argument.getValue());
+      }
+    }
+
+    /**
+     * Builds the command line of a worker: the same Java, classes and modules as this process,
+     * with its own heap limit.
+     *
+     * @param heapMegabytes the heap limit.
+     * @return the command line.
+     */
+    private static List<String> command(int heapMegabytes) {
+      List<String> command = new ArrayList<>();
+      command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+      command.add("-Xmx" + heapMegabytes + "m");
+      command.add("-Djava.awt.headless=true");
+      Module module = TileFarm.class.getModule();
+      if (module.isNamed()) {
+        String path = System.getProperty("jdk.module.path");
+        if (path != null) {
+          command.add("--module-path");
+          command.add(path);
+        }
+        command.add("--module");
+        command.add(module.getName() + "/" + ImageProgram.class.getName());
+      } else {
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ImageProgram.class.getName());
+      }
+      command.add("-tile-worker");
+      return command;
+    }
+
+    /**
+     * Sends one tile of a strip to the worker and puts the processed tile into the processed
+     * strip.
+     *
+     * @param tile      the column, width and height of the tile.
+     * @param width     the width of the image.
+     * @param strip     the bytes of the strip the tile is in.
+     * @param processed the bytes of the processed strip.
+     * @param plan      the plan, to mirror the place of the tile.
+     * @throws IOException              if the pipe breaks.
+     * @throws IllegalArgumentException if the worker cannot process the tile.
+     */
+    private void process(int[] tile, int width, byte[] strip, byte[] processed, Plan plan)
+            throws IOException, IllegalArgumentException {
+      int stripRowBytes = width * RasterImage.CHANNELS;
+      int rowBytes = tile[1] * RasterImage.CHANNELS;
+      byte[] bytes = new byte[rowBytes * tile[2]];
+      for (int row = 0; row < tile[2]; row++) {
+        System.arraycopy(strip, row * stripRowBytes + tile[0] * RasterImage.CHANNELS, bytes,
+                row * rowBytes, rowBytes);
+      }
+      output.writeInt(tile[1]);
+      output.writeInt(tile[2]);
+      output.write(bytes);
+      output.flush();
+
+      if (input.readInt() != OK) {
+        throw new IllegalArgumentException(input.readUTF());
+      }
+      if (input.readInt() != tile[1] || input.readInt() != tile[2]) {
+        throw new IllegalStateException("Worker changed the size of a tile");
+      }
+      input.readFully(bytes);
+      int x = plan.mirrorColumns ? width - tile[0] - tile[1] : tile[0];
+      for (int row = 0; row < tile[2]; row++) {
+        System.arraycopy(bytes, row * rowBytes, processed,
+                row * stripRowBytes + x * RasterImage.CHANNELS, rowBytes);
+      }
+    }
+
+    /**
+     * Tells the worker to quit and waits for it, killing it if it does not.
+     */
+    @Override
+    public void close() {
+      try {
+        output.writeInt(0);
+        output.close();
+      } catch (IOException e) {
+        // the worker is gone already
+      }
+      try {
+        if (!process.waitFor(10, TimeUnit.SECONDS)) {
+          process.destroyForcibly();
+        }
+      } catch (InterruptedException e) {
+        process.destroyForcibly();
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Where the processed strips go: straight to the saved file when they come in order, or, when
+   * the script flips the image vertically and the last strip comes first, to their place in a
+   * temporary file, which is copied to the saved file once every strip is in.
+   */
+  private static final class Output implements Closeable {
+    private final Path target;
+    private final int width;
+    private final int height;
+    private final ScanlineWriter writer;
+    private final Path spoolPath;
+    private final FileChannel spool;
+
+    private Output(Path target, int width, int height, boolean reversed) throws IOException {
+      this.target = target;
+      this.width = width;
+      this.height = height;
+      if (reversed) {
+        this.writer = null;
+        this.spoolPath = Files.createTempFile(target.toAbsolutePath().getParent(), ".farm",
+                ".tmp");
+        this.spool = FileChannel.open(spoolPath, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+      } else {
+        this.writer = Scanlines.writer(target, width, height);
+        this.spoolPath = null;
+        this.spool = null;
+      }
+    }
+
+    /**
+     * Writes a processed strip.
+     *
+     * @param rows  the bytes of the strip.
+     * @param count the number of rows in the strip.
+     * @param y     the row of the saved image the strip starts at.
+     * @throws IOException if the file cannot be written.
+     */
+    private void write(byte[] rows, int count, int y) throws IOException {
+      if (spool == null) {
+        writer.writeRows(rows, count);
+        return;
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(rows, 0, count * width * RasterImage.CHANNELS);
+      long position = (long) y * width * RasterImage.CHANNELS;
+      while (buffer.hasRemaining()) {
+        position += spool.write(buffer, position);
+      }
+    }
+
+    /**
+     * Copies the temporary file to the saved file, if there is one.
+     *
+     * @param buffer a buffer of whole rows.
+     * @param rows   the number of rows the buffer holds.
+     * @throws IOException if a file cannot be read or written.
+     */
+    private void finish(byte[] buffer, int rows) throws IOException {
+      if (spool == null) {
+        return;
+      }
+      try (ScanlineWriter out = Scanlines.writer(target, width, height)) {
+        for (int y = 0; y < height; y += rows) {
+          int count = Math.min(rows, height - y);
+          ByteBuffer strip = ByteBuffer.wrap(buffer, 0, count * width * RasterImage.CHANNELS);
+          long position = (long) y * width * RasterImage.CHANNELS;
+          while (strip.hasRemaining()) {
+            int read = spool.read(strip, position);
+            if (read < 0) {
+              throw new EOFException("The farmed strips end at row " + y);
+            }
+            position += read;
+          }
+          out.writeRows(buffer, count);
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (writer != null) {
+        writer.close();
+      } else {
+        try {
+          spool.close();
+        } finally {
+          Files.deleteIfExists(spoolPath);
+        }
+      }
+    }
+  }
+}
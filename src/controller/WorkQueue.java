@@ -0,0 +1,500 @@
+package controller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import model.ImageProcessorModel;
+import model.RasterPool;
+import view.ImageView;
+
+/**
+ * Controller that takes jobs from a queue kept in a folder, so that several programs, on one
+ * machine or on machines sharing a filesystem, can split a list of images between them without a
+ * scheduler. The queue folder holds:
+ *
+ * <ul>
+ *   <li>jobs/, a file per image to process, holding its path;</li>
+ *   <li>leases/, a file per job being processed, created by the worker that claims the job and
+ *   touched by it while it works, so a lease that has not been touched for the lease time
+ *   belongs to a worker that stopped and is taken over by another;</li>
+ *   <li>done/ and failed/, a file per finished job, holding the worker that ran it or the reason
+ *   it failed;</li>
+ *   <li>tmp/, for files being written, which are only moved into place once complete.</li>
+ * </ul>
+ *
+ * <p>Every job runs a compiled script with ${in}, ${name} and ${out}, as FolderWatcher does. The
+ * script saves into a hidden folder of its own inside the output folder, and the files are moved
+ * into the output folder once the script is done, so the output folder never holds half a job.
+ * The clocks of the machines must agree to well within the lease time.
+ */
+public class WorkQueue implements ImageProcessorController, Closeable {
+
+  /**
+   * The default time a lease lasts without being touched, in milliseconds.
+   */
+  public static final long LEASE_MILLIS = 30_000;
+
+  private static final String JOBS = "jobs";
+  private static final String LEASES = "leases";
+  private static final String DONE = "done";
+  private static final String FAILED = "failed";
+  private static final String TMP = "tmp";
+  private static final String JOB = ".job";
+  private static final String LEASE = ".lease";
+  private static final AtomicInteger WORKERS = new AtomicInteger();
+
+  private final ImageView view;
+  private final Path queue;
+  private final CompiledScript script;
+  private final Path output;
+  private final int threads;
+  private final long leaseMillis;
+  private final String worker;
+  private final RasterPool pool;
+  // leases this worker holds and keeps touching
+  private final Set<Path> held;
+  // jobs known to be done or failed, which stay so, so their files need not be looked at again
+  private final Set<String> finished;
+  // jobs this worker finished, and how many of them the last progress report had seen
+  private final AtomicInteger processed;
+  private int reported;
+  private volatile boolean closed;
+
+  /**
+   * Creates a worker on a queue.
+   *
+   * @param view        the view reporting every processed or failed job.
+   * @param queue       the queue folder.
+   * @param script      the script to run on every job, with ${in}, ${name} and ${out}.
+   * @param output      the output folder.
+   * @param threads     the number of jobs processed at the same time.
+   * @param leaseMillis how long a lease lasts without being touched.
+   * @throws IllegalArgumentException if an argument is null, a number is not positive or the
+   *                                  script is invalid.
+   */
+  public WorkQueue(ImageView view, Path queue, String script, Path output, int threads,
+                   long leaseMillis) throws IllegalArgumentException {
+    if (view == null || queue == null || script == null || output == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    if (threads <= 0 || leaseMillis <= 0) {
+      throw new IllegalArgumentException("Thread count and lease time must be positive");
+    }
+    this.view = view;
+    this.queue = queue.toAbsolutePath();
+    this.script = CompiledScript.compile(script, "in", "name", "out");
+    this.output = output.toAbsolutePath();
+    this.threads = threads;
+    this.leaseMillis = leaseMillis;
+    this.worker = ManagementFactory.getRuntimeMXBean().getName() + "-"
+            + WORKERS.incrementAndGet();
+    this.pool = new RasterPool();
+    this.held = ConcurrentHashMap.newKeySet();
+    this.finished = ConcurrentHashMap.newKeySet();
+    this.processed = new AtomicInteger();
+  }
+
+  /**
+   * Adds images to a queue, creating the queue if needed. A job is named after the file name of
+   * its image, and an image whose name is already queued is skipped.
+   *
+   * @param queue  the queue folder.
+   * @param images the images.
+   * @return the number of jobs added.
+   * @throws IllegalArgumentException if an argument is null or the queue cannot be written.
+   */
+  public static int enqueue(Path queue, List<Path> images) throws IllegalArgumentException {
+    if (queue == null || images == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    int added = 0;
+    try {
+      createFolders(queue);
+      for (Path image : images) {
+        Path job = queue.resolve(JOBS).resolve(image.getFileName() + JOB);
+        if (!Files.exists(job)) {
+          writeAtomically(queue, job, image.toAbsolutePath().toString());
+          added++;
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to write queue " + queue + ": " + e.getMessage());
+    }
+    return added;
+  }
+
+  /**
+   * Describes how far the workers of a queue have come.
+   *
+   * @param queue the queue folder.
+   * @return the number of jobs, and how many of them are done, failed, running and waiting.
+   * @throws IllegalArgumentException if the queue is null or cannot be read.
+   */
+  public static String progress(Path queue) throws IllegalArgumentException {
+    if (queue == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    try {
+      List<String> jobs = jobs(queue);
+      int done = 0;
+      int failed = 0;
+      int running = 0;
+      for (String job : jobs) {
+        if (Files.exists(queue.resolve(DONE).resolve(job))) {
+          done++;
+        } else if (Files.exists(queue.resolve(FAILED).resolve(job))) {
+          failed++;
+        } else if (Files.exists(queue.resolve(LEASES).resolve(job + LEASE))) {
+          running++;
+        }
+      }
+      return String.format(Locale.ROOT, "%d jobs: %d done, %d failed, %d running, %d waiting",
+              jobs.size(), done, failed, running, jobs.size() - done - failed - running);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to read queue " + queue + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Processes jobs of the queue until every job is done or failed, taking over the jobs of
+   * workers whose leases expire on the way.
+   *
+   * @throws IllegalArgumentException if the queue cannot be read or written.
+   */
+  @Override
+  public void runApp() throws IllegalArgumentException {
+    ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(task -> {
+      Thread thread = new Thread(task, "queue-heartbeat");
+      thread.setDaemon(true);
+      return thread;
+    });
+    ExecutorService workers = Executors.newFixedThreadPool(threads);
+    try {
+      createFolders(queue);
+      Files.createDirectories(output);
+      heartbeat.scheduleAtFixedRate(this::beat, leaseMillis / 4, Math.max(1,
+              leaseMillis / 4), TimeUnit.MILLISECONDS);
+      List<Future<Void>> loops = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        loops.add(workers.submit(() -> {
+          work();
+          return null;
+        }));
+      }
+      for (Future<Void> loop : loops) {
+        loop.get();
+      }
+    } catch (ExecutionException e) {
+      close();
+      throw new IllegalArgumentException("Unable to work on queue " + queue + ": "
+              + e.getCause().getMessage());
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to work on queue " + queue + ": "
+              + e.getMessage());
+    } catch (InterruptedException e) {
+      close();
+      Thread.currentThread().interrupt();
+    } finally {
+      workers.shutdown();
+      heartbeat.shutdownNow();
+    }
+  }
+
+  /**
+   * Stops taking jobs. The jobs being processed are finished first.
+   */
+  @Override
+  public void close() {
+    closed = true;
+  }
+
+  /**
+   * Claims and processes jobs until there are none left to claim, then waits for the jobs of
+   * other workers, in case their leases expire, until every job is done or failed.
+   *
+   * @throws IOException          if the queue cannot be read or written.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  private void work() throws IOException, InterruptedException {
+    while (!closed) {
+      String job = claim();
+      if (job != null) {
+        process(job);
+      } else if (remaining() == 0) {
+        return;
+      } else {
+        Thread.sleep(Math.max(1, leaseMillis / 4));
+      }
+    }
+  }
+
+  /**
+   * Claims the first job that is not finished and not leased, or whose lease has expired. Jobs
+   * already known to be finished are skipped without looking at their files.
+   *
+   * @return the job, or null if there is none to claim.
+   * @throws IOException if the queue cannot be read or written.
+   */
+  private String claim() throws IOException {
+    for (String job : jobs(queue)) {
+      if (finished.contains(job) || finished(job)) {
+        continue;
+      }
+      Path lease = queue.resolve(LEASES).resolve(job + LEASE);
+      if (Files.exists(lease) && !recover(job, lease)) {
+        continue;
+      }
+      try (OutputStream out = Files.newOutputStream(lease, StandardOpenOption.CREATE_NEW,
+              StandardOpenOption.WRITE)) {
+        out.write(worker.getBytes(StandardCharsets.UTF_8));
+      } catch (FileAlreadyExistsException e) {
+        continue;
+      }
+      held.add(lease);
+      if (finished(job)) {
+        // finished by the worker that held the lease just before
+        release(lease);
+        continue;
+      }
+      return job;
+    }
+    return null;
+  }
+
+  /**
+   * Removes a lease that has not been touched for the lease time. The lease is renamed away
+   * first, which only one worker can do, so only one of the workers noticing it takes the job
+   * over. Its owner may still have touched it between the check and the rename, so it is checked
+   * again once renamed, and given back if it was.
+   *
+   * @param job   the job.
+   * @param lease the lease.
+   * @return whether the lease was expired and is now removed.
+   */
+  private boolean recover(String job, Path lease) {
+    try {
+      if (!expired(lease)) {
+        return false;
+      }
+      String owner = Files.readString(lease, StandardCharsets.UTF_8);
+      Path expired = queue.resolve(TMP).resolve(job + "." + worker + ".expired");
+      Files.move(lease, expired, StandardCopyOption.ATOMIC_MOVE);
+      if (!expired(expired) || !owner.equals(Files.readString(expired, StandardCharsets.UTF_8))) {
+        try {
+          Files.move(expired, lease);
+        } catch (FileAlreadyExistsException e) {
+          // another worker has leased the job since, and holds it now
+          Files.deleteIfExists(expired);
+        }
+        return false;
+      }
+      Files.deleteIfExists(expired);
+      report("recovered " + job + " from " + owner);
+      return true;
+    } catch (NoSuchFileException e) {
+      // released, or recovered by another worker
+      return !Files.exists(lease);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Runs the script of a job into a folder of its own, moves the files it saved into the output
+   * folder and marks the job as done, or as failed with the reason.
+   *
+   * @param job the job.
+   * @throws IOException if the queue cannot be written.
+   */
+  private void process(String job) throws IOException {
+    Path lease = queue.resolve(LEASES).resolve(job + LEASE);
+    Path staging = output.resolve(".work-" + job + "-" + worker);
+    ImageProcessorModel model = new ImageProcessorModel(pool);
+    long start = System.nanoTime();
+    try {
+      Path image = Paths.get(Files.readString(queue.resolve(JOBS).resolve(job + JOB),
+              StandardCharsets.UTF_8).trim());
+      Files.createDirectories(staging);
+      script.run(model, FolderWatcher.arguments(image, staging));
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(staging)) {
+        for (Path file : files) {
+          Files.move(file, output.resolve(file.getFileName()), StandardCopyOption.ATOMIC_MOVE,
+                  StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+      writeAtomically(queue, queue.resolve(DONE).resolve(job), worker);
+      report(String.format(Locale.ROOT, "processed %s in %.1f ms", job,
+              (System.nanoTime() - start) / 1e6));
+    } catch (IOException | RuntimeException e) {
+      String message = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+      writeAtomically(queue, queue.resolve(FAILED).resolve(job), worker + ": " + message);
+      report("failed " + job + ": " + message);
+    } finally {
+      finished.add(job);
+      processed.incrementAndGet();
+      model.dropAll();
+      delete(staging);
+      release(lease);
+    }
+  }
+
+  /**
+   * Touches the leases this worker holds, forgets the ones taken over by other workers, and
+   * reports the progress of the queue if this worker finished jobs since the last report.
+   */
+  private void beat() {
+    FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+    for (Path lease : held) {
+      try {
+        if (!worker.equals(Files.readString(lease, StandardCharsets.UTF_8))) {
+          held.remove(lease);
+        } else {
+          Files.setLastModifiedTime(lease, now);
+        }
+      } catch (NoSuchFileException e) {
+        // renamed away by a worker checking whether it expired, which gives it back if not
+      } catch (IOException e) {
+        held.remove(lease);
+      }
+    }
+    int count = processed.get();
+    if (count != reported) {
+      reported = count;
+      try {
+        report(progress(queue));
+      } catch (IllegalArgumentException e) {
+        // the queue is unreadable for now, the next beat tries again
+      }
+    }
+  }
+
+  private void release(Path lease) {
+    held.remove(lease);
+    try {
+      if (worker.equals(Files.readString(lease, StandardCharsets.UTF_8))) {
+        Files.delete(lease);
+      }
+    } catch (IOException e) {
+      // taken over by another worker, which now owns it
+    }
+  }
+
+  /**
+   * Determines if a job is done or failed, and remembers it if it is.
+   *
+   * @param job the job.
+   * @return whether the job is finished.
+   */
+  private boolean finished(String job) {
+    if (Files.exists(queue.resolve(DONE).resolve(job))
+            || Files.exists(queue.resolve(FAILED).resolve(job))) {
+      finished.add(job);
+      return true;
+    }
+    return false;
+  }
+
+  private int remaining() throws IOException {
+    int remaining = 0;
+    for (String job : jobs(queue)) {
+      if (!finished.contains(job) && !finished(job)) {
+        remaining++;
+      }
+    }
+    return remaining;
+  }
+
+  private boolean expired(Path lease) throws IOException {
+    return System.currentTimeMillis() - Files.getLastModifiedTime(lease).toMillis() > leaseMillis;
+  }
+
+  private synchronized void report(String message) {
+    try {
+      view.renderMessage(message);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to transmit");
+    }
+  }
+
+  /**
+   * Lists the jobs of a queue, in order of their names.
+   *
+   * @param queue the queue folder.
+   * @return the names of the jobs.
+   * @throws IOException if the queue cannot be read.
+   */
+  private static List<String> jobs(Path queue) throws IOException {
+    List<String> jobs = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(queue.resolve(JOBS), "*" + JOB)) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        jobs.add(name.substring(0, name.length() - JOB.length()));
+      }
+    }
+    Collections.sort(jobs);
+    return jobs;
+  }
+
+  private static void createFolders(Path queue) throws IOException {
+    for (String folder : new String[]{JOBS, LEASES, DONE, FAILED, TMP}) {
+      Files.createDirectories(queue.resolve(folder));
+    }
+  }
+
+  /**
+   * Writes a file of the queue into its tmp folder, then moves it into place, so that other
+   * workers see the whole file or none of it.
+   *
+   * @param queue  the queue folder.
+   * @param target the file.
+   * @param text   the contents of the file.
+   * @throws IOException if the file cannot be written.
+   */
+  private static void writeAtomically(Path queue, Path target, String text) throws IOException {
+    Path temporary = Files.createTempFile(queue.resolve(TMP), target.getFileName().toString(),
+            ".tmp");
+    try {
+      Files.writeString(temporary, text, StandardCharsets.UTF_8);
+      Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE,
+              StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  private static void delete(Path folder) {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(folder)) {
+      for (Path file : files) {
+        Files.deleteIfExists(file);
+      }
+      Files.deleteIfExists(folder);
+    } catch (IOException e) {
+      // nothing was staged, or it is left for the owner of the output folder
+    }
+  }
+}
@@ -1,12 +1,14 @@
 package controller.commands;
 
 import model.ImageProcessorModel;
+import model.PixelOp;
+import model.PixelOps;
 
 /**
  * Brightens or darkens an image by increasing or decreasing the RGB values
  * with a constant value.
  */
-public class BrightenDarken implements ImageProcessingCommand {
+public class BrightenDarken implements PointCommand {
 
   // constant
   private final int increment;
@@ -35,4 +37,19 @@ public class BrightenDarken implements ImageProcessingCommand {
   public void run(ImageProcessorModel model) {
     model.brighten(this.increment, this.name, this.newName);
   }
-}
\ No newline at end of file
+
+  @Override
+  public PixelOp getPixelOp() {
+    return PixelOps.brighten(this.increment);
+  }
+
+  @Override
+  public String getName() {
+    return this.name;
+  }
+
+  @Override
+  public String getNewName() {
+    return this.newName;
+  }
+}
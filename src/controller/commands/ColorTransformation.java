@@ -1,11 +1,13 @@
 package controller.commands;
 
 import model.ImageProcessorModel;
+import model.PixelOp;
+import model.PixelOps;
 
 /**
  * Applies a grayscale color transformation onto an image.
  */
-public class ColorTransformation implements ImageProcessingCommand {
+public class ColorTransformation implements PointCommand {
 
   private final ImageProcessorModel.ColorTransformationsMode colorTransformation;
   private final String name;
@@ -34,4 +36,19 @@ public class ColorTransformation implements ImageProcessingCommand {
   public void run(ImageProcessorModel model) {
     model.colorTransformations(this.colorTransformation, this.name, this.newName);
   }
+
+  @Override
+  public PixelOp getPixelOp() {
+    return PixelOps.colorTransformation(this.colorTransformation);
+  }
+
+  @Override
+  public String getName() {
+    return this.name;
+  }
+
+  @Override
+  public String getNewName() {
+    return this.newName;
+  }
 }
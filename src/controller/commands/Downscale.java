@@ -4,7 +4,7 @@ import model.ImageProcessorModel;
 
 /**
  * Command class to perform a downscale transformation on an image. Changes the
- * image's dimensions.
+ * image's dimensions. When a resample mode is given, the image may also be made larger.
  */
 public class Downscale implements ImageProcessingCommand {
 
@@ -12,6 +12,7 @@ public class Downscale implements ImageProcessingCommand {
   private String newName;
   private int heightNew;
   private int widthNew;
+  private ImageProcessorModel.ResampleMode mode;
 
   /**
    * Constructor to perform a grayscale on an image by
@@ -32,9 +33,32 @@ public class Downscale implements ImageProcessingCommand {
     this.newName = newName;
   }
 
+  /**
+   * Constructor to resize an image with the given resample mode, either smaller or larger.
+   *
+   * @param heightNew the new height.
+   * @param widthNew  the new width.
+   * @param mode      the filter used to compute the new pixels.
+   * @param name      of the image the user wants to change.
+   * @param newName   the name the user wants to give to the modified image.
+   * @throws IllegalArgumentException if any of the arguments are null.
+   */
+  public Downscale(int heightNew, int widthNew, ImageProcessorModel.ResampleMode mode,
+                   String name, String newName) throws IllegalArgumentException {
+    this(heightNew, widthNew, name, newName);
+    if (mode == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    this.mode = mode;
+  }
+
 
   @Override
   public void run(ImageProcessorModel model) {
-    model.downscale(this.heightNew, this.widthNew, this.name, this.newName);
+    if (this.mode == null) {
+      model.downscale(this.heightNew, this.widthNew, this.name, this.newName);
+    } else {
+      model.resize(this.heightNew, this.widthNew, this.mode, this.name, this.newName);
+    }
   }
 }
@@ -0,0 +1,29 @@
+package controller.commands;
+
+import model.ImageProcessorModel;
+
+/**
+ * Drops an image that is no longer needed, so its memory can be reused by later images.
+ */
+public class Drop implements ImageProcessingCommand {
+
+  private final String name;
+
+  /**
+   * Constructor to drop an image.
+   *
+   * @param name of the image the user no longer needs.
+   * @throws IllegalArgumentException if the name is null.
+   */
+  public Drop(String name) throws IllegalArgumentException {
+    if (name == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    this.name = name;
+  }
+
+  @Override
+  public void run(ImageProcessorModel model) {
+    model.drop(this.name);
+  }
+}
@@ -29,6 +29,33 @@ public class Flip implements ImageProcessingCommand {
     this.newName = newName;
   }
 
+  /**
+   * Retrieves the direction of the flip.
+   *
+   * @return the flip mode.
+   */
+  public ImageProcessorModel.FlipMode getFlip() {
+    return this.flip;
+  }
+
+  /**
+   * Retrieves the name of the image the command flips.
+   *
+   * @return the name of the original image.
+   */
+  public String getName() {
+    return this.name;
+  }
+
+  /**
+   * Retrieves the name the flipped image is stored under.
+   *
+   * @return the name of the new image.
+   */
+  public String getNewName() {
+    return this.newName;
+  }
+
   @Override
   public void run(ImageProcessorModel model) {
     model.flip(this.flip, this.name, this.newName);
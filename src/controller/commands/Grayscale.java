@@ -1,11 +1,13 @@
 package controller.commands;
 
 import model.ImageProcessorModel;
+import model.PixelOp;
+import model.PixelOps;
 
 /**
  * Creates a grayscale filter for an image varying for each RGB value.
  */
-public class Grayscale implements ImageProcessingCommand {
+public class Grayscale implements PointCommand {
 
   private final ImageProcessorModel.GrayscaleMode grayscale;
   private final String name;
@@ -34,4 +36,19 @@ public class Grayscale implements ImageProcessingCommand {
   public void run(ImageProcessorModel model) {
     model.grayscale(this.grayscale, this.name, this.newName);
   }
-}
\ No newline at end of file
+
+  @Override
+  public PixelOp getPixelOp() {
+    return PixelOps.grayscale(this.grayscale);
+  }
+
+  @Override
+  public String getName() {
+    return this.name;
+  }
+
+  @Override
+  public String getNewName() {
+    return this.newName;
+  }
+}
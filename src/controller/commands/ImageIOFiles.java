@@ -0,0 +1,122 @@
+package controller.commands;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import model.ImageProcessorModel;
+import model.Region;
+import model.Resampler;
+
+/**
+ * Reads and writes the formats the program has no codec of its own for (PNG input, JPEG, GIF...)
+ * through ImageIO. Kept apart from Load and Save so that only this class needs the java.desktop
+ * module: a runtime image without it can still load and save PPM, raw, QOI and BMP files, and
+ * save PNG files.
+ */
+final class ImageIOFiles {
+
+  private ImageIOFiles() {
+  }
+
+  /**
+   * Loads a whole image into the model.
+   *
+   * @param model   the model.
+   * @param path    the path of the image.
+   * @param newName the name to store the image under.
+   */
+  static void load(ImageProcessorModel model, String path, String newName) {
+    BufferedImage image;
+    try {
+      image = ImageIO.read(new FileInputStream(path)); //converts image to a BufferedImage
+      model.load(image, newName);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Decodes the region of an image, letting the reader skip the rows and columns the target size
+   * does not need, then resizes the result to exactly the target size.
+   *
+   * @param model     the model.
+   * @param path      the path of the image.
+   * @param newName   the name to store the image under.
+   * @param region    the region to load, or null for the whole image.
+   * @param heightNew the height to load the image at, or 0 to keep it.
+   * @param widthNew  the width to load the image at, or 0 to keep it.
+   * @throws IllegalArgumentException if the image cannot be read or the region is outside of it.
+   */
+  static void loadSubsampled(ImageProcessorModel model, String path, String newName,
+                             Region region, int heightNew, int widthNew)
+          throws IllegalArgumentException {
+    BufferedImage image;
+    try (ImageInputStream in = ImageIO.createImageInputStream(new File(path))) {
+      Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+      if (readers == null || !readers.hasNext()) {
+        throw new IllegalArgumentException("No reader for image " + path);
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(in, true, true);
+        Rectangle whole = new Rectangle(0, 0, reader.getWidth(0), reader.getHeight(0));
+        Rectangle source = region == null ? whole : whole.intersection(new Rectangle(
+                region.getX(), region.getY(), region.getWidth(), region.getHeight()));
+        if (source.isEmpty()) {
+          throw new IllegalArgumentException("Region is outside of the " + whole.width + "x"
+                  + whole.height + " image");
+        }
+        int step = Resampler.subsampling(source.width, source.height, widthNew, heightNew);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(source);
+        param.setSourceSubsampling(step, step, 0, 0);
+        image = reader.read(0, param);
+      } finally {
+        reader.dispose();
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to read image " + path);
+    }
+    model.load(image, newName);
+    if (widthNew > 0 && (image.getWidth() != widthNew || image.getHeight() != heightNew)) {
+      model.resize(heightNew, widthNew, ImageProcessorModel.ResampleMode.Bilinear, newName,
+              newName);
+    }
+  }
+
+  /**
+   * Saves an image of the model.
+   *
+   * @param model      the model.
+   * @param path       the path to save the image to.
+   * @param name       the name of the image.
+   * @param typeOfFile the format, as ImageIO names it ("jpg", "gif"...).
+   */
+  static void save(ImageProcessorModel model, String path, String name, String typeOfFile) {
+    try {
+      BufferedImage result = model.saveImage(path, name);
+      File outPutFile = new File(path); //saves to the path
+      ImageIO.write(result, typeOfFile, outPutFile);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Retrieves the file extensions ImageIO has a reader for.
+   *
+   * @return the extensions, as ImageIO lists them.
+   */
+  static String[] readerSuffixes() {
+    return ImageIO.getReaderFileSuffixes();
+  }
+}
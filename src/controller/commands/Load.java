@@ -1,12 +1,14 @@
 package controller.commands;
 
-import java.awt.image.BufferedImage;
-import java.io.FileInputStream;
-import java.io.IOException;
-
-import javax.imageio.ImageIO;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
 
+import model.BmpCodec;
 import model.ImageProcessorModel;
+import model.Region;
 
 /**
  * Loads an image.
@@ -14,6 +16,9 @@ import model.ImageProcessorModel;
 public class Load implements ImageProcessingCommand {
   private final String path;
   private final String newName;
+  private final Region region;
+  private final int heightNew;
+  private final int widthNew;
 
   /**
    * Constructor to load in an image.
@@ -28,6 +33,62 @@ public class Load implements ImageProcessingCommand {
     }
     this.path = path;
     this.newName = newName;
+    this.region = null;
+    this.heightNew = 0;
+    this.widthNew = 0;
+  }
+
+  /**
+   * Constructor to load in part of an image, at a smaller size. Pixels outside of the region, and
+   * rows and columns the target size does not need, are skipped while decoding.
+   *
+   * @param path      of image.
+   * @param newName   new name given.
+   * @param region    the part of the image to load, or null for all of it.
+   * @param heightNew the height to load the image at, or 0 to keep the height of the region.
+   * @param widthNew  the width to load the image at, or 0 to keep the width of the region.
+   * @throws IllegalArgumentException if the path or name are null, or the size is negative.
+   */
+  public Load(String path, String newName, Region region, int heightNew, int widthNew)
+          throws IllegalArgumentException {
+    if (path == null || newName == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    if (heightNew < 0 || widthNew < 0 || (heightNew == 0) != (widthNew == 0)) {
+      throw new IllegalArgumentException("Target size must be positive, or 0 for both");
+    }
+    this.path = path;
+    this.newName = newName;
+    this.region = region;
+    this.heightNew = heightNew;
+    this.widthNew = widthNew;
+  }
+
+  /**
+   * Retrieves the path of the image to load.
+   *
+   * @return the source path.
+   */
+  public String getPath() {
+    return this.path;
+  }
+
+  /**
+   * Retrieves the name the image is loaded as.
+   *
+   * @return the new name.
+   */
+  public String getNewName() {
+    return this.newName;
+  }
+
+  /**
+   * Determines if the whole image is loaded at its own size.
+   *
+   * @return true if no region or target size was given.
+   */
+  public boolean isWholeImage() {
+    return this.region == null && this.widthNew == 0;
   }
 
   /**
@@ -41,25 +102,76 @@ public class Load implements ImageProcessingCommand {
 
   /**
    * If the given source path is a PPM file, the runPPM method will run, which calls the original
-   * load method strictly for PPM files. Otherwise, a new BufferedImage is created of the source
-   * path and inputted to the load method that takes in a BufferedImage and a String.
+   * load method strictly for PPM files. Raw files are memory-mapped by the model's loadRaw method
+   * and QOI files decoded by its loadQoi method, as are 24 and 32-bit BMP files by its loadBmp
+   * method. Otherwise, a new BufferedImage is created of the source path and inputted to the load
+   * method that takes in a BufferedImage and a String. When a region or target size is given, only
+   * the needed pixels are decoded.
    *
    * @param model of type ImageProcessorModel accesses the model in this program
    */
   @Override
   public void run(ImageProcessorModel model) {
 
-    if (this.typeOfFile().equalsIgnoreCase("ppm")) {
+    boolean partial = !this.isWholeImage();
+    if (partial && (this.typeOfFile().equalsIgnoreCase("raw")
+            || this.typeOfFile().equalsIgnoreCase("qoi"))) {
+      throw new IllegalArgumentException("Raw and QOI files cannot be loaded with a region or "
+              + "size");
+    } else if (partial && this.typeOfFile().equalsIgnoreCase("ppm")) {
+      model.load(this.path, this.newName, this.region, this.heightNew, this.widthNew);
+    } else if (partial) {
+      try {
+        ImageIOFiles.loadSubsampled(model, this.path, this.newName, this.region, this.heightNew,
+                this.widthNew);
+      } catch (NoClassDefFoundError e) {
+        throw noImageIo(this.typeOfFile());
+      }
+    } else if (this.typeOfFile().equalsIgnoreCase("ppm")) {
       runPPM(model);
+    } else if (this.typeOfFile().equalsIgnoreCase("raw")) {
+      model.loadRaw(this.path, this.newName);
+    } else if (this.typeOfFile().equalsIgnoreCase("qoi")) {
+      model.loadQoi(this.path, this.newName);
+    } else if (this.typeOfFile().equalsIgnoreCase("bmp")
+            && BmpCodec.canRead(Paths.get(this.path))) {
+      model.loadBmp(this.path, this.newName);
     } else {
-      BufferedImage image;
       try {
-        image = ImageIO.read(new FileInputStream(this.path)); //converts image to a BufferedImage
-        model.load(image, this.newName);
-      } catch (IOException e) {
-        e.printStackTrace();
+        ImageIOFiles.load(model, this.path, this.newName);
+      } catch (NoClassDefFoundError e) {
+        throw noImageIo(this.typeOfFile());
+      }
+    }
+  }
+
+  /**
+   * Retrieves the extensions of the files this command can load in full, in lower case: PPM, raw,
+   * QOI and BMP files, and every format ImageIO can read when the runtime has it.
+   *
+   * @return a new set of extensions.
+   */
+  public static Set<String> extensions() {
+    Set<String> extensions = new HashSet<>(Arrays.asList("ppm", "raw", "qoi", "bmp"));
+    try {
+      for (String suffix : ImageIOFiles.readerSuffixes()) {
+        extensions.add(suffix.toLowerCase(Locale.ROOT));
       }
+    } catch (NoClassDefFoundError e) {
+      // no ImageIO, only the formats the model reads itself
     }
+    return extensions;
+  }
+
+  /**
+   * Reports that the runtime has no ImageIO, because it was linked without java.desktop.
+   *
+   * @param typeOfFile the format that was asked for.
+   * @return the exception to throw.
+   */
+  static IllegalArgumentException noImageIo(String typeOfFile) {
+    return new IllegalArgumentException("Unable to handle " + typeOfFile + " files: this runtime"
+            + " has no java.desktop module, use PPM, raw, QOI, BMP or (to save) PNG files");
   }
 
   /**
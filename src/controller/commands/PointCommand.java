@@ -0,0 +1,31 @@
+package controller.commands;
+
+import model.PixelOp;
+
+/**
+ * Interface for commands where every pixel of the new image only depends on the pixel at the same
+ * place in the original, so the command can be applied to an image streamed a few rows at a time.
+ */
+public interface PointCommand extends ImageProcessingCommand {
+
+  /**
+   * Retrieves the operation this command applies to every pixel.
+   *
+   * @return the pixel operation.
+   */
+  PixelOp getPixelOp();
+
+  /**
+   * Retrieves the name of the image the command reads.
+   *
+   * @return the name of the original image.
+   */
+  String getName();
+
+  /**
+   * Retrieves the name the command stores its result under.
+   *
+   * @return the name of the new image.
+   */
+  String getNewName();
+}
@@ -0,0 +1,63 @@
+package controller.commands;
+
+import model.ImageProcessorModel;
+
+/**
+ * Creates smaller versions of an image at several sizes in one pass, and optionally saves all
+ * of them.
+ */
+public class Pyramid implements ImageProcessingCommand {
+
+  private final int[] sizes;
+  private final ImageProcessorModel.ResampleMode mode;
+  private final String name;
+  private final String baseName;
+  private final String path;
+
+  /**
+   * Constructor to create the versions of an image.
+   *
+   * @param sizes    the longest edge of every version.
+   * @param mode     the filter used for the final resize of every version.
+   * @param name     of the image the user wants to shrink.
+   * @param baseName the start of the names of the versions, which are named baseName-size.
+   * @param path     where to save the versions, with -size added before the extension, or null
+   *                 to only keep them in the model.
+   * @throws IllegalArgumentException if the sizes, mode or names are null.
+   */
+  public Pyramid(int[] sizes, ImageProcessorModel.ResampleMode mode, String name,
+                 String baseName, String path) throws IllegalArgumentException {
+    if (sizes == null || mode == null || name == null || baseName == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    this.sizes = sizes.clone();
+    this.mode = mode;
+    this.name = name;
+    this.baseName = baseName;
+    this.path = path;
+  }
+
+  /**
+   * Retrieves where the versions are saved.
+   *
+   * @return the path the sizes are added to, or null if the versions are not saved.
+   */
+  public String getPath() {
+    return this.path;
+  }
+
+  @Override
+  public void run(ImageProcessorModel model) {
+    model.pyramid(this.sizes, this.mode, this.name, this.baseName);
+    if (this.path != null) {
+      int dot = this.path.lastIndexOf(".");
+      if (dot < 0) {
+        dot = this.path.length();
+      }
+      for (int size : this.sizes) {
+        String sizedPath = this.path.substring(0, dot) + "-" + size + this.path.substring(dot);
+        new Save(sizedPath, this.baseName + "-" + size).run(model);
+      }
+    }
+  }
+}
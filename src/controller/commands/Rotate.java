@@ -0,0 +1,52 @@
+package controller.commands;
+
+import model.ImageProcessorModel;
+
+/**
+ * Turns an image a quarter turn either way or a half turn, or transposes it.
+ */
+public class Rotate implements ImageProcessingCommand {
+
+  private final ImageProcessorModel.RotateMode rotate;
+  private final String name;
+  private final String newName;
+
+  /**
+   * Constructor to turn or transpose a given image.
+   *
+   * @param rotate  enum representing the turn the user wants.
+   * @param name    of the image the user wants to change.
+   * @param newName the name the user wants to give to the modified image.
+   * @throws IllegalArgumentException if any of the arguments are null.
+   */
+  public Rotate(ImageProcessorModel.RotateMode rotate,
+                String name, String newName) throws IllegalArgumentException {
+    if (rotate == null || name == null || newName == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    this.rotate = rotate;
+    this.name = name;
+    this.newName = newName;
+  }
+
+  /**
+   * Creates the command that turns the modified image back: the other quarter turn for a quarter
+   * turn, and the same command for a half turn or a transpose.
+   *
+   * @return the inverse command, which reads the new name and stores under the original name.
+   */
+  public Rotate inverse() {
+    ImageProcessorModel.RotateMode back = this.rotate;
+    if (back == ImageProcessorModel.RotateMode.Rotate90) {
+      back = ImageProcessorModel.RotateMode.Rotate270;
+    } else if (back == ImageProcessorModel.RotateMode.Rotate270) {
+      back = ImageProcessorModel.RotateMode.Rotate90;
+    }
+    return new Rotate(back, this.newName, this.name);
+  }
+
+  @Override
+  public void run(ImageProcessorModel model) {
+    model.rotate(this.rotate, this.name, this.newName);
+  }
+}
@@ -1,12 +1,7 @@
 package controller.commands;
 
-import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.IOException;
-
-import javax.imageio.ImageIO;
-
 import model.ImageProcessorModel;
+import model.PngCodec;
 
 /**
  * Saves an image.
@@ -15,7 +10,7 @@ public class Save implements ImageProcessingCommand {
 
   private final String path;
   private final String name;
-
+  private final int level;
 
   /**
    * Constructor for save command method.
@@ -30,12 +25,57 @@ public class Save implements ImageProcessingCommand {
     }
     this.path = path;
     this.name = name;
+    this.level = PngCodec.DEFAULT_LEVEL;
+  }
+
+  /**
+   * Constructor for a save with a chosen compression level, for PNG files.
+   *
+   * @param path  of where the new file should go.
+   * @param name  name of the file the user wants to save.
+   * @param level the compression level, from 0 (fastest) to 9 (smallest).
+   * @throws IllegalArgumentException if the path or name are null, the level is out of range or
+   *                                  the file is not a PNG file.
+   */
+  public Save(String path, String name, int level) throws IllegalArgumentException {
+    if (path == null || name == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    if (level < 0 || level > 9) {
+      throw new IllegalArgumentException("Compression level must be between 0 and 9");
+    }
+    if (!path.substring(path.lastIndexOf(".") + 1).equalsIgnoreCase("png")) {
+      throw new IllegalArgumentException("Compression level only applies to PNG files");
+    }
+    this.path = path;
+    this.name = name;
+    this.level = level;
+  }
+
+  /**
+   * Retrieves the path the image is saved to.
+   *
+   * @return the destination path.
+   */
+  public String getPath() {
+    return this.path;
+  }
+
+  /**
+   * Retrieves the name of the image to save.
+   *
+   * @return the name of the image.
+   */
+  public String getName() {
+    return this.name;
   }
 
   /**
    * If the given source path is a PPM file, the runPPM method will run, which calls the original
-   * save method strictly for PPM files. Otherwise, a new BufferedImage is created from the
-   * saveImage method and a new File is created with the given source path.
+   * save method strictly for PPM files. Raw, QOI and BMP files are written by the model's saveRaw,
+   * saveQoi and saveBmp methods and PNG files by its parallel savePng method. Otherwise, a new
+   * BufferedImage is created from the saveImage method and a new File is created with the given
+   * source path.
    *
    * @param model of type ImageProcessorModel accesses the model in this program
    */
@@ -47,13 +87,19 @@ public class Save implements ImageProcessingCommand {
     if (typeOfFile.equalsIgnoreCase("ppm")) {
       //if ppm file, use old load method
       runPPM(model);
+    } else if (typeOfFile.equalsIgnoreCase("raw")) {
+      model.saveRaw(this.path, this.name);
+    } else if (typeOfFile.equalsIgnoreCase("bmp")) {
+      model.saveBmp(this.path, this.name);
+    } else if (typeOfFile.equalsIgnoreCase("qoi")) {
+      model.saveQoi(this.path, this.name);
+    } else if (typeOfFile.equalsIgnoreCase("png")) {
+      model.savePng(this.path, this.name, this.level);
     } else {
       try {
-        BufferedImage result = model.saveImage(this.path, this.name);
-        File outPutFile = new File(this.path); //saves to the path
-        ImageIO.write(result, typeOfFile, outPutFile);
-      } catch (IOException e) {
-        e.printStackTrace();
+        ImageIOFiles.save(model, this.path, this.name, typeOfFile);
+      } catch (NoClassDefFoundError e) {
+        throw Load.noImageIo(typeOfFile);
       }
     }
   }
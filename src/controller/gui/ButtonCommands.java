@@ -1,4 +1,4 @@
-package controller;
+package controller.gui;
 
 /**
  * An interface for the commands that will be assigned to the GUI buttons. Includes all the
@@ -42,6 +42,30 @@ public interface ButtonCommands {
    */
   void flipVert();
 
+  /**
+   * Turns the image a quarter turn clockwise in the GUI by running the run(ImageProcessorModel
+   * model) and rendering the modified image to the view.
+   */
+  void rotateRight();
+
+  /**
+   * Turns the image a quarter turn counterclockwise in the GUI by running the
+   * run(ImageProcessorModel model) and rendering the modified image to the view.
+   */
+  void rotateLeft();
+
+  /**
+   * Turns the image a half turn in the GUI by running the run(ImageProcessorModel model) and
+   * rendering the modified image to the view.
+   */
+  void rotateHalf();
+
+  /**
+   * Transposes the image, mirroring it along its main diagonal, in the GUI by running the
+   * run(ImageProcessorModel model) and rendering the modified image to the view.
+   */
+  void transpose();
+
   /**
    * Greyscale the image using the red component in the GUI by running the run(ImageProcessorModel
    * model) and rendering the modified image to the view.
@@ -102,6 +126,17 @@ public interface ButtonCommands {
    */
   void grayscaleColorTrans();
 
+  /**
+   * Undoes the last modification of the image in the GUI and renders the previous version of the
+   * image to the view.
+   */
+  void undo();
+
+  /**
+   * Applies the last undone modification again and renders the image to the view.
+   */
+  void redo();
+
   /**
    * Refreshes the whole application when its corresponding button is pressed, just in case the
    * user wants to restart.
@@ -0,0 +1,163 @@
+package controller.gui;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import controller.commands.Flip;
+import controller.commands.ImageProcessingCommand;
+import controller.commands.Rotate;
+import model.CompressedRaster;
+import model.ImageProcessorModel;
+import model.RasterImage;
+
+/**
+ * The undo and redo history of an image that is edited in place. Rather than a copy of the image
+ * for every step, the history keeps the commands that were applied (which are only their
+ * parameters) and a compressed snapshot of the image every few steps. A flip is undone by flipping
+ * again and a turn by turning back; any other step is undone by decompressing the last snapshot
+ * before it and applying the commands from there. Snapshots are kept under a cap on their
+ * compressed size, beyond which the oldest ones are dropped and the steps before them can no
+ * longer be undone.
+ */
+public class EditHistory {
+
+  /**
+   * The default cap on the compressed size of the snapshots, in bytes.
+   */
+  public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+  private static final int SNAPSHOT_INTERVAL = 8;
+
+  private final ImageProcessorModel model;
+  private final String name;
+  private final long maxBytes;
+  // step i turns version i of the image into version i + 1
+  private final List<ImageProcessingCommand> steps;
+  private final TreeMap<Integer, CompressedRaster> snapshots;
+  private long snapshotBytes;
+  private int version;
+
+  /**
+   * Starts the history of an image, with its current version as the first snapshot.
+   *
+   * @param model    the model holding the image.
+   * @param name     the name of the image, which every command must read and write.
+   * @param maxBytes the cap on the compressed size of the snapshots.
+   * @throws IllegalArgumentException if an argument is null, the cap is negative or the image
+   *                                  cannot be found.
+   */
+  public EditHistory(ImageProcessorModel model, String name, long maxBytes)
+          throws IllegalArgumentException {
+    if (model == null || name == null || maxBytes < 0) {
+      throw new IllegalArgumentException("Invalid model, name or memory cap");
+    }
+    this.model = model;
+    this.name = name;
+    this.maxBytes = maxBytes;
+    this.steps = new ArrayList<>();
+    this.snapshots = new TreeMap<>();
+    this.version = 0;
+    snapshot();
+  }
+
+  /**
+   * Runs a command on the image and records it, dropping the steps that were undone.
+   *
+   * @param command a command that reads and writes the image of this history.
+   */
+  public void apply(ImageProcessingCommand command) {
+    command.run(model);
+    steps.subList(version, steps.size()).clear();
+    for (CompressedRaster dropped : snapshots.tailMap(version, false).values()) {
+      snapshotBytes -= dropped.getCompressedBytes();
+    }
+    snapshots.tailMap(version, false).clear();
+    steps.add(command);
+    version++;
+    if (version % SNAPSHOT_INTERVAL == 0) {
+      snapshot();
+    }
+  }
+
+  /**
+   * Determines if there is a step to undo.
+   *
+   * @return true if the image can be brought back to its previous version.
+   */
+  public boolean canUndo() {
+    return version > snapshots.firstKey();
+  }
+
+  /**
+   * Determines if there is an undone step to redo.
+   *
+   * @return true if a step was undone and nothing was applied since.
+   */
+  public boolean canRedo() {
+    return version < steps.size();
+  }
+
+  /**
+   * Brings the image back to its previous version.
+   *
+   * @throws IllegalStateException if there is nothing to undo.
+   */
+  public void undo() throws IllegalStateException {
+    if (!canUndo()) {
+      throw new IllegalStateException("Nothing to undo");
+    }
+    ImageProcessingCommand last = steps.get(version - 1);
+    version--;
+    if (last instanceof Flip) {
+      // a flip is its own inverse
+      last.run(model);
+      return;
+    }
+    if (last instanceof Rotate) {
+      ((Rotate) last).inverse().run(model);
+      return;
+    }
+    Map.Entry<Integer, CompressedRaster> snapshot = snapshots.floorEntry(version);
+    model.storeImage(name, snapshot.getValue().decompress(model.getPool()));
+    for (int i = snapshot.getKey(); i < version; i++) {
+      steps.get(i).run(model);
+    }
+  }
+
+  /**
+   * Applies the last undone step again.
+   *
+   * @throws IllegalStateException if there is nothing to redo.
+   */
+  public void redo() throws IllegalStateException {
+    if (!canRedo()) {
+      throw new IllegalStateException("Nothing to redo");
+    }
+    steps.get(version).run(model);
+    version++;
+  }
+
+  /**
+   * Retrieves the compressed size of the snapshots kept.
+   *
+   * @return the size in bytes.
+   */
+  public long getSnapshotBytes() {
+    return snapshotBytes;
+  }
+
+  /**
+   * Compresses the current version of the image, dropping the oldest snapshots while the cap is
+   * exceeded. The newest snapshot is always kept.
+   */
+  private void snapshot() {
+    CompressedRaster snapshot = CompressedRaster.compress(RasterImage.of(model.findImage(name)));
+    snapshots.put(version, snapshot);
+    snapshotBytes += snapshot.getCompressedBytes();
+    while (snapshotBytes > maxBytes && snapshots.size() > 1) {
+      snapshotBytes -= snapshots.pollFirstEntry().getValue().getCompressedBytes();
+    }
+  }
+}
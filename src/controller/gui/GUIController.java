@@ -1,4 +1,4 @@
-package controller;
+package controller.gui;
 
 import controller.commands.BrightenDarken;
 import controller.commands.ColorTransformation;
@@ -7,10 +7,11 @@ import controller.commands.Filter;
 import controller.commands.Flip;
 import controller.commands.Grayscale;
 import controller.commands.ImageProcessingCommand;
+import controller.commands.Rotate;
 import controller.commands.Save;
 import model.ImageProcessorModel;
-import view.GUIView;
-import view.GUIViewImpl;
+import view.gui.GUIView;
+import view.gui.GUIViewImpl;
 
 /**
  * A controller for the GUI application of our program. Allows our previous methods
@@ -21,6 +22,7 @@ public class GUIController implements ButtonCommands {
   private GUIView view;
   private ImageProcessingCommand command;
   private String typeOfFile;
+  private EditHistory history;
 
   /**
    * A constructor that initializes the type of file to be saved, the model, and the view.
@@ -37,6 +39,8 @@ public class GUIController implements ButtonCommands {
     this.view = view;
     //gets the type of file from whichever photo the user wants to utilize
     this.typeOfFile = this.view.getNewLoadCommand().typeOfFile();
+    //every change to the image is recorded so it can be undone
+    this.history = new EditHistory(model, "name", EditHistory.DEFAULT_MAX_BYTES);
   }
 
   /**
@@ -58,91 +62,119 @@ public class GUIController implements ButtonCommands {
   public void downscale() {
     this.command = new Downscale(model.saveImage("", "name").getHeight() / 3,
             model.saveImage("", "name").getWidth() / 2, "name", "name");
-    this.command.run(this.model);
+    this.history.apply(this.command);
     this.view.renderImage(model.saveImage("", "name"));
   }
 
   @Override
   public void brighten() {
     this.command = new BrightenDarken(30, "name", "name");
-    this.command.run(this.model);
+    this.history.apply(this.command);
     this.view.renderImage(model.saveImage("", "name"));
   }
 
   @Override
   public void darken() {
     this.command = new BrightenDarken(-30, "name", "name");
-    this.command.run(this.model);
+    this.history.apply(this.command);
     this.view.renderImage(model.saveImage("", "name"));
   }
 
   @Override
   public void flipHori() {
     this.command = new Flip(ImageProcessorModel.FlipMode.Horizontal, "name", "name");
-    this.command.run(this.model);
+    this.history.apply(this.command);
     this.view.renderImage(model.saveImage("", "name"));
   }
 
   @Override
   public void flipVert() {
     this.command = new Flip(ImageProcessorModel.FlipMode.Vertical, "name", "name");
-    this.command.run(this.model);
+    this.history.apply(this.command);
+    this.view.renderImage(model.saveImage("", "name"));
+  }
+
+  @Override
+  public void rotateRight() {
+    this.command = new Rotate(ImageProcessorModel.RotateMode.Rotate90, "name", "name");
+    this.history.apply(this.command);
+    this.view.renderImage(model.saveImage("", "name"));
+  }
+
+  @Override
+  public void rotateLeft() {
+    this.command = new Rotate(ImageProcessorModel.RotateMode.Rotate270, "name", "name");
+    this.history.apply(this.command);
+    this.view.renderImage(model.saveImage("", "name"));
+  }
+
+  @Override
+  public void rotateHalf() {
+    this.command = new Rotate(ImageProcessorModel.RotateMode.Rotate180, "name", "name");
+    this.history.apply(this.command);
+    this.view.renderImage(model.saveImage("", "name"));
+  }
+
+  @Override
+  public void transpose() {
+    this.command = new Rotate(ImageProcessorModel.RotateMode.Transpose, "name", "name");
+    this.history.apply(this.command);
     this.view.renderImage(model.saveImage("", "name"));
   }
 
   @Override
   public void redComponent() {
     this.command = new Grayscale(ImageProcessorModel.GrayscaleMode.Red, "name", "name");
-    this.command.run(this.model);
+    this.history.apply(this.command);
     this.view.renderImage(model.saveImage("", "name"));
   }
 
   @Override
   public void greenComponent() {
     this.command = new Grayscale(ImageProcessorModel.GrayscaleMode.Green, "name", "name");
-    this.command.run(this.model);
+    this.history.apply(this.command);
     this.view.renderImage(model.saveImage("", "name"));
   }
 
   @Override
   public void blueComponent() {
     this.command = new Grayscale(ImageProcessorModel.GrayscaleMode.Blue, "name", "name");
-    this.command.run(this.model);
+    this.history.apply(this.command);
     this.view.renderImage(model.saveImage("", "name"));
   }
 
   @Override
   public void lumaGrayscale() {
     this.command = new Grayscale(ImageProcessorModel.GrayscaleMode.Luma, "name", "name");
-    this.command.run(this.model);
+    this.history.apply(this.command);
     this.view.renderImage(model.saveImage("", "name"));
   }
 
   @Override
   public void valueGrayscale() {
     this.command = new Grayscale(ImageProcessorModel.GrayscaleMode.Value, "name", "name");
-    this.command.run(this.model);
+    this.history.apply(this.command);
     this.view.renderImage(model.saveImage("", "name"));
   }
 
   @Override
   public void intensityGrayscale() {
     this.command = new Grayscale(ImageProcessorModel.GrayscaleMode.Intensity, "name", "name");
-    this.command.run(this.model);
+    this.history.apply(this.command);
     this.view.renderImage(model.saveImage("", "name"));
   }
 
   @Override
   public void blur() {
     this.command = new Filter(ImageProcessorModel.FilterMode.Blur, "name", "name");
-    this.command.run(this.model);
+    this.history.apply(this.command);
     this.view.renderImage(model.saveImage("", "name"));
   }
 
   @Override
   public void sharpen() {
     this.command = new Filter(ImageProcessorModel.FilterMode.Sharpen, "name", "name");
-    this.command.run(this.model);
+    this.history.apply(this.command);
     this.view.renderImage(model.saveImage("", "name"));
   }
 
@@ -150,7 +182,7 @@ public class GUIController implements ButtonCommands {
   public void sepia() {
     this.command = new ColorTransformation(ImageProcessorModel.ColorTransformationsMode.Sepia,
             "name", "name");
-    this.command.run(this.model);
+    this.history.apply(this.command);
     this.view.renderImage(model.saveImage("", "name"));
   }
 
@@ -158,7 +190,27 @@ public class GUIController implements ButtonCommands {
   public void grayscaleColorTrans() {
     this.command = new ColorTransformation(ImageProcessorModel.ColorTransformationsMode.Grayscale,
             "name", "name");
-    this.command.run(this.model);
+    this.history.apply(this.command);
+    this.view.renderImage(model.saveImage("", "name"));
+  }
+
+  @Override
+  public void undo() {
+    if (!this.history.canUndo()) {
+      this.view.renderMessage("There is nothing to undo.");
+      return;
+    }
+    this.history.undo();
+    this.view.renderImage(model.saveImage("", "name"));
+  }
+
+  @Override
+  public void redo() {
+    if (!this.history.canRedo()) {
+      this.view.renderMessage("There is nothing to redo.");
+      return;
+    }
+    this.history.redo();
     this.view.renderImage(model.saveImage("", "name"));
   }
 
@@ -0,0 +1,20 @@
+package controller.gui;
+
+import controller.ImageProcessorController;
+import model.ImageProcessorModel;
+import view.gui.GUIViewImpl;
+
+/**
+ * Opens the GUI application on a new model. ImageProgram finds this class as a service when it is
+ * started without arguments, so the command-line program does not need the GUI to be installed.
+ */
+public class GUIProgram implements ImageProcessorController {
+
+  /**
+   * Opens the GUI window; the GUI controller is created once the user loads an image.
+   */
+  @Override
+  public void runApp() {
+    new GUIViewImpl(new ImageProcessorModel()).setVisible(true);
+  }
+}
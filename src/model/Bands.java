@@ -0,0 +1,70 @@
+package model;
+
+import java.util.stream.IntStream;
+
+/**
+ * Splits the rows of an image into bands and processes the bands on all cores. Small images are
+ * processed on the calling thread, where the cost of forking would outweigh the work.
+ */
+final class Bands {
+
+  /**
+   * Number of pixels from which work is spread over several threads.
+   */
+  static final int PARALLEL_PIXELS = 1 << 16;
+
+  private static final int BAND_PIXELS = 1 << 14;
+
+  /**
+   * The work done on one band of rows.
+   */
+  interface Body {
+    /**
+     * Processes the rows from the first (inclusive) to the last (exclusive).
+     *
+     * @param from the first row.
+     * @param to   the row after the last.
+     */
+    void run(int from, int to);
+  }
+
+  private Bands() {
+  }
+
+  /**
+   * Runs the body over all rows of an image, in parallel bands when the image is large.
+   *
+   * @param height number of rows.
+   * @param width  number of pixels per row.
+   * @param body   the work to do on every band.
+   */
+  static void forEach(int height, int width, Body body) {
+    if ((long) height * width < PARALLEL_PIXELS) {
+      body.run(0, height);
+      return;
+    }
+    forEach(height, width, 1, body);
+  }
+
+  /**
+   * Runs the body over all rows of an image, in parallel bands when the image is large, every
+   * band but the last starting at and holding a multiple of a number of rows, so that work done
+   * in blocks of rows never has a block split between two bands.
+   *
+   * @param height number of rows.
+   * @param width  number of pixels per row.
+   * @param step   the number of rows every band is a multiple of.
+   * @param body   the work to do on every band.
+   */
+  static void forEach(int height, int width, int step, Body body) {
+    if ((long) height * width < PARALLEL_PIXELS) {
+      body.run(0, height);
+      return;
+    }
+    int rows = Math.max(1, BAND_PIXELS / Math.max(1, width));
+    int bandRows = (rows + step - 1) / step * step;
+    int bands = (height + bandRows - 1) / bandRows;
+    IntStream.range(0, bands).parallel()
+            .forEach(b -> body.run(b * bandRows, Math.min(height, (b + 1) * bandRows)));
+  }
+}
@@ -0,0 +1,252 @@
+package model;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes uncompressed BMP files without going through ImageIO. The pixel rows are read
+ * from the file in large blocks and their BGR(A) bytes swizzled straight into a pooled raster.
+ * Reading supports 24 and 32-bit files, stored bottom-up or top-down; other variants (palettes,
+ * RLE, 16-bit) are left to ImageIO. Files are written as 24-bit bottom-up files, the same as
+ * ImageIO writes them.
+ */
+public final class BmpCodec {
+
+  private static final int FILE_HEADER_SIZE = 14;
+  private static final int INFO_HEADER_SIZE = 40;
+  private static final int BI_RGB = 0;
+  private static final int BI_BITFIELDS = 3;
+  private static final int BLOCK_BYTES = 1 << 20;
+
+  private BmpCodec() {
+  }
+
+  /**
+   * Determines if a file is a BMP file this codec reads, rather than one of the variants left to
+   * ImageIO.
+   *
+   * @param path the file.
+   * @return true if the file is an uncompressed 24 or 32-bit BMP file.
+   */
+  public static boolean canRead(Path path) {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return Header.of(channel) != null;
+    } catch (IOException | IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Decodes a BMP file into a new raster from the pool.
+   *
+   * @param path the BMP file.
+   * @param pool the pool to allocate the raster from.
+   * @return the raster.
+   * @throws IOException              if the file cannot be read.
+   * @throws IllegalArgumentException if the file is not a BMP file this codec reads.
+   */
+  public static RasterImage read(Path path, RasterPool pool)
+          throws IOException, IllegalArgumentException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      Header header = Header.of(channel);
+      if (header == null) {
+        throw new IllegalArgumentException("Unsupported BMP file " + path
+                + ": only uncompressed 24 and 32-bit files are read directly");
+      }
+      int width = header.width;
+      int height = header.height;
+      int bytesPerPixel = header.bitsPerPixel / 8;
+      int stride = stride(width, header.bitsPerPixel);
+      int rowBytes = width * RasterImage.CHANNELS;
+      RasterImage image = pool.allocate(width, height);
+      byte[] out = image.array();
+
+      int blockRows = Math.max(1, BLOCK_BYTES / stride);
+      ByteBuffer block = ByteBuffer.allocate(blockRows * stride);
+      byte[] in = block.array();
+      for (int first = 0; first < height; first += blockRows) {
+        int rows = Math.min(blockRows, height - first);
+        block.clear().limit(rows * stride);
+        readFully(channel, block, header.offset + (long) first * stride);
+        for (int i = 0; i < rows; i++) {
+          // file row first + i is image row first + i counted from the bottom, unless top-down
+          int y = header.topDown ? first + i : height - 1 - first - i;
+          int src = i * stride;
+          int dst = y * rowBytes;
+          for (int x = 0; x < width; x++, src += bytesPerPixel, dst += RasterImage.CHANNELS) {
+            out[dst] = in[src + 2];
+            out[dst + 1] = in[src + 1];
+            out[dst + 2] = in[src];
+          }
+        }
+      }
+      return image;
+    }
+  }
+
+  /**
+   * Writes a raster to a 24-bit bottom-up BMP file, replacing the file if it exists. The bytes go
+   * to a temporary file first which is then renamed.
+   *
+   * @param path  the file to write.
+   * @param image the raster to write.
+   * @throws IOException if the file cannot be written.
+   */
+  public static void write(Path path, RasterImage image) throws IOException {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int stride = stride(width, 24);
+    int rowBytes = width * RasterImage.CHANNELS;
+    long imageSize = (long) stride * height;
+    if (imageSize + FILE_HEADER_SIZE + INFO_HEADER_SIZE > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Image is too large for a BMP file");
+    }
+
+    ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE + INFO_HEADER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    header.put((byte) 'B').put((byte) 'M')
+            .putInt((int) imageSize + FILE_HEADER_SIZE + INFO_HEADER_SIZE)
+            .putInt(0).putInt(FILE_HEADER_SIZE + INFO_HEADER_SIZE)
+            .putInt(INFO_HEADER_SIZE).putInt(width).putInt(height)
+            .putShort((short) 1).putShort((short) 24).putInt(BI_RGB).putInt((int) imageSize)
+            .putInt(0).putInt(0).putInt(0).putInt(0)
+            .flip();
+
+    int blockRows = Math.max(1, BLOCK_BYTES / stride);
+    ByteBuffer block = ByteBuffer.allocate(blockRows * stride);
+    byte[] out = block.array();
+    byte[] row = new byte[rowBytes];
+    Path absolute = path.toAbsolutePath();
+    Path temp = RawCodec.temporarySibling(absolute);
+    try {
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW,
+              StandardOpenOption.WRITE)) {
+        writeFully(channel, header);
+        for (int first = 0; first < height; first += blockRows) {
+          int rows = Math.min(blockRows, height - first);
+          for (int i = 0; i < rows; i++) {
+            image.getRow(height - 1 - first - i, row, 0);
+            int dst = i * stride;
+            for (int x = 0; x < rowBytes; x += RasterImage.CHANNELS) {
+              out[dst + x] = row[x + 2];
+              out[dst + x + 1] = row[x + 1];
+              out[dst + x + 2] = row[x];
+            }
+            for (int pad = i * stride + rowBytes; pad < (i + 1) * stride; pad++) {
+              out[pad] = 0;
+            }
+          }
+          block.clear().limit(rows * stride);
+          writeFully(channel, block);
+        }
+      }
+      Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Computes the bytes a row takes in the file, rounded up to a multiple of four.
+   *
+   * @param width        the width of the image.
+   * @param bitsPerPixel the bits per pixel of the file.
+   * @return the stride of the rows.
+   */
+  private static int stride(int width, int bitsPerPixel) {
+    return (int) (((long) width * bitsPerPixel + 31) / 32 * 4);
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+          throws IOException {
+    while (buffer.hasRemaining()) {
+      int n = channel.read(buffer, position);
+      if (n < 0) {
+        throw new EOFException("BMP file is truncated");
+      }
+      position += n;
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * The parts of the BMP headers needed to read the pixels.
+   */
+  private static final class Header {
+    private final int width;
+    private final int height;
+    private final boolean topDown;
+    private final int bitsPerPixel;
+    private final long offset;
+
+    private Header(int width, int height, boolean topDown, int bitsPerPixel, long offset) {
+      this.width = width;
+      this.height = height;
+      this.topDown = topDown;
+      this.bitsPerPixel = bitsPerPixel;
+      this.offset = offset;
+    }
+
+    /**
+     * Parses the headers at the start of a file.
+     *
+     * @param channel the file.
+     * @return the header, or null if the file is a BMP variant this codec does not read.
+     * @throws IOException              if the file cannot be read.
+     * @throws IllegalArgumentException if the file is not a BMP file.
+     */
+    private static Header of(FileChannel channel) throws IOException, IllegalArgumentException {
+      ByteBuffer bytes = ByteBuffer.allocate(FILE_HEADER_SIZE + INFO_HEADER_SIZE)
+              .order(ByteOrder.LITTLE_ENDIAN);
+      readFully(channel, bytes, 0);
+      if (bytes.get(0) != 'B' || bytes.get(1) != 'M') {
+        throw new IllegalArgumentException("Invalid BMP file: file should begin with BM");
+      }
+      long offset = bytes.getInt(10) & 0xFFFFFFFFL;
+      int infoSize = bytes.getInt(14);
+      if (infoSize < INFO_HEADER_SIZE) {
+        // the old OS/2 header
+        return null;
+      }
+      int width = bytes.getInt(18);
+      int height = bytes.getInt(22);
+      int bitsPerPixel = bytes.getShort(28);
+      int compression = bytes.getInt(30);
+      if (bitsPerPixel != 24 && bitsPerPixel != 32) {
+        return null;
+      }
+      if (compression == BI_BITFIELDS && bitsPerPixel == 32) {
+        // only the usual masks, which put the channels where BI_RGB puts them
+        ByteBuffer masks = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, masks, FILE_HEADER_SIZE + INFO_HEADER_SIZE);
+        if (masks.getInt(0) != 0x00FF0000 || masks.getInt(4) != 0x0000FF00
+                || masks.getInt(8) != 0x000000FF) {
+          return null;
+        }
+      } else if (compression != BI_RGB) {
+        return null;
+      }
+      if (width <= 0 || height == 0 || height == Integer.MIN_VALUE
+              || (long) width * Math.abs(height) * RasterImage.CHANNELS > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Invalid BMP file: unsupported size "
+                + width + "x" + height);
+      }
+      if (offset + (long) stride(width, bitsPerPixel) * Math.abs(height) > channel.size()) {
+        throw new IllegalArgumentException("Invalid BMP file: pixel data is truncated");
+      }
+      return new Header(width, Math.abs(height), height < 0, bitsPerPixel, offset);
+    }
+  }
+}
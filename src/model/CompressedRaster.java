@@ -0,0 +1,152 @@
+package model;
+
+import java.io.ByteArrayOutputStream;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A raster kept deflate-compressed, for images that must be kept but are not being worked on.
+ * Every component is first replaced by its difference to the same component of the pixel to its
+ * left, which turns smooth areas into runs of small values, and the rows are then compressed in
+ * independent bands so that compressing and decompressing are spread over all cores.
+ */
+public final class CompressedRaster {
+
+  private static final int BAND_BYTES = 1 << 18;
+
+  private final int width;
+  private final int height;
+  private final int bandRows;
+  private final byte[][] bands;
+  private final long compressedBytes;
+
+  private CompressedRaster(int width, int height, int bandRows, byte[][] bands) {
+    this.width = width;
+    this.height = height;
+    this.bandRows = bandRows;
+    this.bands = bands;
+    long total = 0;
+    for (byte[] band : bands) {
+      total += band.length;
+    }
+    this.compressedBytes = total;
+  }
+
+  /**
+   * Compresses a raster. The raster itself is left as it is.
+   *
+   * @param image the raster to compress.
+   * @return the compressed raster.
+   */
+  public static CompressedRaster compress(RasterImage image) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int rowBytes = width * RasterImage.CHANNELS;
+    int bandRows = Math.max(1, BAND_BYTES / rowBytes);
+    int count = (height + bandRows - 1) / bandRows;
+    byte[][] bands = new byte[count][];
+    IntStream.range(0, count).parallel().forEach(b -> {
+      int rows = Math.min(bandRows, height - b * bandRows);
+      byte[] raw = new byte[rows * rowBytes];
+      for (int y = 0; y < rows; y++) {
+        int offset = y * rowBytes;
+        image.getRow(b * bandRows + y, raw, offset);
+        // right to left, so every difference is taken to the original left neighbor
+        for (int x = rowBytes - 1; x >= RasterImage.CHANNELS; x--) {
+          raw[offset + x] -= raw[offset + x - RasterImage.CHANNELS];
+        }
+      }
+      bands[b] = deflate(raw);
+    });
+    return new CompressedRaster(width, height, bandRows, bands);
+  }
+
+  /**
+   * Decompresses the raster into a new raster from the pool.
+   *
+   * @param pool the pool to allocate the raster from.
+   * @return the raster, equal to the one that was compressed.
+   * @throws IllegalStateException if the compressed data is corrupt.
+   */
+  public RasterImage decompress(RasterPool pool) throws IllegalStateException {
+    RasterImage image = pool.allocate(width, height);
+    byte[] out = image.array();
+    int rowBytes = width * RasterImage.CHANNELS;
+    IntStream.range(0, bands.length).parallel().forEach(b -> {
+      int start = b * bandRows * rowBytes;
+      int rows = Math.min(bandRows, height - b * bandRows);
+      inflate(bands[b], out, start, rows * rowBytes);
+      for (int y = 0; y < rows; y++) {
+        int offset = start + y * rowBytes;
+        for (int x = RasterImage.CHANNELS; x < rowBytes; x++) {
+          out[offset + x] += out[offset + x - RasterImage.CHANNELS];
+        }
+      }
+    });
+    return image;
+  }
+
+  /**
+   * Retrieves the width of the raster.
+   *
+   * @return the width in pixels.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Retrieves the height of the raster.
+   *
+   * @return the height in pixels.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Retrieves how many bytes the compressed raster takes.
+   *
+   * @return the size of the compressed data.
+   */
+  public long getCompressedBytes() {
+    return compressedBytes;
+  }
+
+  private static byte[] deflate(byte[] raw) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(raw);
+      deflater.finish();
+      ByteArrayOutputStream data = new ByteArrayOutputStream(raw.length / 4 + 64);
+      byte[] chunk = new byte[1 << 16];
+      while (!deflater.finished()) {
+        data.write(chunk, 0, deflater.deflate(chunk));
+      }
+      return data.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static void inflate(byte[] data, byte[] out, int offset, int length) {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(data);
+      int done = 0;
+      while (done < length) {
+        int n = inflater.inflate(out, offset + done, length - done);
+        if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+          throw new IllegalStateException("Compressed raster is truncated");
+        }
+        done += n;
+      }
+    } catch (DataFormatException e) {
+      throw new IllegalStateException("Compressed raster is corrupt", e);
+    } finally {
+      inflater.end();
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package model;
+
+import java.util.Locale;
+
+/**
+ * Counts how much the idle images of a model were compressed, and how long compressing and
+ * decompressing them took.
+ */
+public final class CompressionStats {
+
+  private long compressions;
+  private long decompressions;
+  private long rawBytes;
+  private long compressedBytes;
+  private long compressNanos;
+  private long decompressNanos;
+
+  /**
+   * Records an image that was compressed.
+   *
+   * @param raw        the size of the raster.
+   * @param compressed the size of the compressed raster.
+   * @param nanos      how long compressing took.
+   */
+  synchronized void compressed(long raw, long compressed, long nanos) {
+    compressions++;
+    rawBytes += raw;
+    compressedBytes += compressed;
+    compressNanos += nanos;
+  }
+
+  /**
+   * Records an image that was decompressed on access.
+   *
+   * @param nanos how long decompressing took.
+   */
+  synchronized void decompressed(long nanos) {
+    decompressions++;
+    decompressNanos += nanos;
+  }
+
+  /**
+   * Retrieves how many images were compressed.
+   *
+   * @return the number of compressions.
+   */
+  public synchronized long getCompressions() {
+    return compressions;
+  }
+
+  /**
+   * Retrieves how many compressed images were decompressed because they were accessed.
+   *
+   * @return the number of decompressions.
+   */
+  public synchronized long getDecompressions() {
+    return decompressions;
+  }
+
+  /**
+   * Retrieves the ratio of the size of the compressed rasters to the size they were compressed to.
+   *
+   * @return the compression ratio, or 1 if nothing was compressed.
+   */
+  public synchronized double getRatio() {
+    return compressedBytes == 0 ? 1 : (double) rawBytes / compressedBytes;
+  }
+
+  /**
+   * Retrieves the time spent compressing images.
+   *
+   * @return the total time in nanoseconds.
+   */
+  public synchronized long getCompressNanos() {
+    return compressNanos;
+  }
+
+  /**
+   * Retrieves the time spent decompressing images.
+   *
+   * @return the total time in nanoseconds.
+   */
+  public synchronized long getDecompressNanos() {
+    return decompressNanos;
+  }
+
+  /**
+   * Describes the counts in one line.
+   *
+   * @return the description.
+   */
+  @Override
+  public synchronized String toString() {
+    return String.format(Locale.ROOT, "%d images compressed (%.1f MB to %.1f MB, %.1fx) in %.1f ms,"
+                    + " %d decompressed in %.1f ms", compressions, rawBytes / 1e6,
+            compressedBytes / 1e6, getRatio(), compressNanos / 1e6, decompressions,
+            decompressNanos / 1e6);
+  }
+}
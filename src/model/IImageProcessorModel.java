@@ -33,6 +33,17 @@ public interface IImageProcessorModel {
    */
   void flip(ImageProcessorModel.FlipMode flip, String name, String modifiedImage);
 
+  /**
+   * Turns a given image a quarter turn either way or a half turn, or transposes it, based on the
+   * given RotateMode enum, and stores the result under the name modifiedImage. Quarter turns and
+   * transposes swap the width and height of the image.
+   *
+   * @param rotate        enum representing the turn.
+   * @param name          of image the user wants to modify.
+   * @param modifiedImage name of the new image that has been modified.
+   */
+  void rotate(ImageProcessorModel.RotateMode rotate, String name, String modifiedImage);
+
   /**
    * Performs a grayscale on an image, based on the given GrayscaleMode enum, by matching all
    * RGB components with either each pixel's red, green, or blue component value. Creates a copy of
@@ -50,7 +61,8 @@ public interface IImageProcessorModel {
    * Loads the desired image to an ASCII PPM file by converting the PPM file's text to individual
    * RGB pixels, and creating an Image (catering to our model representation). Stores this created
    * image into a HashMap, representing the stored images the user will load and modify, with the
-   * parameter newFileName as the key and the image as the value.
+   * parameter newFileName as the key and the image as the value. Files larger than
+   * ParallelPPMDecoder.PARALLEL_THRESHOLD are parsed in parallel chunks directly into a raster.
    *
    * @param pathName    the source path of the file the user wants to work on.
    * @param newFileName the name the user wants to give to the image.
@@ -58,6 +70,25 @@ public interface IImageProcessorModel {
    */
   void load(String pathName, String newFileName) throws IllegalArgumentException;
 
+  /**
+   * Loads part of a PPM file, optionally at a smaller size. Only the pixels inside the region are
+   * parsed into memory, and when a target size is given only every n-th row and column of the
+   * region is kept, for the largest n that still leaves at least the target size. The result is
+   * then resized to exactly the target size with a bilinear filter. Stores the image into the
+   * HashMap of stored images with the parameter newFileName as the key.
+   *
+   * @param pathName    the name of the file path the user wants to load.
+   * @param newFileName the name of the image the user wants to work on.
+   * @param region      the part of the image to load, or null for all of it.
+   * @param heightNew   the height to load the image at, or 0 to keep the height of the region.
+   * @param widthNew    the width to load the image at, or 0 to keep the width of the region.
+   * @throws IllegalArgumentException if the file cannot be read or is not a valid PPM file, if
+   *                                  the region is outside of the image or if only one of the
+   *                                  target dimensions is 0.
+   */
+  void load(String pathName, String newFileName, Region region, int heightNew, int widthNew)
+          throws IllegalArgumentException;
+
   /**
    * Loads the desired image of any format by converting the given BufferedImage (initialized in
    * the Load model.commands class) to individual RGB pixels, and creating an Image (catering to
@@ -95,6 +126,82 @@ public interface IImageProcessorModel {
    */
   BufferedImage saveImage(String pathName, String name);
 
+  /**
+   * Loads an image saved in the native raw format (a small header followed by the interleaved RGB
+   * bytes). The file is memory-mapped rather than read, so loading is immediate and the pixels are
+   * only paged in once the image is used. Stores the image into the HashMap of stored images with
+   * the parameter newFileName as the key.
+   *
+   * @param pathName    the source path of the raw file.
+   * @param newFileName the name the user wants to give to the image.
+   * @throws IllegalArgumentException if the file cannot be read or is not a raw file.
+   */
+  void loadRaw(String pathName, String newFileName) throws IllegalArgumentException;
+
+  /**
+   * Saves the desired image in the native raw format so that a later stage can load it back
+   * without decoding.
+   *
+   * @param pathName the name of the file path the user wants to save.
+   * @param name     the name of the image that the user wants to save.
+   * @return File the new raw file in the path name that the user inputs.
+   * @throws IllegalArgumentException if the image cannot be found or the file cannot be written.
+   */
+  File saveRaw(String pathName, String name) throws IllegalArgumentException;
+
+  /**
+   * Loads an image saved in the QOI format and stores it into the HashMap of stored images with
+   * the parameter newFileName as the key.
+   *
+   * @param pathName    the source path of the QOI file.
+   * @param newFileName the name the user wants to give to the image.
+   * @throws IllegalArgumentException if the file cannot be read or is not a QOI file.
+   */
+  void loadQoi(String pathName, String newFileName) throws IllegalArgumentException;
+
+  /**
+   * Saves the desired image in the QOI format, a lossless format much faster to encode and
+   * decode than PNG.
+   *
+   * @param pathName the name of the file path the user wants to save.
+   * @param name     the name of the image that the user wants to save.
+   * @return File the new QOI file in the path name that the user inputs.
+   * @throws IllegalArgumentException if the image cannot be found or the file cannot be written.
+   */
+  File saveQoi(String pathName, String name) throws IllegalArgumentException;
+
+  /**
+   * Loads an uncompressed 24 or 32-bit BMP file straight into a raster, without ImageIO, and
+   * stores it into the HashMap of stored images with the parameter newFileName as the key.
+   *
+   * @param pathName    the source path of the BMP file.
+   * @param newFileName the name the user wants to give to the image.
+   * @throws IllegalArgumentException if the file cannot be read or is another kind of BMP file.
+   */
+  void loadBmp(String pathName, String newFileName) throws IllegalArgumentException;
+
+  /**
+   * Saves the desired image as a 24-bit BMP file, without ImageIO.
+   *
+   * @param pathName the name of the file path the user wants to save.
+   * @param name     the name of the image that the user wants to save.
+   * @return File the new BMP file in the path name that the user inputs.
+   * @throws IllegalArgumentException if the image cannot be found or the file cannot be written.
+   */
+  File saveBmp(String pathName, String name) throws IllegalArgumentException;
+
+  /**
+   * Saves the desired image as a PNG file, compressed on all cores.
+   *
+   * @param pathName the name of the file path the user wants to save.
+   * @param name     the name of the image that the user wants to save.
+   * @param level    the compression level, from 0 (fastest) to 9 (smallest).
+   * @return File the new PNG file in the path name that the user inputs.
+   * @throws IllegalArgumentException if the image cannot be found, the level is out of range or
+   *                                  the file cannot be written.
+   */
+  File savePng(String pathName, String name, int level) throws IllegalArgumentException;
+
   /**
    * Applies a blur or sharpen filter onto an image based on the given FilterMode enum. A set
    * matrix, representing the filter that will be applied to each pixel, is multiplied to each
@@ -133,6 +240,39 @@ public interface IImageProcessorModel {
    */
   void downscale(int heightNew, int widthNew, String name, String modifiedImage);
 
+  /**
+   * Resizes an image to any width and height, smaller or larger, computing the new pixels with
+   * the given filter. The filter weights are precomputed for every row and column and the image
+   * is filtered in two separable passes on all cores.
+   *
+   * @param heightNew     desired height for image.
+   * @param widthNew      desired width for image.
+   * @param mode          the filter used to compute the new pixels.
+   * @param name          of image.
+   * @param modifiedImage the resized image.
+   * @throws IllegalArgumentException if the mode is null or a dimension is not positive.
+   */
+  void resize(int heightNew, int widthNew, ImageProcessorModel.ResampleMode mode, String name,
+              String modifiedImage) throws IllegalArgumentException;
+
+  /**
+   * Creates several smaller versions of an image in one go, for example thumbnails. Each size is
+   * the length of the longest edge of one version. Starting from the largest size, the image is
+   * halved again and again from the previous half, and every version is an exact resize of the
+   * smallest half that is still at least as big, so all versions together cost about a third more
+   * than one pass over the image. Versions are stored as baseName-size, and an image is never made
+   * larger than it is.
+   *
+   * @param sizes    the longest edge of every version.
+   * @param mode     the filter used for the final resize of every version.
+   * @param name     of image.
+   * @param baseName the start of the names of the versions.
+   * @throws IllegalArgumentException if there are no sizes, a size is not positive or the image
+   *                                  cannot be found.
+   */
+  void pyramid(int[] sizes, ImageProcessorModel.ResampleMode mode, String name, String baseName)
+          throws IllegalArgumentException;
+
   /**
    * Method to find the image of pixels through the storedImages HashMap.
    *
@@ -141,4 +281,113 @@ public interface IImageProcessorModel {
    * @throws IllegalArgumentException if the image cannot be found.
    */
   ImageInterface findImage(String name) throws IllegalArgumentException;
+
+  /**
+   * Stores an image into the HashMap of stored images under the given name, replacing the image
+   * stored under it, for example to bring back an earlier version of an image.
+   *
+   * @param name  the name to store the image under.
+   * @param image the image to store.
+   * @throws IllegalArgumentException if the name or image is null.
+   */
+  void storeImage(String name, ImageInterface image) throws IllegalArgumentException;
+
+  /**
+   * Removes an image from the HashMap of stored images. Its pixel buffer is recycled for the
+   * images created afterwards, so an image found through findImage must not be used once its
+   * name has been dropped or overwritten.
+   *
+   * @param name of image to remove.
+   * @throws IllegalArgumentException if the image cannot be found.
+   */
+  void drop(String name) throws IllegalArgumentException;
+
+  /**
+   * Removes every stored image, recycling their pixel buffers, so the model can be reused as if it
+   * were new.
+   */
+  void dropAll();
+
+  /**
+   * Keeps images that are not being used compressed in memory. An image is compressed once it has
+   * not been accessed for the idle time, checked by a background sweep as well as on every access,
+   * and the least recently accessed images are compressed while the uncompressed ones take more
+   * than the memory budget. The budget is a fixed number of bytes for this model alone, not a
+   * share of the heap, so callers running several models divide the heap between them. A
+   * compressed image is decompressed the next time findImage asks for it. Both limits are off by
+   * default.
+   *
+   * @param idleMillis          how long an image must go unused before it is compressed, or 0
+   *                            to only compress above the memory budget.
+   * @param residentBudgetBytes the most memory uncompressed images may take, or 0 for no budget.
+   * @throws IllegalArgumentException if a limit is negative.
+   */
+  void setIdleCompression(long idleMillis, long residentBudgetBytes)
+          throws IllegalArgumentException;
+
+  /**
+   * Retrieves how much idle images were compressed and how long it took.
+   *
+   * @return the compression counts of this model.
+   */
+  CompressionStats getCompressionStats();
+
+  /**
+   * Applies a pixel operation to an image that is not stored in the model, on all cores when the
+   * image is large.
+   *
+   * @param op      the operation.
+   * @param image   the image.
+   * @param inPlace true to write the result over the image, when the image is on the heap.
+   * @return the result, the image itself if it was processed in place.
+   * @throws IllegalArgumentException if an argument is null.
+   */
+  RasterImage applyPixelOp(PixelOp op, RasterImage image, boolean inPlace)
+          throws IllegalArgumentException;
+
+  /**
+   * Flips an image that is not stored in the model.
+   *
+   * @param flip  enum representing horizontal and vertical.
+   * @param image the image.
+   * @return the flipped image, in a new raster.
+   * @throws IllegalArgumentException if an argument is null.
+   */
+  RasterImage flipped(ImageProcessorModel.FlipMode flip, RasterImage image)
+          throws IllegalArgumentException;
+
+  /**
+   * Turns or transposes an image that is not stored in the model.
+   *
+   * @param rotate enum representing the turn.
+   * @param image  the image.
+   * @return the turned image, in a new raster.
+   * @throws IllegalArgumentException if an argument is null.
+   */
+  RasterImage rotated(ImageProcessorModel.RotateMode rotate, RasterImage image)
+          throws IllegalArgumentException;
+
+  /**
+   * Applies a blur or sharpen filter to an image that is not stored in the model, the same way
+   * the filter method does.
+   *
+   * @param filter an enum representing the two filter transformations.
+   * @param image  the image.
+   * @return the filtered image.
+   * @throws IllegalArgumentException if an argument is null.
+   */
+  ImageInterface filtered(ImageProcessorModel.FilterMode filter, ImageInterface image)
+          throws IllegalArgumentException;
+
+  /**
+   * Downscales an image that is not stored in the model, the same way the downscale method does.
+   *
+   * @param heightNew desired height for image.
+   * @param widthNew  desired width for image.
+   * @param image     the image.
+   * @return the downscaled image.
+   * @throws IllegalArgumentException if the image is null or the size is larger than the image.
+   */
+  ImageInterface downscaled(int heightNew, int widthNew, ImageInterface image)
+          throws IllegalArgumentException;
 }
@@ -6,13 +6,24 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * ImageProcessorModel class for the ImageProcessor.
@@ -29,6 +40,14 @@ public class ImageProcessorModel implements IImageProcessorModel {
     Vertical, Horizontal
   }
 
+  /**
+   * An enum for the ways to turn an image: a quarter turn clockwise, a half turn, a quarter turn
+   * counterclockwise, and a transpose, which mirrors the image along its main diagonal.
+   */
+  public enum RotateMode {
+    Rotate90, Rotate180, Rotate270, Transpose
+  }
+
   /**
    * An enum for different variations of the grayscale method based on the color component.
    */
@@ -54,6 +73,14 @@ public class ImageProcessorModel implements IImageProcessorModel {
     Blur, Sharpen
   }
 
+  /**
+   * Enum that represents the filters used to compute the pixels of a resized image, from the
+   * fastest (nearest neighbor) to the sharpest (Lanczos with three lobes).
+   */
+  public enum ResampleMode {
+    Nearest, Bilinear, Box, Bicubic, Lanczos3
+  }
+
   /**
    * Enum that represents four different components for the Histogram in the GUI.
    */
@@ -61,130 +88,201 @@ public class ImageProcessorModel implements IImageProcessorModel {
     Red, Green, Blue, Intensity
   }
 
+  // width and height, in pixels, of the blocks rotations copy at a time: 12 KB of source and
+  // 64 output rows of 192 bytes, well within the first level cache
+  private static final int ROTATE_BLOCK = 64;
+
+  // one daemon thread compresses the idle images of every model between commands
+  private static final ScheduledExecutorService SWEEPER =
+          Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "image-idle-sweep");
+            thread.setDaemon(true);
+            return thread;
+          });
+
   private Map<String, ImageInterface> storedImages;
+  private final RasterPool pool;
+  // idle images, moved out of storedImages until they are accessed again
+  private final Map<String, CompressedRaster> compressedImages;
+  private final Map<String, Long> lastAccess;
+  private final CompressionStats compressionStats;
+  private long idleNanos;
+  private long residentBudgetBytes;
+  private ScheduledFuture<?> sweep;
+  // what the store holds, for the JMX bean, which reads it from another thread
+  private volatile int storedImageCount;
+  private volatile long storedImageBytes;
+  private volatile int compressedImageCount;
+  private volatile long compressedImageBytes;
 
   /**
    * A zero argument constructor that initializes the HashMap that will store all the user's images.
    */
   public ImageProcessorModel() {
+    this(new RasterPool());
+  }
+
+  /**
+   * Creates a model whose rasters are allocated from the given pool, so that several models can
+   * share their released buffers.
+   *
+   * @param pool the raster pool.
+   * @throws IllegalArgumentException if the pool is null.
+   */
+  public ImageProcessorModel(RasterPool pool) throws IllegalArgumentException {
+    if (pool == null) {
+      throw new IllegalArgumentException("Pool cannot be null.");
+    }
     storedImages = new HashMap<>();
+    this.pool = pool;
+    this.compressedImages = new HashMap<>();
+    this.lastAccess = new HashMap<>();
+    this.compressionStats = new CompressionStats();
+    ModelMetrics.get().add(this);
   }
 
   @Override
   public void brighten(int increment, String name, String modifiedImage) {
-    ImageInterface image = findImage(name);
-    ArrayList<ArrayList<IPixel>> img = image.getPixels();
+    long start = System.nanoTime();
+    store(modifiedImage, applyPixelOp(PixelOps.brighten(increment), name));
+    timed("brighten", start);
+  }
 
-    // creates new image copy to alter
-    ArrayList<ArrayList<IPixel>> pixelsCopy = new ArrayList<>();
+  @Override
+  public void flip(FlipMode flip, String name, String modifiedImage) {
+    long start = System.nanoTime();
+    store(modifiedImage, flipped(flip, RasterImage.of(findImage(name))));
+    timed("flip", start);
+  }
 
-    for (ArrayList<IPixel> row : img) {
-      ArrayList<IPixel> rowCopy = new ArrayList<>();
-      for (IPixel pixel : row) {
-        IColor color = pixel.getColor();
-        rowCopy.add(new RGBPixelImpl(pixel.getPosition(),
-                new ColorImpl(clampValues(color.getRed() + increment),
-                        clampValues(color.getGreen() + increment),
-                        clampValues(color.getBlue() + increment))));
-      }
-      pixelsCopy.add(rowCopy);
+  @Override
+  public RasterImage flipped(FlipMode flip, RasterImage image) throws IllegalArgumentException {
+    if (flip == null || image == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
     }
-    ImageInterface newImage = new ImageImpl(pixelsCopy);
-    storedImages.put(modifiedImage, newImage);
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int rowBytes = width * RasterImage.CHANNELS;
+    RasterImage flipped = pool.allocate(width, height);
+    byte[] out = flipped.array();
+
+    Bands.forEach(height, width, (from, to) -> {
+      byte[] row = new byte[rowBytes];
+      for (int y = from; y < to; y++) {
+        if (flip == FlipMode.Vertical) {
+          image.getRow(height - 1 - y, out, y * rowBytes);
+        } else {
+          image.getRow(y, row, 0);
+          for (int x = 0, dst = y * rowBytes + rowBytes - 3; x < rowBytes; x += 3, dst -= 3) {
+            out[dst] = row[x];
+            out[dst + 1] = row[x + 1];
+            out[dst + 2] = row[x + 2];
+          }
+        }
+      }
+    });
+    return flipped;
   }
 
   @Override
-  public void flip(FlipMode flip, String name, String modifiedImage) {
-    ImageInterface image = findImage(name);
-    ArrayList<ArrayList<IPixel>> img = image.getPixels();
-    ArrayList<ArrayList<IPixel>> pixelsCopy = new ArrayList<>();
+  public void rotate(RotateMode rotate, String name, String modifiedImage) {
+    long start = System.nanoTime();
+    store(modifiedImage, rotated(rotate, RasterImage.of(findImage(name))));
+    timed("rotate", start);
+  }
 
-    for (ArrayList<IPixel> row : img) {
-      ArrayList<IPixel> rowCopy = new ArrayList<>();
-      for (IPixel pixel : row) {
-        IColor color = pixel.getColor();
-        rowCopy.add(new RGBPixelImpl(pixel.getPosition(),
-                new ColorImpl(color.getRed(), color.getGreen(),
-                        color.getBlue())));
-      }
-      pixelsCopy.add(rowCopy);
+  @Override
+  public RasterImage rotated(RotateMode rotate, RasterImage image)
+          throws IllegalArgumentException {
+    if (rotate == null || image == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
     }
-
-    if (flip == FlipMode.Vertical) {
-      Collections.reverse(pixelsCopy);
+    int width = image.getWidth();
+    int height = image.getHeight();
+    if (rotate == RotateMode.Rotate180) {
+      // rows stay rows, so reading them from the bottom up and reversing them is cache friendly
+      int rowBytes = width * RasterImage.CHANNELS;
+      RasterImage rotated = pool.allocate(width, height);
+      byte[] out = rotated.array();
+      Bands.forEach(height, width, (from, to) -> {
+        byte[] row = new byte[rowBytes];
+        for (int y = from; y < to; y++) {
+          image.getRow(height - 1 - y, row, 0);
+          for (int x = 0, dst = y * rowBytes + rowBytes - 3; x < rowBytes; x += 3, dst -= 3) {
+            out[dst] = row[x];
+            out[dst + 1] = row[x + 1];
+            out[dst + 2] = row[x + 2];
+          }
+        }
+      });
+      return rotated;
     }
 
-    if (flip == FlipMode.Horizontal) {
-      for (ArrayList<IPixel> img2 : pixelsCopy) {
-        Collections.reverse(img2);
+    // the other modes turn rows into columns: output pixel (x, y) comes from row rowBase +
+    // rowSign * x and column columnBase + columnSign * y of the image. Going along an output row
+    // would read a pixel from every row of the image, so the output is written in square blocks
+    // whose source rows are first copied into a small buffer, in the order the output reads
+    // them, keeping both in the cache. The directions are numbers rather than branches, and the
+    // inner loop always walks the buffer forward, so one compiled loop serves every mode
+    int rowBase = rotate == RotateMode.Rotate90 ? height - 1 : 0;
+    int rowSign = rotate == RotateMode.Rotate90 ? -1 : 1;
+    int columnBase = rotate == RotateMode.Rotate270 ? width - 1 : 0;
+    int columnSign = rotate == RotateMode.Rotate270 ? -1 : 1;
+    RasterImage rotated = pool.allocate(height, width);
+    byte[] out = rotated.array();
+    ByteBuffer data = image.getData();
+    Bands.forEach(width, height, ROTATE_BLOCK, (from, to) -> {
+      byte[] block = new byte[ROTATE_BLOCK * ROTATE_BLOCK * RasterImage.CHANNELS];
+      for (int y0 = from; y0 < to; y0 += ROTATE_BLOCK) {
+        int y1 = Math.min(to, y0 + ROTATE_BLOCK);
+        int columns = y1 - y0;
+        int rowBytes = columns * RasterImage.CHANNELS;
+        int firstColumn = Math.min(columnBase + columnSign * y0,
+                columnBase + columnSign * (y1 - 1));
+        for (int x0 = 0; x0 < height; x0 += ROTATE_BLOCK) {
+          int x1 = Math.min(height, x0 + ROTATE_BLOCK);
+          for (int x = x0; x < x1; x++) {
+            data.get(((rowBase + rowSign * x) * width + firstColumn) * RasterImage.CHANNELS,
+                    block, (x - x0) * rowBytes, rowBytes);
+          }
+          for (int y = y0; y < y1; y++) {
+            int src = (columnBase + columnSign * y - firstColumn) * RasterImage.CHANNELS;
+            int dst = (y * height + x0) * RasterImage.CHANNELS;
+            for (int x = x0; x < x1; x++, src += rowBytes, dst += RasterImage.CHANNELS) {
+              out[dst] = block[src];
+              out[dst + 1] = block[src + 1];
+              out[dst + 2] = block[src + 2];
+            }
+          }
+        }
       }
-    }
-
-    ImageInterface newImage = new ImageImpl(pixelsCopy);
-    storedImages.put(modifiedImage, newImage);
+    });
+    return rotated;
   }
 
   @Override
   public void grayscale(GrayscaleMode grayscale, String name, String modifiedImage) {
-    ImageInterface image = findImage(name);
-    ArrayList<ArrayList<IPixel>> img = image.getPixels();
-
-    // creates new image copy to alter
-    ArrayList<ArrayList<IPixel>> pixelsCopy = new ArrayList<>();
-    for (ArrayList<IPixel> row : img) {
-      ArrayList<IPixel> rowCopy = new ArrayList<>();
-      for (IPixel pixel : row) {
-        IColor color = pixel.getColor();
-
-        // convert image to greyscale by making all rgb pixels the respective color
-        switch (grayscale) {
-          case Red:
-            rowCopy.add(new RGBPixelImpl(pixel.getPosition(),
-                    new ColorImpl(color.getRed(), color.getRed(),
-                            color.getRed())));
-            break;
-          case Green:
-            rowCopy.add(new RGBPixelImpl(pixel.getPosition(),
-                    new ColorImpl(color.getGreen(), color.getGreen(),
-                            color.getGreen())));
-            break;
-          case Blue:
-            rowCopy.add(new RGBPixelImpl(pixel.getPosition(),
-                    new ColorImpl(color.getBlue(), color.getBlue(),
-                            color.getBlue())));
-            break;
-          // avg of 3 components for each pixel
-          case Intensity:
-            int value = clampValues((color.getRed() + color.getGreen() + color.getBlue()) / 3);
-            rowCopy.add(new RGBPixelImpl(pixel.getPosition(),
-                    new ColorImpl(value, value, value)));
-            // max value of 3 components for each pixel
-            break;
-          case Value:
-            int maxVal = Math.max(Math.max(color.getRed(), color.getBlue()), color.getGreen());
-            rowCopy.add(new RGBPixelImpl(pixel.getPosition(),
-                    new ColorImpl(maxVal, maxVal, maxVal)));
-            break;
-          // the weighted sum calculation
-          case Luma:
-            rowCopy.add(new RGBPixelImpl(pixel.getPosition(),
-                    new ColorImpl((int) (color.getRed() * 0.2126),
-                            (int) (color.getGreen() * 0.7152),
-                            (int) (color.getBlue() * 0.0722))));
-            break;
-          default:
-        }
-      }
-      pixelsCopy.add(rowCopy);
-    }
-    ImageInterface newImage = new ImageImpl(pixelsCopy);
-    storedImages.put(modifiedImage, newImage);
+    long start = System.nanoTime();
+    store(modifiedImage, applyPixelOp(PixelOps.grayscale(grayscale), name));
+    timed("grayscale", start);
   }
 
   @Override
   public void load(String pathName, String newFileName) throws IllegalArgumentException {
+    long start = System.nanoTime();
     String ppmText = "";
 
+    try {
+      //large files are decoded on all cores straight into a raster
+      if (Files.size(Paths.get(pathName)) >= ParallelPPMDecoder.PARALLEL_THRESHOLD) {
+        store(newFileName, ParallelPPMDecoder.decode(Paths.get(pathName)));
+        timed("load", start);
+        return;
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to read PPM file " + pathName);
+    }
+
     try {
       ppmText = Files.readString(Paths.get(pathName));
     } catch (IOException e) {
@@ -208,51 +306,75 @@ public class ImageProcessorModel implements IImageProcessorModel {
     int height = Integer.parseInt(eachNum[1]);
     int maxVal = scanner.nextInt();
 
-    ArrayList<ArrayList<IPixel>> pixels = new ArrayList<>();
-    for (int i = 0; i < height; i++) {
-      ArrayList<IPixel> rowCopy = new ArrayList<>();
-      for (int j = 0; j < width; j++) {
-        rowCopy.add(new RGBPixelImpl(new Position2D(i, j),
-                new ColorImpl(scanner.nextInt(), scanner.nextInt(), scanner.nextInt())));
+    RasterImage newImage = pool.allocate(width, height);
+    byte[] rgb = newImage.array();
+    for (int i = 0; i < width * height * RasterImage.CHANNELS; i++) {
+      int value = scanner.nextInt();
+      if (value < 0 || value > 255) {
+        throw new IllegalArgumentException("Color value must be in range of 0-255");
       }
-      pixels.add(rowCopy);
+      rgb[i] = (byte) value;
+    }
+    store(newFileName, newImage);
+    timed("load", start);
+  }
+
+  @Override
+  public void load(String pathName, String newFileName, Region region, int heightNew,
+                   int widthNew) throws IllegalArgumentException {
+    long start = System.nanoTime();
+    if (heightNew < 0 || widthNew < 0 || (heightNew == 0) != (widthNew == 0)) {
+      throw new IllegalArgumentException("Target size must be positive, or 0 for both.");
+    }
+    RasterImage decoded;
+    try {
+      //rows and columns the resize would throw away are skipped while parsing
+      decoded = ParallelPPMDecoder.decode(Paths.get(pathName), region, widthNew, heightNew,
+              Runtime.getRuntime().availableProcessors() * 4);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to read PPM file " + pathName);
+    }
+    if (widthNew == 0 || (decoded.getWidth() == widthNew && decoded.getHeight() == heightNew)) {
+      store(newFileName, decoded);
+    } else {
+      store(newFileName, Resampler.resize(decoded, widthNew, heightNew, ResampleMode.Bilinear,
+              pool));
     }
-    ImageInterface newImage = new ImageImpl(pixels);
-    storedImages.put(newFileName, newImage);
+    timed("load", start);
   }
 
   @Override
   public void load(BufferedImage image, String newFileName) throws IllegalArgumentException {
+    long start = System.nanoTime();
     if (image == null) {
       throw new IllegalArgumentException("Image cannot be null.");
     }
 
-    ArrayList<ArrayList<IPixel>> pixelCopy = new ArrayList<>();
-    for (int i = image.getMinY(); i < image.getHeight(); i++) {
-      ArrayList<IPixel> rowCopy = new ArrayList<>();
-      for (int j = image.getMinX(); j < image.getWidth(); j++) {
-        rowCopy.add(new RGBPixelImpl(new Position2D(i, j),
-                new ColorImpl(new Color(image.getRGB(j, i)).getRed(),
-                        new Color(image.getRGB(j, i)).getGreen(),
-                        new Color(image.getRGB(j, i)).getBlue())));
+    int width = image.getWidth();
+    int height = image.getHeight();
+    RasterImage newImage = pool.allocate(width, height);
+    byte[] rgb = newImage.array();
+    int[] row = new int[width];
+    for (int i = 0; i < height; i++) {
+      image.getRGB(0, i, width, 1, row, 0, width);
+      for (int j = 0, k = i * width * RasterImage.CHANNELS; j < width; j++) {
+        rgb[k++] = (byte) (row[j] >> 16);
+        rgb[k++] = (byte) (row[j] >> 8);
+        rgb[k++] = (byte) row[j];
       }
-      pixelCopy.add(rowCopy);
     }
-    ImageInterface newImage = new ImageImpl(pixelCopy);
-    storedImages.put(newFileName, newImage);
+    store(newFileName, newImage);
+    timed("load-image", start);
   }
 
   @Override
   public File save(String pathName, String name) throws IllegalArgumentException {
+    long start = System.nanoTime();
     ImageInterface image = findImage(name);
     ArrayList<ArrayList<IPixel>> img = image.getPixels();
 
     StringBuilder str = new StringBuilder();
-    str.append("P3\n")
-            .append("# Created by GIMP version 2.10.30 PNM plug-in\n")
-            .append(img.get(0).size() + " ")
-            .append(img.size() + "\n")
-            .append(255 + "\n");
+    str.append(Scanlines.ppmHeader(img.get(0).size(), img.size()));
     for (ArrayList<IPixel> iPixels : img) {
       for (int j = 0; j < img.get(0).size(); j++) {
         str.append(iPixels.get(j).getColor().getRed()).append("\n");
@@ -272,12 +394,16 @@ public class ImageProcessorModel implements IImageProcessorModel {
     } catch (IOException e) {
       throw new IllegalArgumentException();
     }
+    timed("save", start);
     return file;
   }
 
   @Override
   public BufferedImage saveImage(String pathName, String name) {
     ImageInterface image = findImage(name);
+    if (image instanceof RasterImage) {
+      return toBufferedImage((RasterImage) image);
+    }
     ArrayList<ArrayList<IPixel>> img = image.getPixels();
 
     BufferedImage save = new BufferedImage(img.get(0).size(),
@@ -294,69 +420,121 @@ public class ImageProcessorModel implements IImageProcessorModel {
   }
 
   /**
-   * A helper method for the colorTransformation method that applies a matrix to the given image's
-   * individual RGB pixels.
+   * Copies a raster into a new BufferedImage, one row at a time.
    *
-   * @param matrix a matrix representing values to apply to each pixel of an image.
-   * @param image  the image the user wants to modify
-   * @return a 2D arraylist of pixels that represent a copy of the modified image.
+   * @param image the raster to copy.
+   * @return the BufferedImage.
    */
-  private ArrayList<ArrayList<IPixel>> colorTransHelper(double[][] matrix, ImageInterface image) {
-    ArrayList<ArrayList<IPixel>> img = image.getPixels();
-
-    ArrayList<ArrayList<IPixel>> pixelsCopy = new ArrayList<>();
-    for (ArrayList<IPixel> row : img) {
-      ArrayList<IPixel> rowCopy = new ArrayList<>();
-      for (IPixel pixel : row) {
-
-        int oldRed = pixel.getColor().getRed();
-        int oldGreen = pixel.getColor().getGreen();
-        int oldBlue = pixel.getColor().getBlue();
+  private BufferedImage toBufferedImage(RasterImage image) {
+    int width = image.getWidth();
+    BufferedImage save = new BufferedImage(width, image.getHeight(), BufferedImage.TYPE_INT_RGB);
+    byte[] bytes = new byte[width * RasterImage.CHANNELS];
+    int[] row = new int[width];
+    for (int i = 0; i < image.getHeight(); i++) {
+      image.getRow(i, bytes, 0);
+      for (int j = 0, k = 0; j < width; j++, k += 3) {
+        row[j] = (bytes[k] & 0xFF) << 16 | (bytes[k + 1] & 0xFF) << 8 | (bytes[k + 2] & 0xFF);
+      }
+      save.setRGB(0, i, width, 1, row, 0, width);
+    }
+    return save;
+  }
 
-        int newRed = (int) ((oldRed * matrix[0][0])
-                + (oldGreen * matrix[0][1])
-                + (oldBlue * matrix[0][2]));
-        int newGreen = (int) ((oldRed * matrix[1][0])
-                + (oldGreen * matrix[1][1])
-                + (oldBlue * matrix[1][2]));
-        int newBlue = (int) ((oldRed * matrix[2][0])
-                + (oldGreen * matrix[2][1])
-                + (oldBlue * matrix[2][2]));
+  @Override
+  public void loadRaw(String pathName, String newFileName) throws IllegalArgumentException {
+    long start = System.nanoTime();
+    try {
+      store(newFileName, RawCodec.read(Paths.get(pathName)));
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to read raw file " + pathName);
+    }
+    timed("load-raw", start);
+  }
 
-        rowCopy.add(new RGBPixelImpl(pixel.getPosition(),
-                new ColorImpl((Math.max(0, Math.min(newRed, 255))),
-                        (Math.max(0, Math.min(newGreen, 255))),
-                        (Math.max(0, Math.min(newBlue, 255))))));
+  @Override
+  public File saveRaw(String pathName, String name) throws IllegalArgumentException {
+    long start = System.nanoTime();
+    RasterImage image = RasterImage.of(findImage(name));
+    File file = new File(pathName);
+    try {
+      RawCodec.write(file.toPath(), image);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to write raw file " + pathName);
+    }
+    timed("save-raw", start);
+    return file;
+  }
 
-      }
-      pixelsCopy.add(rowCopy);
+  @Override
+  public void loadBmp(String pathName, String newFileName) throws IllegalArgumentException {
+    long start = System.nanoTime();
+    try {
+      store(newFileName, BmpCodec.read(Paths.get(pathName), pool));
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to read BMP file " + pathName);
     }
-    return pixelsCopy;
+    timed("load-bmp", start);
   }
 
   @Override
-  public void colorTransformations(ColorTransformationsMode colorTransform,
-                                   String name, String modifiedImage) {
-    ImageInterface image = findImage(name);
-    ArrayList<ArrayList<IPixel>> pixelsCopy = new ArrayList<>();
+  public File saveBmp(String pathName, String name) throws IllegalArgumentException {
+    long start = System.nanoTime();
+    RasterImage image = RasterImage.of(findImage(name));
+    File file = new File(pathName);
+    try {
+      BmpCodec.write(file.toPath(), image);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to write BMP file " + pathName);
+    }
+    timed("save-bmp", start);
+    return file;
+  }
 
-    if (colorTransform == ColorTransformationsMode.Grayscale) {
-      double[][] matrix = {{0.2126, 0.7152, 0.0722},
-                           {0.2126, 0.7152, 0.0722},
-                           {0.2126, 0.7152, 0.0722}};
+  @Override
+  public void loadQoi(String pathName, String newFileName) throws IllegalArgumentException {
+    long start = System.nanoTime();
+    try {
+      store(newFileName, QoiCodec.read(Paths.get(pathName), pool));
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to read QOI file " + pathName);
+    }
+    timed("load-qoi", start);
+  }
 
-      pixelsCopy = colorTransHelper(matrix, image);
+  @Override
+  public File saveQoi(String pathName, String name) throws IllegalArgumentException {
+    long start = System.nanoTime();
+    RasterImage image = RasterImage.of(findImage(name));
+    File file = new File(pathName);
+    try {
+      QoiCodec.write(file.toPath(), image);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to write QOI file " + pathName);
     }
+    timed("save-qoi", start);
+    return file;
+  }
 
-    if (colorTransform == ColorTransformationsMode.Sepia) {
-      double[][] matrix = {{0.393, 0.769, 0.189},
-                           {0.349, 0.686, 0.168},
-                           {0.272, 0.534, 0.131}};
-      pixelsCopy = colorTransHelper(matrix, image);
+  @Override
+  public File savePng(String pathName, String name, int level) throws IllegalArgumentException {
+    long start = System.nanoTime();
+    RasterImage image = RasterImage.of(findImage(name));
+    File file = new File(pathName);
+    try {
+      PngCodec.write(file.toPath(), image, level);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to write PNG file " + pathName);
     }
+    timed("save-png", start);
+    return file;
+  }
 
-    ImageInterface newImage = new ImageImpl(pixelsCopy);
-    storedImages.put(modifiedImage, newImage);
+  @Override
+  public void colorTransformations(ColorTransformationsMode colorTransform,
+                                   String name, String modifiedImage) {
+    long start = System.nanoTime();
+    store(modifiedImage, applyPixelOp(PixelOps.colorTransformation(colorTransform), name));
+    timed("color-transformation", start);
   }
 
   /**
@@ -405,7 +583,17 @@ public class ImageProcessorModel implements IImageProcessorModel {
 
   @Override
   public void filter(FilterMode filter, String name, String modifiedImage) {
-    ImageInterface image = findImage(name);
+    long start = System.nanoTime();
+    store(modifiedImage, filtered(filter, findImage(name)));
+    timed("filter", start);
+  }
+
+  @Override
+  public ImageInterface filtered(FilterMode filter, ImageInterface image)
+          throws IllegalArgumentException {
+    if (filter == null || image == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
     double[][] matrix;
 
     ArrayList<ArrayList<IPixel>> pixelsCopy = new ArrayList<>();
@@ -429,8 +617,7 @@ public class ImageProcessorModel implements IImageProcessorModel {
 
       pixelsCopy = filterHelper(matrix, image);
     }
-    ImageInterface newImage = new ImageImpl(pixelsCopy);
-    storedImages.put(modifiedImage, newImage);
+    return new ImageImpl(pixelsCopy);
   }
 
   /**
@@ -483,150 +670,379 @@ public class ImageProcessorModel implements IImageProcessorModel {
 
   @Override
   public void downscale(int heightNew, int widthNew, String name, String modifiedImage) {
-    ImageInterface image = findImage(name);
-    ArrayList<ArrayList<IPixel>> img = image.getPixels();
-
-    int originalWidth = img.get(0).size();
-    int originalHeight = img.size();
+    long start = System.nanoTime();
+    store(modifiedImage, downscaled(heightNew, widthNew, findImage(name)));
+    timed("downscale", start);
+  }
 
-    if (widthNew * heightNew > originalWidth * originalHeight) {
+  @Override
+  public ImageInterface downscaled(int heightNew, int widthNew, ImageInterface image)
+          throws IllegalArgumentException {
+    if (image == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
+    }
+    RasterImage raster = RasterImage.of(image);
+    if ((long) widthNew * heightNew > (long) raster.getWidth() * raster.getHeight()) {
       throw new IllegalArgumentException("Dimensions cannot be larger than inputted image");
     }
-    ArrayList<ArrayList<IPixel>> downscaled = this
-            .downscaleArrayList(img, originalWidth,
-                    originalHeight, widthNew, heightNew);
+    return Resampler.downscale(raster, widthNew, heightNew, pool);
+  }
+
+  @Override
+  public void resize(int heightNew, int widthNew, ResampleMode mode, String name,
+                     String modifiedImage) throws IllegalArgumentException {
+    long start = System.nanoTime();
+    if (mode == null) {
+      throw new IllegalArgumentException("Resample mode cannot be null.");
+    }
+    RasterImage image = RasterImage.of(findImage(name));
+    store(modifiedImage, Resampler.resize(image, widthNew, heightNew, mode, pool));
+    timed("resize", start);
+  }
+
+  @Override
+  public void pyramid(int[] sizes, ResampleMode mode, String name, String baseName)
+          throws IllegalArgumentException {
+    long start = System.nanoTime();
+    if (sizes == null || sizes.length == 0 || mode == null) {
+      throw new IllegalArgumentException("Sizes and resample mode cannot be empty.");
+    }
+    int[] sorted = sizes.clone();
+    Arrays.sort(sorted);
+    if (sorted[0] <= 0) {
+      throw new IllegalArgumentException("Pyramid sizes must be positive.");
+    }
+    RasterImage source = RasterImage.of(findImage(name));
+    int longestEdge = Math.max(source.getWidth(), source.getHeight());
+    RasterImage level = source;
+    boolean levelStored = false;
+
+    //largest size first, each level is halved from the previous one while it stays big enough
+    for (int i = sorted.length - 1; i >= 0; i--) {
+      int size = Math.min(sorted[i], longestEdge);
+      while (Math.max(level.getWidth(), level.getHeight()) / 2 >= size) {
+        RasterImage half = Resampler.resize(level, Math.max(1, level.getWidth() / 2),
+                Math.max(1, level.getHeight() / 2), ResampleMode.Box, pool);
+        if (level != source && !levelStored) {
+          pool.release(level);
+        }
+        level = half;
+        levelStored = false;
+      }
+      int width = Math.max(1, (int) Math.round((double) source.getWidth() * size / longestEdge));
+      int height = Math.max(1, (int) Math.round((double) source.getHeight() * size / longestEdge));
+      if (level.getWidth() == width && level.getHeight() == height) {
+        store(baseName + "-" + sorted[i], level);
+        levelStored = true;
+      } else {
+        store(baseName + "-" + sorted[i], Resampler.resize(level, width, height, mode, pool));
+      }
+    }
+    if (level != source && !levelStored) {
+      pool.release(level);
+    }
+    timed("pyramid", start);
+  }
+
+  @Override
+  public synchronized ImageInterface findImage(String name) throws IllegalArgumentException {
+    ImageInterface image = storedImages.getOrDefault(name, null);
+    if (image == null && compressedImages.containsKey(name)) {
+      long start = System.nanoTime();
+      image = compressedImages.remove(name).decompress(pool);
+      compressionStats.decompressed(System.nanoTime() - start);
+      storedImages.put(name, image);
+      lastAccess.put(name, System.nanoTime());
+      compressIdle(name);
+      updateGauges();
+    }
+    if (image == null) {
+      throw new IllegalArgumentException("Image " + name + " not found.");
+    }
+    lastAccess.put(name, System.nanoTime());
+    return image;
+  }
+
+  @Override
+  public void storeImage(String name, ImageInterface image) throws IllegalArgumentException {
+    if (name == null || image == null) {
+      throw new IllegalArgumentException("Name and image cannot be null.");
+    }
+    store(name, image);
+  }
+
+  @Override
+  public synchronized void drop(String name) throws IllegalArgumentException {
+    lastAccess.remove(name);
+    if (compressedImages.remove(name) != null) {
+      updateGauges();
+      return;
+    }
+    ImageInterface image = storedImages.remove(name);
+    if (image == null) {
+      throw new IllegalArgumentException("Image " + name + " not found.");
+    }
+    recycle(image);
+    updateGauges();
+  }
+
+  @Override
+  public synchronized void dropAll() {
+    Set<ImageInterface> images = Collections.newSetFromMap(new IdentityHashMap<>());
+    images.addAll(storedImages.values());
+    storedImages.clear();
+    compressedImages.clear();
+    lastAccess.clear();
+    for (ImageInterface image : images) {
+      recycle(image);
+    }
+    updateGauges();
+  }
+
+  @Override
+  public synchronized void setIdleCompression(long idleMillis, long residentBudgetBytes)
+          throws IllegalArgumentException {
+    if (idleMillis < 0 || residentBudgetBytes < 0) {
+      throw new IllegalArgumentException("Idle time and memory budget cannot be negative.");
+    }
+    this.idleNanos = idleMillis * 1_000_000L;
+    this.residentBudgetBytes = residentBudgetBytes;
+    if (sweep != null) {
+      sweep.cancel(false);
+      sweep = null;
+    }
+    if (idleMillis > 0) {
+      // the sweep holds the model weakly, so a model that is no longer used stops its sweep
+      WeakReference<ImageProcessorModel> model = new WeakReference<>(this);
+      long period = Math.max(1, idleMillis / 2);
+      sweep = SWEEPER.scheduleWithFixedDelay(() -> {
+        ImageProcessorModel swept = model.get();
+        if (swept == null) {
+          // an exception is how a periodic task stops itself
+          throw new IllegalStateException("model collected");
+        }
+        swept.sweep();
+      }, period, period, TimeUnit.MILLISECONDS);
+    }
+    compressIdle(null);
+    updateGauges();
+  }
 
-    ImageInterface newImage = new ImageImpl(downscaled);
-    storedImages.put(modifiedImage, newImage);
+  @Override
+  public CompressionStats getCompressionStats() {
+    return compressionStats;
+  }
 
+  /**
+   * Retrieves the pool that the rasters of this model are allocated from.
+   *
+   * @return the raster pool.
+   */
+  public RasterPool getPool() {
+    return pool;
   }
 
   /**
-   * Returns the entire 2d arraylist of pixels for the
-   * downscaled image.
+   * Stores an image under a name. If the name held another raster that no other name refers to,
+   * its buffer goes back to the pool.
    *
-   * @param originalImg    original image.
-   * @param originalWidth  original width of image.
-   * @param originalHeight original height of image.
-   * @param widthNew       new width of image.
-   * @param heightNew      new height of image.
-   * @return the array of pixels for the downscaled modification.
+   * @param name  the name of the image.
+   * @param image the image to store.
    */
-  private ArrayList<ArrayList<IPixel>> downscaleArrayList(ArrayList<ArrayList<IPixel>> originalImg,
-                                                          int originalWidth, int originalHeight,
-                                                          int widthNew, int heightNew) {
-    ArrayList<ArrayList<IPixel>> downscaledImage = new ArrayList<>();
-    double xPrime;
-    double yPrime;
-    IPixel originalPix;
-    IPixel newPix;
-
-    for (int i = 0; i < heightNew; i++) {
-      ArrayList<IPixel> newImageRow = new ArrayList<>();
-      for (int j = 0; j < widthNew; j++) {
-        xPrime = (j * (double) originalWidth) / widthNew;
-        yPrime = (i * (double) originalHeight) / heightNew;
-
-        if ((int) xPrime == xPrime || (int) yPrime == yPrime) {
-          originalPix = originalImg.get((int) yPrime).get((int) xPrime);
-          newPix = new RGBPixelImpl(originalPix.getPosition(),
-                  new ColorImpl(originalPix.getColor().getRed(), originalPix.getColor().getGreen(),
-                          originalPix.getColor().getBlue()));
-        } else {
-          int[] colors = this.getColorComponents(originalImg, xPrime, yPrime);
-          newPix = new RGBPixelImpl(new Position2D(j, i),
-                  new ColorImpl(colors[0], colors[1], colors[2]));
-        }
-        newImageRow.add(newPix);
-      }
-      downscaledImage.add(newImageRow);
+  private synchronized void store(String name, ImageInterface image) {
+    compressedImages.remove(name);
+    ImageInterface previous = storedImages.put(name, image);
+    if (previous != null && previous != image) {
+      recycle(previous);
     }
-    return downscaledImage;
+    lastAccess.put(name, System.nanoTime());
+    compressIdle(name);
+    updateGauges();
   }
 
   /**
-   * Returns rgb color components for the pixels in the downscaled image.
+   * Retrieves the number of names images are stored under uncompressed.
    *
-   * @param original image.
-   * @param xPrime   x position num.
-   * @param yPrime   y position num.
-   * @return new rbg values.
+   * @return the number of images.
    */
-  private int[] getColorComponents(ArrayList<ArrayList<IPixel>> original, double xPrime,
-                                   double yPrime) {
-    int[] newRGB = new int[3];
-    IPixel aPix;
-    IPixel bPix;
-    IPixel cPix;
-    IPixel dPix;
-
-    Position2D aPos = new Position2D((int) Math.floor(xPrime), (int) Math.floor(yPrime));
-    Position2D bPos = new Position2D((int) Math.ceil(xPrime), (int) Math.floor(yPrime));
-    Position2D cPos = new Position2D((int) Math.floor(xPrime), (int) Math.ceil(yPrime));
-    Position2D dPos = new Position2D((int) Math.ceil(xPrime), (int) Math.ceil(yPrime));
+  int getStoredImageCount() {
+    return storedImageCount;
+  }
 
-    try {
-      aPix = original.get(aPos.getY()).get(aPos.getX());
-      bPix = original.get(bPos.getY()).get(bPos.getX());
-      cPix = original.get(cPos.getY()).get(cPos.getX());
-      dPix = original.get(dPos.getY()).get(dPos.getX());
-    } catch (IndexOutOfBoundsException e) {
-      aPix = original.get((int) yPrime).get((int) xPrime);
-      bPix = original.get((int) yPrime).get((int) xPrime);
-      cPix = original.get((int) yPrime).get((int) xPrime);
-      dPix = original.get((int) yPrime).get((int) xPrime);
-    }
+  /**
+   * Retrieves the size of the pixels of the images stored uncompressed, counting an image stored
+   * under several names once.
+   *
+   * @return the size in bytes.
+   */
+  long getStoredImageBytes() {
+    return storedImageBytes;
+  }
 
+  /**
+   * Retrieves the number of images kept compressed.
+   *
+   * @return the number of images.
+   */
+  int getCompressedImageCount() {
+    return compressedImageCount;
+  }
 
-    double mRedComponent = (bPix.getColor().getRed() * (xPrime - Math.floor(xPrime)))
-            + (aPix.getColor().getRed() * (Math.ceil(xPrime) - xPrime));
-    double mGreenComponent = (bPix.getColor().getGreen() * (xPrime - Math.floor(xPrime)))
-            + (aPix.getColor().getGreen() * (Math.ceil(xPrime) - xPrime));
-    double mBlueComponent = (bPix.getColor().getBlue() * (xPrime - Math.floor(xPrime)))
-            + (aPix.getColor().getBlue() * (Math.ceil(xPrime) - xPrime));
+  /**
+   * Retrieves the size of the images kept compressed.
+   *
+   * @return the size in bytes.
+   */
+  long getCompressedImageBytes() {
+    return compressedImageBytes;
+  }
 
-    double nRedComponent = (dPix.getColor().getRed() * (xPrime - Math.floor(xPrime)))
-            + (cPix.getColor().getRed() * (Math.ceil(xPrime) - xPrime));
-    double nGreenComponent = (dPix.getColor().getGreen() * (xPrime - Math.floor(xPrime)))
-            + (cPix.getColor().getGreen() * (Math.ceil(xPrime) - xPrime));
-    double nBlueComponent = (dPix.getColor().getBlue() * (xPrime - Math.floor(xPrime)))
-            + (cPix.getColor().getBlue() * (Math.ceil(xPrime) - xPrime));
+  /**
+   * Counts what the store holds after it changed, for the JMX bean.
+   */
+  private void updateGauges() {
+    Set<ImageInterface> images = Collections.newSetFromMap(new IdentityHashMap<>());
+    long bytes = 0;
+    for (ImageInterface image : storedImages.values()) {
+      if (!images.add(image)) {
+        continue;
+      }
+      if (image instanceof RasterImage) {
+        RasterImage raster = (RasterImage) image;
+        bytes += (long) raster.getWidth() * raster.getHeight() * RasterImage.CHANNELS;
+      } else {
+        ArrayList<ArrayList<IPixel>> pixels = image.getPixels();
+        bytes += (long) pixels.size() * (pixels.isEmpty() ? 0 : pixels.get(0).size())
+                * RasterImage.CHANNELS;
+      }
+    }
+    long compressed = 0;
+    for (CompressedRaster raster : compressedImages.values()) {
+      compressed += raster.getCompressedBytes();
+    }
+    storedImageCount = storedImages.size();
+    storedImageBytes = bytes;
+    compressedImageCount = compressedImages.size();
+    compressedImageBytes = compressed;
+  }
 
-    double pRedComponent = (nRedComponent * (yPrime - Math.floor(yPrime)))
-            + (mRedComponent * (Math.ceil(yPrime) - yPrime));
-    double pGreenComponent = (nGreenComponent * (yPrime - Math.floor(yPrime)))
-            + (mGreenComponent * (Math.ceil(yPrime) - yPrime));
-    double pBlueComponent = (nBlueComponent * (yPrime - Math.floor(yPrime)))
-            + (mBlueComponent * (Math.ceil(yPrime) - yPrime));
+  /**
+   * Records how long an operation took, for the JMX bean.
+   *
+   * @param operation the kind of operation.
+   * @param start     when the operation started.
+   */
+  private static void timed(String operation, long start) {
+    ModelMetrics.get().getTimings().record(operation, System.nanoTime() - start);
+  }
 
-    newRGB[0] = (int) pRedComponent;
-    newRGB[1] = (int) pGreenComponent;
-    newRGB[2] = (int) pBlueComponent;
+  /**
+   * Compresses the images that went idle since the last command, so they are compressed even
+   * while no command runs.
+   */
+  private synchronized void sweep() {
+    compressIdle(null);
+    updateGauges();
+  }
 
-    return newRGB;
+  /**
+   * Compresses the heap rasters that have not been accessed for the idle time, then the least
+   * recently accessed ones while the rasters left take more than the memory budget. The buffers of
+   * compressed rasters are not given back to the pool, as a command may still be reading them.
+   *
+   * @param keep the name of the image being accessed, which is left as it is, or null.
+   */
+  private void compressIdle(String keep) {
+    if (idleNanos == 0 && residentBudgetBytes == 0) {
+      return;
+    }
+    Set<RasterImage> resident = Collections.newSetFromMap(new IdentityHashMap<>());
+    List<String> candidates = new ArrayList<>();
+    long residentBytes = 0;
+    for (Map.Entry<String, ImageInterface> entry : storedImages.entrySet()) {
+      if (entry.getValue() instanceof RasterImage
+              && ((RasterImage) entry.getValue()).array() != null) {
+        RasterImage raster = (RasterImage) entry.getValue();
+        if (resident.add(raster)) {
+          residentBytes += (long) raster.getWidth() * raster.getHeight() * RasterImage.CHANNELS;
+        }
+        if (!entry.getKey().equals(keep)) {
+          candidates.add(entry.getKey());
+        }
+      }
+    }
+    candidates.sort(Comparator.comparingLong(lastAccess::get));
+    long now = System.nanoTime();
+    for (String name : candidates) {
+      boolean idle = idleNanos > 0 && now - lastAccess.get(name) >= idleNanos;
+      if (!idle && (residentBudgetBytes == 0 || residentBytes <= residentBudgetBytes)) {
+        break;
+      }
+      RasterImage raster = (RasterImage) storedImages.remove(name);
+      long start = System.nanoTime();
+      CompressedRaster compressed = CompressedRaster.compress(raster);
+      long bytes = (long) raster.getWidth() * raster.getHeight() * RasterImage.CHANNELS;
+      compressionStats.compressed(bytes, compressed.getCompressedBytes(),
+              System.nanoTime() - start);
+      compressedImages.put(name, compressed);
+      if (!storedImages.containsValue(raster)) {
+        residentBytes -= bytes;
+      }
+    }
   }
 
-  @Override
-  public ImageInterface findImage(String name) throws IllegalArgumentException {
-    ImageInterface image = storedImages.getOrDefault(name, null);
-    if (image == null) {
-      throw new IllegalArgumentException("Image " + name + " not found.");
+  /**
+   * Gives the buffer of an image that was removed from the store back to the pool, unless the
+   * image is still stored under another name.
+   *
+   * @param image the removed image.
+   */
+  private void recycle(ImageInterface image) {
+    if (!(image instanceof RasterImage)) {
+      return;
     }
-    return image;
+    for (ImageInterface stored : storedImages.values()) {
+      if (stored == image) {
+        return;
+      }
+    }
+    pool.release((RasterImage) image);
   }
 
   /**
-   * "Clamps" the values of invalid rgb values if > 255 or are < 0.
+   * Applies a pixel operation to a stored image, writing the result into a pooled raster.
    *
-   * @param rgb value to clamp.
-   * @return The clamped value.
+   * @param op   the operation to apply.
+   * @param name the name of the image to read.
+   * @return the new raster.
    */
-  private int clampValues(int rgb) {
-    if (rgb > 255) {
-      return 255;
-    } else if (rgb < 0) {
-      return 0;
+  private RasterImage applyPixelOp(PixelOp op, String name) {
+    return applyPixelOp(op, RasterImage.of(findImage(name)), false);
+  }
+
+  @Override
+  public RasterImage applyPixelOp(PixelOp op, RasterImage image, boolean inPlace)
+          throws IllegalArgumentException {
+    if (op == null || image == null) {
+      throw new IllegalArgumentException("Cannot have a null argument");
     }
-    return rgb;
+    int width = image.getWidth();
+    int rowBytes = width * RasterImage.CHANNELS;
+    byte[] in = image.array();
+    RasterImage result = inPlace && in != null ? image : pool.allocate(width, image.getHeight());
+    byte[] out = result.array();
+
+    Bands.forEach(image.getHeight(), width, (from, to) -> {
+      if (in != null) {
+        op.apply(in, from * rowBytes, out, from * rowBytes, (to - from) * width);
+      } else {
+        //mapped rasters are copied in row by row and processed in place
+        for (int y = from; y < to; y++) {
+          image.getRow(y, out, y * rowBytes);
+          op.apply(out, y * rowBytes, out, y * rowBytes, width);
+        }
+      }
+    });
+    return result;
   }
 }
@@ -0,0 +1,154 @@
+package model;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts latencies in buckets the way an HDR histogram does: every power of two is split into 64
+ * buckets of equal width, so any latency from a nanosecond to centuries is kept within about 1.6%
+ * in a fixed 30KB of counters. Recording is lock-free and may happen on any number of threads.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts;
+  private final LongAdder count;
+  private final LongAdder total;
+  private final AtomicLong max;
+  private final AtomicLong first;
+
+  /**
+   * Creates an empty histogram.
+   */
+  public LatencyHistogram() {
+    this.counts = new AtomicLongArray(BUCKETS);
+    this.count = new LongAdder();
+    this.total = new LongAdder();
+    this.max = new AtomicLong();
+    this.first = new AtomicLong();
+  }
+
+  /**
+   * Records a latency.
+   *
+   * @param nanos the latency in nanoseconds; negative values are counted as 0.
+   */
+  public void record(long nanos) {
+    long value = Math.max(0, nanos);
+    counts.incrementAndGet(bucket(value));
+    count.increment();
+    total.add(value);
+    max.accumulateAndGet(value, Math::max);
+    first.compareAndSet(0, System.nanoTime() - value);
+  }
+
+  /**
+   * Retrieves the number of latencies recorded.
+   *
+   * @return the count.
+   */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * Retrieves the largest latency recorded, exactly.
+   *
+   * @return the latency in nanoseconds, or 0 if none was recorded.
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Retrieves the mean of the latencies recorded.
+   *
+   * @return the mean in nanoseconds, or 0 if none was recorded.
+   */
+  public double getMean() {
+    long n = count.sum();
+    return n == 0 ? 0 : (double) total.sum() / n;
+  }
+
+  /**
+   * Retrieves the number of latencies recorded per second, since the start of the first one.
+   *
+   * @return the throughput, or 0 if none was recorded.
+   */
+  public double getThroughput() {
+    long start = first.get();
+    long n = count.sum();
+    if (n == 0 || start == 0) {
+      return 0;
+    }
+    return n / Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+  }
+
+  /**
+   * Retrieves the latency below which a share of the latencies fall.
+   *
+   * @param percentile the share, from 0 to 100.
+   * @return the highest latency in the bucket of the percentile, in nanoseconds, never more than
+   *         the largest latency recorded; or 0 if none was recorded.
+   * @throws IllegalArgumentException if the percentile is out of range.
+   */
+  public long getPercentile(double percentile) throws IllegalArgumentException {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("Percentile must be between 0 and 100");
+    }
+    long n = count.sum();
+    if (n == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(highest(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * Forgets every latency recorded.
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+    count.reset();
+    total.reset();
+    max.set(0);
+    first.set(0);
+  }
+
+  /**
+   * Finds the bucket of a value: values below 128 have a bucket each, larger values share a
+   * bucket with the values that agree with them in their top seven bits.
+   *
+   * @param value the value, not negative.
+   * @return the index of the bucket.
+   */
+  private static int bucket(long value) {
+    int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS + 1));
+    return shift * SUB_BUCKETS + (int) (value >>> shift);
+  }
+
+  /**
+   * Computes the highest value that falls into a bucket.
+   *
+   * @param bucket the index of the bucket.
+   * @return the value.
+   */
+  private static long highest(int bucket) {
+    int shift = Math.max(0, bucket / SUB_BUCKETS - 1);
+    long base = bucket - (long) shift * SUB_BUCKETS;
+    return ((base + 1) << shift) - 1;
+  }
+}
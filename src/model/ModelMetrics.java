@@ -0,0 +1,130 @@
+package model;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Collects what the models of the program store and how long their operations take, and shows it
+ * through JMX. Every model adds itself when it is created and is forgotten once it is garbage, so
+ * the store counts add up the live models only.
+ */
+public final class ModelMetrics implements ModelMetricsMXBean {
+
+  /**
+   * The name the bean is registered under.
+   */
+  public static final String NAME = "imageprocessor:type=Model";
+
+  private static final ModelMetrics INSTANCE = new ModelMetrics();
+  private static boolean registered;
+
+  private final Set<ImageProcessorModel> models;
+  private final OperationTimings timings;
+
+  private ModelMetrics() {
+    this.models = Collections.newSetFromMap(new WeakHashMap<>());
+    this.timings = new OperationTimings();
+  }
+
+  /**
+   * Retrieves the metrics of the program.
+   *
+   * @return the metrics.
+   */
+  public static ModelMetrics get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Retrieves the latencies of every model operation.
+   *
+   * @return the timings.
+   */
+  public OperationTimings getTimings() {
+    return timings;
+  }
+
+  @Override
+  public int getStoredImages() {
+    int images = 0;
+    for (ImageProcessorModel model : models()) {
+      images += model.getStoredImageCount();
+    }
+    return images;
+  }
+
+  @Override
+  public long getStoredBytes() {
+    long bytes = 0;
+    for (ImageProcessorModel model : models()) {
+      bytes += model.getStoredImageBytes();
+    }
+    return bytes;
+  }
+
+  @Override
+  public int getCompressedImages() {
+    int images = 0;
+    for (ImageProcessorModel model : models()) {
+      images += model.getCompressedImageCount();
+    }
+    return images;
+  }
+
+  @Override
+  public long getCompressedBytes() {
+    long bytes = 0;
+    for (ImageProcessorModel model : models()) {
+      bytes += model.getCompressedImageBytes();
+    }
+    return bytes;
+  }
+
+  @Override
+  public Map<String, OperationStats> getOperations() {
+    return timings.snapshot();
+  }
+
+  @Override
+  public void reset() {
+    timings.reset();
+  }
+
+  /**
+   * Adds a new model to the store counts.
+   *
+   * @param model the model.
+   */
+  synchronized void add(ImageProcessorModel model) {
+    models.add(model);
+  }
+
+  private synchronized List<ImageProcessorModel> models() {
+    return new ArrayList<>(models);
+  }
+
+  /**
+   * Shows the metrics through JMX under {@link #NAME}, unless they already are. The metrics are
+   * collected either way; starting the platform MBean server takes longer than a short script
+   * run, so the program only does it when it keeps running.
+   */
+  public static synchronized void register() {
+    if (registered) {
+      return;
+    }
+    registered = true;
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(NAME));
+    } catch (JMException | SecurityException e) {
+      // the metrics are still collected, only not shown through JMX
+    }
+  }
+}
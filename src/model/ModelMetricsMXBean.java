@@ -0,0 +1,50 @@
+package model;
+
+import java.util.Map;
+
+/**
+ * The JMX view of every model in the program, registered as "imageprocessor:type=Model" and
+ * readable from JConsole or jcmd.
+ */
+public interface ModelMetricsMXBean {
+
+  /**
+   * Retrieves the number of images stored uncompressed in the models.
+   *
+   * @return the number of images.
+   */
+  int getStoredImages();
+
+  /**
+   * Retrieves the size of the pixels of the images stored uncompressed, three bytes per pixel.
+   *
+   * @return the size in bytes.
+   */
+  long getStoredBytes();
+
+  /**
+   * Retrieves the number of idle images kept compressed in the models.
+   *
+   * @return the number of images.
+   */
+  int getCompressedImages();
+
+  /**
+   * Retrieves the size of the idle images kept compressed.
+   *
+   * @return the size in bytes.
+   */
+  long getCompressedBytes();
+
+  /**
+   * Retrieves the count, throughput and latency percentiles of every model operation.
+   *
+   * @return the statistics by operation.
+   */
+  Map<String, OperationStats> getOperations();
+
+  /**
+   * Forgets the latencies recorded so far, to measure from now on.
+   */
+  void reset();
+}
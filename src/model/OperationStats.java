@@ -0,0 +1,105 @@
+package model;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The latencies of one kind of operation at one moment, as shown by the JMX beans of the model and
+ * the controllers. All times are in milliseconds.
+ */
+public final class OperationStats {
+
+  private final long count;
+  private final double throughput;
+  private final double meanMillis;
+  private final double p50Millis;
+  private final double p99Millis;
+  private final double maxMillis;
+
+  /**
+   * Creates the statistics of an operation.
+   *
+   * @param count      the number of operations.
+   * @param throughput the operations per second.
+   * @param meanMillis the mean latency.
+   * @param p50Millis  the median latency.
+   * @param p99Millis  the 99th percentile latency.
+   * @param maxMillis  the largest latency.
+   */
+  @ConstructorProperties({"count", "throughput", "meanMillis", "p50Millis", "p99Millis",
+      "maxMillis"})
+  public OperationStats(long count, double throughput, double meanMillis, double p50Millis,
+                        double p99Millis, double maxMillis) {
+    this.count = count;
+    this.throughput = throughput;
+    this.meanMillis = meanMillis;
+    this.p50Millis = p50Millis;
+    this.p99Millis = p99Millis;
+    this.maxMillis = maxMillis;
+  }
+
+  /**
+   * Takes the statistics of a histogram.
+   *
+   * @param histogram the latencies of an operation.
+   * @return the statistics.
+   */
+  public static OperationStats of(LatencyHistogram histogram) {
+    return new OperationStats(histogram.getCount(), histogram.getThroughput(),
+            histogram.getMean() / 1e6, histogram.getPercentile(50) / 1e6,
+            histogram.getPercentile(99) / 1e6, histogram.getMax() / 1e6);
+  }
+
+  /**
+   * Retrieves the number of operations.
+   *
+   * @return the count.
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Retrieves the operations per second since the first one.
+   *
+   * @return the throughput.
+   */
+  public double getThroughput() {
+    return throughput;
+  }
+
+  /**
+   * Retrieves the mean latency.
+   *
+   * @return the latency in milliseconds.
+   */
+  public double getMeanMillis() {
+    return meanMillis;
+  }
+
+  /**
+   * Retrieves the median latency.
+   *
+   * @return the latency in milliseconds.
+   */
+  public double getP50Millis() {
+    return p50Millis;
+  }
+
+  /**
+   * Retrieves the latency that 99% of the operations stay under.
+   *
+   * @return the latency in milliseconds.
+   */
+  public double getP99Millis() {
+    return p99Millis;
+  }
+
+  /**
+   * Retrieves the largest latency.
+   *
+   * @return the latency in milliseconds.
+   */
+  public double getMaxMillis() {
+    return maxMillis;
+  }
+}
@@ -0,0 +1,61 @@
+package model;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A latency histogram for every kind of operation, created the first time the operation is
+ * recorded.
+ */
+public final class OperationTimings {
+
+  private final ConcurrentMap<String, LatencyHistogram> histograms;
+
+  /**
+   * Creates timings with no operations.
+   */
+  public OperationTimings() {
+    this.histograms = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Records the latency of an operation.
+   *
+   * @param operation the kind of operation.
+   * @param nanos     the latency in nanoseconds.
+   */
+  public void record(String operation, long nanos) {
+    histograms.computeIfAbsent(operation, k -> new LatencyHistogram()).record(nanos);
+  }
+
+  /**
+   * Retrieves the histogram of an operation.
+   *
+   * @param operation the kind of operation.
+   * @return the histogram, or null if the operation was never recorded.
+   */
+  public LatencyHistogram get(String operation) {
+    return histograms.get(operation);
+  }
+
+  /**
+   * Takes the statistics of every operation.
+   *
+   * @return the statistics by operation, sorted by name.
+   */
+  public Map<String, OperationStats> snapshot() {
+    Map<String, OperationStats> stats = new TreeMap<>();
+    histograms.forEach((operation, histogram) ->
+            stats.put(operation, OperationStats.of(histogram)));
+    return stats;
+  }
+
+  /**
+   * Forgets every latency recorded.
+   */
+  public void reset() {
+    histograms.values().forEach(LatencyHistogram::reset);
+  }
+}
@@ -0,0 +1,329 @@
+package model;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+/**
+ * Decodes plain-text (P3) PPM files on all available cores. The file is memory-mapped and its
+ * pixel section is cut into chunks on whitespace boundaries. A first parallel pass counts the
+ * color values in every chunk, which tells each chunk where its values start in the raster, and a
+ * second parallel pass parses the chunks straight into their place.
+ *
+ * <p>The decoder can also read only a region of the image and keep only every n-th row and
+ * column of it. Values outside of the selection are skipped rather than stored, and chunks that
+ * hold no selected row are not parsed at all.
+ */
+public final class ParallelPPMDecoder {
+
+  /**
+   * Size in bytes from which the model decodes PPM files with this decoder rather than scanning
+   * them on a single thread.
+   */
+  public static final long PARALLEL_THRESHOLD = 4L << 20;
+
+  private static final int MIN_CHUNK_SIZE = 1 << 16;
+
+  private final MappedByteBuffer buffer;
+  private int position;
+
+  // the image in the file and the part of it that is kept
+  private int width;
+  private int regionX;
+  private int regionY;
+  private int regionHeight;
+  private int step;
+  private int widthOut;
+  private boolean[] keptColumns;
+
+  private ParallelPPMDecoder(MappedByteBuffer buffer) {
+    this.buffer = buffer;
+    this.position = 0;
+  }
+
+  /**
+   * Decodes a P3 file into a raster, using as many chunks as is sensible for the file size and the
+   * number of cores.
+   *
+   * @param path the PPM file to decode.
+   * @return the decoded raster.
+   * @throws IOException              if the file cannot be read.
+   * @throws IllegalArgumentException if the file is not a valid P3 file.
+   */
+  public static RasterImage decode(Path path) throws IOException, IllegalArgumentException {
+    return decode(path, null, 0, 0, Runtime.getRuntime().availableProcessors() * 4);
+  }
+
+  /**
+   * Decodes a P3 file into a raster using at most the given number of chunks.
+   *
+   * @param path   the PPM file to decode.
+   * @param chunks the maximum number of chunks to split the pixel section into.
+   * @return the decoded raster.
+   * @throws IOException              if the file cannot be read.
+   * @throws IllegalArgumentException if the file is not a valid P3 file.
+   */
+  public static RasterImage decode(Path path, int chunks)
+          throws IOException, IllegalArgumentException {
+    return decode(path, null, 0, 0, chunks);
+  }
+
+  /**
+   * Decodes a region of a P3 file, subsampled so that it is no smaller than a target size. Only
+   * every n-th row and column of the region is kept, with n as large as the target size allows.
+   *
+   * @param path      the PPM file to decode.
+   * @param region    the part of the image to decode, or null for all of it.
+   * @param widthNew  the width the caller will resize the result to, or 0 to keep every column.
+   * @param heightNew the height the caller will resize the result to, or 0 to keep every row.
+   * @param chunks    the maximum number of chunks to split the pixel section into.
+   * @return the decoded raster.
+   * @throws IOException              if the file cannot be read.
+   * @throws IllegalArgumentException if the file is not a valid P3 file or the region is outside
+   *                                  of the image.
+   */
+  public static RasterImage decode(Path path, Region region, int widthNew, int heightNew,
+                                   int chunks) throws IOException, IllegalArgumentException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("PPM file is too large to decode: " + path);
+      }
+      ParallelPPMDecoder decoder =
+              new ParallelPPMDecoder(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+      return decoder.decodeImage(region, widthNew, heightNew, Math.max(1, chunks));
+    }
+  }
+
+  /**
+   * Reads the header and then decodes the selected part of the pixel section.
+   *
+   * @param region    the part of the image to decode, or null for all of it.
+   * @param widthNew  the target width, or 0.
+   * @param heightNew the target height, or 0.
+   * @param chunks    the maximum number of chunks.
+   * @return the decoded raster.
+   */
+  private RasterImage decodeImage(Region region, int widthNew, int heightNew, int chunks) {
+    if (!"P3".equals(nextHeaderToken())) {
+      throw new IllegalArgumentException("Invalid PPM file: plain RAW file should begin with P3");
+    }
+    width = Integer.parseInt(nextHeaderToken());
+    int height = Integer.parseInt(nextHeaderToken());
+    nextHeaderToken(); // the max value, ignored like the scanning loader does
+    long needed = (long) width * height * RasterImage.CHANNELS;
+    if (width <= 0 || height <= 0 || needed > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Invalid PPM file: unsupported size "
+              + width + "x" + height);
+    }
+    select(region == null ? new Region(0, 0, width, height) : region, height,
+            widthNew, heightNew);
+    int heightOut = (regionHeight + step - 1) / step;
+    byte[] rgb = new byte[widthOut * heightOut * RasterImage.CHANNELS];
+
+    int start = position;
+    int end = buffer.limit();
+    int count = Math.max(1, Math.min(chunks, (end - start) / MIN_CHUNK_SIZE));
+    int[] bounds = new int[count + 1];
+    bounds[0] = start;
+    bounds[count] = end;
+    for (int k = 1; k < count; k++) {
+      int bound = Math.max(bounds[k - 1], start + (int) ((long) (end - start) * k / count));
+      while (bound < end && !isWhitespace(buffer.get(bound))) {
+        bound++;
+      }
+      bounds[k] = bound;
+    }
+
+    // prefix pass: how many values each chunk holds, and whether any chunk has a comment
+    long[] counts = new long[count];
+    boolean[] comments = new boolean[count];
+    IntStream.range(0, count).parallel().forEach(k ->
+            counts[k] = countValues(bounds[k], bounds[k + 1], comments, k));
+    boolean commented = false;
+    for (boolean comment : comments) {
+      commented |= comment;
+    }
+    if (commented) {
+      // a comment may span a chunk boundary, so fall back to one chunk
+      checkCount(parseValues(start, end, rgb, 0, needed), needed);
+      return new RasterImage(widthOut, heightOut, rgb);
+    }
+    long[] offsets = new long[count];
+    long total = 0;
+    for (int k = 0; k < count; k++) {
+      offsets[k] = total;
+      total += counts[k];
+    }
+    checkCount(total, needed);
+
+    long rowValues = (long) width * RasterImage.CHANNELS;
+    IntStream.range(0, count).parallel().forEach(k -> {
+      long firstRow = offsets[k] / rowValues;
+      long lastRow = (offsets[k] + counts[k]) / rowValues;
+      if (lastRow >= regionY && firstRow < regionY + regionHeight) {
+        parseValues(bounds[k], bounds[k + 1], rgb, offsets[k], needed);
+      }
+    });
+    return new RasterImage(widthOut, heightOut, rgb);
+  }
+
+  /**
+   * Sets up which rows and columns of the image are kept.
+   *
+   * @param region    the part of the image to decode.
+   * @param height    the height of the image.
+   * @param widthNew  the target width, or 0.
+   * @param heightNew the target height, or 0.
+   */
+  private void select(Region region, int height, int widthNew, int heightNew) {
+    Region clipped = region.clip(width, height);
+    if (clipped == null) {
+      throw new IllegalArgumentException("Region is outside of the " + width + "x" + height
+              + " image");
+    }
+    regionX = clipped.getX();
+    regionY = clipped.getY();
+    regionHeight = clipped.getHeight();
+    step = Resampler.subsampling(clipped.getWidth(), clipped.getHeight(), widthNew, heightNew);
+    widthOut = (clipped.getWidth() + step - 1) / step;
+    keptColumns = new boolean[width];
+    for (int x = regionX; x < regionX + clipped.getWidth(); x += step) {
+      keptColumns[x] = true;
+    }
+  }
+
+  private static void checkCount(long found, long needed) {
+    if (found < needed) {
+      throw new IllegalArgumentException("Invalid PPM file: expected " + needed
+              + " color values but found " + found);
+    }
+  }
+
+  /**
+   * Counts the color values between two indices of the file.
+   *
+   * @param from     index of the first byte.
+   * @param to       index after the last byte.
+   * @param comments flags set when a chunk contains a comment.
+   * @param chunk    index of the chunk being counted.
+   * @return the number of values.
+   */
+  private long countValues(int from, int to, boolean[] comments, int chunk) {
+    long count = 0;
+    boolean inValue = false;
+    for (int i = from; i < to; i++) {
+      byte b = buffer.get(i);
+      if (b >= '0' && b <= '9') {
+        if (!inValue) {
+          count++;
+          inValue = true;
+        }
+      } else {
+        inValue = false;
+        if (b == '#') {
+          comments[chunk] = true;
+          return count;
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Parses the color values between two indices of the file, storing the selected ones into the
+   * raster.
+   *
+   * @param from   index of the first byte.
+   * @param to     index after the last byte.
+   * @param rgb    the raster to fill.
+   * @param first  index in the file's pixel data of the first value between from and to.
+   * @param needed number of color values in the image, later values are ignored.
+   * @return the index in the file's pixel data after the last value parsed.
+   */
+  private long parseValues(int from, int to, byte[] rgb, long first, long needed) {
+    long index = first;
+    long pixel = first / RasterImage.CHANNELS;
+    int channel = (int) (first % RasterImage.CHANNELS);
+    int row = (int) (pixel / width);
+    int column = (int) (pixel % width);
+    boolean keptRow = isKeptRow(row);
+    int value = -1;
+    for (int i = from; i <= to; i++) {
+      byte b = i < to ? buffer.get(i) : (byte) ' ';
+      if (b >= '0' && b <= '9') {
+        value = (value < 0 ? 0 : value * 10) + (b - '0');
+        if (value > 255) {
+          throw new IllegalArgumentException("Color value must be in range of 0-255");
+        }
+        continue;
+      }
+      if (value >= 0) {
+        if (index < needed && keptRow && keptColumns[column]) {
+          int out = ((row - regionY) / step * widthOut + (column - regionX) / step)
+                  * RasterImage.CHANNELS + channel;
+          rgb[out] = (byte) value;
+        }
+        index++;
+        value = -1;
+        if (++channel == RasterImage.CHANNELS) {
+          channel = 0;
+          if (++column == width) {
+            column = 0;
+            keptRow = isKeptRow(++row);
+          }
+        }
+      }
+      if (b == '#') {
+        while (i < to && buffer.get(i) != '\n') {
+          i++;
+        }
+      } else if (!isWhitespace(b)) {
+        throw new IllegalArgumentException("Invalid PPM file: unexpected character '"
+                + (char) b + "'");
+      }
+    }
+    return index;
+  }
+
+  private boolean isKeptRow(int row) {
+    return row >= regionY && row < regionY + regionHeight && (row - regionY) % step == 0;
+  }
+
+  /**
+   * Reads the next token of the header, skipping whitespace and comment lines.
+   *
+   * @return the token.
+   * @throws IllegalArgumentException if the file ends before the token.
+   */
+  private String nextHeaderToken() throws IllegalArgumentException {
+    int end = buffer.limit();
+    while (position < end) {
+      byte b = buffer.get(position);
+      if (b == '#') {
+        while (position < end && buffer.get(position) != '\n') {
+          position++;
+        }
+      } else if (isWhitespace(b)) {
+        position++;
+      } else {
+        break;
+      }
+    }
+    StringBuilder token = new StringBuilder();
+    while (position < end && !isWhitespace(buffer.get(position))) {
+      token.append((char) buffer.get(position++));
+    }
+    if (token.length() == 0) {
+      throw new IllegalArgumentException("Invalid PPM file: header is incomplete");
+    }
+    return token.toString();
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f' || b == 0x0B;
+  }
+}
@@ -0,0 +1,36 @@
+package model;
+
+/**
+ * Interface representing an operation on the pixels of a raster where every output pixel only
+ * depends on the input pixel at the same place, like brightening or a color transformation.
+ * Operations work on runs of interleaved RGB bytes so the same code serves whole images, single
+ * rows and streamed chunks.
+ */
+public interface PixelOp {
+
+  /**
+   * Applies the operation to a run of pixels. The source and destination may be the same array,
+   * at the same offset, to apply the operation in place.
+   *
+   * @param src       the source bytes.
+   * @param srcOffset index of the first source byte.
+   * @param dst       the destination bytes.
+   * @param dstOffset index of the first destination byte.
+   * @param pixels    the number of pixels to process.
+   */
+  void apply(byte[] src, int srcOffset, byte[] dst, int dstOffset, int pixels);
+
+  /**
+   * Returns an operation that applies this operation and then the given one, without going
+   * through an intermediate image.
+   *
+   * @param next the operation to apply after this one.
+   * @return the fused operation.
+   */
+  default PixelOp andThen(PixelOp next) {
+    return (src, srcOffset, dst, dstOffset, pixels) -> {
+      apply(src, srcOffset, dst, dstOffset, pixels);
+      next.apply(dst, dstOffset, dst, dstOffset, pixels);
+    };
+  }
+}
@@ -0,0 +1,146 @@
+package model;
+
+/**
+ * The pixel operations of the model. Each operation computes exactly what the corresponding
+ * model command always has, only on raster bytes rather than pixel objects.
+ */
+public final class PixelOps {
+
+  private PixelOps() {
+  }
+
+  /**
+   * Adds a constant to every component, clamping the result to 0-255.
+   *
+   * @param increment the constant to add, negative to darken.
+   * @return the operation.
+   */
+  public static PixelOp brighten(int increment) {
+    byte[] table = new byte[256];
+    for (int v = 0; v < 256; v++) {
+      table[v] = (byte) Math.max(0, Math.min(v + increment, 255));
+    }
+    return (src, srcOffset, dst, dstOffset, pixels) -> {
+      for (int i = 0; i < pixels * 3; i++) {
+        dst[dstOffset + i] = table[src[srcOffset + i] & 0xFF];
+      }
+    };
+  }
+
+  /**
+   * Makes all three components equal to a value computed from the pixel.
+   *
+   * @param mode which value of the pixel to use.
+   * @return the operation.
+   */
+  public static PixelOp grayscale(ImageProcessorModel.GrayscaleMode mode) {
+    switch (mode) {
+      case Red:
+        return component(0);
+      case Green:
+        return component(1);
+      case Blue:
+        return component(2);
+      case Intensity:
+        return (src, srcOffset, dst, dstOffset, pixels) -> {
+          for (int p = 0; p < pixels * 3; p += 3) {
+            int value = ((src[srcOffset + p] & 0xFF) + (src[srcOffset + p + 1] & 0xFF)
+                    + (src[srcOffset + p + 2] & 0xFF)) / 3;
+            fill(dst, dstOffset + p, value);
+          }
+        };
+      case Value:
+        return (src, srcOffset, dst, dstOffset, pixels) -> {
+          for (int p = 0; p < pixels * 3; p += 3) {
+            int value = Math.max(Math.max(src[srcOffset + p] & 0xFF,
+                    src[srcOffset + p + 2] & 0xFF), src[srcOffset + p + 1] & 0xFF);
+            fill(dst, dstOffset + p, value);
+          }
+        };
+      case Luma:
+        // the luma weights are applied to each component on its own
+        byte[] red = new byte[256];
+        byte[] green = new byte[256];
+        byte[] blue = new byte[256];
+        for (int v = 0; v < 256; v++) {
+          red[v] = (byte) (int) (v * 0.2126);
+          green[v] = (byte) (int) (v * 0.7152);
+          blue[v] = (byte) (int) (v * 0.0722);
+        }
+        return (src, srcOffset, dst, dstOffset, pixels) -> {
+          for (int p = 0; p < pixels * 3; p += 3) {
+            dst[dstOffset + p] = red[src[srcOffset + p] & 0xFF];
+            dst[dstOffset + p + 1] = green[src[srcOffset + p + 1] & 0xFF];
+            dst[dstOffset + p + 2] = blue[src[srcOffset + p + 2] & 0xFF];
+          }
+        };
+      default:
+        throw new IllegalArgumentException("Unknown grayscale mode " + mode);
+    }
+  }
+
+  /**
+   * Multiplies every pixel with the matrix of a color transformation, clamping the result.
+   *
+   * @param mode the color transformation.
+   * @return the operation.
+   */
+  public static PixelOp colorTransformation(ImageProcessorModel.ColorTransformationsMode mode) {
+    return matrix(matrixOf(mode));
+  }
+
+  /**
+   * Retrieves the matrix of a color transformation.
+   *
+   * @param mode the color transformation.
+   * @return a 3x3 matrix with one row per output component.
+   */
+  static double[][] matrixOf(ImageProcessorModel.ColorTransformationsMode mode) {
+    switch (mode) {
+      case Grayscale:
+        return new double[][]{{0.2126, 0.7152, 0.0722},
+                              {0.2126, 0.7152, 0.0722},
+                              {0.2126, 0.7152, 0.0722}};
+      case Sepia:
+        return new double[][]{{0.393, 0.769, 0.189},
+                              {0.349, 0.686, 0.168},
+                              {0.272, 0.534, 0.131}};
+      default:
+        throw new IllegalArgumentException("Unknown color transformation " + mode);
+    }
+  }
+
+  /**
+   * Multiplies every pixel with a 3x3 matrix, clamping the result.
+   *
+   * @param matrix one row of weights per output component.
+   * @return the operation.
+   */
+  static PixelOp matrix(double[][] matrix) {
+    return (src, srcOffset, dst, dstOffset, pixels) -> {
+      for (int p = 0; p < pixels * 3; p += 3) {
+        int r = src[srcOffset + p] & 0xFF;
+        int g = src[srcOffset + p + 1] & 0xFF;
+        int b = src[srcOffset + p + 2] & 0xFF;
+        for (int c = 0; c < 3; c++) {
+          int value = (int) ((r * matrix[c][0]) + (g * matrix[c][1]) + (b * matrix[c][2]));
+          dst[dstOffset + p + c] = (byte) Math.max(0, Math.min(value, 255));
+        }
+      }
+    };
+  }
+
+  private static PixelOp component(int channel) {
+    return (src, srcOffset, dst, dstOffset, pixels) -> {
+      for (int p = 0; p < pixels * 3; p += 3) {
+        fill(dst, dstOffset + p, src[srcOffset + p + channel] & 0xFF);
+      }
+    };
+  }
+
+  private static void fill(byte[] dst, int index, int value) {
+    dst[index] = (byte) value;
+    dst[index + 1] = (byte) value;
+    dst[index + 2] = (byte) value;
+  }
+}
@@ -0,0 +1,307 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes rasters as standard 8-bit RGB PNG files using all cores. The scanlines are filtered in
+ * parallel, then cut into independent pieces that are deflated in parallel the way pigz does it:
+ * every piece is primed with the last 32KB of the piece before it and ends on a byte boundary, so
+ * the pieces joined together form one ordinary zlib stream. Every piece is written as its own IDAT
+ * chunk.
+ */
+public final class PngCodec {
+
+  /**
+   * The compression level used when none is given, a good balance of size and speed.
+   */
+  public static final int DEFAULT_LEVEL = 6;
+
+  private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+  private static final int PIECE_BYTES = 1 << 17;
+  private static final int WINDOW_BYTES = 1 << 15;
+  private static final int ADLER_BASE = 65521;
+
+  private PngCodec() {
+  }
+
+  /**
+   * Writes a raster to a PNG file, replacing the file if it exists. The bytes go to a temporary
+   * file first which is then renamed.
+   *
+   * @param path  the file to write.
+   * @param image the raster to write.
+   * @param level the deflate level, from 0 (stored, fastest) to 9 (smallest).
+   * @throws IOException              if the file cannot be written.
+   * @throws IllegalArgumentException if the level is out of range.
+   */
+  public static void write(Path path, RasterImage image, int level)
+          throws IOException, IllegalArgumentException {
+    if (level < 0 || level > 9) {
+      throw new IllegalArgumentException("Compression level must be between 0 and 9");
+    }
+    byte[] filtered = filter(image, level > 0);
+    int pieces = Math.max(1, (filtered.length + PIECE_BYTES - 1) / PIECE_BYTES);
+    byte[][] chunks = new byte[pieces][];
+    long[] checksums = new long[pieces];
+    IntStream.range(0, pieces).parallel().forEach(p -> {
+      int from = p * PIECE_BYTES;
+      int length = Math.min(PIECE_BYTES, filtered.length - from);
+      Adler32 adler = new Adler32();
+      adler.update(filtered, from, length);
+      checksums[p] = adler.getValue();
+      byte[] deflated = deflate(filtered, from, length, level, p == pieces - 1);
+      if (p == 0) {
+        deflated = concat(zlibHeader(level), deflated);
+      }
+      chunks[p] = chunk("IDAT", deflated);
+    });
+    long checksum = checksums[0];
+    for (int p = 1; p < pieces; p++) {
+      int length = Math.min(PIECE_BYTES, filtered.length - p * PIECE_BYTES);
+      checksum = combineAdler(checksum, checksums[p], length);
+    }
+
+    ByteBuffer header = ByteBuffer.allocate(13);
+    header.putInt(image.getWidth()).putInt(image.getHeight())
+            .put((byte) 8).put((byte) 2).put((byte) 0).put((byte) 0).put((byte) 0);
+    ByteBuffer trailer = ByteBuffer.allocate(4).putInt((int) checksum);
+
+    Path absolute = path.toAbsolutePath();
+    Path temp = RawCodec.temporarySibling(absolute);
+    try {
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW,
+              StandardOpenOption.WRITE)) {
+        writeFully(channel, SIGNATURE);
+        writeFully(channel, chunk("IHDR", header.array()));
+        for (byte[] chunk : chunks) {
+          writeFully(channel, chunk);
+        }
+        writeFully(channel, chunk("IDAT", trailer.array()));
+        writeFully(channel, chunk("IEND", new byte[0]));
+      }
+      Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Filters every scanline, in parallel bands, into the bytes the zlib stream compresses: one
+   * filter type byte followed by the filtered row. Each row gets the filter whose output has the
+   * smallest sum of absolute values, the heuristic suggested by the PNG specification.
+   *
+   * @param image    the raster.
+   * @param adaptive false to leave the rows unfiltered, when they will not be compressed anyway.
+   * @return the filtered scanlines.
+   */
+  private static byte[] filter(RasterImage image, boolean adaptive) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int rowBytes = width * RasterImage.CHANNELS;
+    int stride = rowBytes + 1;
+    byte[] out = new byte[stride * height];
+    Bands.forEach(height, width, (from, to) -> {
+      byte[] previous = new byte[rowBytes];
+      byte[] current = new byte[rowBytes];
+      byte[][] candidates = new byte[5][rowBytes];
+      if (from > 0) {
+        image.getRow(from - 1, previous, 0);
+      }
+      for (int y = from; y < to; y++) {
+        image.getRow(y, current, 0);
+        int offset = y * stride;
+        if (!adaptive) {
+          System.arraycopy(current, 0, out, offset + 1, rowBytes);
+        } else {
+          int best = 0;
+          long bestSum = Long.MAX_VALUE;
+          for (int type = 0; type < 5; type++) {
+            long sum = filterRow(type, current, previous, candidates[type]);
+            if (sum < bestSum) {
+              bestSum = sum;
+              best = type;
+            }
+          }
+          out[offset] = (byte) best;
+          System.arraycopy(candidates[best], 0, out, offset + 1, rowBytes);
+        }
+        byte[] swap = previous;
+        previous = current;
+        current = swap;
+      }
+    });
+    return out;
+  }
+
+  /**
+   * Applies one PNG filter type to a row.
+   *
+   * @param type     the filter: 0 none, 1 sub, 2 up, 3 average, 4 Paeth.
+   * @param row      the row.
+   * @param previous the row above, all zeros for the first row.
+   * @param dst      where to write the filtered row.
+   * @return the sum of the absolute values of the filtered bytes, taken as signed.
+   */
+  private static long filterRow(int type, byte[] row, byte[] previous, byte[] dst) {
+    long sum = 0;
+    int bpp = RasterImage.CHANNELS;
+    for (int i = 0; i < row.length; i++) {
+      int x = row[i] & 0xFF;
+      int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+      int b = previous[i] & 0xFF;
+      int c = i >= bpp ? previous[i - bpp] & 0xFF : 0;
+      int predicted;
+      switch (type) {
+        case 1:
+          predicted = a;
+          break;
+        case 2:
+          predicted = b;
+          break;
+        case 3:
+          predicted = (a + b) >>> 1;
+          break;
+        case 4:
+          predicted = paeth(a, b, c);
+          break;
+        default:
+          predicted = 0;
+      }
+      byte value = (byte) (x - predicted);
+      dst[i] = value;
+      sum += Math.abs(value);
+    }
+    return sum;
+  }
+
+  private static int paeth(int a, int b, int c) {
+    int p = a + b - c;
+    int pa = Math.abs(p - a);
+    int pb = Math.abs(p - b);
+    int pc = Math.abs(p - c);
+    if (pa <= pb && pa <= pc) {
+      return a;
+    }
+    return pb <= pc ? b : c;
+  }
+
+  /**
+   * Deflates one piece of the stream without a zlib header. Every piece but the last ends with a
+   * sync flush, which closes its last block on a byte boundary without ending the stream.
+   *
+   * @param data   the whole uncompressed stream.
+   * @param from   the start of the piece.
+   * @param length the length of the piece.
+   * @param level  the deflate level.
+   * @param last   true for the piece that ends the stream.
+   * @return the compressed piece.
+   */
+  private static byte[] deflate(byte[] data, int from, int length, int level, boolean last) {
+    Deflater deflater = new Deflater(level, true);
+    try {
+      if (from > 0) {
+        int window = Math.min(WINDOW_BYTES, from);
+        deflater.setDictionary(data, from - window, window);
+      }
+      deflater.setInput(data, from, length);
+      if (last) {
+        deflater.finish();
+      }
+      byte[] out = new byte[length + length / 8 + 64];
+      int size = 0;
+      while (true) {
+        if (size == out.length) {
+          out = Arrays.copyOf(out, out.length * 2);
+        }
+        int space = out.length - size;
+        int n = last ? deflater.deflate(out, size, space)
+                : deflater.deflate(out, size, space, Deflater.SYNC_FLUSH);
+        size += n;
+        // a flush is complete once it leaves room in the output
+        if (last ? deflater.finished() : n < space) {
+          break;
+        }
+      }
+      return Arrays.copyOf(out, size);
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Builds the two byte zlib header for a 32KB window, with the level hint the level maps to.
+   *
+   * @param level the deflate level.
+   * @return the header.
+   */
+  private static byte[] zlibHeader(int level) {
+    int hint = level < 2 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3;
+    int header = 0x7800 | hint << 6;
+    header += 31 - header % 31;
+    return new byte[]{(byte) (header >> 8), (byte) header};
+  }
+
+  /**
+   * Combines the Adler-32 checksums of two consecutive pieces of data, as zlib's adler32_combine
+   * does.
+   *
+   * @param first   the checksum of the first piece.
+   * @param second  the checksum of the second piece.
+   * @param length2 the length of the second piece.
+   * @return the checksum of both pieces.
+   */
+  private static long combineAdler(long first, long second, int length2) {
+    long remainder = length2 % ADLER_BASE;
+    long sum1 = first & 0xFFFF;
+    long sum2 = (remainder * sum1) % ADLER_BASE;
+    sum1 += (second & 0xFFFF) + ADLER_BASE - 1;
+    sum2 += ((first >> 16) & 0xFFFF) + ((second >> 16) & 0xFFFF) + ADLER_BASE - remainder;
+    sum1 %= ADLER_BASE;
+    sum2 %= ADLER_BASE;
+    return sum2 << 16 | sum1;
+  }
+
+  /**
+   * Builds a PNG chunk: its length, type, data and CRC.
+   *
+   * @param type the four letter type of the chunk.
+   * @param data the data of the chunk.
+   * @return the chunk.
+   */
+  private static byte[] chunk(String type, byte[] data) {
+    ByteBuffer chunk = ByteBuffer.allocate(data.length + 12);
+    chunk.putInt(data.length);
+    for (int i = 0; i < 4; i++) {
+      chunk.put((byte) type.charAt(i));
+    }
+    chunk.put(data);
+    CRC32 crc = new CRC32();
+    crc.update(chunk.array(), 4, data.length + 4);
+    chunk.putInt((int) crc.getValue());
+    return chunk.array();
+  }
+
+  private static byte[] concat(byte[] first, byte[] second) {
+    byte[] result = Arrays.copyOf(first, first.length + second.length);
+    System.arraycopy(second, 0, result, first.length, second.length);
+    return result;
+  }
+
+  private static void writeFully(FileChannel channel, byte[] bytes) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+}
@@ -0,0 +1,296 @@
+package model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads and writes the QOI ("Quite OK Image") format, a lossless format that compresses about as
+ * well as PNG but encodes and decodes several times faster, which suits intermediates passed
+ * between the stages of a job. Every pixel is stored as a run of the previous pixel, a reference
+ * into a table of 64 recently seen colors, a small difference to the previous pixel, or in full.
+ * Both directions work a few rows at a time straight on raster bytes, so QOI files can also be
+ * streamed.
+ */
+public final class QoiCodec {
+
+  private static final int MAGIC = 0x716F6966; // "qoif"
+  private static final byte[] END_MARKER = {0, 0, 0, 0, 0, 0, 0, 1};
+  private static final int OP_INDEX = 0x00;
+  private static final int OP_DIFF = 0x40;
+  private static final int OP_LUMA = 0x80;
+  private static final int OP_RUN = 0xC0;
+  private static final int OP_RGB = 0xFE;
+  private static final int OP_RGBA = 0xFF;
+  private static final int MASK = 0xC0;
+  private static final int MAX_RUN = 62;
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private QoiCodec() {
+  }
+
+  /**
+   * Decodes a QOI file into a new raster from the pool. The alpha channel of RGBA files is
+   * dropped.
+   *
+   * @param path the QOI file.
+   * @param pool the pool to allocate the raster from.
+   * @return the raster.
+   * @throws IOException              if the file cannot be read.
+   * @throws IllegalArgumentException if the file is not a valid QOI file.
+   */
+  public static RasterImage read(Path path, RasterPool pool)
+          throws IOException, IllegalArgumentException {
+    try (ScanlineReader reader = new Decoder(Files.newInputStream(path))) {
+      RasterImage image = pool.allocate(reader.getWidth(), reader.getHeight());
+      reader.readRows(image.array(), reader.getHeight());
+      return image;
+    }
+  }
+
+  /**
+   * Encodes a raster to a QOI file, replacing the file if it exists.
+   *
+   * @param path  the file to write.
+   * @param image the raster to write.
+   * @throws IOException if the file cannot be written.
+   */
+  public static void write(Path path, RasterImage image) throws IOException {
+    int width = image.getWidth();
+    int rowBytes = width * RasterImage.CHANNELS;
+    int rows = Math.max(1, BUFFER_SIZE / rowBytes);
+    byte[] chunk = new byte[rows * rowBytes];
+    try (ScanlineWriter writer = Scanlines.qoiWriter(path, width, image.getHeight())) {
+      for (int y = 0; y < image.getHeight(); y += rows) {
+        int count = Math.min(rows, image.getHeight() - y);
+        for (int i = 0; i < count; i++) {
+          image.getRow(y + i, chunk, i * rowBytes);
+        }
+        writer.writeRows(chunk, count);
+      }
+    }
+  }
+
+  /**
+   * Builds the header of a three channel sRGB QOI file.
+   *
+   * @param width  the width of the image.
+   * @param height the height of the image.
+   * @return the header.
+   */
+  static byte[] header(int width, int height) {
+    return new byte[]{'q', 'o', 'i', 'f',
+        (byte) (width >>> 24), (byte) (width >>> 16), (byte) (width >>> 8), (byte) width,
+        (byte) (height >>> 24), (byte) (height >>> 16), (byte) (height >>> 8), (byte) height,
+        RasterImage.CHANNELS, 0};
+  }
+
+  private static int hash(int r, int g, int b, int a) {
+    return (r * 3 + g * 5 + b * 7 + a * 11) & 63;
+  }
+
+  /**
+   * Encodes pixels one row chunk after another, keeping the run, the previous pixel and the color
+   * table between chunks.
+   */
+  static final class Encoder implements Scanlines.RowEncoder {
+    private final int[] index;
+    private int previous;
+    private int run;
+    private byte[] buffer;
+
+    Encoder() {
+      this.index = new int[64];
+      this.previous = 0xFF000000;
+      this.run = 0;
+      this.buffer = new byte[0];
+    }
+
+    @Override
+    public void encode(OutputStream out, byte[] src, int length) throws IOException {
+      // a run is only written once it ends, and no pixel takes more than four bytes
+      int needed = length / RasterImage.CHANNELS * 4 + 1;
+      if (buffer.length < needed) {
+        buffer = new byte[needed];
+      }
+      byte[] dst = buffer;
+      int size = 0;
+      for (int i = 0; i < length; i += RasterImage.CHANNELS) {
+        int r = src[i] & 0xFF;
+        int g = src[i + 1] & 0xFF;
+        int b = src[i + 2] & 0xFF;
+        int pixel = 0xFF000000 | r << 16 | g << 8 | b;
+        if (pixel == previous) {
+          run++;
+          if (run == MAX_RUN) {
+            dst[size++] = (byte) (OP_RUN | (run - 1));
+            run = 0;
+          }
+          continue;
+        }
+        if (run > 0) {
+          dst[size++] = (byte) (OP_RUN | (run - 1));
+          run = 0;
+        }
+        int slot = hash(r, g, b, 255);
+        if (index[slot] == pixel) {
+          dst[size++] = (byte) (OP_INDEX | slot);
+        } else {
+          index[slot] = pixel;
+          int dr = (byte) (r - (previous >> 16 & 0xFF));
+          int dg = (byte) (g - (previous >> 8 & 0xFF));
+          int db = (byte) (b - (previous & 0xFF));
+          int drg = dr - dg;
+          int dbg = db - dg;
+          if (dr >= -2 && dr <= 1 && dg >= -2 && dg <= 1 && db >= -2 && db <= 1) {
+            dst[size++] = (byte) (OP_DIFF | (dr + 2) << 4 | (dg + 2) << 2 | (db + 2));
+          } else if (dg >= -32 && dg <= 31 && drg >= -8 && drg <= 7 && dbg >= -8 && dbg <= 7) {
+            dst[size++] = (byte) (OP_LUMA | (dg + 32));
+            dst[size++] = (byte) ((drg + 8) << 4 | (dbg + 8));
+          } else {
+            dst[size++] = (byte) OP_RGB;
+            dst[size++] = (byte) r;
+            dst[size++] = (byte) g;
+            dst[size++] = (byte) b;
+          }
+        }
+        previous = pixel;
+      }
+      out.write(dst, 0, size);
+    }
+
+    @Override
+    public void finish(OutputStream out) throws IOException {
+      if (run > 0) {
+        out.write(OP_RUN | (run - 1));
+        run = 0;
+      }
+      out.write(END_MARKER);
+    }
+  }
+
+  /**
+   * Decodes the pixels of a QOI stream as they are needed.
+   */
+  static final class Decoder implements ScanlineReader {
+    private final InputStream in;
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+    private final int width;
+    private final int height;
+    private final int[] index;
+    private int previous;
+    private int run;
+    private int row;
+
+    Decoder(InputStream in) throws IOException, IllegalArgumentException {
+      this.in = in;
+      this.buffer = new byte[BUFFER_SIZE];
+      this.index = new int[64];
+      this.previous = 0xFF000000;
+      try {
+        if (readInt() != MAGIC) {
+          throw new IllegalArgumentException("Invalid QOI file: file should begin with qoif");
+        }
+        this.width = readInt();
+        this.height = readInt();
+        int channels = read();
+        read(); // the color space, which does not change how pixels are stored
+        if (channels != 3 && channels != 4) {
+          throw new IllegalArgumentException("Invalid QOI file: " + channels + " channels");
+        }
+        if (width <= 0 || height <= 0
+                || (long) width * height * RasterImage.CHANNELS > Integer.MAX_VALUE) {
+          throw new IllegalArgumentException("Invalid QOI file: unsupported size "
+                  + Integer.toUnsignedString(width) + "x" + Integer.toUnsignedString(height));
+        }
+      } catch (IOException | RuntimeException e) {
+        in.close();
+        throw e;
+      }
+    }
+
+    @Override
+    public int getWidth() {
+      return width;
+    }
+
+    @Override
+    public int getHeight() {
+      return height;
+    }
+
+    @Override
+    public void readRows(byte[] dst, int rows) throws IOException, IllegalArgumentException {
+      if (row + rows > height) {
+        throw new IllegalArgumentException("Only " + (height - row) + " rows left");
+      }
+      int length = rows * width * RasterImage.CHANNELS;
+      int pixel = previous;
+      for (int i = 0; i < length; i += RasterImage.CHANNELS) {
+        if (run > 0) {
+          run--;
+        } else {
+          int op = read();
+          if (op == OP_RGB) {
+            pixel = pixel & 0xFF000000 | read() << 16 | read() << 8 | read();
+          } else if (op == OP_RGBA) {
+            pixel = read() << 16 | read() << 8 | read() | read() << 24;
+          } else if ((op & MASK) == OP_INDEX) {
+            pixel = index[op];
+          } else if ((op & MASK) == OP_DIFF) {
+            int r = (pixel >> 16) + (op >> 4 & 3) - 2;
+            int g = (pixel >> 8) + (op >> 2 & 3) - 2;
+            int b = pixel + (op & 3) - 2;
+            pixel = pixel & 0xFF000000 | (r & 0xFF) << 16 | (g & 0xFF) << 8 | b & 0xFF;
+          } else if ((op & MASK) == OP_LUMA) {
+            int second = read();
+            int dg = (op & 0x3F) - 32;
+            int r = (pixel >> 16) + dg - 8 + (second >> 4 & 0x0F);
+            int g = (pixel >> 8) + dg;
+            int b = pixel + dg - 8 + (second & 0x0F);
+            pixel = pixel & 0xFF000000 | (r & 0xFF) << 16 | (g & 0xFF) << 8 | b & 0xFF;
+          } else {
+            run = op & 0x3F;
+          }
+          index[hash(pixel >> 16 & 0xFF, pixel >> 8 & 0xFF, pixel & 0xFF, pixel >>> 24)] = pixel;
+        }
+        dst[i] = (byte) (pixel >> 16);
+        dst[i + 1] = (byte) (pixel >> 8);
+        dst[i + 2] = (byte) pixel;
+      }
+      previous = pixel;
+      row += rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+
+    /**
+     * Reads the next byte of the stream.
+     *
+     * @return the byte.
+     * @throws IllegalArgumentException if the stream ends.
+     */
+    private int read() throws IOException {
+      if (position == limit) {
+        limit = in.read(buffer, 0, buffer.length);
+        position = 0;
+        if (limit <= 0) {
+          limit = 0;
+          throw new IllegalArgumentException("Invalid QOI file: pixel data is truncated");
+        }
+      }
+      return buffer[position++] & 0xFF;
+    }
+
+    private int readInt() throws IOException {
+      return read() << 24 | read() << 16 | read() << 8 | read();
+    }
+  }
+}
@@ -0,0 +1,196 @@
+package model;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Class representing an image as a packed raster: one row after another, with three interleaved
+ * 8-bit channels (red, green, blue) per pixel. The bytes may live on the heap or in a memory-mapped
+ * file, in which case they are only paged in when they are read.
+ */
+public class RasterImage implements ImageInterface {
+
+  /**
+   * Number of channels stored for every pixel of a raster.
+   */
+  public static final int CHANNELS = 3;
+
+  private final int width;
+  private final int height;
+  private final ByteBuffer data;
+
+  /**
+   * Creates a new raster image over the given bytes. The buffer is not copied, its first
+   * width * height * 3 bytes (starting at position zero) are the pixels of the image.
+   *
+   * @param width  width of the image in pixels.
+   * @param height height of the image in pixels.
+   * @param data   interleaved RGB bytes of the image.
+   * @throws IllegalArgumentException if the dimensions are not positive or the buffer is too small.
+   */
+  public RasterImage(int width, int height, ByteBuffer data) throws IllegalArgumentException {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Image dimensions must be positive");
+    }
+    if (data == null || data.capacity() < (long) width * height * CHANNELS) {
+      throw new IllegalArgumentException("Raster is too small for the given dimensions");
+    }
+    this.width = width;
+    this.height = height;
+    this.data = data;
+  }
+
+  /**
+   * Creates a new raster image over the given heap bytes.
+   *
+   * @param width  width of the image in pixels.
+   * @param height height of the image in pixels.
+   * @param data   interleaved RGB bytes of the image.
+   * @throws IllegalArgumentException if the dimensions are not positive or the array is too small.
+   */
+  public RasterImage(int width, int height, byte[] data) throws IllegalArgumentException {
+    this(width, height, data == null ? null : ByteBuffer.wrap(data));
+  }
+
+  /**
+   * Converts any image into a raster. Rasters are returned as they are, other images are copied
+   * pixel by pixel.
+   *
+   * @param image the image to convert.
+   * @return the image as a raster.
+   */
+  public static RasterImage of(ImageInterface image) {
+    if (image instanceof RasterImage) {
+      return (RasterImage) image;
+    }
+    ArrayList<ArrayList<IPixel>> pixels = image.getPixels();
+    int height = pixels.size();
+    int width = pixels.get(0).size();
+    byte[] rgb = new byte[width * height * CHANNELS];
+    int i = 0;
+    for (ArrayList<IPixel> row : pixels) {
+      for (IPixel pixel : row) {
+        IColor color = pixel.getColor();
+        rgb[i++] = (byte) color.getRed();
+        rgb[i++] = (byte) color.getGreen();
+        rgb[i++] = (byte) color.getBlue();
+      }
+    }
+    return new RasterImage(width, height, rgb);
+  }
+
+  /**
+   * Retrieves the width of the image.
+   *
+   * @return the width in pixels.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Retrieves the height of the image.
+   *
+   * @return the height in pixels.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Retrieves the color of a single pixel packed as 0xRRGGBB.
+   *
+   * @param x column of the pixel.
+   * @param y row of the pixel.
+   * @return the packed color.
+   */
+  public int getRGB(int x, int y) {
+    int i = (y * width + x) * CHANNELS;
+    return (data.get(i) & 0xFF) << 16 | (data.get(i + 1) & 0xFF) << 8 | (data.get(i + 2) & 0xFF);
+  }
+
+  /**
+   * Copies one row of interleaved RGB bytes into the given array.
+   *
+   * @param y      the row to copy.
+   * @param dst    the array to copy into.
+   * @param offset the index in dst of the first byte.
+   */
+  public void getRow(int y, byte[] dst, int offset) {
+    data.duplicate().position(y * width * CHANNELS).get(dst, offset, width * CHANNELS);
+  }
+
+  /**
+   * Retrieves a read-only view of the raster bytes, positioned at the first pixel and limited to
+   * the last one.
+   *
+   * @return the bytes of the image.
+   */
+  public ByteBuffer getData() {
+    ByteBuffer view = data.asReadOnlyBuffer();
+    view.position(0).limit(width * height * CHANNELS);
+    return view;
+  }
+
+  /**
+   * Retrieves the backing heap array of the raster, if there is one.
+   *
+   * @return the backing array, or null when the raster is not on the heap.
+   */
+  byte[] array() {
+    return data.hasArray() && !data.isReadOnly() && data.arrayOffset() == 0 ? data.array() : null;
+  }
+
+  /**
+   * Expands the raster into a 2D arraylist of pixels. Positions follow the convention of the PPM
+   * loader, with x as the row and y as the column.
+   *
+   * @return The pixels of the image.
+   */
+  @Override
+  public ArrayList<ArrayList<IPixel>> getPixels() {
+    ArrayList<ArrayList<IPixel>> pixels = new ArrayList<>(height);
+    byte[] row = new byte[width * CHANNELS];
+    for (int i = 0; i < height; i++) {
+      getRow(i, row, 0);
+      ArrayList<IPixel> rowCopy = new ArrayList<>(width);
+      for (int j = 0; j < width; j++) {
+        rowCopy.add(new RGBPixelImpl(new Position2D(i, j),
+                new ColorImpl(row[j * CHANNELS] & 0xFF, row[j * CHANNELS + 1] & 0xFF,
+                        row[j * CHANNELS + 2] & 0xFF)));
+      }
+      pixels.add(rowCopy);
+    }
+    return pixels;
+  }
+
+  /**
+   * Overrides equals for java.
+   *
+   * @param o object to be compared to.
+   * @return true if both rasters have the same dimensions and bytes.
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof RasterImage)) {
+      return false;
+    }
+
+    RasterImage other = (RasterImage) o;
+    return this.width == other.width && this.height == other.height
+            && this.getData().equals(other.getData());
+  }
+
+  /**
+   * Overrides hashcode for java.
+   *
+   * @return new hash.
+   */
+  @Override
+  public int hashCode() {
+    return 31 * (31 * width + height) + getData().hashCode();
+  }
+}
@@ -0,0 +1,147 @@
+package model;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A pool of raster buffers. Buffers are grouped into size classes (four per power of two, so at
+ * most a quarter of a buffer is wasted) and a released buffer is handed out again for the next
+ * raster of its class. The pool never holds on to more than a set number of bytes, buffers released
+ * beyond that are left to the garbage collector.
+ */
+public class RasterPool {
+
+  private static final int MIN_SIZE = 1 << 12;
+
+  private final long maxPooledBytes;
+  private final Map<Integer, ArrayDeque<byte[]>> free;
+  private long pooledBytes;
+  private long allocations;
+  private long reuses;
+
+  /**
+   * Creates a pool holding at most a quarter of the maximum heap.
+   */
+  public RasterPool() {
+    this(Runtime.getRuntime().maxMemory() / 4);
+  }
+
+  /**
+   * Creates a pool holding at most the given number of bytes.
+   *
+   * @param maxPooledBytes the cap on pooled bytes, zero to disable pooling.
+   * @throws IllegalArgumentException if the cap is negative.
+   */
+  public RasterPool(long maxPooledBytes) throws IllegalArgumentException {
+    if (maxPooledBytes < 0) {
+      throw new IllegalArgumentException("Pool size cannot be negative");
+    }
+    this.maxPooledBytes = maxPooledBytes;
+    this.free = new HashMap<>();
+  }
+
+  /**
+   * Returns a raster of the given size, recycling a pooled buffer if there is one. The pixels of
+   * the raster are undefined and must all be written by the caller.
+   *
+   * @param width  width of the raster.
+   * @param height height of the raster.
+   * @return the raster.
+   */
+  public RasterImage allocate(int width, int height) {
+    long length = (long) width * height * RasterImage.CHANNELS;
+    if (length > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Image is too large: " + width + "x" + height);
+    }
+    int size = sizeClass((int) length);
+    synchronized (this) {
+      ArrayDeque<byte[]> buffers = free.get(size);
+      if (buffers != null && !buffers.isEmpty()) {
+        byte[] buffer = buffers.pop();
+        pooledBytes -= buffer.length;
+        reuses++;
+        return new RasterImage(width, height, buffer);
+      }
+      allocations++;
+    }
+    return new RasterImage(width, height, new byte[size]);
+  }
+
+  /**
+   * Copies a raster into a raster of the pool, so the copy stays the same while the original is
+   * released and reused.
+   *
+   * @param image the raster to copy.
+   * @return the copy.
+   */
+  public RasterImage copy(RasterImage image) {
+    RasterImage copy = allocate(image.getWidth(), image.getHeight());
+    image.getData().get(copy.array(), 0, image.getWidth() * image.getHeight()
+            * RasterImage.CHANNELS);
+    return copy;
+  }
+
+  /**
+   * Gives the buffer of a raster back to the pool. The raster must not be used afterwards. Rasters
+   * that are not on the heap, or whose buffer does not have a pool size, are ignored.
+   *
+   * @param image the raster that is no longer needed.
+   */
+  public void release(RasterImage image) {
+    byte[] buffer = image.array();
+    if (buffer == null || buffer.length < MIN_SIZE || sizeClass(buffer.length) != buffer.length) {
+      return;
+    }
+    synchronized (this) {
+      if (pooledBytes + buffer.length > maxPooledBytes) {
+        return;
+      }
+      free.computeIfAbsent(buffer.length, k -> new ArrayDeque<>()).push(buffer);
+      pooledBytes += buffer.length;
+    }
+  }
+
+  /**
+   * Retrieves the number of bytes currently held by the pool.
+   *
+   * @return the pooled bytes.
+   */
+  public synchronized long getPooledBytes() {
+    return pooledBytes;
+  }
+
+  /**
+   * Retrieves how many rasters were served from the pool rather than newly allocated.
+   *
+   * @return the number of reused buffers.
+   */
+  public synchronized long getReuses() {
+    return reuses;
+  }
+
+  /**
+   * Retrieves how many rasters needed a new buffer.
+   *
+   * @return the number of allocated buffers.
+   */
+  public synchronized long getAllocations() {
+    return allocations;
+  }
+
+  /**
+   * Rounds a length up to its size class.
+   *
+   * @param length the number of bytes needed.
+   * @return the length of the buffers of the class.
+   */
+  private static int sizeClass(int length) {
+    if (length <= MIN_SIZE) {
+      return MIN_SIZE;
+    }
+    int shift = 31 - Integer.numberOfLeadingZeros(length - 1) - 2;
+    int step = 1 << shift;
+    long size = ((long) (length - 1) / step + 1) * step;
+    return (int) Math.min(size, Integer.MAX_VALUE - 8);
+  }
+}
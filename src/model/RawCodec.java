@@ -0,0 +1,115 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads and writes the processor's native raw format, meant for intermediates passed between
+ * the stages of a job. A file is a 16 byte header (the magic "IPR1", then the width, height and
+ * channel count as big-endian ints) followed by the interleaved RGB bytes of the raster, so
+ * neither side has to encode or decode anything.
+ */
+public final class RawCodec {
+
+  private static final int MAGIC = 0x49505231; // "IPR1"
+  private static final int HEADER_SIZE = 16;
+  private static final AtomicLong TEMPORARY_FILES = new AtomicLong();
+
+  private RawCodec() {
+  }
+
+  /**
+   * Opens a raw file by memory-mapping it. No pixel is read here, the pages of the file are only
+   * brought in when the returned raster is accessed.
+   *
+   * @param path the raw file to open.
+   * @return a read-only raster over the mapped file.
+   * @throws IOException              if the file cannot be read.
+   * @throws IllegalArgumentException if the file is not a valid raw file.
+   */
+  public static RasterImage read(Path path) throws IOException, IllegalArgumentException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < HEADER_SIZE) {
+        throw new IllegalArgumentException("Invalid raw file: header is missing");
+      }
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      if (mapped.getInt(0) != MAGIC) {
+        throw new IllegalArgumentException("Invalid raw file: file should begin with IPR1");
+      }
+      int width = mapped.getInt(4);
+      int height = mapped.getInt(8);
+      int channels = mapped.getInt(12);
+      if (channels != RasterImage.CHANNELS) {
+        throw new IllegalArgumentException("Unsupported raw file: " + channels + " channels");
+      }
+      if (width <= 0 || height <= 0
+              || size - HEADER_SIZE < (long) width * height * RasterImage.CHANNELS) {
+        throw new IllegalArgumentException("Invalid raw file: truncated pixel data");
+      }
+      ByteBuffer pixels = mapped.position(HEADER_SIZE).slice();
+      return new RasterImage(width, height, pixels);
+    }
+  }
+
+  /**
+   * Writes a raster to a raw file, replacing the file if it exists. The bytes go to a temporary
+   * file first which is then renamed, so a raster still mapped from the old file stays readable.
+   *
+   * @param path  the file to write.
+   * @param image the raster to write.
+   * @throws IOException if the file cannot be written.
+   */
+  public static void write(Path path, RasterImage image) throws IOException {
+    ByteBuffer header = header(image.getWidth(), image.getHeight());
+    ByteBuffer pixels = image.getData();
+    Path absolute = path.toAbsolutePath();
+    Path temp = temporarySibling(absolute);
+    try {
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW,
+              StandardOpenOption.WRITE)) {
+        while (header.hasRemaining()) {
+          channel.write(header);
+        }
+        while (pixels.hasRemaining()) {
+          channel.write(pixels);
+        }
+      }
+      Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Builds the header of a raw file.
+   *
+   * @param width  the width of the image.
+   * @param height the height of the image.
+   * @return a buffer holding the header, ready to be written.
+   */
+  static ByteBuffer header(int width, int height) {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC).putInt(width).putInt(height).putInt(RasterImage.CHANNELS).flip();
+    return header;
+  }
+
+  /**
+   * Names a file next to the given one to write to before renaming it into place. Unlike
+   * Files.createTempFile the file gets the usual permissions once it is created.
+   *
+   * @param path the file that will be replaced.
+   * @return a path in the same directory that no other writer uses.
+   */
+  static Path temporarySibling(Path path) {
+    return path.resolveSibling("." + path.getFileName() + "." + ProcessHandle.current().pid()
+            + "-" + TEMPORARY_FILES.incrementAndGet() + ".tmp");
+  }
+}
@@ -0,0 +1,92 @@
+package model;
+
+/**
+ * A rectangle of pixels of an image, given by its top-left corner and its size. The model's own
+ * type rather than java.awt.Rectangle, so that loading part of an image does not need the
+ * java.desktop module.
+ */
+public final class Region {
+
+  private final int x;
+  private final int y;
+  private final int width;
+  private final int height;
+
+  /**
+   * Creates a region.
+   *
+   * @param x      the column of the top-left corner.
+   * @param y      the row of the top-left corner.
+   * @param width  the width, in pixels.
+   * @param height the height, in pixels.
+   * @throws IllegalArgumentException if the width or height is not positive.
+   */
+  public Region(int x, int y, int width, int height) throws IllegalArgumentException {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Region dimensions must be positive");
+    }
+    this.x = x;
+    this.y = y;
+    this.width = width;
+    this.height = height;
+  }
+
+  /**
+   * Retrieves the column of the top-left corner.
+   *
+   * @return the column.
+   */
+  public int getX() {
+    return this.x;
+  }
+
+  /**
+   * Retrieves the row of the top-left corner.
+   *
+   * @return the row.
+   */
+  public int getY() {
+    return this.y;
+  }
+
+  /**
+   * Retrieves the width of the region.
+   *
+   * @return the width in pixels.
+   */
+  public int getWidth() {
+    return this.width;
+  }
+
+  /**
+   * Retrieves the height of the region.
+   *
+   * @return the height in pixels.
+   */
+  public int getHeight() {
+    return this.height;
+  }
+
+  /**
+   * Clips the region to an image of the given size.
+   *
+   * @param imageWidth  the width of the image.
+   * @param imageHeight the height of the image.
+   * @return the part of the region inside the image, or null if there is none.
+   */
+  public Region clip(int imageWidth, int imageHeight) {
+    long left = Math.max(0L, this.x);
+    long top = Math.max(0L, this.y);
+    long right = Math.min((long) imageWidth, (long) this.x + this.width);
+    long bottom = Math.min((long) imageHeight, (long) this.y + this.height);
+    if (left >= right || top >= bottom) {
+      return null;
+    }
+    return new Region((int) left, (int) top, (int) (right - left), (int) (bottom - top));
+  }
+
+  @Override
+  public String toString() {
+    return this.width + "x" + this.height + " at " + this.x + "," + this.y;
+  }
+}
@@ -0,0 +1,395 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Resizes rasters up or down with a choice of reconstruction filters. The filter weights of every
+ * output column and row are computed once into tables of fixed-point weights, and the image is
+ * resampled in two separable passes (first along the rows, then along the columns), each spread
+ * over all cores.
+ */
+public final class Resampler {
+
+  private static final int PRECISION_BITS = 14;
+  private static final int ONE = 1 << PRECISION_BITS;
+  private static final int HALF = 1 << (PRECISION_BITS - 1);
+
+  private Resampler() {
+  }
+
+  /**
+   * Resizes a raster to the given dimensions.
+   *
+   * @param image     the raster to resize.
+   * @param widthNew  the width of the result.
+   * @param heightNew the height of the result.
+   * @param mode      the filter used to compute the new pixels.
+   * @param pool      the pool to allocate the result from.
+   * @return the resized raster.
+   * @throws IllegalArgumentException if the new dimensions are not positive.
+   */
+  public static RasterImage resize(RasterImage image, int widthNew, int heightNew,
+                                   ImageProcessorModel.ResampleMode mode, RasterPool pool)
+          throws IllegalArgumentException {
+    if (widthNew <= 0 || heightNew <= 0) {
+      throw new IllegalArgumentException("Dimensions must be positive");
+    }
+    int width = image.getWidth();
+    int height = image.getHeight();
+    RasterImage result = pool.allocate(widthNew, heightNew);
+
+    if (mode == ImageProcessorModel.ResampleMode.Nearest) {
+      nearest(image, result);
+      return result;
+    }
+
+    Weights columns = new Weights(width, widthNew, mode);
+    Weights rows = new Weights(height, heightNew, mode);
+
+    // horizontal pass: only the source rows some output row reads from are needed
+    int firstRow = rows.start[0];
+    int lastRow = rows.start[heightNew - 1] + rows.count[heightNew - 1];
+    byte[] temp = new byte[(lastRow - firstRow) * widthNew * RasterImage.CHANNELS];
+    byte[] src = image.array();
+    Bands.forEach(lastRow - firstRow, widthNew, (from, to) -> {
+      byte[] row = src == null ? new byte[width * RasterImage.CHANNELS] : src;
+      for (int y = from; y < to; y++) {
+        int offset = 0;
+        if (src == null) {
+          image.getRow(firstRow + y, row, 0);
+        } else {
+          offset = (firstRow + y) * width * RasterImage.CHANNELS;
+        }
+        resampleRow(row, offset, temp, y * widthNew * RasterImage.CHANNELS, columns);
+      }
+    });
+
+    // vertical pass: every output pixel is a weighted sum down a column of the first pass
+    byte[] out = result.array();
+    int rowBytes = widthNew * RasterImage.CHANNELS;
+    Bands.forEach(heightNew, widthNew, (from, to) -> {
+      int[] sums = new int[rowBytes];
+      for (int y = from; y < to; y++) {
+        Arrays.fill(sums, HALF);
+        for (int k = 0; k < rows.count[y]; k++) {
+          int weight = rows.weights[y * rows.stride + k];
+          int base = (rows.start[y] - firstRow + k) * rowBytes;
+          for (int x = 0; x < rowBytes; x++) {
+            sums[x] += (temp[base + x] & 0xFF) * weight;
+          }
+        }
+        for (int x = 0; x < rowBytes; x++) {
+          out[y * rowBytes + x] = clamp(sums[x]);
+        }
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Downscales a raster the way the downscale command always has: every output pixel samples the
+   * source at its top-left corner, copies the source pixel there when that falls on a source row
+   * or column, and otherwise interpolates the four pixels around it in doubles truncated to ints.
+   * Unlike the bilinear filter of resize, which samples pixel centers and rounds, this keeps the
+   * output of downscale what it was, byte for byte.
+   *
+   * @param image     the raster to downscale.
+   * @param widthNew  the width of the result.
+   * @param heightNew the height of the result.
+   * @param pool      the pool to allocate the result from.
+   * @return the downscaled raster.
+   * @throws IllegalArgumentException if the new dimensions are not positive.
+   */
+  public static RasterImage downscale(RasterImage image, int widthNew, int heightNew,
+                                      RasterPool pool) throws IllegalArgumentException {
+    if (widthNew <= 0 || heightNew <= 0) {
+      throw new IllegalArgumentException("Dimensions must be positive");
+    }
+    int width = image.getWidth();
+    int height = image.getHeight();
+    Corners columns = new Corners(width, widthNew);
+    Corners rows = new Corners(height, heightNew);
+    RasterImage result = pool.allocate(widthNew, heightNew);
+    byte[] out = result.array();
+    Bands.forEach(heightNew, widthNew, (from, to) -> {
+      byte[] top = new byte[width * RasterImage.CHANNELS];
+      byte[] bottom = new byte[width * RasterImage.CHANNELS];
+      for (int y = from; y < to; y++) {
+        image.getRow(rows.low[y], top, 0);
+        boolean inside = rows.high[y] < height;
+        if (!rows.exact[y] && inside) {
+          image.getRow(rows.high[y], bottom, 0);
+        }
+        for (int x = 0, d = y * widthNew * RasterImage.CHANNELS; x < widthNew; x++) {
+          int a = columns.low[x] * RasterImage.CHANNELS;
+          if (rows.exact[y] || columns.exact[x]) {
+            out[d++] = top[a];
+            out[d++] = top[a + 1];
+            out[d++] = top[a + 2];
+          } else if (!inside || columns.high[x] >= width) {
+            // the old code fell back to the top-left pixel for all four past the last row or column
+            for (int c = 0; c < RasterImage.CHANNELS; c++) {
+              int v = top[a + c] & 0xFF;
+              out[d++] = corners(v, v, v, v, columns, x, rows, y);
+            }
+          } else {
+            int b = columns.high[x] * RasterImage.CHANNELS;
+            for (int c = 0; c < RasterImage.CHANNELS; c++) {
+              out[d++] = corners(top[a + c] & 0xFF, top[b + c] & 0xFF, bottom[a + c] & 0xFF,
+                      bottom[b + c] & 0xFF, columns, x, rows, y);
+            }
+          }
+        }
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Interpolates one channel between the four source pixels around a sample, with the arithmetic
+   * of the old downscale.
+   *
+   * @param a       the top-left value.
+   * @param b       the top-right value.
+   * @param c       the bottom-left value.
+   * @param d       the bottom-right value.
+   * @param columns the sample positions along the rows.
+   * @param x       the output column.
+   * @param rows    the sample positions along the columns.
+   * @param y       the output row.
+   * @return the interpolated value.
+   */
+  private static byte corners(int a, int b, int c, int d, Corners columns, int x, Corners rows,
+                              int y) {
+    double m = b * columns.far[x] + a * columns.near[x];
+    double n = d * columns.far[x] + c * columns.near[x];
+    return (byte) (int) (n * rows.far[y] + m * rows.near[y]);
+  }
+
+  /**
+   * Computes how many rows and columns a decoder may skip between the ones it keeps, so that the
+   * decoded image is still at least as large as the size it will be resized to. Resizing from the
+   * subsampled image then needs far fewer pixels than resizing from the full one.
+   *
+   * @param width     the width of the source region.
+   * @param height    the height of the source region.
+   * @param widthNew  the width the image will be resized to, or 0 if it keeps its width.
+   * @param heightNew the height the image will be resized to, or 0 if it keeps its height.
+   * @return the step between kept rows and columns, at least 1.
+   */
+  public static int subsampling(int width, int height, int widthNew, int heightNew) {
+    if (widthNew <= 0 || heightNew <= 0) {
+      return 1;
+    }
+    return Math.max(1, Math.min(width / widthNew, height / heightNew));
+  }
+
+  /**
+   * Resamples one row along its length.
+   *
+   * @param src       the bytes holding the source row.
+   * @param srcOffset index of the first byte of the row.
+   * @param dst       the bytes to write the resampled row to.
+   * @param dstOffset index of the first byte to write.
+   * @param columns   the weights of every output column.
+   */
+  private static void resampleRow(byte[] src, int srcOffset, byte[] dst, int dstOffset,
+                                  Weights columns) {
+    for (int x = 0; x < columns.start.length; x++) {
+      int r = HALF;
+      int g = HALF;
+      int b = HALF;
+      int s = srcOffset + columns.start[x] * RasterImage.CHANNELS;
+      int weightBase = x * columns.stride;
+      for (int k = 0; k < columns.count[x]; k++, s += RasterImage.CHANNELS) {
+        int weight = columns.weights[weightBase + k];
+        r += (src[s] & 0xFF) * weight;
+        g += (src[s + 1] & 0xFF) * weight;
+        b += (src[s + 2] & 0xFF) * weight;
+      }
+      int d = dstOffset + x * RasterImage.CHANNELS;
+      dst[d] = clamp(r);
+      dst[d + 1] = clamp(g);
+      dst[d + 2] = clamp(b);
+    }
+  }
+
+  /**
+   * Resizes by copying, for every output pixel, the source pixel its center falls on.
+   *
+   * @param image  the source raster.
+   * @param result the raster to fill.
+   */
+  private static void nearest(RasterImage image, RasterImage result) {
+    int width = image.getWidth();
+    int widthNew = result.getWidth();
+    int heightNew = result.getHeight();
+    int[] columns = new int[widthNew];
+    for (int x = 0; x < widthNew; x++) {
+      columns[x] = Math.min(width - 1, (int) ((x + 0.5) * width / widthNew))
+              * RasterImage.CHANNELS;
+    }
+    byte[] out = result.array();
+    Bands.forEach(heightNew, widthNew, (from, to) -> {
+      byte[] row = new byte[width * RasterImage.CHANNELS];
+      int previous = -1;
+      for (int y = from; y < to; y++) {
+        int source = Math.min(image.getHeight() - 1,
+                (int) ((y + 0.5) * image.getHeight() / heightNew));
+        if (source != previous) {
+          image.getRow(source, row, 0);
+          previous = source;
+        }
+        for (int x = 0, d = y * widthNew * RasterImage.CHANNELS; x < widthNew; x++) {
+          out[d++] = row[columns[x]];
+          out[d++] = row[columns[x] + 1];
+          out[d++] = row[columns[x] + 2];
+        }
+      }
+    });
+  }
+
+  private static byte clamp(int sum) {
+    int value = sum >> PRECISION_BITS;
+    return (byte) (value < 0 ? 0 : Math.min(value, 255));
+  }
+
+  /**
+   * Evaluates the kernel of a filter.
+   *
+   * @param mode the filter.
+   * @param x    the distance from the center, in source pixels of the filter's scale.
+   * @return the weight.
+   */
+  private static double kernel(ImageProcessorModel.ResampleMode mode, double x) {
+    if (mode == ImageProcessorModel.ResampleMode.Box) {
+      // half-open so that a source pixel on the edge of two boxes only counts once
+      return x > -0.5 && x <= 0.5 ? 1.0 : 0.0;
+    }
+    x = Math.abs(x);
+    switch (mode) {
+      case Bilinear:
+        return x < 1.0 ? 1.0 - x : 0.0;
+      case Bicubic:
+        // Keys' cubic convolution with a = -0.5
+        if (x < 1.0) {
+          return (1.5 * x - 2.5) * x * x + 1.0;
+        }
+        return x < 2.0 ? ((-0.5 * x + 2.5) * x - 4.0) * x + 2.0 : 0.0;
+      case Lanczos3:
+        if (x == 0.0) {
+          return 1.0;
+        }
+        return x < 3.0 ? sinc(x) * sinc(x / 3.0) : 0.0;
+      default:
+        throw new IllegalArgumentException("Unknown filter " + mode);
+    }
+  }
+
+  private static double sinc(double x) {
+    return Math.sin(Math.PI * x) / (Math.PI * x);
+  }
+
+  private static double support(ImageProcessorModel.ResampleMode mode) {
+    switch (mode) {
+      case Box:
+        return 0.5;
+      case Bilinear:
+        return 1.0;
+      case Bicubic:
+        return 2.0;
+      case Lanczos3:
+        return 3.0;
+      default:
+        throw new IllegalArgumentException("Unknown filter " + mode);
+    }
+  }
+
+  /**
+   * The precomputed filter weights along one axis: for every output index, the first source index
+   * it reads, how many source indices it reads, and their fixed-point weights (which add up to
+   * one).
+   */
+  private static final class Weights {
+    private final int[] start;
+    private final int[] count;
+    private final int[] weights;
+    private final int stride;
+
+    private Weights(int size, int sizeNew, ImageProcessorModel.ResampleMode mode) {
+      double scale = (double) size / sizeNew;
+      // when shrinking, the filter is stretched to cover every source pixel
+      double filterScale = Math.max(scale, 1.0);
+      double support = support(mode) * filterScale;
+      this.stride = (int) Math.ceil(support) * 2 + 1;
+      this.start = new int[sizeNew];
+      this.count = new int[sizeNew];
+      this.weights = new int[sizeNew * stride];
+
+      double[] w = new double[stride];
+      for (int i = 0; i < sizeNew; i++) {
+        double center = (i + 0.5) * scale;
+        int min = Math.max(0, (int) (center - support + 0.5));
+        int max = Math.min(size, (int) (center + support + 0.5));
+        int n = Math.min(stride, max - min);
+        double total = 0;
+        for (int k = 0; k < n; k++) {
+          w[k] = kernel(mode, (min + k - center + 0.5) / filterScale);
+          total += w[k];
+        }
+        if (total == 0) {
+          // can only happen at the very edge, fall back to the nearest pixel
+          min = Math.min(size - 1, (int) center);
+          n = 1;
+          w[0] = 1;
+          total = 1;
+        }
+        int sum = 0;
+        for (int k = 0; k < n; k++) {
+          int weight = (int) Math.round(w[k] / total * ONE);
+          weights[i * stride + k] = weight;
+          sum += weight;
+        }
+        // put the rounding error on the largest weight so the weights add up to exactly one
+        int largest = 0;
+        for (int k = 1; k < n; k++) {
+          if (weights[i * stride + k] > weights[i * stride + largest]) {
+            largest = k;
+          }
+        }
+        weights[i * stride + largest] += ONE - sum;
+        start[i] = min;
+        count[i] = n;
+      }
+    }
+  }
+
+  /**
+   * The sample positions of the old downscale along one axis: for every output index, the source
+   * indices before and after its top-left corner scaled to the source, their weights, and whether
+   * the corner falls right on a source index.
+   */
+  private static final class Corners {
+    private final int[] low;
+    private final int[] high;
+    private final double[] far;
+    private final double[] near;
+    private final boolean[] exact;
+
+    private Corners(int size, int sizeNew) {
+      this.low = new int[sizeNew];
+      this.high = new int[sizeNew];
+      this.far = new double[sizeNew];
+      this.near = new double[sizeNew];
+      this.exact = new boolean[sizeNew];
+      for (int i = 0; i < sizeNew; i++) {
+        double position = (i * (double) size) / sizeNew;
+        low[i] = (int) Math.floor(position);
+        high[i] = (int) Math.ceil(position);
+        far[i] = position - Math.floor(position);
+        near[i] = Math.ceil(position) - position;
+        exact[i] = (int) position == position;
+      }
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Interface representing a decoder that hands out an image a few rows at a time, so that the
+ * whole image never has to be in memory.
+ */
+public interface ScanlineReader extends Closeable {
+
+  /**
+   * Retrieves the width of the image.
+   *
+   * @return the width in pixels.
+   */
+  int getWidth();
+
+  /**
+   * Retrieves the height of the image.
+   *
+   * @return the height in pixels.
+   */
+  int getHeight();
+
+  /**
+   * Decodes the next rows of the image as interleaved RGB bytes.
+   *
+   * @param dst  the bytes to write the rows to, from index 0.
+   * @param rows the number of rows to decode.
+   * @throws IOException              if the file cannot be read.
+   * @throws IllegalArgumentException if the file is not valid or has fewer rows left.
+   */
+  void readRows(byte[] dst, int rows) throws IOException, IllegalArgumentException;
+}
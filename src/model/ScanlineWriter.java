@@ -0,0 +1,20 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Interface representing an encoder that is given an image a few rows at a time. The file is only
+ * complete once every row has been written and the writer has been closed.
+ */
+public interface ScanlineWriter extends Closeable {
+
+  /**
+   * Encodes the next rows of the image.
+   *
+   * @param src  the interleaved RGB bytes of the rows, from index 0.
+   * @param rows the number of rows to encode.
+   * @throws IOException if the file cannot be written.
+   */
+  void writeRows(byte[] src, int rows) throws IOException;
+}
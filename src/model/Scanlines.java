@@ -0,0 +1,351 @@
+package model;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Opens scanline readers and writers for the formats that can be decoded and encoded row by row:
+ * plain-text PPM, QOI and the native raw format. Writers encode into a temporary file that only
+ * replaces the target once the last row is written, so a stream may read and write the same file.
+ */
+public final class Scanlines {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private Scanlines() {
+  }
+
+  /**
+   * Determines if images of a file can be streamed, based on its extension.
+   *
+   * @param pathName the path of the file.
+   * @return true if the file is a PPM, QOI or raw file.
+   */
+  public static boolean supports(String pathName) {
+    String type = pathName.substring(pathName.lastIndexOf(".") + 1);
+    return type.equalsIgnoreCase("ppm") || type.equalsIgnoreCase("raw")
+            || type.equalsIgnoreCase("qoi");
+  }
+
+  /**
+   * Opens a file to read its image row by row.
+   *
+   * @param path the PPM, QOI or raw file.
+   * @return the reader, positioned before the first row.
+   * @throws IOException              if the file cannot be read.
+   * @throws IllegalArgumentException if the file is of another format or has an invalid header.
+   */
+  public static ScanlineReader reader(Path path) throws IOException, IllegalArgumentException {
+    if (!supports(path.toString())) {
+      throw new IllegalArgumentException("Cannot stream the image of " + path);
+    }
+    if (path.toString().toLowerCase().endsWith(".raw")) {
+      return new RawReader(RawCodec.read(path));
+    }
+    if (path.toString().toLowerCase().endsWith(".qoi")) {
+      return new QoiCodec.Decoder(Files.newInputStream(path));
+    }
+    return new PPMReader(Files.newInputStream(path));
+  }
+
+  /**
+   * Creates a file to write an image to row by row.
+   *
+   * @param path   the PPM, QOI or raw file.
+   * @param width  the width of the image.
+   * @param height the height of the image.
+   * @return the writer.
+   * @throws IOException              if the file cannot be created.
+   * @throws IllegalArgumentException if the file is of another format.
+   */
+  public static ScanlineWriter writer(Path path, int width, int height)
+          throws IOException, IllegalArgumentException {
+    if (!supports(path.toString())) {
+      throw new IllegalArgumentException("Cannot stream the image to " + path);
+    }
+    if (path.toString().toLowerCase().endsWith(".raw")) {
+      return new RowWriter(path, width, height, RawCodec.header(width, height).array(),
+              (out, src, length) -> out.write(src, 0, length));
+    }
+    if (path.toString().toLowerCase().endsWith(".qoi")) {
+      return qoiWriter(path, width, height);
+    }
+    byte[][] values = new byte[256][];
+    for (int v = 0; v < 256; v++) {
+      values[v] = (v + "\n").getBytes(StandardCharsets.US_ASCII);
+    }
+    RowEncoder encoder = (out, src, length) -> {
+      for (int i = 0; i < length; i++) {
+        out.write(values[src[i] & 0xFF]);
+      }
+    };
+    return new RowWriter(path, width, height,
+            ppmHeader(width, height).getBytes(StandardCharsets.US_ASCII), encoder);
+  }
+
+  /**
+   * Creates a file to write a QOI image to row by row, whatever the extension of the file.
+   *
+   * @param path   the file.
+   * @param width  the width of the image.
+   * @param height the height of the image.
+   * @return the writer.
+   * @throws IOException if the file cannot be created.
+   */
+  static ScanlineWriter qoiWriter(Path path, int width, int height) throws IOException {
+    return new RowWriter(path, width, height, QoiCodec.header(width, height),
+            new QoiCodec.Encoder());
+  }
+
+  /**
+   * Builds the header the processor writes at the start of its PPM files.
+   *
+   * @param width  the width of the image.
+   * @param height the height of the image.
+   * @return the header, up to and including the line with the max value.
+   */
+  static String ppmHeader(int width, int height) {
+    return "P3\n# Created by GIMP version 2.10.30 PNM plug-in\n" + width + " " + height + "\n"
+            + 255 + "\n";
+  }
+
+  /**
+   * Reads the rows of a raw file from its mapping.
+   */
+  private static final class RawReader implements ScanlineReader {
+    private final RasterImage image;
+    private int row;
+
+    private RawReader(RasterImage image) {
+      this.image = image;
+      this.row = 0;
+    }
+
+    @Override
+    public int getWidth() {
+      return image.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+      return image.getHeight();
+    }
+
+    @Override
+    public void readRows(byte[] dst, int rows) {
+      if (row + rows > image.getHeight()) {
+        throw new IllegalArgumentException("Only " + (image.getHeight() - row) + " rows left");
+      }
+      for (int i = 0; i < rows; i++) {
+        image.getRow(row++, dst, i * image.getWidth() * RasterImage.CHANNELS);
+      }
+    }
+
+    @Override
+    public void close() {
+      // the mapping is released with the raster
+    }
+  }
+
+  /**
+   * Parses the values of a plain-text PPM file as they are needed.
+   */
+  private static final class PPMReader implements ScanlineReader {
+    private final InputStream in;
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+    private final int width;
+    private final int height;
+    private int row;
+
+    private PPMReader(InputStream in) throws IOException {
+      this.in = in;
+      this.buffer = new byte[BUFFER_SIZE];
+      try {
+        if (!"P3".equals(nextToken())) {
+          throw new IllegalArgumentException(
+                  "Invalid PPM file: plain RAW file should begin with P3");
+        }
+        this.width = Integer.parseInt(nextToken());
+        this.height = Integer.parseInt(nextToken());
+        nextToken(); // the max value, ignored like the model's loader does
+      } catch (IOException | RuntimeException e) {
+        in.close();
+        throw e;
+      }
+      if (width <= 0 || height <= 0) {
+        in.close();
+        throw new IllegalArgumentException("Invalid PPM file: unsupported size "
+                + width + "x" + height);
+      }
+    }
+
+    @Override
+    public int getWidth() {
+      return width;
+    }
+
+    @Override
+    public int getHeight() {
+      return height;
+    }
+
+    @Override
+    public void readRows(byte[] dst, int rows) throws IOException {
+      if (row + rows > height) {
+        throw new IllegalArgumentException("Only " + (height - row) + " rows left");
+      }
+      int length = rows * width * RasterImage.CHANNELS;
+      for (int i = 0; i < length; i++) {
+        int value = nextValue();
+        if (value > 255) {
+          throw new IllegalArgumentException("Color value must be in range of 0-255");
+        }
+        dst[i] = (byte) value;
+      }
+      row += rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+
+    /**
+     * Reads the next byte of the file.
+     *
+     * @return the byte, or -1 at the end of the file.
+     */
+    private int read() throws IOException {
+      if (position == limit) {
+        limit = in.read(buffer, 0, buffer.length);
+        position = 0;
+        if (limit <= 0) {
+          limit = 0;
+          return -1;
+        }
+      }
+      return buffer[position++] & 0xFF;
+    }
+
+    /**
+     * Skips whitespace and comments, then reads the first byte of the next token.
+     *
+     * @return the byte, or -1 at the end of the file.
+     */
+    private int skipToToken() throws IOException {
+      int b = read();
+      while (b == '#' || Character.isWhitespace(b)) {
+        if (b == '#') {
+          while (b != '\n' && b != -1) {
+            b = read();
+          }
+        }
+        b = read();
+      }
+      return b;
+    }
+
+    private String nextToken() throws IOException {
+      StringBuilder token = new StringBuilder();
+      for (int b = skipToToken(); b != -1 && !Character.isWhitespace(b); b = read()) {
+        token.append((char) b);
+      }
+      if (token.length() == 0) {
+        throw new IllegalArgumentException("Invalid PPM file: header is incomplete");
+      }
+      return token.toString();
+    }
+
+    private int nextValue() throws IOException {
+      int b = skipToToken();
+      if (b == -1) {
+        throw new IllegalArgumentException("Invalid PPM file: expected "
+                + (long) width * height * RasterImage.CHANNELS + " color values");
+      }
+      int value = 0;
+      for (; b != -1 && !Character.isWhitespace(b); b = read()) {
+        if (b < '0' || b > '9') {
+          throw new IllegalArgumentException("Invalid PPM file: unexpected character '"
+                  + (char) b + "'");
+        }
+        value = Math.min(value * 10 + (b - '0'), 256);
+      }
+      return value;
+    }
+  }
+
+  /**
+   * Encodes runs of row bytes into an output stream.
+   */
+  interface RowEncoder {
+    void encode(OutputStream out, byte[] src, int length) throws IOException;
+
+    /**
+     * Writes whatever the format needs after the last row.
+     *
+     * @param out the stream the rows were encoded into.
+     * @throws IOException if the stream cannot be written.
+     */
+    default void finish(OutputStream out) throws IOException {
+    }
+  }
+
+  /**
+   * Writes encoded rows to a temporary file, which replaces the target when every row is written.
+   */
+  private static final class RowWriter implements ScanlineWriter {
+    private final Path target;
+    private final Path temp;
+    private final OutputStream out;
+    private final RowEncoder encoder;
+    private final int width;
+    private final int height;
+    private int row;
+
+    private RowWriter(Path path, int width, int height, byte[] header, RowEncoder encoder)
+            throws IOException {
+      this.target = path.toAbsolutePath();
+      this.temp = RawCodec.temporarySibling(target);
+      this.out = new BufferedOutputStream(Files.newOutputStream(temp,
+              StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), BUFFER_SIZE);
+      this.out.write(header);
+      this.encoder = encoder;
+      this.width = width;
+      this.height = height;
+      this.row = 0;
+    }
+
+    @Override
+    public void writeRows(byte[] src, int rows) throws IOException {
+      if (row + rows > height) {
+        throw new IllegalArgumentException("Only " + (height - row) + " rows left");
+      }
+      encoder.encode(out, src, rows * width * RasterImage.CHANNELS);
+      row += rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        if (row == height) {
+          encoder.finish(out);
+        }
+        out.close();
+        if (row == height) {
+          Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+    }
+  }
+}
@@ -1,9 +1,9 @@
-package view;
+package view.gui;
 
 import java.awt.image.BufferedImage;
 
-import controller.ButtonCommands;
 import controller.commands.Load;
+import controller.gui.ButtonCommands;
 
 /**
  * Represents a non-text view that visually represents our application through GUI. Contains
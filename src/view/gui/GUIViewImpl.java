@@ -1,4 +1,4 @@
-package view;
+package view.gui;
 
 import java.awt.GridLayout;
 import java.awt.Dimension;
@@ -21,9 +21,9 @@ import javax.swing.JFileChooser;
 import javax.swing.ImageIcon;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
-import controller.ButtonCommands;
-import controller.GUIController;
 import controller.commands.Load;
+import controller.gui.ButtonCommands;
+import controller.gui.GUIController;
 import model.ImageProcessorModel;
 
 /**
@@ -49,6 +49,10 @@ public class GUIViewImpl extends JFrame implements GUIView {
   private JButton imgDarken;
   private JButton imgHorizontalFlip;
   private JButton imgVerticalFlip;
+  private JButton imgRotateRight;
+  private JButton imgRotateLeft;
+  private JButton imgRotateHalf;
+  private JButton imgTranspose;
   private JButton imgRedComponent;
   private JButton imgGreenComponent;
   private JButton imgBlueComponent;
@@ -61,6 +65,8 @@ public class GUIViewImpl extends JFrame implements GUIView {
   private JButton imgGrayscale;
   private JButton imgRestart;
   private JButton imgDownscale;
+  private JButton imgUndo;
+  private JButton imgRedo;
 
   /**
    * A constructor for the view that initializes the GUI. Renders all needed panels,
@@ -142,6 +148,10 @@ public class GUIViewImpl extends JFrame implements GUIView {
     imgDarken = new JButton("Darken");
     imgHorizontalFlip = new JButton("Horizontal Flip");
     imgVerticalFlip = new JButton("Vertical Flip");
+    imgRotateRight = new JButton("Rotate Right");
+    imgRotateLeft = new JButton("Rotate Left");
+    imgRotateHalf = new JButton("Rotate 180");
+    imgTranspose = new JButton("Transpose");
     imgRedComponent = new JButton("Red Component");
     imgGreenComponent = new JButton("Green Component");
     imgBlueComponent = new JButton("Blue Component");
@@ -154,15 +164,21 @@ public class GUIViewImpl extends JFrame implements GUIView {
     imgGrayscale = new JButton("Grayscale Transformation");
     imgRestart = new JButton("Restart");
     imgDownscale = new JButton("Downscale");
+    imgUndo = new JButton("Undo");
+    imgRedo = new JButton("Redo");
 
     //show all commands on a panel representing possible modification choices
     JPanel commandsPanel = new JPanel();
     commandsPanel.setBorder(BorderFactory.createTitledBorder("Image Modifications:"));
-    commandsPanel.setLayout(new GridLayout(15, 0, 1, 1));
+    commandsPanel.setLayout(new GridLayout(22, 0, 1, 1));
     commandsPanel.add(imgBrighten);
     commandsPanel.add(imgDarken);
     commandsPanel.add(imgHorizontalFlip);
     commandsPanel.add(imgVerticalFlip);
+    commandsPanel.add(imgRotateRight);
+    commandsPanel.add(imgRotateLeft);
+    commandsPanel.add(imgRotateHalf);
+    commandsPanel.add(imgTranspose);
     commandsPanel.add(imgRedComponent);
     commandsPanel.add(imgGreenComponent);
     commandsPanel.add(imgBlueComponent);
@@ -174,6 +190,8 @@ public class GUIViewImpl extends JFrame implements GUIView {
     commandsPanel.add(imgSepia);
     commandsPanel.add(imgGrayscale);
     commandsPanel.add(imgDownscale);
+    commandsPanel.add(imgUndo);
+    commandsPanel.add(imgRedo);
     commandsPanel.add(imgRestart);
     mainPanel.add(commandsPanel);
   }
@@ -268,6 +286,10 @@ public class GUIViewImpl extends JFrame implements GUIView {
     imgDarken.addActionListener(l -> commands.darken());
     imgHorizontalFlip.addActionListener(l -> commands.flipHori());
     imgVerticalFlip.addActionListener(l -> commands.flipVert());
+    imgRotateRight.addActionListener(l -> commands.rotateRight());
+    imgRotateLeft.addActionListener(l -> commands.rotateLeft());
+    imgRotateHalf.addActionListener(l -> commands.rotateHalf());
+    imgTranspose.addActionListener(l -> commands.transpose());
     imgRedComponent.addActionListener(l -> commands.redComponent());
     imgGreenComponent.addActionListener(l -> commands.greenComponent());
     imgBlueComponent.addActionListener(l -> commands.blueComponent());
@@ -280,5 +302,7 @@ public class GUIViewImpl extends JFrame implements GUIView {
     imgGrayscale.addActionListener(l -> commands.grayscaleColorTrans());
     imgRestart.addActionListener(l -> commands.restart());
     imgDownscale.addActionListener(l -> commands.downscale());
+    imgUndo.addActionListener(l -> commands.undo());
+    imgRedo.addActionListener(l -> commands.redo());
   }
 }
\ No newline at end of file
@@ -0,0 +1,260 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import controller.FolderWatcher;
+import controller.JobExecutor;
+import controller.TileFarm;
+import controller.WorkQueue;
+import controller.commands.BrightenDarken;
+import controller.commands.Load;
+import model.ImageProcessorModel;
+import model.QoiCodec;
+import model.RasterImage;
+import view.TextView;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the ways of processing many images: the folder watcher, the job executor,
+ * the tile farm and the work queue.
+ */
+public class BatchTest {
+  private ImageProcessorModel model;
+
+  @Test
+  public void testFolderWatcherProcessesEachFileOnce() throws Exception {
+    Path in = Files.createTempDirectory("watched");
+    Path out = Paths.get("imagesTest/watched");
+    Files.createDirectories(out);
+    Files.deleteIfExists(out.resolve(FolderWatcher.JOURNAL));
+    Files.deleteIfExists(out.resolve("a.ppm"));
+    Files.deleteIfExists(out.resolve("b.ppm"));
+    String script = "load ${in} img brighten 20 img img save ${out}/${name}.ppm img";
+    StringBuilder log = new StringBuilder();
+    model = new ImageProcessorModel();
+
+    FolderWatcher watcher = new FolderWatcher(new TextView(model, log), in, script, out, 2, 100);
+    Thread thread = new Thread(watcher::runApp);
+    thread.start();
+    Files.copy(Paths.get("res/pixelImg.ppm"), in.resolve("a.ppm"));
+    new Load("res/pixelImg.ppm", "img").run(model);
+    QoiCodec.write(in.resolve("b.qoi"), Fixtures.raster(model, "img"));
+    Files.writeString(in.resolve("notes.txt"), "not an image");
+    for (int i = 0; i < 100 && !(Files.exists(out.resolve("a.ppm"))
+            && Files.exists(out.resolve("b.ppm"))); i++) {
+      Thread.sleep(100);
+    }
+    watcher.close();
+    thread.join();
+    assertTrue(log.toString(), log.toString().contains("processed a.ppm in "));
+    assertTrue(log.toString(), log.toString().contains("processed b.qoi in "));
+    assertEquals(2, log.toString().split("\n").length);
+
+    //a restarted watcher finds the files in the journal and leaves them alone
+    Files.delete(out.resolve("a.ppm"));
+    Files.delete(out.resolve("b.ppm"));
+    watcher = new FolderWatcher(new TextView(model, log), in, script, out, 2, 100);
+    thread = new Thread(watcher::runApp);
+    thread.start();
+    Thread.sleep(500);
+    watcher.close();
+    thread.join();
+    assertEquals(2, log.toString().split("\n").length);
+    assertTrue(!Files.exists(out.resolve("a.ppm")));
+    assertTrue(!Files.exists(out.resolve("b.ppm")));
+  }
+
+  @Test
+  public void testJobExecutorRunsEveryJob() throws Exception {
+    List<Future<Void>> jobs = new ArrayList<>();
+    try (JobExecutor executor = new JobExecutor(2, 3)) {
+      for (int i = 0; i < 8; i++) {
+        Files.deleteIfExists(Paths.get("imagesTest/job" + i + ".ppm"));
+        jobs.add(executor.submit("load res/pixelImg.ppm img brighten " + i + " img img "
+                + "save imagesTest/job" + i + ".ppm img"));
+      }
+      for (Future<Void> job : jobs) {
+        job.get();
+      }
+      assertEquals(8, executor.getCompletedJobs());
+      assertEquals(0, executor.getFailedJobs());
+      assertEquals(0, executor.getRunningJobs());
+      assertEquals(0, executor.getWaitingJobs());
+      assertTrue(executor.getComputeNanos() > 0);
+      assertTrue(executor.getIoNanos() > 0);
+    }
+    for (int i = 0; i < 8; i++) {
+      model = Fixtures.loaded("res/pixelImg.ppm", "img");
+      new BrightenDarken(i, "img", "img").run(model);
+      new Load("imagesTest/job" + i + ".ppm", "job").run(model);
+      assertEquals(Fixtures.raster(model, "img"),
+              Fixtures.raster(model, "job"));
+    }
+  }
+
+  @Test
+  public void testJobExecutorBoundsThreadsOfWaitingJobs() throws Exception {
+    List<Future<Void>> jobs = new ArrayList<>();
+    try (JobExecutor executor = new JobExecutor(1, 2)) {
+      for (int i = 0; i < 40; i++) {
+        jobs.add(executor.submit("load res/pixelImg.ppm img" + i + " blur img" + i + " img" + i));
+      }
+      // virtual threads are not listed, platform ones must not outnumber the running jobs
+      long threads = Thread.getAllStackTraces().keySet().stream()
+              .filter(thread -> thread.getName().equals("image-job")).count();
+      assertTrue(threads + " job threads", threads <= 2);
+      assertTrue(executor.getRunningJobs() <= 2);
+      for (Future<Void> job : jobs) {
+        job.get();
+      }
+      assertEquals(40, executor.getCompletedJobs());
+    }
+  }
+
+  @Test
+  public void testJobExecutorComputesBandsOnItsOwnPool() throws Exception {
+    QoiCodec.write(Paths.get("imagesTest/bands.qoi"),
+            new RasterImage(512, 512, new byte[512 * 512 * RasterImage.CHANNELS]));
+    long steals = ForkJoinPool.commonPool().getStealCount();
+    List<Future<Void>> jobs = new ArrayList<>();
+    try (JobExecutor executor = new JobExecutor(2, 4)) {
+      for (int i = 0; i < 8; i++) {
+        jobs.add(executor.submit("load imagesTest/bands.qoi img flip-vertical img img "
+                + "flip-horizontal img img rotate-180 img img"));
+      }
+      for (Future<Void> job : jobs) {
+        job.get();
+      }
+      long threads = Thread.getAllStackTraces().keySet().stream()
+              .filter(thread -> thread.getName().startsWith("image-compute")).count();
+      assertTrue(threads + " compute threads", threads <= 2);
+    }
+    //the bands of large images are forked on the compute pool, not on the common pool
+    assertEquals(steals, ForkJoinPool.commonPool().getStealCount());
+  }
+
+  @Test
+  public void testJobExecutorReportsFailedJob() throws Exception {
+    try (JobExecutor executor = new JobExecutor(1, 1)) {
+      Future<Void> job = executor.submit("load res/pixelImg.ppm img brighten 10 other img");
+      try {
+        job.get();
+        fail("the job used an image that does not exist");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof IllegalArgumentException);
+      }
+      assertEquals(1, executor.getFailedJobs());
+      assertEquals(0, executor.getCompletedJobs());
+      executor.submit("load res/pixelImg.ppm img").get();
+      assertEquals(1, executor.getCompletedJobs());
+    }
+  }
+
+  @Test
+  public void testTileFarmMatchesOneProcess() throws IOException {
+    model = new ImageProcessorModel();
+    Fixtures.runScript(model, "load exampleImg.bmp img save imagesTest/testFarmSource.ppm img q");
+    // a vertical flip has the strips written bottom first through a temporary file, without one
+    // they go straight to the saved file
+    String[] scripts = {"load imagesTest/testFarmSource.ppm img brighten 30 img img "
+            + "flip-horizontal img img sepia img img flip-vertical img img save ${out}.ppm img",
+        "load imagesTest/testFarmSource.ppm img flip-horizontal img img luma img img "
+            + "save ${out}.qoi img"};
+    for (String script : scripts) {
+      String type = script.substring(script.lastIndexOf('.'), script.lastIndexOf(' '));
+      model = new ImageProcessorModel();
+      Fixtures.runScript(model, script.replace("${out}", "imagesTest/testFarmSingle") + " q");
+      StringBuilder log = new StringBuilder();
+      // tiles of 96 pixels leave partial tiles at the right and bottom edges to mirror
+      new TileFarm(new TextView(new ImageProcessorModel(), log), "param out " + script,
+              Map.of("out", "imagesTest/testFarmTiled"), 2, 64, 96).runApp();
+      assertTrue(log.toString(), log.toString().startsWith("farmed "));
+      assertTrue(type, Arrays.equals(
+              Files.readAllBytes(Paths.get("imagesTest/testFarmSingle" + type)),
+              Files.readAllBytes(Paths.get("imagesTest/testFarmTiled" + type))));
+    }
+  }
+
+  @Test
+  public void testTileFarmRejectsFiltersAndUnstreamedFiles() {
+    String[] scripts = {"load res/pixelImg.ppm img blur img img save imagesTest/testFarm.ppm img",
+        "load exampleImg.bmp img brighten 10 img img save imagesTest/testFarm.ppm img",
+        "load res/pixelImg.ppm img brighten 10 img img save imagesTest/testFarm.png img"};
+    for (String script : scripts) {
+      try {
+        new TileFarm(new TextView(), script, Map.of(), 2, 64, 96);
+        fail("farmed " + script);
+      } catch (IllegalArgumentException e) {
+        //expected
+      }
+    }
+  }
+
+  @Test
+  public void testWorkQueueSplitsJobsBetweenWorkers() throws Exception {
+    Path queue = Files.createTempDirectory(Paths.get("imagesTest"), "queue");
+    Path out = queue.resolve("out");
+    List<Path> images = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      images.add(Files.copy(Paths.get("res/pixelImg.ppm"), queue.resolve("img" + i + ".ppm")));
+    }
+    images.add(queue.resolve("missing.ppm"));
+    assertEquals(7, WorkQueue.enqueue(queue, images));
+    assertEquals(0, WorkQueue.enqueue(queue, images));
+    String script = "load ${in} img brighten 20 img img save ${out}/${name}.ppm img";
+    // two workers sharing the queue folder, as two programs on different machines would
+    StringBuilder log = new StringBuilder();
+    ExecutorService workers = Executors.newFixedThreadPool(2);
+    List<Future<?>> done = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      WorkQueue worker = new WorkQueue(new TextView(new ImageProcessorModel(), log), queue,
+              script, out, 1, 1000);
+      done.add(workers.submit(worker::runApp));
+    }
+    for (Future<?> worker : done) {
+      worker.get();
+    }
+    workers.shutdown();
+    assertEquals("7 jobs: 6 done, 1 failed, 0 running, 0 waiting", WorkQueue.progress(queue));
+    assertTrue(log.toString(), log.toString().contains("failed missing.ppm"));
+    // every job saved its image, and left no staging folder behind
+    String[] saved = out.toFile().list();
+    Arrays.sort(saved);
+    assertEquals("[img0.ppm, img1.ppm, img2.ppm, img3.ppm, img4.ppm, img5.ppm]",
+            Arrays.toString(saved));
+  }
+
+  @Test
+  public void testWorkQueueRecoversExpiredLease() throws Exception {
+    Path queue = Files.createTempDirectory(Paths.get("imagesTest"), "queue");
+    Path image = Files.copy(Paths.get("res/pixelImg.ppm"), queue.resolve("crashed.ppm"));
+    WorkQueue.enqueue(queue, List.of(image));
+    // a lease left behind by a worker that stopped a while ago
+    Path lease = queue.resolve("leases/crashed.ppm.lease");
+    Files.writeString(lease, "gone");
+    Files.setLastModifiedTime(lease, java.nio.file.attribute.FileTime.fromMillis(
+            System.currentTimeMillis() - 10_000));
+    StringBuilder log = new StringBuilder();
+    new WorkQueue(new TextView(new ImageProcessorModel(), log), queue,
+            "load ${in} img save ${out}/${name}.ppm img", queue.resolve("out"), 1, 200).runApp();
+    assertTrue(log.toString(), log.toString().contains("recovered crashed.ppm from gone"));
+    assertEquals("1 jobs: 1 done, 0 failed, 0 running, 0 waiting", WorkQueue.progress(queue));
+    assertTrue(Files.exists(queue.resolve("out/crashed.ppm")));
+    assertTrue(!Files.exists(lease));
+  }
+}
@@ -0,0 +1,285 @@
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+
+import controller.commands.BrightenDarken;
+import controller.commands.Load;
+import controller.commands.Save;
+import model.IPixel;
+import model.ImageInterface;
+import model.ImageProcessorModel;
+import model.ParallelPPMDecoder;
+import model.PngCodec;
+import model.QoiCodec;
+import model.RasterImage;
+import model.Region;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the file formats the model reads and writes itself: raw, PPM read in
+ * parallel and by region, PNG, QOI and BMP.
+ */
+public class CodecTest {
+  private ImageProcessorModel model;
+
+  @Test
+  public void testLoadAndSaveRaw() {
+    try {
+      //an image saved to the raw format and loaded back should be the same pixel for pixel
+      model = Fixtures.loaded("res/pixelImg.ppm", "testing");
+      new Save("imagesTest/testPixelImgRaw.raw", "testing").run(model);
+      new Load("imagesTest/testPixelImgRaw.raw", "fromRaw").run(model);
+
+      String original = Files.readString(Paths.get(this.model.save(
+              "imagesTest/testPixelImgOriginal.ppm", "testing").getAbsolutePath()));
+      String fromRaw = Files.readString(Paths.get(this.model.save(
+              "imagesTest/testPixelImgFromRaw.ppm", "fromRaw").getAbsolutePath()));
+      assertEquals(original, fromRaw);
+      assertEquals(16 + 3 * 3 * 3, Files.size(Paths.get("imagesTest/testPixelImgRaw.raw")));
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testLoadRawInvalidFile() {
+    model = new ImageProcessorModel();
+    model.loadRaw("res/pixelImg.ppm", "notRaw");
+  }
+
+  @Test
+  public void testParallelPPMDecoderMatchesScanner() throws IOException {
+    //a file big enough to be split into several chunks, with values of every width
+    StringBuilder ppm = new StringBuilder("P3\n# generated\n300 200\n255\n");
+    for (int i = 0; i < 300 * 200 * 3; i++) {
+      ppm.append((i * 37) % 256).append(i % 7 == 0 ? "\n" : " ");
+    }
+    Files.writeString(Paths.get("imagesTest/testParallelDecode.ppm"), ppm.toString());
+
+    model = new ImageProcessorModel();
+    model.load("imagesTest/testParallelDecode.ppm", "scanned");
+    ImageInterface decoded =
+            ParallelPPMDecoder.decode(Paths.get("imagesTest/testParallelDecode.ppm"), 8);
+
+    assertEquals(model.findImage("scanned").getPixels(), decoded.getPixels());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testParallelPPMDecoderTruncatedFile() throws IOException {
+    Files.writeString(Paths.get("imagesTest/testTruncated.ppm"), "P3\n2 2\n255\n1 2 3 4 5\n");
+    ParallelPPMDecoder.decode(Paths.get("imagesTest/testTruncated.ppm"), 8);
+  }
+
+  @Test
+  public void testLoadPPMRegion() throws IOException {
+    StringBuilder ppm = new StringBuilder("P3\n6 4\n255\n");
+    for (int i = 0; i < 6 * 4 * 3; i++) {
+      ppm.append(i).append("\n");
+    }
+    Files.writeString(Paths.get("imagesTest/testRegion.ppm"), ppm.toString());
+
+    model = new ImageProcessorModel();
+    model.load("imagesTest/testRegion.ppm", "full");
+    new Load("imagesTest/testRegion.ppm", "part", new Region(1, 2, 3, 2), 0, 0).run(model);
+    ArrayList<ArrayList<IPixel>> full = model.findImage("full").getPixels();
+    ArrayList<ArrayList<IPixel>> part = model.findImage("part").getPixels();
+
+    assertEquals(2, part.size());
+    assertEquals(3, part.get(0).size());
+    for (int i = 0; i < 2; i++) {
+      for (int j = 0; j < 3; j++) {
+        assertEquals(full.get(i + 2).get(j + 1).getColor(), part.get(i).get(j).getColor());
+      }
+    }
+  }
+
+  @Test
+  public void testParallelPPMDecoderSubsamplesToTargetSize() throws IOException {
+    StringBuilder ppm = new StringBuilder("P3\n6 4\n255\n");
+    for (int i = 0; i < 6 * 4 * 3; i++) {
+      ppm.append(i).append(" ");
+    }
+    Files.writeString(Paths.get("imagesTest/testSubsample.ppm"), ppm.toString());
+
+    model = new ImageProcessorModel();
+    model.load("imagesTest/testSubsample.ppm", "full");
+    ArrayList<ArrayList<IPixel>> full = model.findImage("full").getPixels();
+    ArrayList<ArrayList<IPixel>> half = ParallelPPMDecoder.decode(
+            Paths.get("imagesTest/testSubsample.ppm"), null, 3, 2, 4).getPixels();
+
+    //every second row and column is kept
+    assertEquals(2, half.size());
+    assertEquals(3, half.get(0).size());
+    for (int i = 0; i < 2; i++) {
+      for (int j = 0; j < 3; j++) {
+        assertEquals(full.get(i * 2).get(j * 2).getColor(), half.get(i).get(j).getColor());
+      }
+    }
+  }
+
+  @Test
+  public void testLoadScriptWithRegionAndSize() {
+    model = Fixtures.loaded("exampleImg.bmp", "full");
+    Fixtures.runInteractive(model, "load -region 4 2 10 8 exampleImg.bmp part "
+            + "load -size 5 7 -region 4 2 10 8 exampleImg.bmp small q");
+    ArrayList<ArrayList<IPixel>> full = model.findImage("full").getPixels();
+    ArrayList<ArrayList<IPixel>> part = model.findImage("part").getPixels();
+
+    assertEquals(8, part.size());
+    assertEquals(10, part.get(0).size());
+    assertEquals(full.get(2).get(4).getColor(), part.get(0).get(0).getColor());
+    assertEquals(full.get(9).get(13).getColor(), part.get(7).get(9).getColor());
+    assertEquals(5, model.findImage("small").getPixels().size());
+    assertEquals(7, model.findImage("small").getPixels().get(0).size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testLoadRegionOutsideImage() {
+    model = new ImageProcessorModel();
+    model.load("res/pixelImg.ppm", "img", new Region(1000, 1000, 5, 5), 0, 0);
+  }
+
+  @Test
+  public void testPngEncoderWritesStandardPng() throws IOException {
+    //large enough to be deflated in several pieces
+    int width = 700;
+    int height = 500;
+    byte[] rgb = new byte[width * height * 3];
+    Random random = new Random(7);
+    for (int i = 0; i < rgb.length; i++) {
+      rgb[i] = (byte) (i % 3 == 0 ? random.nextInt(256) : (i / 3) % width);
+    }
+    RasterImage image = new RasterImage(width, height, rgb);
+    for (int level : new int[]{0, 1, 6, 9}) {
+      Path file = Paths.get("imagesTest/encoded" + level + ".png");
+      PngCodec.write(file, image, level);
+      BufferedImage read = ImageIO.read(file.toFile());
+      assertEquals(width, read.getWidth());
+      assertEquals(height, read.getHeight());
+      for (int y = 0; y < height; y += 7) {
+        for (int x = 0; x < width; x += 3) {
+          assertEquals(image.getRGB(x, y), read.getRGB(x, y) & 0xFFFFFF);
+        }
+      }
+    }
+    assertTrue(Files.size(Paths.get("imagesTest/encoded9.png"))
+            < Files.size(Paths.get("imagesTest/encoded0.png")));
+  }
+
+  @Test
+  public void testSaveWithLevelScript() throws IOException {
+    model = new ImageProcessorModel();
+    Fixtures.runInteractive(model,
+            "load exampleImg.bmp img save -level 1 imagesTest/level1.png img q");
+    BufferedImage read = ImageIO.read(new File("imagesTest/level1.png"));
+    BufferedImage original = ImageIO.read(new File("exampleImg.bmp"));
+    assertEquals(original.getRGB(10, 20), read.getRGB(10, 20));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSaveLevelOnlyForPng() {
+    new Save("imagesTest/level.ppm", "img", 3);
+  }
+
+  @Test
+  public void testQoiEncodesKnownBytes() throws IOException {
+    //a run of the start pixel, then two small differences
+    byte[] rgb = {0, 0, 0, 1, 0, 0, 0, 0, 0};
+    QoiCodec.write(Paths.get("imagesTest/known.qoi"), new RasterImage(3, 1, rgb));
+    byte[] expected = {'q', 'o', 'i', 'f', 0, 0, 0, 3, 0, 0, 0, 1, 3, 0,
+        (byte) 0xC0, 0x7A, 0x5A, 0, 0, 0, 0, 0, 0, 0, 1};
+    assertTrue(Arrays.equals(expected, Files.readAllBytes(Paths.get("imagesTest/known.qoi"))));
+  }
+
+  @Test
+  public void testQoiRoundTrip() throws IOException {
+    model = Fixtures.loaded("exampleImg.bmp", "img");
+    new Save("imagesTest/example.qoi", "img").run(model);
+    new Load("imagesTest/example.qoi", "back").run(model);
+    assertEquals(Fixtures.raster(model, "img"), Fixtures.raster(model, "back"));
+    assertTrue(Files.size(Paths.get("imagesTest/example.qoi"))
+            < Files.size(Paths.get("exampleImg.bmp")));
+  }
+
+  @Test
+  public void testQoiScriptIsStreamed() throws IOException {
+    String script = "load exampleImg.bmp img save imagesTest/%s.qoi img q";
+    model = new ImageProcessorModel();
+    Fixtures.runInteractive(model, String.format(script, "qoiSource"));
+    //load and save of QOI files only, so the second script is streamed
+    ImageProcessorModel streamed = new ImageProcessorModel();
+    Fixtures.runScript(streamed, "load imagesTest/qoiSource.qoi img brighten 20 img img "
+            + "save imagesTest/qoiOut.qoi img");
+    new Load("imagesTest/qoiSource.qoi", "img").run(model);
+    new BrightenDarken(20, "img", "img").run(model);
+    new Load("imagesTest/qoiOut.qoi", "out").run(model);
+    assertEquals(Fixtures.raster(model, "img"), Fixtures.raster(model, "out"));
+  }
+
+  @Test
+  public void testBmpReaderMatchesImageIO() throws IOException {
+    model = Fixtures.loaded("exampleImg.bmp", "img");
+    RasterImage image = Fixtures.raster(model, "img");
+    BufferedImage expected = ImageIO.read(new File("exampleImg.bmp"));
+    for (int y = 0; y < expected.getHeight(); y += 5) {
+      for (int x = 0; x < expected.getWidth(); x += 3) {
+        assertEquals(expected.getRGB(x, y) & 0xFFFFFF, image.getRGB(x, y));
+      }
+    }
+  }
+
+  @Test
+  public void testBmpWriterMatchesImageIO() throws IOException {
+    //3 pixel wide rows are padded to 12 bytes
+    model = Fixtures.loaded("res/pixelImgBMP.bmp", "img");
+    new Save("imagesTest/direct.bmp", "img").run(model);
+    ImageIO.write(model.saveImage("", "img"), "bmp", new File("imagesTest/imageio.bmp"));
+    assertTrue(Arrays.equals(Files.readAllBytes(Paths.get("imagesTest/imageio.bmp")),
+            Files.readAllBytes(Paths.get("imagesTest/direct.bmp"))));
+  }
+
+  @Test
+  public void testBmpReadsTopDown32Bit() throws IOException {
+    //2x2, top-down (negative height), BGRA pixels
+    ByteBuffer file = ByteBuffer.allocate(54 + 16).order(ByteOrder.LITTLE_ENDIAN);
+    file.put((byte) 'B').put((byte) 'M').putInt(70).putInt(0).putInt(54)
+            .putInt(40).putInt(2).putInt(-2).putShort((short) 1).putShort((short) 32)
+            .putInt(0).putInt(16).putInt(0).putInt(0).putInt(0).putInt(0);
+    int[] colors = {0x102030, 0x405060, 0x708090, 0xA0B0C0};
+    for (int color : colors) {
+      file.put((byte) color).put((byte) (color >> 8)).put((byte) (color >> 16)).put((byte) 0xFF);
+    }
+    Files.write(Paths.get("imagesTest/topdown.bmp"), file.array());
+    model = Fixtures.loaded("imagesTest/topdown.bmp", "img");
+    RasterImage image = Fixtures.raster(model, "img");
+    assertEquals(0x102030, image.getRGB(0, 0));
+    assertEquals(0x405060, image.getRGB(1, 0));
+    assertEquals(0x708090, image.getRGB(0, 1));
+    assertEquals(0xA0B0C0, image.getRGB(1, 1));
+  }
+
+  @Test
+  public void testLoadExtensions() {
+    Set<String> extensions = Load.extensions();
+    for (String extension : new String[]{"ppm", "raw", "qoi", "bmp", "png", "jpg"}) {
+      assertTrue(extension, extensions.contains(extension));
+    }
+    assertTrue(Load.extensions().add("txt"));
+    assertTrue(!Load.extensions().contains("txt"));
+  }
+}
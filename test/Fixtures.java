@@ -0,0 +1,64 @@
+import java.io.StringReader;
+
+import controller.ImageProcessorControllerImpl;
+import controller.ScriptController;
+import controller.commands.Load;
+import model.ImageProcessorModel;
+import model.RasterImage;
+import view.TextView;
+
+/**
+ * Builds the models the tests start from and runs scripts on them, with the messages of the
+ * controllers thrown away.
+ */
+final class Fixtures {
+
+  private Fixtures() {
+  }
+
+  /**
+   * Creates a model with one image loaded.
+   *
+   * @param path the file to load.
+   * @param name the name to store the image under.
+   * @return the model.
+   */
+  static ImageProcessorModel loaded(String path, String name) {
+    ImageProcessorModel model = new ImageProcessorModel();
+    new Load(path, name).run(model);
+    return model;
+  }
+
+  /**
+   * Runs a script the way "-file" does, streamed or with saves written in the background.
+   *
+   * @param model  the model to run the script on.
+   * @param script the script.
+   */
+  static void runScript(ImageProcessorModel model, String script) {
+    new ScriptController(model, new TextView(model, new StringBuilder()),
+            new StringReader(script)).runApp();
+  }
+
+  /**
+   * Runs a script the way "-text" does, one command at a time.
+   *
+   * @param model  the model to run the script on.
+   * @param script the script, ending with "q".
+   */
+  static void runInteractive(ImageProcessorModel model, String script) {
+    new ImageProcessorControllerImpl(model, new TextView(model, new StringBuilder()),
+            new StringReader(script)).runApp();
+  }
+
+  /**
+   * Retrieves a stored image as a raster, to compare it with others.
+   *
+   * @param model the model.
+   * @param name  the name of the image.
+   * @return the image.
+   */
+  static RasterImage raster(ImageProcessorModel model, String name) {
+    return RasterImage.of(model.findImage(name));
+  }
+}
@@ -6,7 +6,6 @@ import java.io.IOException;
 
 import javax.imageio.ImageIO;
 
-import controller.GUIController;
 import controller.commands.BrightenDarken;
 import controller.commands.ColorTransformation;
 import controller.commands.Downscale;
@@ -14,9 +13,10 @@ import controller.commands.Flip;
 import controller.commands.Grayscale;
 import controller.commands.ImageProcessingCommand;
 import controller.commands.Load;
+import controller.gui.GUIController;
 import model.ImageProcessorModel;
-import view.GUIView;
-import view.GUIViewImpl;
+import view.gui.GUIView;
+import view.gui.GUIViewImpl;
 
 import static org.junit.Assert.assertTrue;
 
@@ -0,0 +1,176 @@
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import controller.commands.Downscale;
+import controller.commands.Rotate;
+import controller.gui.EditHistory;
+import model.ImageProcessorModel;
+import model.RasterImage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the commands that change the size or orientation of an image: resize,
+ * downscale, pyramid and rotate.
+ */
+public class GeometryTest {
+  private ImageProcessorModel model;
+
+  @Test
+  public void testResizeToSameSizeKeepsImage() {
+    //every filter reproduces the image exactly when the size does not change
+    model = Fixtures.loaded("res/pixelImg.ppm", "img");
+    for (ImageProcessorModel.ResampleMode mode : ImageProcessorModel.ResampleMode.values()) {
+      new Downscale(3, 3, mode, "img", "same").run(model);
+      assertEquals(model.findImage("img").getPixels(), model.findImage("same").getPixels());
+    }
+  }
+
+  @Test
+  public void testResizeKeepsFlatColor() {
+    //resampling a single color, smaller or larger, gives back the same color everywhere
+    BufferedImage flat = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+    for (int i = 0; i < 40; i++) {
+      for (int j = 0; j < 30; j++) {
+        flat.setRGB(i, j, new Color(200, 100, 50).getRGB());
+      }
+    }
+    model = new ImageProcessorModel();
+    model.load(flat, "flat");
+    for (ImageProcessorModel.ResampleMode mode : ImageProcessorModel.ResampleMode.values()) {
+      for (int[] size : new int[][]{{7, 11}, {30, 40}, {95, 61}}) {
+        model.resize(size[0], size[1], mode, "flat", "resized");
+        BufferedImage resized = model.saveImage("", "resized");
+        assertEquals(size[0], resized.getHeight());
+        assertEquals(size[1], resized.getWidth());
+        for (int i = 0; i < size[1]; i++) {
+          for (int j = 0; j < size[0]; j++) {
+            assertEquals(new Color(200, 100, 50).getRGB(), resized.getRGB(i, j));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testNearestUpscaleRepeatsPixels() {
+    model = Fixtures.loaded("res/pixelImg.ppm", "img");
+    model.resize(6, 6, ImageProcessorModel.ResampleMode.Nearest, "img", "big");
+    BufferedImage original = model.saveImage("", "img");
+    BufferedImage big = model.saveImage("", "big");
+    for (int i = 0; i < 6; i++) {
+      for (int j = 0; j < 6; j++) {
+        assertEquals(original.getRGB(i / 2, j / 2), big.getRGB(i, j));
+      }
+    }
+  }
+
+  @Test
+  public void testDownscaleScriptWithFilter() {
+    model = new ImageProcessorModel();
+    Fixtures.runInteractive(model, "load exampleImg.bmp img downscale 150 200 lanczos3 img small "
+            + "resize 1200 1600 small big q");
+    assertEquals(150, model.saveImage("", "small").getHeight());
+    assertEquals(1600, model.saveImage("", "big").getWidth());
+  }
+
+  @Test
+  public void testPyramidSizesAndSaves() {
+    model = new ImageProcessorModel();
+    Fixtures.runInteractive(model, "load exampleImg.bmp img "
+            + "pyramid 1024,512,256,128 img thumb -save imagesTest/thumb.png q");
+
+    //never larger than the image itself, otherwise the longest edge is the size
+    assertEquals(800, model.saveImage("", "thumb-1024").getWidth());
+    assertEquals(600, model.saveImage("", "thumb-1024").getHeight());
+    assertEquals(512, model.saveImage("", "thumb-512").getWidth());
+    assertEquals(384, model.saveImage("", "thumb-512").getHeight());
+    assertEquals(128, model.saveImage("", "thumb-128").getWidth());
+    assertEquals(96, model.saveImage("", "thumb-128").getHeight());
+    assertTrue(Files.exists(Paths.get("imagesTest/thumb-256.png")));
+  }
+
+  @Test
+  public void testPyramidMatchesDirectResizeOnFlatImage() {
+    BufferedImage flat = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+    for (int i = 0; i < 300; i++) {
+      for (int j = 0; j < 200; j++) {
+        flat.setRGB(i, j, new Color(10, 120, 250).getRGB());
+      }
+    }
+    model = new ImageProcessorModel();
+    model.load(flat, "flat");
+    model.pyramid(new int[]{60}, ImageProcessorModel.ResampleMode.Bicubic, "flat", "p");
+    model.resize(40, 60, ImageProcessorModel.ResampleMode.Bicubic, "flat", "direct");
+    assertEquals(Fixtures.raster(model, "p-60"), Fixtures.raster(model, "direct"));
+  }
+
+  @Test
+  public void testRotateMatchesPixelMapping() {
+    model = new ImageProcessorModel();
+    Random random = new Random(7);
+    // large enough to be rotated in parallel bands, with partial blocks at both edges
+    for (int[] size : new int[][]{{300, 230}, {5, 3}}) {
+      int width = size[0];
+      int height = size[1];
+      byte[] rgb = new byte[width * height * RasterImage.CHANNELS];
+      random.nextBytes(rgb);
+      ByteBuffer direct = ByteBuffer.allocateDirect(rgb.length).put(rgb).flip();
+      for (RasterImage image : new RasterImage[]{new RasterImage(width, height, rgb),
+          new RasterImage(width, height, direct)}) {
+        for (ImageProcessorModel.RotateMode mode : ImageProcessorModel.RotateMode.values()) {
+          RasterImage rotated = model.rotated(mode, image);
+          boolean half = mode == ImageProcessorModel.RotateMode.Rotate180;
+          assertEquals(half ? width : height, rotated.getWidth());
+          assertEquals(half ? height : width, rotated.getHeight());
+          for (int y = 0; y < rotated.getHeight(); y++) {
+            for (int x = 0; x < rotated.getWidth(); x++) {
+              int expected;
+              if (mode == ImageProcessorModel.RotateMode.Rotate90) {
+                expected = image.getRGB(y, height - 1 - x);
+              } else if (mode == ImageProcessorModel.RotateMode.Rotate270) {
+                expected = image.getRGB(width - 1 - y, x);
+              } else if (half) {
+                expected = image.getRGB(width - 1 - x, height - 1 - y);
+              } else {
+                expected = image.getRGB(y, x);
+              }
+              assertEquals(mode + " at " + x + "," + y, expected, rotated.getRGB(x, y));
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testRotateCommandsAndUndo() {
+    model = new ImageProcessorModel();
+    Fixtures.runScript(model, "load res/pixelImg.ppm img rotate-90 img a rotate-270 a back "
+            + "rotate-180 img b rotate-180 b b transpose img c transpose c c q");
+    RasterImage original = Fixtures.raster(model, "img");
+    assertEquals(original.getHeight(), Fixtures.raster(model, "a").getWidth());
+    assertEquals(original, Fixtures.raster(model, "back"));
+    assertEquals(original, Fixtures.raster(model, "b"));
+    assertEquals(original, Fixtures.raster(model, "c"));
+
+    model.storeImage("name", original);
+    EditHistory history = new EditHistory(model, "name", EditHistory.DEFAULT_MAX_BYTES);
+    history.apply(new Rotate(ImageProcessorModel.RotateMode.Rotate90, "name", "name"));
+    history.apply(new Rotate(ImageProcessorModel.RotateMode.Rotate90, "name", "name"));
+    history.apply(new Rotate(ImageProcessorModel.RotateMode.Rotate270, "name", "name"));
+    assertEquals(model.rotated(ImageProcessorModel.RotateMode.Rotate90, original),
+            Fixtures.raster(model, "name"));
+    history.undo();
+    history.undo();
+    history.undo();
+    assertEquals(original, Fixtures.raster(model, "name"));
+  }
+}
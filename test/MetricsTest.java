@@ -0,0 +1,89 @@
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import controller.CommandMetrics;
+import controller.commands.BrightenDarken;
+import model.LatencyHistogram;
+import model.ModelMetrics;
+import model.ImageProcessorModel;
+import model.RasterImage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the latency histograms and the metrics read through JMX.
+ */
+public class MetricsTest {
+  private ImageProcessorModel model;
+
+  @Test
+  public void testLatencyHistogramPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getPercentile(99));
+    for (int i = 1000; i >= 1; i--) {
+      histogram.record(i * 1000L);
+    }
+    assertEquals(1000, histogram.getCount());
+    assertEquals(1_000_000, histogram.getMax());
+    assertEquals(500_500, histogram.getMean(), 1e-6);
+    assertEquals(500_000, histogram.getPercentile(50), 500_000 / 64.0);
+    assertEquals(990_000, histogram.getPercentile(99), 990_000 / 64.0);
+    assertEquals(1_000_000, histogram.getPercentile(100));
+    assertEquals(1000, histogram.getPercentile(0), 1000 / 64.0);
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMax());
+  }
+
+  @Test
+  public void testModelMetricsAreReadableThroughJmx() throws Exception {
+    LatencyHistogram brighten = ModelMetrics.get().getTimings().get("brighten");
+    long before = brighten == null ? 0 : brighten.getCount();
+    model = Fixtures.loaded("exampleImg.bmp", "a");
+    new BrightenDarken(10, "a", "b").run(model);
+    new BrightenDarken(10, "b", "c").run(model);
+    RasterImage image = Fixtures.raster(model, "a");
+    assertEquals(before + 2, ModelMetrics.get().getTimings().get("brighten").getCount());
+
+    ModelMetrics.register();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(ModelMetrics.NAME);
+    assertTrue((Integer) server.getAttribute(name, "StoredImages") >= 3);
+    assertTrue((Long) server.getAttribute(name, "StoredBytes")
+            >= 3L * image.getWidth() * image.getHeight() * 3);
+    TabularData operations = (TabularData) server.getAttribute(name, "Operations");
+    CompositeData row = operations.get(new Object[]{"brighten"});
+    CompositeData stats = (CompositeData) row.get("value");
+    assertEquals(before + 2, stats.get("count"));
+    assertTrue((Double) stats.get("maxMillis") >= (Double) stats.get("p50Millis"));
+  }
+
+  @Test
+  public void testCommandMetricsCountCommands() throws Exception {
+    CommandMetrics metrics = CommandMetrics.get();
+    long commands = metrics.getCommands();
+    long failed = metrics.getFailedCommands();
+    model = new ImageProcessorModel();
+    Fixtures.runInteractive(model, "load res/pixelImg.ppm img brighten 10 img img q");
+    try {
+      Fixtures.runInteractive(model, "brighten 10 missing img q");
+      fail("brightened an image that does not exist");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+    assertEquals(commands + 3, metrics.getCommands());
+    assertEquals(failed + 1, metrics.getFailedCommands());
+    assertTrue(metrics.getCommandLatencies().get("BrightenDarken").getCount() >= 2);
+    CommandMetrics.register();
+    assertEquals(commands + 3, ManagementFactory.getPlatformMBeanServer()
+            .getAttribute(new ObjectName(CommandMetrics.NAME), "Commands"));
+  }
+}
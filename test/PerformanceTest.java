@@ -0,0 +1,232 @@
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Random;
+
+import controller.commands.Load;
+import model.ImageProcessorModel;
+import model.RasterImage;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Performance regression tests for the model's operations on synthetic images. Every operation
+ * has an upper bound on the bytes it allocates per pixel, on all threads, and a lower bound on its
+ * throughput relative to a fixed baseline loop measured on the same machine, so the bounds hold
+ * on fast and slow machines alike.
+ *
+ * <p>The bounds are the numbers measured on the 1024x768 image with some headroom: about a fifth
+ * more bytes than measured, and two fifths of the lowest share of the baseline measured over
+ * several runs, since timings vary far more from run to run than allocations do.
+ *
+ * <p>These tests are slow and only run when asked for, with -Dperf=true, as perftest.sh does:
+ * java -Dperf=true -cp ... org.junit.runner.JUnitCore PerformanceTest
+ */
+public class PerformanceTest {
+  //NOTE: ALL SAVED IMAGES FROM TESTING GO TO THE "imagesTest/" DIRECTORY
+  private static final int WIDTH = 1024;
+  private static final int HEIGHT = 768;
+  private static final long PIXELS = (long) WIDTH * HEIGHT;
+  private static final int WARMUP = 3;
+  private static final int RUNS = 5;
+
+  private static com.sun.management.ThreadMXBean threads;
+  private static double baseline;
+
+  private ImageProcessorModel model;
+
+  @BeforeClass
+  public static void setUpClass() {
+    Assume.assumeTrue("performance tests run with -Dperf=true", Boolean.getBoolean("perf"));
+    threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+    byte[] source = synthetic(WIDTH, HEIGHT).array();
+    byte[] target = new byte[source.length];
+    baseline = measure(() -> {
+      // the plainest brighten there is: one clamped add per byte of a heap array
+      for (int i = 0; i < source.length; i++) {
+        target[i] = (byte) Math.min(255, (source[i] & 0xFF) + 10);
+      }
+    }).pixelsPerSecond;
+  }
+
+  @Before
+  public void setUp() {
+    model = new ImageProcessorModel();
+    model.storeImage("img", new RasterImage(WIDTH, HEIGHT, synthetic(WIDTH, HEIGHT).array()));
+  }
+
+  /**
+   * Creates an image of random noise over smooth gradients, like a photo in that neighboring
+   * pixels are related but not equal.
+   *
+   * @param width  width of the image.
+   * @param height height of the image.
+   * @return the image.
+   */
+  private static ByteBuffer synthetic(int width, int height) {
+    Random random = new Random(42);
+    byte[] rgb = new byte[width * height * RasterImage.CHANNELS];
+    int i = 0;
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        rgb[i++] = (byte) (x * 255 / width + random.nextInt(8));
+        rgb[i++] = (byte) (y * 255 / height + random.nextInt(8));
+        rgb[i++] = (byte) ((x + y) * 127 / (width + height) + random.nextInt(8));
+      }
+    }
+    return ByteBuffer.wrap(rgb);
+  }
+
+  /**
+   * The speed and allocation of an operation, from its fastest run.
+   */
+  private static final class Measurement {
+    private final double pixelsPerSecond;
+    private final double bytesPerPixel;
+
+    private Measurement(double pixelsPerSecond, double bytesPerPixel) {
+      this.pixelsPerSecond = pixelsPerSecond;
+      this.bytesPerPixel = bytesPerPixel;
+    }
+  }
+
+  /**
+   * Runs an operation a few times to warm it up, then measures its fastest run and the fewest
+   * bytes it allocated in a run, on every thread.
+   *
+   * @param operation the operation, which handles one image of WIDTH x HEIGHT pixels.
+   * @return the measurement.
+   */
+  private static Measurement measure(Runnable operation) {
+    for (int i = 0; i < WARMUP; i++) {
+      operation.run();
+    }
+    long fastest = Long.MAX_VALUE;
+    long fewest = Long.MAX_VALUE;
+    for (int i = 0; i < RUNS; i++) {
+      long before = allocated();
+      long start = System.nanoTime();
+      operation.run();
+      fastest = Math.min(fastest, System.nanoTime() - start);
+      fewest = Math.min(fewest, allocated() - before);
+    }
+    return new Measurement(PIXELS / (Math.max(1, fastest) / 1e9),
+            Math.max(0, fewest) / (double) PIXELS);
+  }
+
+  /**
+   * Sums the bytes allocated by every live thread.
+   *
+   * @return the bytes.
+   */
+  private static long allocated() {
+    long total = 0;
+    for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+      total += Math.max(0, bytes);
+    }
+    return total;
+  }
+
+  /**
+   * Asserts that an operation is no more than a set factor slower than the baseline, and that it
+   * allocates no more than a set number of bytes per pixel.
+   *
+   * @param name             the name of the operation, for the messages.
+   * @param minRatio         the lowest allowed throughput, as a share of the baseline throughput.
+   * @param maxBytesPerPixel the most bytes the operation may allocate per pixel.
+   * @param operation        the operation.
+   */
+  private void assertPerformance(String name, double minRatio, double maxBytesPerPixel,
+                                 Runnable operation) {
+    Measurement m = measure(operation);
+    double ratio = m.pixelsPerSecond / baseline;
+    System.out.println(String.format(Locale.ROOT, "%-24s %8.1f Mpx/s %7.3f of baseline"
+            + " %8.2f B/px", name, m.pixelsPerSecond / 1e6, ratio, m.bytesPerPixel));
+    assertTrue(String.format(Locale.ROOT, "%s allocates %.2f bytes per pixel, at most %.2f",
+            name, m.bytesPerPixel, maxBytesPerPixel), m.bytesPerPixel <= maxBytesPerPixel);
+    assertTrue(String.format(Locale.ROOT, "%s runs at %.3f of the baseline, at least %.3f",
+            name, ratio, minRatio), ratio >= minRatio);
+  }
+
+  @Test
+  public void testBrighten() {
+    assertPerformance("brighten", 0.2, 1, () -> model.brighten(10, "img", "out"));
+    assertPerformance("brighten in place", 0.2, 1, () -> model.brighten(0, "img", "img"));
+  }
+
+  @Test
+  public void testGrayscale() {
+    for (ImageProcessorModel.GrayscaleMode mode : ImageProcessorModel.GrayscaleMode.values()) {
+      assertPerformance("grayscale " + mode, 0.025, 1,
+          () -> model.grayscale(mode, "img", "out"));
+    }
+  }
+
+  @Test
+  public void testColorTransformations() {
+    for (ImageProcessorModel.ColorTransformationsMode mode
+            : ImageProcessorModel.ColorTransformationsMode.values()) {
+      assertPerformance("color " + mode, 0.012, 1,
+          () -> model.colorTransformations(mode, "img", "out"));
+    }
+  }
+
+  @Test
+  public void testFlip() {
+    for (ImageProcessorModel.FlipMode mode : ImageProcessorModel.FlipMode.values()) {
+      assertPerformance("flip " + mode, 0.06, 1, () -> model.flip(mode, "img", "out"));
+    }
+  }
+
+  @Test
+  public void testRotate() {
+    // quarter turns move every pixel to another row, yet are held close to the bounds of a flip
+    for (ImageProcessorModel.RotateMode mode : ImageProcessorModel.RotateMode.values()) {
+      assertPerformance("rotate " + mode, 0.07, 1, () -> model.rotate(mode, "img", "out"));
+    }
+  }
+
+  @Test
+  public void testFilter() {
+    // blur and sharpen still go through an image of pixel objects, some 225 bytes per pixel
+    for (ImageProcessorModel.FilterMode mode : ImageProcessorModel.FilterMode.values()) {
+      assertPerformance("filter " + mode, 0.001, 260, () -> model.filter(mode, "img", "out"));
+    }
+  }
+
+  @Test
+  public void testDownscaleAndResize() {
+    assertPerformance("downscale", 0.25, 1,
+        () -> model.downscale(HEIGHT / 2, WIDTH / 2, "img", "out"));
+    for (ImageProcessorModel.ResampleMode mode : ImageProcessorModel.ResampleMode.values()) {
+      assertPerformance("resize " + mode, 0.01, 2,
+          () -> model.resize(HEIGHT / 2, WIDTH / 2, mode, "img", "out"));
+    }
+    assertPerformance("pyramid", 0.04, 3, () -> model.pyramid(new int[]{512, 256, 128, 64},
+            ImageProcessorModel.ResampleMode.Box, "img", "thumb"));
+  }
+
+  @Test
+  public void testSaveAndLoad() {
+    // plain PPM files are text, written from pixel objects, some 118 bytes per pixel
+    assertPerformance("save ppm", 0.0035, 140, () -> model.save("imagesTest/perf.ppm", "img"));
+    assertPerformance("load ppm", 0.01, 4, () -> model.load("imagesTest/perf.ppm", "out"));
+    assertPerformance("save raw", 0.23, 1, () -> model.saveRaw("imagesTest/perf.raw", "img"));
+    assertPerformance("load raw", 3, 1, () -> model.loadRaw("imagesTest/perf.raw", "out"));
+    assertPerformance("save qoi", 0.017, 1, () -> model.saveQoi("imagesTest/perf.qoi", "img"));
+    assertPerformance("load qoi", 0.035, 1, () -> model.loadQoi("imagesTest/perf.qoi", "out"));
+    assertPerformance("save bmp", 0.05, 2, () -> model.saveBmp("imagesTest/perf.bmp", "img"));
+    assertPerformance("load bmp", 0.08, 2, () -> model.loadBmp("imagesTest/perf.bmp", "out"));
+    assertPerformance("save png", 0.0035, 13, () -> model.savePng("imagesTest/perf.png", "img", 1));
+    // PNG files are read with ImageIO, the way the load command reads them
+    assertPerformance("load png", 0.007, 8,
+        () -> new Load("imagesTest/perf.png", "out").run(model));
+  }
+}
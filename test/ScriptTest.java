@@ -0,0 +1,280 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import controller.CompiledScript;
+import controller.ImagePipeline;
+import controller.ImageProcessorControllerImpl;
+import controller.ScriptController;
+import controller.commands.BrightenDarken;
+import controller.commands.Downscale;
+import controller.commands.Filter;
+import controller.commands.Flip;
+import controller.commands.Grayscale;
+import controller.commands.Load;
+import model.ImageProcessorModel;
+import model.RasterImage;
+import view.TextView;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for how scripts run: streamed or on the model, saves written behind, image
+ * pipelines and compiled scripts.
+ */
+public class ScriptTest {
+  private ImageProcessorModel model;
+
+  @Test
+  public void testStreamedScriptMatchesModel() throws IOException {
+    String script = "load res/pixelImg.ppm img brighten 30 img img save imagesTest/%s1.ppm img "
+            + "sepia img img luma img gray save imagesTest/%s2.ppm gray "
+            + "save imagesTest/%s3.raw gray q";
+    ImageProcessorModel streamed = new ImageProcessorModel();
+    Fixtures.runScript(streamed, String.format(script, "streamed", "streamed", "streamed"));
+    model = new ImageProcessorModel();
+    Fixtures.runInteractive(model, String.format(script, "modeled", "modeled", "modeled"));
+
+    for (String file : new String[]{"1.ppm", "2.ppm", "3.raw"}) {
+      assertTrue(Arrays.equals(Files.readAllBytes(Paths.get("imagesTest/modeled" + file)),
+              Files.readAllBytes(Paths.get("imagesTest/streamed" + file))));
+    }
+  }
+
+  @Test
+  public void testScriptNeedingWholeImageRunsOnModel() {
+    //a flip reads rows out of order, so the script is not streamed
+    model = new ImageProcessorModel();
+    Fixtures.runScript(model, "load res/pixelImg.ppm img brighten 30 img img flip-vertical img img "
+            + "save imagesTest/scriptFlip.ppm img");
+    assertEquals(3, model.findImage("img").getPixels().size());
+  }
+
+  @Test
+  public void testScriptLoadsFileSavedEarlierInScript() {
+    //the second load must wait for the save running in the background
+    model = new ImageProcessorModel();
+    Fixtures.runScript(model, "load res/pixelImg.ppm img flip-vertical img img "
+            + "save imagesTest/behind.png img "
+            + "load res/pixelImg.ppm other flip-horizontal other other "
+            + "load imagesTest/behind.png again save imagesTest/behind2.png again");
+    assertEquals(Fixtures.raster(model, "img"), Fixtures.raster(model, "again"));
+    assertTrue(Files.exists(Paths.get("imagesTest/behind2.png")));
+  }
+
+  @Test
+  public void testFailedInteractiveSaveIsReportedRightAway() {
+    model = new ImageProcessorModel();
+    StringBuilder log = new StringBuilder();
+    try {
+      new ImageProcessorControllerImpl(model, new TextView(model, log),
+              new StringReader("load res/pixelImg.ppm img save imagesTest/missing/img.ppm img "
+                      + "brighten 10 img img q")).runApp();
+      fail("the failed save should be reported");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().startsWith("Unable to save imagesTest/missing/img.ppm"));
+    }
+    //interactive saves are not written behind, so nothing after the save ran
+    assertTrue(log.toString(), !log.toString().contains("Successfully saved"));
+    ImageProcessorModel original = Fixtures.loaded("res/pixelImg.ppm", "img");
+    assertEquals(Fixtures.raster(original, "img"), Fixtures.raster(model, "img"));
+  }
+
+  @Test
+  public void testScriptSavesAreReportedOnceWritten() {
+    String[] scripts = {"load res/pixelImg.ppm img save imagesTest/missing/img.ppm img",
+        "load res/pixelImg.ppm img blur img img save imagesTest/missing/img.png img"};
+    for (String script : scripts) {
+      StringBuilder log = new StringBuilder();
+      model = new ImageProcessorModel();
+      try {
+        new ScriptController(model, new TextView(model, log), new StringReader(script)).runApp();
+        fail("the failed save should be reported");
+      } catch (IllegalArgumentException e) {
+        //expected
+      }
+      assertTrue(log.toString(), !log.toString().contains("Successfully saved"));
+    }
+    StringBuilder log = new StringBuilder();
+    model = new ImageProcessorModel();
+    new ScriptController(model, new TextView(model, log), new StringReader(
+            "load res/pixelImg.ppm img save imagesTest/reported.ppm img "
+                    + "blur img img save imagesTest/reported.png img")).runApp();
+    assertEquals(2, log.toString().split("Successfully saved", -1).length - 1);
+  }
+
+  @Test
+  public void testPipelineMatchesCommands() {
+    model = Fixtures.loaded("exampleImg.bmp", "img");
+    new BrightenDarken(10, "img", "img").run(model);
+    new Grayscale(ImageProcessorModel.GrayscaleMode.Luma, "img", "img").run(model);
+    new Flip(ImageProcessorModel.FlipMode.Horizontal, "img", "img").run(model);
+    new Filter(ImageProcessorModel.FilterMode.Blur, "img", "img").run(model);
+    new Downscale(20, 30, "img", "img").run(model);
+    RasterImage expected = Fixtures.raster(model, "img");
+
+    ImageProcessorModel embedded = new ImageProcessorModel();
+    RasterImage result = ImagePipeline.load("exampleImg.bmp").brighten(10)
+            .grayscale(ImageProcessorModel.GrayscaleMode.Luma)
+            .flip(ImageProcessorModel.FlipMode.Horizontal).blur().downscale(30, 20)
+            .render(embedded);
+    assertEquals(expected, result);
+    try {
+      embedded.findImage("image");
+      fail("the pipeline stored an image in the model");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+  }
+
+  @Test
+  public void testPipelineOptimizesPlan() throws IOException {
+    ImagePipeline streamed = ImagePipeline.load("res/pixelImg.ppm").brighten(10)
+            .grayscale(ImageProcessorModel.GrayscaleMode.Luma)
+            .branch(b -> b.colorTransformation(ImageProcessorModel.ColorTransformationsMode.Sepia))
+            .save("imagesTest/pipelineStreamed.ppm").brighten(-20);
+    assertEquals("streamed: load res/pixelImg.ppm -> brighten 10 + grayscale Luma -> "
+            + "save imagesTest/pipelineStreamed.ppm", streamed.toString());
+    streamed.run();
+
+    ImagePipeline inMemory = ImagePipeline.load("res/pixelImg.ppm").brighten(10)
+            .branch(b -> b.blur().save("imagesTest/pipelineBlur.ppm"))
+            .grayscale(ImageProcessorModel.GrayscaleMode.Luma)
+            .save("imagesTest/pipelineInMemory.ppm");
+    assertEquals("in memory: load res/pixelImg.ppm -> brighten 10 -> branch [blur -> save "
+            + "imagesTest/pipelineBlur.ppm] -> grayscale Luma -> save "
+            + "imagesTest/pipelineInMemory.ppm", inMemory.toString());
+    inMemory.run();
+
+    model = Fixtures.loaded("res/pixelImg.ppm", "img");
+    new BrightenDarken(10, "img", "img").run(model);
+    new Filter(ImageProcessorModel.FilterMode.Blur, "img", "blur").run(model);
+    new Grayscale(ImageProcessorModel.GrayscaleMode.Luma, "img", "img").run(model);
+    new Load("imagesTest/pipelineStreamed.ppm", "streamed").run(model);
+    new Load("imagesTest/pipelineInMemory.ppm", "inMemory").run(model);
+    new Load("imagesTest/pipelineBlur.ppm", "savedBlur").run(model);
+    assertEquals(Fixtures.raster(model, "img"),
+            Fixtures.raster(model, "streamed"));
+    assertEquals(Fixtures.raster(model, "img"),
+            Fixtures.raster(model, "inMemory"));
+    assertEquals(Fixtures.raster(model, "blur"),
+            Fixtures.raster(model, "savedBlur"));
+  }
+
+  @Test
+  public void testPipelineLeavesSourceImageAlone() {
+    model = Fixtures.loaded("exampleImg.bmp", "img");
+    RasterImage source = Fixtures.raster(model, "img");
+    RasterImage original = model.getPool().copy(source);
+    RasterImage result = ImagePipeline.of(source).brighten(50).brighten(-10).render(model);
+    assertEquals(original, source);
+    new BrightenDarken(50, "img", "img").run(model);
+    new BrightenDarken(-10, "img", "img").run(model);
+    assertEquals(Fixtures.raster(model, "img"), result);
+    assertEquals(original, ImagePipeline.of(original).render(model));
+  }
+
+  @Test
+  public void testCompiledScriptLoopsAndMacros() {
+    CompiledScript script = CompiledScript.compile("param src param steps=3 "
+            + "macro bright in out amount do "
+            + "brighten ${amount} ${in} ${out} end "
+            + "load ${src} img "
+            + "for i from 1 to ${steps} do bright img img-${i} ${i}0 "
+            + "save imagesTest/compiled-${i}.ppm img-${i} end "
+            + "for f in imagesTest/compiled-1.ppm imagesTest/compiled-3.ppm do "
+            + "set copy ${f}.png load ${f} again save ${copy} again end");
+    assertEquals(Arrays.asList("src", "steps"), new ArrayList<>(script.getParameters().keySet()));
+    assertEquals(1 + 3 * 2 + 2 * 2,
+            script.expand(Map.of("src", "res/pixelImg.ppm")).size());
+    assertEquals(1 + 2 * 2 + 2 * 2,
+            script.expand(Map.of("src", "res/pixelImg.ppm", "steps", "2")).size());
+
+    model = new ImageProcessorModel();
+    script.run(model, Map.of("src", "res/pixelImg.ppm"));
+    new Load("res/pixelImg.ppm", "img").run(model);
+    for (int i = 1; i <= 3; i++) {
+      new BrightenDarken(i * 10, "img", "expected").run(model);
+      new Load("imagesTest/compiled-" + i + ".ppm", "saved").run(model);
+      assertEquals(Fixtures.raster(model, "expected"),
+              Fixtures.raster(model, "saved"));
+    }
+    assertTrue(new File("imagesTest/compiled-3.ppm.png").exists());
+
+    //compiled once, run again with other arguments
+    script.run(model, Map.of("src", "exampleImg.bmp", "steps", "1"));
+    new Load("exampleImg.bmp", "img").run(model);
+    new BrightenDarken(10, "img", "expected").run(model);
+    new Load("imagesTest/compiled-1.ppm", "saved").run(model);
+    assertEquals(Fixtures.raster(model, "expected"),
+            Fixtures.raster(model, "saved"));
+  }
+
+  @Test
+  public void testCompiledScriptPlaceholdersInAnyArgument() {
+    CompiledScript script = CompiledScript.compile("param out param img "
+            + "load res/pixelImg.ppm ${img} save -level 9 ${out} ${img}");
+    new File("imagesTest/level9.png").delete();
+    script.run(new ImageProcessorModel(),
+            Map.of("out", "imagesTest/level9.png", "img", "pixels"));
+    assertTrue(new File("imagesTest/level9.png").exists());
+
+    for (String name : new String[]{"downscale", "resize"}) {
+      script = CompiledScript.compile("param mode load res/pixelImg.ppm a "
+              + name + " 10 10 ${mode} a b save imagesTest/" + name + "-mode.ppm b");
+      model = new ImageProcessorModel();
+      script.run(model, Map.of("mode", "bilinear"));
+      assertEquals(10, Fixtures.raster(model, "b").getWidth());
+      assertEquals(10, Fixtures.raster(model, "b").getHeight());
+      try {
+        script.expand(Map.of("mode", "smooth"));
+        fail(name + " with an unknown mode");
+      } catch (IllegalArgumentException e) {
+        //expected
+      }
+    }
+  }
+
+  @Test
+  public void testCompiledScriptRejectsInvalidScripts() {
+    String[] invalid = {"load ${src} img", "for i from 1 to 3 do brighten 10 img img",
+        "brighten 10 img img end", "for i over 1 2 do end", "unknown img",
+        "load a.ppm img brighten ${x img img"};
+    for (String text : invalid) {
+      try {
+        CompiledScript.compile(text);
+        fail("compiled " + text);
+      } catch (IllegalArgumentException e) {
+        //expected
+      }
+    }
+    CompiledScript script = CompiledScript.compile("param amount brighten ${amount} img img");
+    try {
+      script.expand(Map.of());
+      fail("ran without the amount");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+    try {
+      script.expand(Map.of("amount", "10", "other", "1"));
+      fail("ran with an unknown parameter");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+    try {
+      script.expand(Map.of("amount", "bright"));
+      fail("brightened by a word");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+  }
+}
@@ -0,0 +1,95 @@
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import controller.CommandMetrics;
+import controller.ScriptServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the script server.
+ */
+public class ServerTest {
+  @Test
+  public void testServerRunsConcurrentSessions() throws Exception {
+    try (ScriptServer server = new ScriptServer("0", 2)) {
+      InetSocketAddress address = (InetSocketAddress) server.bind();
+      new Thread(server::runApp).start();
+      List<Callable<String>> clients = new ArrayList<>();
+      for (int i = 0; i < 2; i++) {
+        String script = "auth " + server.getToken() + "\nload res/pixelImg.ppm img brighten 10 "
+                + "img img bogus save imagesTest/served" + i + ".ppm img q\n";
+        clients.add(() -> {
+          try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.getOutputStream().write(script.getBytes(StandardCharsets.UTF_8));
+            return new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+          }
+        });
+      }
+      long commands = CommandMetrics.get().getCommands();
+      ExecutorService executor = Executors.newFixedThreadPool(2);
+      for (Future<String> reply : executor.invokeAll(clients)) {
+        String[] lines = reply.get().split("\n");
+        assertEquals(5, lines.length);
+        assertTrue(lines[0].startsWith("ok load "));
+        assertTrue(lines[1].startsWith("ok brighten "));
+        assertEquals("error bogus unknown command", lines[2]);
+        assertTrue(lines[3].startsWith("ok save "));
+        assertTrue(lines[4].startsWith("done 4 commands 1 failed "));
+      }
+      executor.shutdown();
+      //the unknown command is never built, so it is not timed
+      assertTrue(CommandMetrics.get().getCommands() >= commands + 6);
+      assertEquals(Files.readString(Paths.get("imagesTest/served0.ppm")),
+              Files.readString(Paths.get("imagesTest/served1.ppm")));
+    }
+  }
+
+  @Test
+  public void testServerSkipsArgumentsOfInvalidCommand() throws Exception {
+    try (ScriptServer server = new ScriptServer("0", 1, "secret")) {
+      InetSocketAddress address = (InetSocketAddress) server.bind();
+      new Thread(server::runApp).start();
+      try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+        socket.getOutputStream().write(("auth secret\nbrighten bright img img\n"
+                + "load res/pixelImg.ppm img\nq\n").getBytes(StandardCharsets.UTF_8));
+        String[] lines = new String(socket.getInputStream().readAllBytes(),
+                StandardCharsets.UTF_8).split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0], lines[0].startsWith("error brighten "));
+        assertTrue(lines[1], lines[1].startsWith("ok load "));
+        assertTrue(lines[2], lines[2].startsWith("done 2 commands 1 failed "));
+      }
+    }
+  }
+
+  @Test
+  public void testServerRefusesSessionWithoutToken() throws Exception {
+    Files.deleteIfExists(Paths.get("imagesTest/unserved.ppm"));
+    try (ScriptServer server = new ScriptServer("0", 1, "secret")) {
+      InetSocketAddress address = (InetSocketAddress) server.bind();
+      new Thread(server::runApp).start();
+      for (String first : new String[]{"", "auth wrong\n", "auth secret2\n"}) {
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+          socket.getOutputStream().write((first + "load res/pixelImg.ppm img "
+                  + "save imagesTest/unserved.ppm img q\n").getBytes(StandardCharsets.UTF_8));
+          assertEquals("error auth invalid token\n", new String(
+                  socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8));
+        }
+      }
+      assertTrue(!Files.exists(Paths.get("imagesTest/unserved.ppm")));
+    }
+  }
+}
@@ -0,0 +1,180 @@
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import controller.commands.BrightenDarken;
+import controller.commands.Downscale;
+import controller.commands.Drop;
+import controller.commands.Filter;
+import controller.commands.ColorTransformation;
+import controller.commands.Flip;
+import controller.commands.Grayscale;
+import controller.commands.ImageProcessingCommand;
+import controller.commands.Load;
+import controller.gui.EditHistory;
+import model.CompressedRaster;
+import model.ImageProcessorModel;
+import model.RasterImage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for how the model stores images: recycled buffers, dropped and compressed
+ * images, and the edit history of the GUI.
+ */
+public class StoreTest {
+  private ImageProcessorModel model;
+
+  @Test
+  public void testOverwrittenImagesAreRecycled() {
+    //a linear script overwriting one name should reuse the buffers it releases
+    model = Fixtures.loaded("exampleImg.bmp", "img");
+    for (int i = 0; i < 5; i++) {
+      new BrightenDarken(10, "img", "img").run(model);
+      new Flip(ImageProcessorModel.FlipMode.Horizontal, "img", "img").run(model);
+    }
+    assertTrue(model.getPool().getReuses() >= 9);
+    assertTrue(model.getPool().getAllocations() <= 2);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDropRemovesImage() {
+    model = Fixtures.loaded("res/pixelImg.ppm", "img");
+    new Drop("img").run(model);
+    model.findImage("img");
+  }
+
+  @Test
+  public void testCompressedRasterRoundTrip() {
+    model = Fixtures.loaded("exampleImg.bmp", "img");
+    RasterImage image = Fixtures.raster(model, "img");
+    CompressedRaster compressed = CompressedRaster.compress(image);
+
+    assertTrue(compressed.getCompressedBytes() < image.getWidth() * image.getHeight() * 3L);
+    assertEquals(image, compressed.decompress(model.getPool()));
+  }
+
+  @Test
+  public void testIdleImagesAreCompressed() throws InterruptedException {
+    model = Fixtures.loaded("exampleImg.bmp", "original");
+    RasterImage original = model.getPool().copy(Fixtures.raster(model, "original"));
+    model.setIdleCompression(50, 0);
+    Thread.sleep(100);
+    new Load("exampleImg.bmp", "working").run(model);
+    assertEquals(1, model.getCompressionStats().getCompressions());
+    assertTrue(model.getCompressionStats().getRatio() > 1);
+
+    //decompressed when it is used again
+    assertEquals(original, Fixtures.raster(model, "original"));
+    assertEquals(1, model.getCompressionStats().getDecompressions());
+  }
+
+  @Test
+  public void testIdleImagesAreCompressedBetweenCommands() throws InterruptedException {
+    model = Fixtures.loaded("exampleImg.bmp", "original");
+    model.setIdleCompression(20, 0);
+    //no command runs, the sweep finds the image idle on its own
+    for (int i = 0; i < 100 && model.getCompressionStats().getCompressions() == 0; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(1, model.getCompressionStats().getCompressions());
+    model.setIdleCompression(0, 0);
+    new Load("exampleImg.bmp", "working").run(model);
+    Thread.sleep(100);
+    assertEquals(1, model.getCompressionStats().getCompressions());
+  }
+
+  @Test
+  public void testImagesAboveMemoryCapAreCompressed() {
+    model = Fixtures.loaded("exampleImg.bmp", "a");
+    RasterImage image = Fixtures.raster(model, "a");
+    RasterImage original = model.getPool().copy(image);
+    model.setIdleCompression(0, (long) image.getWidth() * image.getHeight() * 3);
+    new BrightenDarken(10, "a", "b").run(model);
+    new BrightenDarken(-10, "b", "c").run(model);
+    //only the last image is left uncompressed
+    assertEquals(2, model.getCompressionStats().getCompressions());
+    assertEquals(original, Fixtures.raster(model, "a"));
+    model.drop("b");
+    assertEquals(3, model.getCompressionStats().getCompressions());
+    try {
+      model.findImage("b");
+      fail("b was dropped while compressed");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+  }
+
+  /**
+   * Copies the pixels of a stored image, so they can be compared after the image is replaced.
+   *
+   * @param name the name of the image.
+   * @return the width, height and packed RGB values of the image.
+   */
+  private int[] pixelsOf(String name) {
+    BufferedImage image = model.saveImage("", name);
+    int[] pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0,
+            image.getWidth());
+    int[] result = Arrays.copyOf(pixels, pixels.length + 2);
+    result[pixels.length] = image.getWidth();
+    result[pixels.length + 1] = image.getHeight();
+    return result;
+  }
+
+  @Test
+  public void testEditHistoryUndoAndRedo() {
+    model = Fixtures.loaded("exampleImg.bmp", "name");
+    EditHistory history = new EditHistory(model, "name", EditHistory.DEFAULT_MAX_BYTES);
+    List<int[]> versions = new ArrayList<>();
+    versions.add(pixelsOf("name"));
+    ImageProcessingCommand[] steps = {new BrightenDarken(60, "name", "name"),
+        new Flip(ImageProcessorModel.FlipMode.Horizontal, "name", "name"),
+        new ColorTransformation(ImageProcessorModel.ColorTransformationsMode.Sepia, "name", "name"),
+        new Filter(ImageProcessorModel.FilterMode.Blur, "name", "name"),
+        new Downscale(300, 400, "name", "name"),
+        new Grayscale(ImageProcessorModel.GrayscaleMode.Red, "name", "name"),
+        new Flip(ImageProcessorModel.FlipMode.Vertical, "name", "name"),
+        new BrightenDarken(-90, "name", "name"),
+        new BrightenDarken(10, "name", "name"),
+        new Flip(ImageProcessorModel.FlipMode.Vertical, "name", "name")};
+    for (ImageProcessingCommand step : steps) {
+      history.apply(step);
+      versions.add(pixelsOf("name"));
+    }
+
+    for (int i = steps.length - 1; i >= 0; i--) {
+      history.undo();
+      assertTrue(Arrays.equals(versions.get(i), pixelsOf("name")));
+    }
+    assertTrue(!history.canUndo());
+    for (int i = 1; i <= steps.length; i++) {
+      history.redo();
+      assertTrue(Arrays.equals(versions.get(i), pixelsOf("name")));
+    }
+    assertTrue(!history.canRedo());
+
+    //applying a step after an undo drops the undone steps
+    history.undo();
+    history.apply(new BrightenDarken(5, "name", "name"));
+    assertTrue(!history.canRedo());
+    history.undo();
+    assertTrue(Arrays.equals(versions.get(steps.length - 1), pixelsOf("name")));
+  }
+
+  @Test
+  public void testEditHistoryCapDropsOldSnapshots() {
+    model = Fixtures.loaded("res/pixelImg.ppm", "name");
+    EditHistory history = new EditHistory(model, "name", 0);
+    for (int i = 0; i < 9; i++) {
+      history.apply(new BrightenDarken(1, "name", "name"));
+    }
+    //only the snapshot taken after the eighth step is left
+    history.undo();
+    assertTrue(!history.canUndo());
+  }
+}